@@ -34,6 +34,7 @@
 
 package ch.niceideas.bigdata.configurations;
 
+import ch.niceideas.bigdata.controlers.TerminalWebSocketHandler;
 import ch.niceideas.bigdata.proxy.*;
 import ch.niceideas.bigdata.services.ConfigurationService;
 import ch.niceideas.bigdata.services.SSHCommandService;
@@ -41,7 +42,6 @@ import ch.niceideas.bigdata.services.ServicesDefinition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
-import org.springframework.boot.web.servlet.ServletListenerRegistrationBean;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.boot.web.servlet.server.ConfigurableServletWebServerFactory;
 import org.springframework.context.annotation.Bean;
@@ -76,6 +76,15 @@ public class ProxyConfiguration implements WebSocketConfigurer {
     @Autowired
     private WebSocketProxyServer webSocketProxyServer;
 
+    @Autowired
+    private TerminalWebSocketHandler terminalWebSocketHandler;
+
+    @Autowired
+    private ProxyResponseCache proxyResponseCache;
+
+    @Autowired
+    private ReplacementPlanCache replacementPlanCache;
+
     @Autowired
     private Environment env;
 
@@ -85,6 +94,12 @@ public class ProxyConfiguration implements WebSocketConfigurer {
     @Value ("${proxy.maxConnections:50}")
     private int maxConnections = 50;
 
+    @Value ("${proxy.maxConnectionsPerRoute:20}")
+    private int maxConnectionsPerRoute = 20;
+
+    @Value ("${proxy.idleConnectionTimeout:60000}")
+    private int idleConnectionTimeout = 60000;
+
     @Value ("${proxy.readTimeout:90000}")
     private int readTimeout = 90000;
 
@@ -94,6 +109,9 @@ public class ProxyConfiguration implements WebSocketConfigurer {
     @Value ("${proxy.connectionRequestTimeout:20000}")
     private int connectionRequestTimeout = 20000;
 
+    @Value ("${proxy.asyncMode:true}")
+    private boolean asyncMode = true;
+
     /**
      * This is to avoid following problem with REST requests passed by grafana
      *
@@ -129,11 +147,16 @@ public class ProxyConfiguration implements WebSocketConfigurer {
                 new ServicesProxyServlet(
                         proxyManagerService,
                         servicesDefinition,
+                        proxyResponseCache,
+                        replacementPlanCache,
                         configuredContextPath,
                         maxConnections,
+                        maxConnectionsPerRoute,
+                        idleConnectionTimeout,
                         readTimeout,
                         connectTimeout,
-                        connectionRequestTimeout),
+                        connectionRequestTimeout,
+                        asyncMode),
                 Arrays.stream(servicesDefinition.listProxiedServices())
                         .map(serviceName -> servicesDefinition.getServiceDefinition(serviceName))
                         .map(service -> "/" + service.getName() + "/*")
@@ -141,6 +164,7 @@ public class ProxyConfiguration implements WebSocketConfigurer {
 
         servletRegistrationBean.addInitParameter(ProxyServlet.P_LOG, env.getProperty("logging_enabled", "false"));
 
+        servletRegistrationBean.setAsyncSupported(true);
         servletRegistrationBean.setName("eskimo-proxy");
         return servletRegistrationBean;
     }
@@ -158,16 +182,6 @@ public class ProxyConfiguration implements WebSocketConfigurer {
         return servletRegistrationBean;
     }
 
-    @Bean
-    @Profile("!no-web-stack")
-    public ServletListenerRegistrationBean<ProxyServlet.ProxySessionListener> sessionListenerWithMetrics() {
-        ServletListenerRegistrationBean<ProxyServlet.ProxySessionListener> listenerRegBean =
-                new ServletListenerRegistrationBean<>();
-
-        listenerRegBean.setListener(new ProxyServlet.ProxySessionListener());
-        return listenerRegBean;
-    }
-
     @Override
     @Profile("!no-web-stack")
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
@@ -176,6 +190,8 @@ public class ProxyConfiguration implements WebSocketConfigurer {
                 .map(service -> ESKIMO_WEB_SOCKET_URL_PREFIX + "/" + service.getName() + "/**")
                 .toArray(String[]::new);
         registry.addHandler(webSocketProxyServer, allWsUrls);
+        registry.addHandler(terminalWebSocketHandler, TerminalWebSocketHandler.TERMINAL_WEB_SOCKET_URL)
+                .addInterceptors(terminalWebSocketHandler);
     }
 
     @Bean
@@ -36,6 +36,7 @@ package ch.niceideas.bigdata.controlers;
 
 import ch.niceideas.common.json.JsonWrapper;
 import ch.niceideas.bigdata.model.MasterStatusWrapper;
+import ch.niceideas.bigdata.model.SystemStatusDelta;
 import ch.niceideas.bigdata.model.SystemStatusWrapper;
 import ch.niceideas.bigdata.security.AuthorizationException;
 import ch.niceideas.bigdata.security.SecurityHelper;
@@ -48,6 +49,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.HashMap;
@@ -108,12 +110,17 @@ public class SystemStatusController {
 
     @GetMapping("/get-status")
     @ResponseBody
-    public String getStatus() {
+    public String getStatus(@RequestParam(name="sinceEpoch", required = false) Long sinceEpoch,
+                            @RequestParam(name="sinceVersion", required = false) Long sinceVersion) {
 
         try {
             setupService.ensureSetupCompleted();
 
-            SystemStatusWrapper nodeServicesStatus = systemService.getStatus();
+            // Clients not passing any version get the full status, as before, clients not passing the epoch their
+            // version comes from get it along with the current epoch
+            SystemStatusDelta statusDelta = sinceVersion == null ? null
+                    : systemService.getStatusDelta(sinceEpoch == null ? 0 : sinceEpoch, sinceVersion);
+            SystemStatusWrapper nodeServicesStatus = statusDelta == null ? systemService.getStatus() : statusDelta.getFullStatus();
 
             JsonWrapper systemStatus = statusService.getStatus();
 
@@ -121,11 +128,17 @@ public class SystemStatusController {
             MasterStatusWrapper masterStatus = masterService.getMasterStatus();
 
             return ReturnStatusHelper.createOKStatus(map -> {
-                if (nodeServicesStatus == null || nodeServicesStatus.isEmpty()) {
+                if (statusDelta != null && !statusDelta.isFull()) {
+                    map.put("nodeServicesStatusDelta", statusDelta.toJSONObject());
+                } else if (nodeServicesStatus == null || nodeServicesStatus.isEmpty()) {
                     map.put("clear", "nodes");
                 } else {
                     map.put("nodeServicesStatus", nodeServicesStatus.getJSONObject());
                 }
+                if (statusDelta != null) {
+                    map.put("statusEpoch", statusDelta.getEpoch());
+                    map.put("statusVersion", statusDelta.getVersion());
+                }
                 if (masterStatus.hasPath(MASTERS)) {
                     map.put(MASTERS, masterStatus.getJSONObject().getJSONObject(MASTERS));
                 }
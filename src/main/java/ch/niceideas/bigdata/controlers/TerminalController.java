@@ -35,6 +35,7 @@
 package ch.niceideas.bigdata.controlers;
 
 import ch.niceideas.bigdata.services.TerminalService;
+import ch.niceideas.bigdata.terminal.ScrollbackImage;
 import ch.niceideas.bigdata.utils.ReturnStatusHelper;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,8 +43,11 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
+import org.json.JSONArray;
+
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
 
 
 
@@ -52,6 +56,9 @@ public class TerminalController {
 
     private static final Logger logger = Logger.getLogger(TerminalController.class);
 
+    private static final int MAX_SCROLLBACK_FETCH_LINES = 1000;
+    private static final int MAX_SCROLLBACK_SEARCH_RESULTS = 1000;
+
     @Autowired
     private TerminalService terminalService;
 
@@ -82,4 +89,39 @@ public class TerminalController {
             return e.getMessage();
         }
     }
+
+    @GetMapping("/terminal-scrollback")
+    @ResponseBody
+    @PreAuthorize("hasAuthority('ADMIN')")
+    public String fetchScrollback(
+            @RequestParam("session") String sessionId,
+            @RequestParam(name = "from", defaultValue = "-1") long fromLine,
+            @RequestParam(name = "count", defaultValue = "100") int count) {
+        try {
+            ScrollbackImage scrollback = terminalService.fetchScrollback(sessionId, fromLine, Math.min(count, MAX_SCROLLBACK_FETCH_LINES));
+            return ReturnStatusHelper.createOKStatus(map -> map.put("scrollback", scrollback.toJSON()));
+
+        } catch (IOException e) {
+            logger.error(e, e);
+            return ReturnStatusHelper.createErrorStatus(e);
+        }
+    }
+
+    @GetMapping("/terminal-search")
+    @ResponseBody
+    @PreAuthorize("hasAuthority('ADMIN')")
+    public String searchScrollback(
+            @RequestParam("session") String sessionId,
+            @RequestParam("pattern") String pattern,
+            @RequestParam(name = "before", defaultValue = "-1") long beforeLine,
+            @RequestParam(name = "max", defaultValue = "100") int maxResults) {
+        try {
+            List<Long> lines = terminalService.searchScrollback(sessionId, pattern, beforeLine, Math.min(maxResults, MAX_SCROLLBACK_SEARCH_RESULTS));
+            return ReturnStatusHelper.createOKStatus(map -> map.put("lines", new JSONArray(lines)));
+
+        } catch (IOException e) {
+            logger.error(e, e);
+            return ReturnStatusHelper.createErrorStatus(e);
+        }
+    }
 }
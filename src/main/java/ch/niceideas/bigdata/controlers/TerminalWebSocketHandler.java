@@ -0,0 +1,257 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.controlers;
+
+import ch.niceideas.bigdata.security.AuthorizationException;
+import ch.niceideas.bigdata.security.Role;
+import ch.niceideas.bigdata.security.SecurityHelper;
+import ch.niceideas.bigdata.services.TerminalService;
+import ch.niceideas.bigdata.terminal.ScreenImage;
+import ch.niceideas.bigdata.terminal.Session;
+import ch.niceideas.common.utils.StringUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a terminal session over a web socket.
+ *
+ * <p>
+ * The screen is pushed to the client as soon as the child process produced output, as a JSON frame built by
+ * {@link ScreenImage#toJSON()} holding only the lines modified since the previous frame, and every text frame
+ * received from the client is written as keystrokes to the child process. Output bursts are coalesced : at most one
+ * rendering is pending per connection, rendering the latest state of the screen when it runs.
+ *
+ * <p>
+ * The terminal session is resolved during the handshake, where the HTTP session scoped {@link TerminalService} is
+ * still available, which lets the client fall back to the AJAX endpoint on the very same terminal session.
+ */
+@Component
+public class TerminalWebSocketHandler extends TextWebSocketHandler implements HandshakeInterceptor {
+
+    private static final Logger logger = Logger.getLogger(TerminalWebSocketHandler.class);
+
+    public static final String TERMINAL_WEB_SOCKET_URL = "/terminal-ws";
+
+    static final String SESSION_ATTRIBUTE = "terminalSession";
+    static final String COLOR_ATTRIBUTE = "terminalColor";
+    static final String STREAM_ATTRIBUTE = "terminalStream";
+
+    @Autowired
+    private TerminalService terminalService;
+
+    private final ExecutorService pushExecutor;
+
+    public TerminalWebSocketHandler() {
+        AtomicInteger counter = new AtomicInteger();
+        pushExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "terminal-push-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /* for tests */
+    TerminalWebSocketHandler(TerminalService terminalService) {
+        this();
+        this.terminalService = terminalService;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pushExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean beforeHandshake(
+            ServerHttpRequest request, ServerHttpResponse response,
+            WebSocketHandler wsHandler, Map<String, Object> attributes) {
+
+        try {
+            if (!SecurityHelper.getuserRoles().contains(Role.ADMIN)) {
+                response.setStatusCode(HttpStatus.FORBIDDEN);
+                return false;
+            }
+        } catch (AuthorizationException e) {
+            logger.debug (e, e);
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+
+        MultiValueMap<String, String> parameters =
+                UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams();
+        String node = parameters.getFirst("node");
+        String sessionId = parameters.getFirst("s");
+        if (StringUtils.isBlank(node) || StringUtils.isBlank(sessionId)) {
+            response.setStatusCode(HttpStatus.BAD_REQUEST);
+            return false;
+        }
+
+        try {
+            Session session = terminalService.openTerminal(
+                    node, sessionId, toInteger(parameters.getFirst("w")), toInteger(parameters.getFirst("h")));
+            if (session == null) {
+                response.setStatusCode(HttpStatus.NOT_FOUND);
+                return false;
+            }
+            attributes.put(SESSION_ATTRIBUTE, session);
+            attributes.put(COLOR_ATTRIBUTE, StringUtils.isNotBlank(parameters.getFirst("c")));
+            return true;
+
+        } catch (IOException | NumberFormatException e) {
+            logger.error (e, e);
+            response.setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
+            return false;
+        }
+    }
+
+    private static Integer toInteger(String value) {
+        return StringUtils.isBlank(value) ? null : Integer.valueOf(value);
+    }
+
+    @Override
+    public void afterHandshake(
+            ServerHttpRequest request, ServerHttpResponse response,
+            WebSocketHandler wsHandler, Exception exception) {
+        // Nothing to do
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession webSocketSession) {
+        Session session = (Session) webSocketSession.getAttributes().get(SESSION_ATTRIBUTE);
+        boolean color = Boolean.TRUE.equals(webSocketSession.getAttributes().get(COLOR_ATTRIBUTE));
+
+        TerminalStream stream = new TerminalStream(webSocketSession, session, color);
+        webSocketSession.getAttributes().put(STREAM_ATTRIBUTE, stream);
+        session.addOutputListener(stream);
+
+        // initial screen
+        stream.run();
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession webSocketSession, TextMessage message) throws IOException {
+        Session session = (Session) webSocketSession.getAttributes().get(SESSION_ATTRIBUTE);
+        session.handleKeys(message.getPayload());
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession webSocketSession, Throwable exception) {
+        logger.debug (exception, exception);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession webSocketSession, CloseStatus status) {
+        TerminalStream stream = (TerminalStream) webSocketSession.getAttributes().remove(STREAM_ATTRIBUTE);
+        if (stream != null) {
+            stream.session.removeOutputListener(stream);
+        }
+    }
+
+    /**
+     * Output listener registered on the terminal session, scheduling the push of the screen to the client.
+     */
+    class TerminalStream implements Runnable {
+
+        private final WebSocketSession webSocketSession;
+        private final Session session;
+        private final boolean color;
+
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+
+        private int timestamp = 0;
+
+        TerminalStream(WebSocketSession webSocketSession, Session session, boolean color) {
+            this.webSocketSession = webSocketSession;
+            this.session = session;
+            this.color = color;
+        }
+
+        @Override
+        public void run() {
+            if (pending.compareAndSet(false, true)) {
+                try {
+                    pushExecutor.execute(this::push);
+                } catch (RejectedExecutionException e) {
+                    logger.debug (e, e);
+                    pending.set(false);
+                }
+            }
+        }
+
+        synchronized void push() {
+            // output produced from now on requires another rendering
+            pending.set(false);
+            if (!webSocketSession.isOpen()) {
+                return;
+            }
+            try {
+                boolean ended = session.hasEnded();
+                // the final screen is always pushed since it only differs by its style from the previous one
+                ScreenImage image = session.renderLines(color, ended ? 0 : timestamp);
+                if (!image.isUnchanged()) {
+                    timestamp = image.timestamp;
+                    webSocketSession.sendMessage(new TextMessage(image.toJSON()));
+                }
+                if (ended) {
+                    webSocketSession.close(CloseStatus.NORMAL);
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.warn ("Failed to push terminal screen - " + e.getMessage());
+                logger.debug (e, e);
+            }
+        }
+    }
+}
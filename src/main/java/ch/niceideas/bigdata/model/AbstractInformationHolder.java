@@ -35,30 +35,30 @@
 package ch.niceideas.bigdata.model;
 
 import ch.niceideas.common.utils.Pair;
-import ch.niceideas.common.utils.UnboundList;
+import ch.niceideas.common.utils.SequencedRingBuffer;
 
-import java.util.Collections;
 import java.util.List;
 
 public abstract class AbstractInformationHolder<T, R> {
 
-    protected final List<T> elements = Collections.synchronizedList(new UnboundList<>(getMaxHistorySize()));
+    protected final SequencedRingBuffer<T> elements = new SequencedRingBuffer<>(getMaxHistorySize());
 
     public Pair<Integer, R> fetchElements(int lastLine) {
-        if (lastLine > elements.size()) { // this means that a call to clear has been performed
+        if (lastLine > elements.getEndSequence()) { // this means that a call to clear has been performed
             // need to refetch everything from scratch !
             lastLine = 0;
         }
-        return new Pair<>(elements.size(), buildFetchedData(lastLine));
+        SequencedRingBuffer.Slice<T> slice = elements.slice(lastLine);
+        return new Pair<>((int) slice.getEndSequence(), buildFetchedData(slice.getElements()));
     }
 
     protected abstract int getMaxHistorySize();
 
     public final List<T> getSubList(int lastLine) {
-        return elements.subList(lastLine, elements.size());
+        return elements.slice(lastLine).getElements();
     }
 
-    protected abstract R buildFetchedData(int lastLine);
+    protected abstract R buildFetchedData(List<T> newElements);
 
     protected void addElement (T element) {
         elements.add(element);
@@ -73,6 +73,6 @@ public abstract class AbstractInformationHolder<T, R> {
     }
 
     public Integer getLastElement() {
-        return elements.size();
+        return (int) elements.getEndSequence();
     }
 }
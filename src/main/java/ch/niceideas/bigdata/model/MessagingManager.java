@@ -38,8 +38,8 @@ import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 @Component
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
@@ -53,9 +53,9 @@ public class MessagingManager extends AbstractInformationHolder<String, String>
     }
 
     @Override
-    protected String buildFetchedData(int lastLine) {
+    protected String buildFetchedData(List<String> newLines) {
         StringBuilder ret = new StringBuilder();
-        for (String line : new ArrayList<>(getSubList(lastLine))) { // need to copy the list to avoid ConcurrentModifications Exception
+        for (String line : newLines) {
             ret.append (line).append ("\n");
         }
         return ret.toString();
@@ -56,6 +56,11 @@ public class SSHConnection implements Closeable {
         this.readTimeout = readTimeout;
     }
 
+    protected SSHConnection(SSHConnection other) {
+        under = other.under;
+        readTimeout = other.readTimeout;
+    }
+
     public Connection getUnder() {
         return under;
     }
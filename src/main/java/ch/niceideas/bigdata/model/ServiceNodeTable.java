@@ -0,0 +1,124 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.model;
+
+import ch.niceideas.common.utils.Pair;
+import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.types.Service;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Typed index of the service / node flags held by status wrappers, by service and by node.
+ * <p>
+ * The wrappers keep their flags as flat JSON keys such as <code>service_&lt;service&gt;_&lt;node&gt;</code>. This table
+ * parses these keys once so that lookups by service or by node don't require scanning and parsing every key anymore.
+ * Flag values are not held here, they remain in the JSON form.
+ */
+public class ServiceNodeTable {
+
+    private static final Logger logger = Logger.getLogger(ServiceNodeTable.class);
+
+    private final Map<Service, Map<Node, String>> flagsByService = new HashMap<>();
+    private final Map<Node, Map<Service, String>> flagsByNode = new LinkedHashMap<>();
+
+    private final int sourceKeyCount;
+
+    /**
+     * @param keys all the root keys of the source status, in the order lookups such as
+     *             {@link #getFirstNode(Service)} should honor
+     * @param flagParser returns the service and node a key is a flag for, or null if the key is not such a flag
+     */
+    public ServiceNodeTable(Collection<String> keys, Function<String, Pair<Service, Node>> flagParser) {
+        this.sourceKeyCount = keys.size();
+        for (String key : keys) {
+            Pair<Service, Node> serviceNode;
+            try {
+                serviceNode = flagParser.apply(key);
+            } catch (IllegalArgumentException e) {
+                logger.debug ("Ignoring unparseable flag " + key + " : " + e.getMessage());
+                continue;
+            }
+            if (serviceNode != null && serviceNode.getKey() != null && serviceNode.getValue() != null) {
+                flagsByService.computeIfAbsent(serviceNode.getKey(), service -> new LinkedHashMap<>())
+                        .put(serviceNode.getValue(), key);
+                flagsByNode.computeIfAbsent(serviceNode.getValue(), node -> new LinkedHashMap<>())
+                        .put(serviceNode.getKey(), key);
+            }
+        }
+    }
+
+    int getSourceKeyCount() {
+        return sourceKeyCount;
+    }
+
+    public List<Node> getNodes(Service service) {
+        Map<Node, String> nodeFlags = flagsByService.get(service);
+        if (nodeFlags == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(nodeFlags.keySet());
+    }
+
+    public Node getFirstNode(Service service) {
+        Map<Node, String> nodeFlags = flagsByService.get(service);
+        if (nodeFlags == null || nodeFlags.isEmpty()) {
+            return null;
+        }
+        return nodeFlags.keySet().iterator().next();
+    }
+
+    public Set<Node> getAllNodes() {
+        return new HashSet<>(flagsByNode.keySet());
+    }
+
+    public Set<Service> getServices(Node node) {
+        Map<Service, String> serviceFlags = flagsByNode.get(node);
+        if (serviceFlags == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<>(serviceFlags.keySet());
+    }
+
+    public String getFlag(Service service, Node node) {
+        Map<Node, String> nodeFlags = flagsByService.get(service);
+        if (nodeFlags == null) {
+            return null;
+        }
+        return nodeFlags.get(node);
+    }
+}
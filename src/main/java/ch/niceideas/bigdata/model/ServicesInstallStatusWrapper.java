@@ -58,6 +58,8 @@ public class ServicesInstallStatusWrapper extends JsonWrapper implements Seriali
     public static final String RESTART_FLAG = "restart";
     public static final String OK_FLAG = "OK";
 
+    private transient ServiceNodeTable flagsTable = null;
+
     public ServicesInstallStatusWrapper(File statusFile) throws FileException {
         super(FileUtils.readFile(statusFile));
     }
@@ -83,9 +85,31 @@ public class ServicesInstallStatusWrapper extends JsonWrapper implements Seriali
         }
     }
 
+    ServiceNodeTable getFlagsTable() {
+        ServiceNodeTable table = flagsTable;
+        // rebuilding on key count change as well since the underlying JSONObject is exposed
+        if (table == null || table.getSourceKeyCount() != getJSONObject().length()) {
+            table = new ServiceNodeTable(getRootKeys(), key -> key.contains(INSTALLED_ON_IP_FLAG) ? parseInstallStatusFlag(key) : null);
+            flagsTable = table;
+        }
+        return table;
+    }
+
+    @Override
+    public void setValueForPath(String path, Object value) {
+        super.setValueForPath(path, value);
+        flagsTable = null;
+    }
+
+    @Override
+    public void removeRootKey(String rootKey) {
+        super.removeRootKey(rootKey);
+        flagsTable = null;
+    }
+
     public boolean isServiceInstalledAnywhere(Service service) {
         try {
-            for (Node node : getNodesAndKubeFlags()) {
+            for (Node node : getFlagsTable().getNodes(service)) {
                 if (OK_FLAG.equals(getValueForPath(service + INSTALLED_ON_IP_FLAG + node.getName()))
                         || RESTART_FLAG.equals(getValueForPath(service + INSTALLED_ON_IP_FLAG + node.getName()))) {
                     return true;
@@ -131,11 +155,7 @@ public class ServicesInstallStatusWrapper extends JsonWrapper implements Seriali
     }
 
     public Set<Node> getNodesAndKubeFlags() {
-        return getRootKeys().stream()
-                .filter(key -> key.contains(INSTALLED_ON_IP_FLAG))
-                .map(key -> key.substring(key.indexOf(INSTALLED_ON_IP_FLAG) + INSTALLED_ON_IP_FLAG.length()))
-                .map(Node::fromName)
-                .collect(Collectors.toSet());
+        return getFlagsTable().getAllNodes();
     }
 
     public static Pair<Service, Node> parseInstallStatusFlag (String serviceInstallStatusFlag) {
@@ -173,12 +193,9 @@ public class ServicesInstallStatusWrapper extends JsonWrapper implements Seriali
     }
 
     public Set<Node> getNodes() {
-        return getRootKeys().stream()
-                .filter(key -> key.contains(INSTALLED_ON_IP_FLAG))
-                .map(key -> key.substring(key.indexOf(INSTALLED_ON_IP_FLAG) + INSTALLED_ON_IP_FLAG.length()))
-                .filter(key -> !key.equals(Node.KUBERNETES_NODE.getName()))
-                .map(Node::fromName)
-                .collect(Collectors.toSet());
+        Set<Node> nodes = getFlagsTable().getAllNodes();
+        nodes.remove(Node.KUBERNETES_NODE);
+        return nodes;
     }
 
     public Node getFirstNode(ServiceDefinition serviceDef) {
@@ -186,15 +203,6 @@ public class ServicesInstallStatusWrapper extends JsonWrapper implements Seriali
     }
 
     public Node getFirstNode(Service service) {
-        List<Node> allNodes = getRootKeys().stream()
-                .filter(key -> key.contains(INSTALLED_ON_IP_FLAG))
-                .filter(key -> key.startsWith(service + "_"))
-                .map(key -> key.substring(key.indexOf(INSTALLED_ON_IP_FLAG) + INSTALLED_ON_IP_FLAG.length()))
-                .map(Node::fromName)
-                .collect(Collectors.toList());
-        if (allNodes.isEmpty()) {
-            return null;
-        }
-        return allNodes.get(0);
+        return getFlagsTable().getFirstNode(service);
     }
 }
\ No newline at end of file
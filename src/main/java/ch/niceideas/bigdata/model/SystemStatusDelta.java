@@ -0,0 +1,85 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.model;
+
+import lombok.Getter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * The changes that happened on the system status since a given version, or the full status when these changes
+ * cannot be computed (unknown or too old version).
+ */
+@Getter
+public class SystemStatusDelta {
+
+    private final long epoch;
+    private final long version;
+    private final boolean full;
+    private final SystemStatusWrapper fullStatus;
+    private final Map<String, Object> changed;
+    private final Set<String> removed;
+
+    public static SystemStatusDelta full(long epoch, long version, SystemStatusWrapper fullStatus) {
+        return new SystemStatusDelta(epoch, version, true, fullStatus, Collections.emptyMap(), Collections.emptySet());
+    }
+
+    public static SystemStatusDelta delta(long epoch, long version, Map<String, Object> changed, Set<String> removed) {
+        return new SystemStatusDelta(epoch, version, false, null,
+                Collections.unmodifiableMap(new TreeMap<>(changed)), Collections.unmodifiableSet(new TreeSet<>(removed)));
+    }
+
+    private SystemStatusDelta(long epoch, long version, boolean full, SystemStatusWrapper fullStatus, Map<String, Object> changed, Set<String> removed) {
+        this.epoch = epoch;
+        this.version = version;
+        this.full = full;
+        this.fullStatus = fullStatus;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    public boolean isEmpty() {
+        return !full && changed.isEmpty() && removed.isEmpty();
+    }
+
+    public JSONObject toJSONObject() {
+        return new JSONObject(new HashMap<>() {{
+            put("changed", new JSONObject(changed));
+            put("removed", new JSONArray(removed));
+        }});
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.model;
+
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Keeps the last published system status along with a monotonic version number and the per-key changes of the last
+ * versions, so that clients knowing a recent version can be sent only what changed since then.
+ * <br>
+ * Versions restart with every instance, they are only meaningful along with the epoch of the instance that issued
+ * them.
+ */
+public class SystemStatusHistory {
+
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+
+    private final int historySize;
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final Deque<Change> changes = new ArrayDeque<>();
+
+    private SystemStatusWrapper current = null;
+    private long version = 0;
+
+    public SystemStatusHistory() {
+        this (DEFAULT_HISTORY_SIZE);
+    }
+
+    public SystemStatusHistory(int historySize) {
+        this.historySize = historySize;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Record a new status. The version is only increased if something actually changed.
+     *
+     * @return the version of the recorded status
+     */
+    public synchronized long update(SystemStatusWrapper status) {
+
+        JSONObject previousJson = current != null ? current.getJSONObject() : new JSONObject();
+        JSONObject newJson = status.getJSONObject();
+
+        Map<String, Object> changed = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+
+        for (String key : newJson.keySet()) {
+            Object value = newJson.get(key);
+            if (!previousJson.has(key) || !previousJson.get(key).equals(value)) {
+                changed.put(key, value);
+            }
+        }
+        for (String key : previousJson.keySet()) {
+            if (!newJson.has(key)) {
+                removed.add(key);
+            }
+        }
+
+        current = status;
+
+        if (version == 0 || !changed.isEmpty() || !removed.isEmpty()) {
+            version++;
+            changes.addLast(new Change(version, changed, removed));
+            while (changes.size() > historySize) {
+                changes.removeFirst();
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @return the changes that happened after the given version or the full status if these are not known anymore or
+     * if the version was issued by another instance
+     */
+    public synchronized SystemStatusDelta getDeltaSince(long sinceEpoch, long sinceVersion) {
+
+        if (current == null) {
+            return null;
+        }
+
+        if (sinceEpoch != epoch
+                || sinceVersion <= 0 || sinceVersion > version || sinceVersion < changes.getFirst().version - 1) {
+            return SystemStatusDelta.full(epoch, version, current);
+        }
+
+        Map<String, Object> changed = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        for (Change change : changes) {
+            if (change.version > sinceVersion) {
+                change.changed.forEach((key, value) -> {
+                    changed.put(key, value);
+                    removed.remove(key);
+                });
+                change.removed.forEach(key -> {
+                    changed.remove(key);
+                    removed.add(key);
+                });
+            }
+        }
+        return SystemStatusDelta.delta(epoch, version, changed, removed);
+    }
+
+    private static class Change {
+
+        private final long version;
+        private final Map<String, Object> changed;
+        private final Set<String> removed;
+
+        private Change(long version, Map<String, Object> changed, Set<String> removed) {
+            this.version = version;
+            this.changed = changed;
+            this.removed = removed;
+        }
+    }
+}
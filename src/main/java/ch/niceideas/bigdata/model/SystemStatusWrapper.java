@@ -35,6 +35,7 @@
 package ch.niceideas.bigdata.model;
 
 import ch.niceideas.common.json.JsonWrapper;
+import ch.niceideas.common.utils.Pair;
 import ch.niceideas.common.utils.StringUtils;
 import ch.niceideas.bigdata.model.service.ServiceDefinition;
 import ch.niceideas.bigdata.types.Node;
@@ -44,11 +45,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.Serializable;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class SystemStatusWrapper extends JsonWrapper implements Serializable {
 
@@ -56,6 +56,10 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
 
     public static final String SERVICE_PREFIX = "service_";
     public static final String NODE_ALIVE_FLAG = "node_alive_";
+    /** Node alive flag value of a node not probed yet, neither alive nor dead */
+    public static final String NODE_PROBE_PENDING = "PENDING";
+
+    private transient ServiceNodeTable flagsTable = null;
 
     public static SystemStatusWrapper empty() {
         return new SystemStatusWrapper("{}");
@@ -94,6 +98,35 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
         return SERVICE_PREFIX + service + "_" + node.getName();
     }
 
+    static Pair<Service, Node> parseStatusFlag (String key) {
+        if (key.startsWith(SERVICE_PREFIX) || key.startsWith(NODE_ALIVE_FLAG)) {
+            return new Pair<>(getService(key), getNode(key));
+        }
+        return null;
+    }
+
+    ServiceNodeTable getFlagsTable() {
+        ServiceNodeTable table = flagsTable;
+        // rebuilding on key count change as well since the underlying JSONObject is exposed
+        if (table == null || table.getSourceKeyCount() != getJSONObject().length()) {
+            table = new ServiceNodeTable(getRootKeys(), SystemStatusWrapper::parseStatusFlag);
+            flagsTable = table;
+        }
+        return table;
+    }
+
+    @Override
+    public void setValueForPath(String path, Object value) {
+        super.setValueForPath(path, value);
+        flagsTable = null;
+    }
+
+    @Override
+    public void removeRootKey(String rootKey) {
+        super.removeRootKey(rootKey);
+        flagsTable = null;
+    }
+
     public Boolean isNodeAlive(Node node) {
         String nodeAliveFlag;
         try {
@@ -103,7 +136,7 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
             // NOSONAR
             return null;
         }
-        if (StringUtils.isBlank(nodeAliveFlag)) {
+        if (StringUtils.isBlank(nodeAliveFlag) || nodeAliveFlag.equals(NODE_PROBE_PENDING)) {
             // NOSONAR
             return null;
         }
@@ -122,11 +155,7 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
     }
 
     public List<Node> getAllNodesForServiceRegardlessStatus (Service service) {
-        return getRootKeys().stream()
-                .filter(key -> key.contains(SERVICE_PREFIX + service + "_"))
-                .map(SystemStatusWrapper::getNode)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        return getFlagsTable().getNodes(service);
     }
 
     public boolean isServiceOKOnNode(ServiceDefinition serviceDef, Node node) {
@@ -148,11 +177,7 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
     }
 
     public Set<Node> getNodes() {
-        return getRootKeys().stream()
-                .filter(key -> key.contains(NODE_ALIVE_FLAG))
-                .map(key -> key.substring(key.indexOf(NODE_ALIVE_FLAG) + NODE_ALIVE_FLAG.length()))
-                .map(Node::fromName)
-                .collect(Collectors.toSet());
+        return new HashSet<>(getFlagsTable().getNodes(Service.NODE_ALIVE));
     }
 
     public Node getFirstNode(ServiceDefinition serviceDef) {
@@ -160,10 +185,6 @@ public class SystemStatusWrapper extends JsonWrapper implements Serializable {
     }
 
     public Node getFirstNode(Service service) {
-        return getRootKeys().stream()
-                .filter(key -> key.startsWith(SERVICE_PREFIX + service + "_"))
-                .map(key -> key.substring( (SERVICE_PREFIX + service + "_").length()))
-                .map(Node::fromName)
-                .findFirst().orElse(null);
+        return getFlagsTable().getFirstNode(service);
     }
 }
\ No newline at end of file
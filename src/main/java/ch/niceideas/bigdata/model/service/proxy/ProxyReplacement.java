@@ -53,24 +53,17 @@ public class ProxyReplacement {
     private final String urlPattern;
 
     public String performReplacement(String input, String requestURI, ReplacementContext context) {
-
-        if (type.equals(ProxyReplacementType.PLAIN)) {
-
-            if (StringUtils.isBlank(urlPattern) || requestURI.contains(urlPattern)) {
-
-                String effSource = context.getResolved(source);
-                String effTarget = context.getResolved(target);
-
-                return input.replace(effSource, effTarget);
-            }
-
-        } else {
-            throw new UnsupportedOperationException("Not Implemented yet. Support of " + type);
+        if (appliesTo(requestURI)) {
+            return input.replace(context.getResolved(source), context.getResolved(target));
         }
-
         return input;
     }
 
-
+    public boolean appliesTo(String requestURI) {
+        if (!type.equals(ProxyReplacementType.PLAIN)) {
+            throw new UnsupportedOperationException("Not Implemented yet. Support of " + type);
+        }
+        return StringUtils.isBlank(urlPattern) || requestURI.contains(urlPattern);
+    }
 
 }
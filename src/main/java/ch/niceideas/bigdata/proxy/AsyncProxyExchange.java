@@ -0,0 +1,255 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.*;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.classic.ContentInputStream;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One proxied request processed in async mode.
+ * <p>
+ * The container thread is released as soon as the request is sent upstream. When the response head arrives, the
+ * response is handed over to a worker thread which runs the usual (blocking) response handling, reading the body
+ * from a bounded buffer the I/O reactor fills as the servlet client consumes it.
+ */
+class AsyncProxyExchange implements AsyncResponseConsumer<Void>, AsyncListener {
+
+    private static final Logger logger = Logger.getLogger(AsyncProxyExchange.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    interface ResponseHandler {
+        void handle(ClassicHttpResponse response) throws IOException;
+    }
+
+    private final AsyncContext asyncContext;
+    private final Executor executor;
+    private final ResponseHandler responseHandler;
+    private final String description;
+
+    private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+    private final AtomicBoolean responseReceived = new AtomicBoolean(false);
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    private volatile Future<Void> future;
+    private volatile FutureCallback<Void> bodyResultCallback;
+
+    AsyncProxyExchange(AsyncContext asyncContext, Executor executor, ResponseHandler responseHandler, String description) {
+        this.asyncContext = asyncContext;
+        this.executor = executor;
+        this.responseHandler = responseHandler;
+        this.description = description;
+    }
+
+    void execute(ProxyConnectionPool connectionPool, HttpRequest request, AsyncEntityProducer entityProducer) {
+        asyncContext.addListener(this);
+        HttpHost target = new HttpHost(request.getScheme(), request.getAuthority());
+        future = connectionPool.executeAsync(target, new BasicRequestProducer(request, entityProducer), this, new FutureCallback<>() {
+            @Override
+            public void completed(Void result) {
+                // response is completed by the worker
+            }
+
+            @Override
+            public void failed(Exception e) {
+                fail(e);
+            }
+
+            @Override
+            public void cancelled() {
+                fail(new IOException("Upstream request cancelled"));
+            }
+        });
+    }
+
+    @Override
+    public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                FutureCallback<Void> resultCallback) {
+        responseReceived.set(true);
+
+        BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(response.getCode(), response.getReasonPhrase());
+        classicResponse.setHeaders(response.getHeaders());
+        if (entityDetails != null) {
+            // completed on stream end
+            bodyResultCallback = resultCallback;
+            classicResponse.setEntity(new InputStreamEntity(
+                    new ContentInputStream(buffer),
+                    entityDetails.getContentLength(),
+                    entityDetails.getContentType() != null ? ContentType.parse(entityDetails.getContentType()) : null,
+                    entityDetails.getContentEncoding()));
+        } else {
+            buffer.markEndStream();
+            resultCallback.completed(null);
+        }
+
+        executor.execute(() -> {
+            try {
+                responseHandler.handle(classicResponse);
+                EntityUtils.consumeQuietly(classicResponse.getEntity());
+            } catch (Exception e) {
+                logger.error (description + " - got " + e.getClass() + ":" + e.getMessage());
+                logger.debug (e, e);
+                cancel();
+                sendError();
+            } finally {
+                complete();
+            }
+        });
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context) {
+        // 1xx responses are not relayed
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+        buffer.updateCapacity(capacityChannel);
+    }
+
+    @Override
+    public void consume(ByteBuffer src) {
+        buffer.fill(src);
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) {
+        buffer.markEndStream();
+        FutureCallback<Void> resultCallback = bodyResultCallback;
+        if (resultCallback != null) {
+            resultCallback.completed(null);
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        fail(cause);
+    }
+
+    @Override
+    public void releaseResources() {
+        // the buffer is left to the worker for it to read what has been received
+    }
+
+    private void fail(Exception cause) {
+        buffer.abort();
+        if (!responseReceived.get() && failed.compareAndSet(false, true)) {
+            // no worker is running yet
+            logger.error (description + " - got " + cause.getClass() + ":" + cause.getMessage());
+            sendError();
+            complete();
+        }
+    }
+
+    private void cancel() {
+        buffer.abort();
+        Future<Void> upstream = future;
+        if (upstream != null) {
+            upstream.cancel(true);
+        }
+    }
+
+    private void sendError() {
+        try {
+            HttpServletResponse servletResponse = (HttpServletResponse) asyncContext.getResponse();
+            if (!servletResponse.isCommitted()) {
+                servletResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        } catch (IOException | IllegalStateException e) {
+            logger.debug (e, e);
+        }
+    }
+
+    private void complete() {
+        if (completed.compareAndSet(false, true)) {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // async context already completed by the container (timeout or error)
+                logger.debug (e, e);
+            }
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        logger.warn (description + " - timed out");
+        cancel();
+        sendError();
+        complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        logger.warn (description + " - " + event.getThrowable());
+        cancel();
+        complete();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        // nothing to do
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // nothing to do
+    }
+}
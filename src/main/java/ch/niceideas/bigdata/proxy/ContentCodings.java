@@ -0,0 +1,166 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.common.utils.StringUtils;
+import org.apache.hc.client5.http.entity.DeflateInputStream;
+import org.apache.hc.core5.http.HttpHeaders;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The content codings the services proxy can decode in order to rewrite a body. Service responses using any other
+ * coding (such as br) can only be relayed untouched, which is why the proxy doesn't ask services for them.
+ */
+final class ContentCodings {
+
+    static final String GZIP = "gzip";
+    static final String X_GZIP = "x-gzip";
+    static final String DEFLATE = "deflate";
+    static final String IDENTITY = "identity";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentCodings() {}
+
+    static boolean isIdentity(String contentEncoding) {
+        return StringUtils.isBlank(contentEncoding) || normalize(contentEncoding).equals(IDENTITY);
+    }
+
+    static boolean isDecodable(String contentEncoding) {
+        if (isIdentity(contentEncoding)) {
+            return true;
+        }
+        String coding = normalize(contentEncoding);
+        return coding.equals(GZIP) || coding.equals(X_GZIP) || coding.equals(DEFLATE);
+    }
+
+    static boolean isSame(String contentEncoding, String other) {
+        if (isIdentity(contentEncoding) || isIdentity(other)) {
+            return isIdentity(contentEncoding) && isIdentity(other);
+        }
+        return normalize(contentEncoding).equals(normalize(other));
+    }
+
+    /**
+     * @throws IllegalArgumentException when the content coding isn't {@link #isDecodable decodable}
+     */
+    static InputStream decode(InputStream content, String contentEncoding) throws IOException {
+        if (isIdentity(contentEncoding)) {
+            return content;
+        }
+        switch (normalize(contentEncoding)) {
+            case GZIP:
+            case X_GZIP:
+                return new GZIPInputStream(content, BUFFER_SIZE);
+            case DEFLATE:
+                return new DeflateInputStream(content);
+            default:
+                throw new IllegalArgumentException("Unsupported content coding " + contentEncoding);
+        }
+    }
+
+    /**
+     * Keeps the codings of the client Accept-Encoding header the proxy can decode, or null if none remains.
+     */
+    static String filterAcceptEncoding(String acceptEncoding) {
+        StringJoiner filtered = new StringJoiner(", ");
+        for (String token : acceptEncoding.split(",")) {
+            int paramsIndex = token.indexOf(';');
+            String coding = (paramsIndex > -1 ? token.substring(0, paramsIndex) : token);
+            if (StringUtils.isNotBlank(coding) && !normalize(coding).equals("*") && isDecodable(coding)) {
+                filtered.add(token.trim());
+            }
+        }
+        return filtered.length() > 0 ? filtered.toString() : null;
+    }
+
+    static boolean acceptsGzip(HttpServletRequest servletRequest) {
+        return accepts(servletRequest, GZIP);
+    }
+
+    /**
+     * @return true when the client Accept-Encoding header allows the given content coding. Identity is always
+     * accepted, short of a client refusing any coding it doesn't list, which hardly ever happens.
+     */
+    static boolean accepts(HttpServletRequest servletRequest, String contentEncoding) {
+        if (isIdentity(contentEncoding)) {
+            return true;
+        }
+        String acceptEncoding = servletRequest.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+        String wanted = normalize(contentEncoding);
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = normalize(parts[0]);
+            if ((coding.equals(wanted) || coding.equals("*") || (isGzip(coding) && isGzip(wanted)))
+                    && !isRefused(parts)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isGzip(String coding) {
+        return coding.equals(GZIP) || coding.equals(X_GZIP);
+    }
+
+    private static boolean isRefused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String coding) {
+        return coding.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.utils.OperationDeadlineTimer;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.ComplexFuture;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.impl.bootstrap.AsyncRequesterBootstrap;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncRequester;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.nio.AsyncClientEndpoint;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The connection pool and HttpClient shared by all requests going through a proxy servlet, whatever the HTTP session
+ * they come from. Connections are pooled per route, i.e. per local tunnel port, and idle ones are evicted
+ * periodically.
+ * <p>
+ * The asynchronous requester used by the async proxy mode has its own pool with the same limits. It is only
+ * created on first use. It comes from httpcore5 since the httpcore5 version resolved along with Spring Boot doesn't
+ * support the httpclient5 async client.
+ * <p>
+ * The httpcore5 requester applies a single timeout to the wait for a pooled connection, to the connect and to the
+ * socket of new connections. The latter has to be the read timeout, the wait for a connection and the connect are
+ * hence bounded together by a deadline of the connection request timeout plus the connect timeout.
+ */
+public class ProxyConnectionPool implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ProxyConnectionPool.class);
+
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final SocketConfig socketConfig;
+    private final Timeout connectTimeout;
+    private final Timeout connectionRequestTimeout;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService evictor;
+
+    private HttpAsyncRequester asyncRequester;
+
+    private volatile Runnable statsReporter;
+
+    public ProxyConnectionPool(
+            int maxConnections,
+            int maxConnectionsPerRoute,
+            long idleConnectionTimeout,
+            ConnectionConfig connectionConfig,
+            SocketConfig socketConfig,
+            RequestConfig requestConfig,
+            boolean useSystemProperties) {
+
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.socketConfig = socketConfig;
+        this.connectTimeout = connectionConfig != null ? connectionConfig.getConnectTimeout() : null;
+        this.connectionRequestTimeout = requestConfig != null ? requestConfig.getConnectionRequestTimeout() : null;
+
+        connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setDefaultSocketConfig(socketConfig)
+                .setDefaultConnectionConfig(connectionConfig)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setMaxConnTotal(maxConnections)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.LAX)
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .build();
+
+        HttpClientBuilder clientBuilder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                // bodies are relayed as sent by the target, decoding them is left to whoever needs to rewrite them
+                .disableContentCompression();
+
+        if (useSystemProperties) {
+            clientBuilder.useSystemProperties();
+        }
+
+        httpClient = clientBuilder.build();
+
+        if (idleConnectionTimeout > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "proxy-connection-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictor.scheduleWithFixedDelay(
+                    () -> evictIdleConnections(idleConnectionTimeout),
+                    idleConnectionTimeout, idleConnectionTimeout, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Called after every eviction run, for the owner of the pool to report statistics in its own terms.
+     */
+    public void setStatsReporter(Runnable statsReporter) {
+        this.statsReporter = statsReporter;
+    }
+
+    public <T> Future<T> executeAsync(HttpHost target, AsyncRequestProducer requestProducer,
+                                      AsyncResponseConsumer<T> responseConsumer, FutureCallback<T> callback) {
+
+        ComplexFuture<T> future = new ComplexFuture<>(callback);
+
+        // the connect first, the exchange then
+        AtomicReference<Future<?>> upstream = new AtomicReference<>();
+        future.setDependency(() -> {
+            Future<?> current = upstream.get();
+            return current == null || current.cancel(true);
+        });
+
+        long connectLimit = getConnectLimit();
+        OperationDeadlineTimer.Deadline deadline = connectLimit > 0 ?
+                OperationDeadlineTimer.shared().schedule(() -> {
+                    if (future.failed(new ConnectionRequestTimeoutException(
+                            "No connection to " + target + " obtained within " + connectLimit + " ms"))) {
+                        Future<?> connect = upstream.get();
+                        if (connect != null) {
+                            connect.cancel(true);
+                        }
+                    }
+                }, connectLimit) :
+                null;
+
+        // the timeout given to connect becomes the socket timeout of a new connection
+        Timeout socketTimeout = socketConfig != null ? socketConfig.getSoTimeout() : Timeout.DISABLED;
+        Future<AsyncClientEndpoint> connect = getAsyncRequester().connect(target, socketTimeout, null, new FutureCallback<>() {
+            @Override
+            public void completed(AsyncClientEndpoint endpoint) {
+                if ((deadline != null && !deadline.cancel()) || future.isDone()) {
+                    // timed out or cancelled meanwhile
+                    endpoint.releaseAndReuse();
+                    return;
+                }
+                Future<T> exchange = endpoint.execute(requestProducer, responseConsumer, new FutureCallback<T>() {
+                    @Override
+                    public void completed(T result) {
+                        endpoint.releaseAndReuse();
+                        future.completed(result);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        endpoint.releaseAndDiscard();
+                        future.failed(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        endpoint.releaseAndDiscard();
+                        future.cancel();
+                    }
+                });
+                upstream.set(exchange);
+                if (future.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (deadline != null) {
+                    deadline.cancel();
+                }
+                future.failed(e);
+            }
+
+            @Override
+            public void cancelled() {
+                if (deadline != null) {
+                    deadline.cancel();
+                }
+                future.cancel();
+            }
+        });
+        // unless already connected
+        upstream.compareAndSet(null, connect);
+        return future;
+    }
+
+    /* Unlimited unless both the wait for a pooled connection and the connect are */
+    long getConnectLimit() {
+        if (connectTimeout == null || connectTimeout.isDisabled()
+                || connectionRequestTimeout == null || connectionRequestTimeout.isDisabled()) {
+            return -1;
+        }
+        return connectionRequestTimeout.toMilliseconds() + connectTimeout.toMilliseconds();
+    }
+
+    synchronized HttpAsyncRequester getAsyncRequester() {
+        if (asyncRequester == null) {
+            IOReactorConfig.Builder reactorConfig = IOReactorConfig.custom();
+            if (socketConfig != null) {
+                reactorConfig.setSoTimeout(socketConfig.getSoTimeout());
+            }
+
+            asyncRequester = AsyncRequesterBootstrap.bootstrap()
+                    .setIOReactorConfig(reactorConfig.build())
+                    .setMaxTotal(maxConnections)
+                    .setDefaultMaxPerRoute(maxConnectionsPerRoute)
+                    .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.LAX)
+                    .setPoolReusePolicy(PoolReusePolicy.LIFO)
+                    .create();
+            asyncRequester.start();
+        }
+        return asyncRequester;
+    }
+
+    void evictIdleConnections(long idleConnectionTimeout) {
+        try {
+            connectionManager.closeExpired();
+            connectionManager.closeIdle(TimeValue.ofMilliseconds(idleConnectionTimeout));
+            synchronized (this) {
+                if (asyncRequester != null) {
+                    asyncRequester.closeExpired();
+                    asyncRequester.closeIdle(TimeValue.ofMilliseconds(idleConnectionTimeout));
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Proxy connection pool - " + connectionManager.getTotalStats() + " - " + getRouteStats());
+            }
+            Runnable reporter = statsReporter;
+            if (reporter != null) {
+                reporter.run();
+            }
+        } catch (Exception e) {
+            // don't let the scheduler die on an unexpected error
+            logger.warn(e, e);
+        }
+    }
+
+    public synchronized PoolStats getTotalStats() {
+        PoolStats stats = connectionManager.getTotalStats();
+        if (asyncRequester != null) {
+            stats = sum(stats, asyncRequester.getTotalStats());
+        }
+        return stats;
+    }
+
+    public synchronized Map<HttpRoute, PoolStats> getRouteStats() {
+        Map<HttpRoute, PoolStats> stats = new HashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            stats.put(route, connectionManager.getStats(route));
+        }
+        if (asyncRequester != null) {
+            for (HttpHost host : asyncRequester.getRoutes()) {
+                stats.merge(new HttpRoute(host), asyncRequester.getStats(host), ProxyConnectionPool::sum);
+            }
+        }
+        return stats;
+    }
+
+    private static PoolStats sum(PoolStats first, PoolStats second) {
+        return new PoolStats(
+                first.getLeased() + second.getLeased(),
+                first.getPending() + second.getPending(),
+                first.getAvailable() + second.getAvailable(),
+                first.getMax() + second.getMax());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        if (asyncRequester != null) {
+            asyncRequester.close(CloseMode.GRACEFUL);
+        }
+        httpClient.close(CloseMode.GRACEFUL);
+        connectionManager.close(CloseMode.GRACEFUL);
+    }
+}
@@ -77,6 +77,12 @@ public class ProxyManagerServiceImpl implements ProxyManagerService {
     @Autowired
     private ConfigurationService configurationService;
 
+    @Autowired
+    private ProxyResponseCache proxyResponseCache;
+
+    @Autowired
+    private ReplacementPlanCache replacementPlanCache;
+
     private final Map<ServiceWebId, ProxyTunnelConfig> proxyTunnelConfigs = new ConcurrentHashMap<>();
 
     private void __dumpProxyTunnelConfig() {
@@ -158,6 +164,7 @@ public class ProxyManagerServiceImpl implements ProxyManagerService {
                         serviceDef.getUiConfig().getProxyTargetPort());
 
                 proxyTunnelConfigs.put(serviceId, newConfig);
+                replacementPlanCache.clear();
 
                 if (prevConfig != null) {
                     logger.info ("Updating server config for service " + service + ". Will recreate tunnels to "
@@ -174,6 +181,7 @@ public class ProxyManagerServiceImpl implements ProxyManagerService {
 
                 connectionManagerService.recreateTunnels (effNode);
                 webSocketProxyServer.removeForwardersForService(serviceId); // just remove them, they will be recreated automagically
+                proxyResponseCache.invalidate(serviceId);
 
                 if (logger.isDebugEnabled()) {
                     logger.debug("------ AFTER ---- updateServerForService (" + service + "," + runtimeNode + ") ----------- ");
@@ -220,8 +228,10 @@ public class ProxyManagerServiceImpl implements ProxyManagerService {
             if (prevConfig != null) {
 
                 proxyTunnelConfigs.remove(serviceId);
+                replacementPlanCache.clear();
                 connectionManagerService.dropTunnelsToBeClosed(prevConfig.getNode());
                 webSocketProxyServer.removeForwardersForService(serviceId);
+                proxyResponseCache.invalidate(serviceId);
             }
         }
 
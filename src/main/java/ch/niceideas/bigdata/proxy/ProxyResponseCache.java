@@ -0,0 +1,453 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.types.ServiceWebId;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Size bounded LRU cache of proxied responses, holding the bodies as they were sent to the client, that is after
+ * the replacements have been applied. Since these depend on how eskimo is reached, entries are keyed by the full
+ * request URL in addition to the service they come from.
+ * <br>
+ * Only responses the service allows a shared cache to store are kept. Fresh entries are served without contacting
+ * the service, stale ones are revalidated using their ETag / Last-Modified validators.
+ */
+@Component
+public class ProxyResponseCache {
+
+    private static final Logger logger = Logger.getLogger(ProxyResponseCache.class);
+
+    static final Set<String> UNCACHED_HEADERS = new HashSet<>(Arrays.asList(
+            "content-length", "transfer-encoding", "connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailers", "upgrade", "set-cookie", "set-cookie2", "age"));
+
+    /* Headers of a 304 answer that update the cached entry */
+    static final Set<String> REVALIDATION_HEADERS = new HashSet<>(Arrays.asList(
+            "cache-control", "expires", "date", "etag", "last-modified"));
+
+    @Value ("${proxy.responseCache.maxSize:67108864}")
+    private long maxSize = 64L * 1024 * 1024;
+
+    @Value ("${proxy.responseCache.maxEntrySize:2097152}")
+    private int maxEntrySize = 2 * 1024 * 1024;
+
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentSize = 0;
+
+    public ProxyResponseCache() {
+        this(System::currentTimeMillis);
+    }
+
+    /* For tests */
+    ProxyResponseCache(long maxSize, int maxEntrySize, LongSupplier clock) {
+        this(clock);
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    private ProxyResponseCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0 && maxEntrySize > 0;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public synchronized long getCurrentSize() {
+        return currentSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Only plain GET requests are answered from the cache. Range requests are always forwarded to the service.
+     */
+    public boolean isCacheableRequest(HttpServletRequest servletRequest) {
+        if (!isEnabled() || !"GET".equals(servletRequest.getMethod())
+                || servletRequest.getHeader(HttpHeaders.RANGE) != null) {
+            return false;
+        }
+        String cacheControl = servletRequest.getHeader(HttpHeaders.CACHE_CONTROL);
+        return cacheControl == null || !hasDirective(cacheControl, "no-store");
+    }
+
+    /**
+     * A reload from the browser (request Cache-Control or Pragma no-cache) forces the revalidation of fresh entries.
+     */
+    public static boolean requiresRevalidation(HttpServletRequest servletRequest) {
+        String cacheControl = servletRequest.getHeader(HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null && (hasDirective(cacheControl, "no-cache") || hasDirective(cacheControl, "max-age=0"))) {
+            return true;
+        }
+        String pragma = servletRequest.getHeader(HttpHeaders.PRAGMA);
+        return pragma != null && hasDirective(pragma, "no-cache");
+    }
+
+    /**
+     * Being shared by all users, the cache only keeps responses to authenticated requests the service explicitly
+     * allows a shared cache to store, as per RFC 7234 section 3.2.
+     */
+    public boolean isCacheableResponse(HttpServletRequest servletRequest, HttpResponse response) {
+        if (servletRequest.getHeader(HttpHeaders.AUTHORIZATION) != null) {
+            Header cacheControl = response.getFirstHeader(HttpHeaders.CACHE_CONTROL);
+            if (cacheControl == null
+                    || !(hasDirective(cacheControl.getValue(), "public")
+                        || hasDirective(cacheControl.getValue(), "s-maxage")
+                        || hasDirective(cacheControl.getValue(), "must-revalidate"))) {
+                return false;
+            }
+        }
+        return isCacheableResponse(response);
+    }
+
+    public boolean isCacheableResponse(HttpResponse response) {
+        if (!isEnabled() || response.getCode() != HttpStatus.SC_OK) {
+            return false;
+        }
+        if (response.containsHeader("Set-Cookie") || response.containsHeader("Set-Cookie2")) {
+            return false;
+        }
+        for (Header vary : response.getHeaders(HttpHeaders.VARY)) {
+            for (String varied : vary.getValue().split(",")) {
+                // bodies are kept with their content coding and only served to clients accepting it
+                if (!varied.trim().isEmpty() && !varied.trim().equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING)) {
+                    return false;
+                }
+            }
+        }
+        Header cacheControl = response.getFirstHeader(HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null
+                && (hasDirective(cacheControl.getValue(), "no-store") || hasDirective(cacheControl.getValue(), "private"))) {
+            return false;
+        }
+        return computeFreshUntil(response, clock.getAsLong()) > clock.getAsLong()
+                || response.containsHeader(HttpHeaders.ETAG)
+                || response.containsHeader(HttpHeaders.LAST_MODIFIED);
+    }
+
+    public synchronized Entry get(ServiceWebId serviceId, String url) {
+        return entries.get(new CacheKey(serviceId, url));
+    }
+
+    public CapturingOutputStream capture(OutputStream delegate) {
+        return new CapturingOutputStream(delegate);
+    }
+
+    /**
+     * Stores the given body for the given response. Bodies bigger than the max entry size are ignored.
+     */
+    public void put(ServiceWebId serviceId, String url, HttpResponse response, byte[] body) {
+        if (!isEnabled() || body.length > maxEntrySize) {
+            return;
+        }
+        List<Header> headers = new ArrayList<>();
+        for (Header header : response.getHeaders()) {
+            if (!UNCACHED_HEADERS.contains(header.getName().toLowerCase())) {
+                headers.add(new BasicHeader(header.getName(), header.getValue()));
+            }
+        }
+        long now = clock.getAsLong();
+        store(new CacheKey(serviceId, url), new Entry(headers, body, computeFreshUntil(response, now)));
+    }
+
+    /**
+     * Updates the entry from the 304 answer of the service to its revalidation, as per RFC 7234 section 4.3.4.
+     */
+    public Entry revalidated(ServiceWebId serviceId, String url, Entry entry, HttpResponse notModified) {
+        List<Header> headers = new ArrayList<>();
+        for (Header header : entry.getHeaders()) {
+            if (!notModified.containsHeader(header.getName())
+                    || !REVALIDATION_HEADERS.contains(header.getName().toLowerCase())) {
+                headers.add(header);
+            }
+        }
+        for (Header header : notModified.getHeaders()) {
+            if (REVALIDATION_HEADERS.contains(header.getName().toLowerCase())) {
+                headers.add(new BasicHeader(header.getName(), header.getValue()));
+            }
+        }
+        long now = clock.getAsLong();
+        BasicClassicHttpResponse merged = new BasicClassicHttpResponse(HttpStatus.SC_OK);
+        headers.forEach(merged::addHeader);
+        Entry refreshed = new Entry(headers, entry.getBody(), computeFreshUntil(merged, now));
+        store(new CacheKey(serviceId, url), refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Drops every entry of the given service, to be called when it is moved to another node.
+     */
+    public synchronized void invalidate(ServiceWebId serviceId) {
+        Iterator<Map.Entry<CacheKey, Entry>> it = entries.entrySet().iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            Map.Entry<CacheKey, Entry> next = it.next();
+            if (next.getKey().getServiceId().equals(serviceId)) {
+                currentSize -= next.getValue().getBody().length;
+                it.remove();
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.info("Invalidated " + count + " cached responses of " + serviceId);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentSize = 0;
+    }
+
+    private synchronized void store(CacheKey key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentSize -= previous.getBody().length;
+        }
+        currentSize += entry.getBody().length;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (currentSize > maxSize && it.hasNext()) {
+            currentSize -= it.next().getBody().length;
+            it.remove();
+        }
+    }
+
+    static long computeFreshUntil(HttpResponse response, long now) {
+        Header cacheControl = response.getFirstHeader(HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null) {
+            String value = cacheControl.getValue();
+            if (hasDirective(value, "no-cache")) {
+                return 0;
+            }
+            Long maxAge = getDeltaSeconds(value, "s-maxage");
+            if (maxAge == null) {
+                maxAge = getDeltaSeconds(value, "max-age");
+            }
+            if (maxAge != null) {
+                return now + maxAge * 1000;
+            }
+        }
+        Header expires = response.getFirstHeader(HttpHeaders.EXPIRES);
+        if (expires != null) {
+            Instant expiresDate = DateUtils.parseStandardDate(expires.getValue());
+            if (expiresDate == null) {
+                return 0; // invalid dates mean already expired
+            }
+            Instant date = DateUtils.parseStandardDate(response, HttpHeaders.DATE);
+            long lifetime = expiresDate.toEpochMilli() - (date != null ? date.toEpochMilli() : now);
+            return lifetime > 0 ? now + lifetime : 0;
+        }
+        return 0;
+    }
+
+    static boolean hasDirective(String headerValue, String directive) {
+        for (String token : headerValue.split(",")) {
+            if (token.trim().equalsIgnoreCase(directive)
+                    || token.trim().toLowerCase().startsWith(directive.toLowerCase() + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Long getDeltaSeconds(String headerValue, String directive) {
+        for (String token : headerValue.split(",")) {
+            String trimmed = token.trim().toLowerCase();
+            if (trimmed.startsWith(directive + "=")) {
+                try {
+                    return Math.max(0, Long.parseLong(trimmed.substring(directive.length() + 1).replace("\"", "")));
+                } catch (NumberFormatException e) {
+                    return 0L;
+                }
+            }
+        }
+        return null;
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class CacheKey {
+        @Getter
+        private final ServiceWebId serviceId;
+        private final String url;
+    }
+
+    @RequiredArgsConstructor
+    public final class Entry {
+
+        @Getter
+        private final List<Header> headers;
+
+        @Getter
+        private final byte[] body;
+
+        private final long freshUntil;
+
+        public boolean isFresh() {
+            return clock.getAsLong() < freshUntil;
+        }
+
+        public String getETag() {
+            return getHeaderValue(HttpHeaders.ETAG);
+        }
+
+        public String getLastModified() {
+            return getHeaderValue(HttpHeaders.LAST_MODIFIED);
+        }
+
+        public String getContentEncoding() {
+            return getHeaderValue(HttpHeaders.CONTENT_ENCODING);
+        }
+
+        public boolean hasValidators() {
+            return getETag() != null || getLastModified() != null;
+        }
+
+        /**
+         * @return true when the conditional headers of the client request match this entry, in which case the
+         * client can be answered with a 304.
+         */
+        public boolean isNotModifiedFor(HttpServletRequest servletRequest) {
+            String ifNoneMatch = servletRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+            if (ifNoneMatch != null) {
+                String etag = getETag();
+                if (etag == null) {
+                    return false;
+                }
+                String weakless = etag.startsWith("W/") ? etag.substring(2) : etag;
+                for (String candidate : ifNoneMatch.split(",")) {
+                    String trimmed = candidate.trim();
+                    if (trimmed.equals("*") || trimmed.equals(etag)
+                            || (trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed).equals(weakless)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String ifModifiedSince = servletRequest.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            String lastModified = getLastModified();
+            if (ifModifiedSince != null && lastModified != null) {
+                Instant since = DateUtils.parseStandardDate(ifModifiedSince);
+                Instant modified = DateUtils.parseStandardDate(lastModified);
+                return since != null && modified != null && !modified.isAfter(since);
+            }
+            return false;
+        }
+
+        public HttpResponse toResponse(int status) {
+            BasicClassicHttpResponse response = new BasicClassicHttpResponse(status);
+            headers.forEach(response::addHeader);
+            return response;
+        }
+
+        private String getHeaderValue(String name) {
+            return headers.stream()
+                    .filter(header -> header.getName().equalsIgnoreCase(name))
+                    .map(Header::getValue)
+                    .findFirst().orElse(null);
+        }
+    }
+
+    /**
+     * Copies everything written to the wrapped stream aside, as long as it fits in the max entry size.
+     */
+    public final class CapturingOutputStream extends OutputStream {
+
+        private final OutputStream delegate;
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        private CapturingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            delegate.write(bytes, offset, length);
+            if (captured != null) {
+                if (captured.size() + length > maxEntrySize) {
+                    captured = null;
+                } else {
+                    captured.write(bytes, offset, length);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        /** @return the captured bytes or null if the body was too big. */
+        public byte[] getCaptured() {
+            return captured == null ? null : captured.toByteArray();
+        }
+    }
+}
@@ -42,10 +42,6 @@ import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.cookie.StandardCookieSpec;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
 import org.apache.hc.client5.http.utils.URIUtils;
 import org.apache.hc.core5.http.*;
 import org.apache.hc.core5.http.io.SocketConfig;
@@ -54,19 +50,27 @@ import org.apache.hc.core5.http.io.entity.InputStreamEntity;
 import org.apache.hc.core5.http.message.BasicClassicHttpRequest;
 import org.apache.hc.core5.http.message.BasicHeader;
 import org.apache.hc.core5.http.message.HeaderGroup;
-import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
-import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.net.URIAuthority;
 import org.apache.hc.core5.util.Timeout;
 import org.apache.log4j.Logger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
-import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ProxyServlet extends HttpServlet {
 
@@ -77,11 +81,13 @@ public class ProxyServlet extends HttpServlet {
     public static final String SET_COOKIE2       = "Set-Cookie2";
 
     private static final int MAX_CONNECTION_PER_ROUTE = 8;
+    private static final int IDLE_CONNECTION_TIMEOUT = 60000;
+    private static final int MAX_ASYNC_REQUEST_BODY_SIZE = 1024 * 1024;
+    /* The httpclient default total number of connections, used when it isn't configured */
+    private static final int DEFAULT_ASYNC_WORKERS = 25;
 
     /* INIT PARAMETER NAME CONSTANTS */
 
-    static final String SESSION_HTTP_CLIENT = "SESSION_HTTP_CLIENT";
-
     /**
      * A boolean parameter name to enable logging of input and target URLs to the servlet log.
      */
@@ -127,6 +133,22 @@ public class ProxyServlet extends HttpServlet {
      */
     public static final String P_MAXCONNECTIONS = "http.maxConnections";
 
+    /**
+     * A integer parameter name to set max connection number to a single route (target host and port)
+     */
+    public static final String P_MAXCONNECTIONSPERROUTE = "http.maxConnectionsPerRoute";
+
+    /**
+     * A integer parameter name to set the time after which idle pooled connections are closed (millis)
+     */
+    public static final String P_IDLECONNECTIONTIMEOUT = "http.idleConnection.timeout";
+
+    /**
+     * A boolean parameter name to process requests asynchronously, releasing the container thread while waiting
+     * for the proxied service to answer
+     */
+    public static final String P_ASYNC = "http.async";
+
     /**
      * A boolean parameter whether to use JVM-defined system properties to configure various networking aspects.
      */
@@ -141,10 +163,6 @@ public class ProxyServlet extends HttpServlet {
     protected static final String ATTR_TARGET_HOST =
             ProxyServlet.class.getSimpleName() + ".targetHost";
 
-    private static final Map<String, String> overridingClientHheaders = new HashMap<>() {{
-            put ("accept-encoding", "gzip, deflate");
-        }};
-
     protected static final BitSet asciiQueryChars;
 
     static {
@@ -180,6 +198,13 @@ public class ProxyServlet extends HttpServlet {
     protected int readTimeout = -1;
     protected int connectionRequestTimeout = -1;
     protected int maxConnections = -1;
+    protected int maxConnectionsPerRoute = MAX_CONNECTION_PER_ROUTE;
+    protected int idleConnectionTimeout = IDLE_CONNECTION_TIMEOUT;
+
+    protected boolean doAsync = false;
+
+    private ProxyConnectionPool connectionPool;
+    private ExecutorService asyncExecutor;
 
     //These next 3 are cached here, and should only be referred to in initialization logic. See the
     // ATTR_* parameters.
@@ -254,6 +279,21 @@ public class ProxyServlet extends HttpServlet {
             this.maxConnections = Integer.parseInt(maxConnectionsString);
         }
 
+        String maxConnectionsPerRouteString = getConfigParam(P_MAXCONNECTIONSPERROUTE);
+        if (StringUtils.isNotBlank(maxConnectionsPerRouteString)) {
+            this.maxConnectionsPerRoute = Integer.parseInt(maxConnectionsPerRouteString);
+        }
+
+        String idleConnectionTimeoutString = getConfigParam(P_IDLECONNECTIONTIMEOUT);
+        if (StringUtils.isNotBlank(idleConnectionTimeoutString)) {
+            this.idleConnectionTimeout = Integer.parseInt(idleConnectionTimeoutString);
+        }
+
+        String asyncString = getConfigParam(P_ASYNC);
+        if (StringUtils.isNotBlank(asyncString)) {
+            this.doAsync = Boolean.parseBoolean(asyncString);
+        }
+
         String useSystemPropertiesString = getConfigParam(P_USESYSTEMPROPERTIES);
         if (StringUtils.isNotBlank(useSystemPropertiesString)) {
             this.useSystemProperties = Boolean.parseBoolean(useSystemPropertiesString);
@@ -283,42 +323,71 @@ public class ProxyServlet extends HttpServlet {
                 .build();
     }
 
-    protected HttpClient createHttpClient() {
+    protected ProxyConnectionPool createConnectionPool() {
 
         ConnectionConfig connectionConfig = ConnectionConfig.custom()
                 .setConnectTimeout(Timeout.defaultsToDisabled(connectTimeout == -1 ? null : Timeout.ofMilliseconds(connectTimeout)))
                 .setSocketTimeout(Timeout.defaultsToDisabled(readTimeout == -1 ? null : Timeout.ofMilliseconds(readTimeout)))
                 .build();
 
-        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
-                .setDefaultSocketConfig(buildSocketConfig())
-                .setDefaultConnectionConfig(connectionConfig)
-                .setMaxConnPerRoute(MAX_CONNECTION_PER_ROUTE)
-                .setMaxConnTotal(maxConnections)
-                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.LAX)
-                .setConnPoolPolicy(PoolReusePolicy.LIFO)
-                .build();
-
-        HttpClientBuilder clientBuilder = HttpClients.custom()
-                .setConnectionManager(connectionManager)
-                .setDefaultRequestConfig(buildRequestConfig());
+        return new ProxyConnectionPool(
+                maxConnections,
+                maxConnectionsPerRoute,
+                idleConnectionTimeout,
+                connectionConfig,
+                buildSocketConfig(),
+                buildRequestConfig(),
+                useSystemProperties);
+    }
 
-        if (useSystemProperties) {
-            clientBuilder.useSystemProperties();
+    /**
+     * The connection pool is shared by all HTTP sessions, so that connections to a same service are reused
+     * whatever the user.
+     */
+    protected synchronized ProxyConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = createConnectionPool();
         }
+        return connectionPool;
+    }
 
-        return clientBuilder.build();
+    protected HttpClient getHttpClient() {
+        return getConnectionPool().getHttpClient();
     }
 
-    protected HttpClient getHttpClient(HttpSession session) {
+    /**
+     * A worker handles a response for as long as its body is relayed, over an upstream connection. There is no use in
+     * more workers than connections, responses beyond wait in the queue.
+     */
+    protected synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            int workers = maxConnections > 0 ? maxConnections : DEFAULT_ASYNC_WORKERS;
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    workers, workers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "proxy-async-worker-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            asyncExecutor = executor;
+        }
+        return asyncExecutor;
+    }
 
-        HttpClient proxyClient = (HttpClient) session.getAttribute(SESSION_HTTP_CLIENT);
-        if (proxyClient == null) {
-            proxyClient = createHttpClient();
-            session.setAttribute(SESSION_HTTP_CLIENT, proxyClient);
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdownNow();
+                asyncExecutor = null;
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+                connectionPool = null;
+            }
         }
-
-        return proxyClient;
+        super.destroy();
     }
 
     protected void initTarget() throws ServletException {
@@ -334,22 +403,6 @@ public class ProxyServlet extends HttpServlet {
         targetHost = URIUtils.extractHost(targetUriObj);
     }
 
-    public static class ProxySessionListener implements HttpSessionListener {
-
-        @Override
-        public void sessionDestroyed(HttpSessionEvent se) {
-            HttpClient proxyClient = (HttpClient) se.getSession().getAttribute(SESSION_HTTP_CLIENT);
-            if (proxyClient instanceof Closeable) { // instance of checks for null
-                try {
-                    ((Closeable) proxyClient).close();
-                } catch (IOException e) {
-                    logger.error("While destroying servlet, shutting down HttpClient: " + e, e);
-                }
-            }
-            se.getSession().removeAttribute(SESSION_HTTP_CLIENT);
-        }
-    }
-
     @Override
     protected void service(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
             throws ServletException, IOException {
@@ -377,54 +430,107 @@ public class ProxyServlet extends HttpServlet {
             proxyRequest = new BasicClassicHttpRequest(method, proxyRequestUri);
         }
 
+        // the client Accept-Encoding is relayed as is, since response bodies are relayed as sent by the target
         copyRequestHeaders(servletRequest, proxyRequest);
 
-        overridingClientHheaders.keySet().forEach(
-                key -> proxyRequest.setHeader(key, overridingClientHheaders.get(key)));
-
         setXForwardedForHeader(servletRequest, proxyRequest);
 
+        if (doLog) {
+            log("proxy " + servletRequest.getMethod() + " uri: " + servletRequest.getRequestURI() + " -- " +
+                    proxyRequest.getRequestUri());
+        }
+
+        if (isAsyncEligible(servletRequest, proxyRequest)) {
+            serviceAsync(servletRequest, servletResponse, proxyRequest);
+            return;
+        }
+
         try {
             // Execute the request
-            if (doLog) {
-                log("proxy " + servletRequest.getMethod() + " uri: " + servletRequest.getRequestURI() + " -- " +
-                        proxyRequest.getRequestUri());
-            }
-            getHttpClient(servletRequest.getSession())
+            getHttpClient()
                     .execute(getTargetHost(servletRequest), proxyRequest, response -> {
+                        handleProxyResponse(response, proxyRequest, servletRequest, servletResponse);
+                        return null;
+                });
 
-                        // Process the response:
-                        int statusCode = response.getCode();
+        } catch (Exception e) {
+            handleRequestException(e);
+        }
+    }
 
-                        if (statusCode >= 400) {
-                            servletResponse.sendError(statusCode, response.getReasonPhrase());
+    /**
+     * Requests with a body are only processed asynchronously when that body is small enough to be read upfront.
+     */
+    protected boolean isAsyncEligible(HttpServletRequest servletRequest, ClassicHttpRequest proxyRequest) {
+        if (!doAsync || !servletRequest.isAsyncSupported()) {
+            return false;
+        }
+        HttpEntity entity = proxyRequest.getEntity();
+        return entity == null
+                || (entity.getContentLength() >= 0 && entity.getContentLength() <= MAX_ASYNC_REQUEST_BODY_SIZE);
+    }
 
-                        } else {
-                            servletResponse.setStatus(statusCode);
+    /**
+     * Sends the request with the async requester and releases the container thread. The response is processed by
+     * {@link #handleProxyResponse} on a worker thread as soon as its head is received.
+     */
+    protected void serviceAsync(HttpServletRequest servletRequest, HttpServletResponse servletResponse,
+                                ClassicHttpRequest proxyRequest) throws IOException {
 
-                            // Copying response headers to make sure SESSIONID or other Cookie which comes from the remote
-                            // server will be saved in client when the proxied url was redirected to another one.
-                            // See issue [#51](https://github.com/mitre/HTTP-Proxy-Servlet/issues/51)
-                            copyResponseHeaders(response, servletRequest, servletResponse);
+        HttpHost targetHost = getTargetHost(servletRequest);
+        proxyRequest.setScheme(targetHost.getSchemeName());
+        proxyRequest.setAuthority(new URIAuthority(targetHost));
 
-                            if (statusCode == HttpServletResponse.SC_NOT_MODIFIED) {
-                                // 304 needs special handling.  See:
-                                // http://www.ics.uci.edu/pub/ietf/http/rfc1945.html#Code304
-                                // Don't send body entity/content!
-                                servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, 0);
-                            } else {
-                                // Send the content to the client
-                                copyResponseEntity(response, servletResponse, proxyRequest, servletRequest);
-                            }
+        AsyncEntityProducer entityProducer = null;
+        HttpEntity entity = proxyRequest.getEntity();
+        if (entity != null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream((int) entity.getContentLength());
+            entity.writeTo(body);
+            entityProducer = AsyncEntityProducers.create(body.toByteArray(),
+                    entity.getContentType() != null ? ContentType.parse(entity.getContentType()) : null);
+        }
 
-                            EntityUtils.consumeQuietly(response.getEntity());
-                        }
+        AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+        // the upstream response timeout applies
+        asyncContext.setTimeout(0);
 
-                        return null;
-                });
+        new AsyncProxyExchange(
+                    asyncContext,
+                    getAsyncExecutor(),
+                    response -> handleProxyResponse(response, proxyRequest, servletRequest, servletResponse),
+                    servletRequest.getRequestURI())
+                .execute(getConnectionPool(), proxyRequest, entityProducer);
+    }
 
-        } catch (Exception e) {
-            handleRequestException(e);
+    protected void handleProxyResponse(ClassicHttpResponse response, ClassicHttpRequest proxyRequest,
+                                       HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+            throws IOException {
+
+        // Process the response:
+        int statusCode = response.getCode();
+
+        if (statusCode >= 400) {
+            servletResponse.sendError(statusCode, response.getReasonPhrase());
+
+        } else {
+            servletResponse.setStatus(statusCode);
+
+            // Copying response headers to make sure SESSIONID or other Cookie which comes from the remote
+            // server will be saved in client when the proxied url was redirected to another one.
+            // See issue [#51](https://github.com/mitre/HTTP-Proxy-Servlet/issues/51)
+            copyResponseHeaders(response, servletRequest, servletResponse);
+
+            if (statusCode == HttpServletResponse.SC_NOT_MODIFIED) {
+                // 304 needs special handling.  See:
+                // http://www.ics.uci.edu/pub/ietf/http/rfc1945.html#Code304
+                // Don't send body entity/content!
+                servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, 0);
+            } else {
+                // Send the content to the client
+                copyResponseEntity(response, servletResponse, proxyRequest, servletRequest);
+            }
+
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
@@ -0,0 +1,407 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An ordered list of plain text replacements compiled into multi-pattern matching stages.
+ * <p>
+ * The result of applying a plan is always exactly the same as calling <code>String.replace</code> for each replacement
+ * in turn. Consecutive replacements are merged into one single-pass (Aho-Corasick) stage as long as this cannot
+ * change the result, i.e. as long as their sources can never overlap one another and a source can never match
+ * within or across the boundaries of the target of a previous replacement of the same stage. Replacements that
+ * depend on the output of a previous one (such as <code>{PREFIX_PATH}/{PREFIX_PATH}</code> fixups) start a new stage.
+ * <p>
+ * Stages are chained as {@link Writer}s so that a body can be streamed through the whole plan in one read pass, each
+ * stage retaining at most the length of its longest source.
+ */
+public class ReplacementPlan {
+
+    private static final ReplacementPlan EMPTY = new ReplacementPlan(new Stage[0]);
+
+    private final Stage[] stages;
+
+    private ReplacementPlan(Stage[] stages) {
+        this.stages = stages;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean isEmpty() {
+        return stages.length == 0;
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    /**
+     * Tells whether any source of this plan occurs in the input, without building any output. When it doesn't,
+     * applying the plan leaves the input unchanged.
+     */
+    public boolean matchesIn(CharSequence input) {
+        for (Stage stage : stages) {
+            // as long as no stage matches, every stage sees the unchanged input
+            if (stage.matchesIn(input)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String apply(String input) {
+        if (isEmpty() || input.isEmpty()) {
+            return input;
+        }
+        StringWriter result = new StringWriter(input.length() + 64);
+        try (Writer writer = wrap(result)) {
+            writer.write(input);
+        } catch (IOException e) {
+            // can't happen with a StringWriter
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Wraps the given writer in a writer applying this plan. The returned writer must be closed for the
+     * last pending characters to be written out; closing it closes the given writer as well.
+     */
+    public Writer wrap(Writer out) {
+        Writer writer = out;
+        for (int i = stages.length - 1; i >= 0; i--) {
+            writer = new StageWriter(stages[i], writer);
+        }
+        return writer;
+    }
+
+    public static class Builder {
+
+        private final List<String[]> replacements = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Appends a replacement to the plan. An empty source is ignored.
+         */
+        public Builder add(String source, String target) {
+            if (source == null || source.isEmpty()) {
+                return this;
+            }
+            replacements.add(new String[]{source, target == null ? "" : target});
+            return this;
+        }
+
+        public ReplacementPlan build() {
+            if (replacements.isEmpty()) {
+                return EMPTY;
+            }
+            List<Stage> stages = new ArrayList<>();
+            List<String[]> current = new ArrayList<>();
+            for (String[] replacement : replacements) {
+                if (!canJoin(current, replacement)) {
+                    stages.add(new Stage(current));
+                    current = new ArrayList<>();
+                }
+                current.add(replacement);
+            }
+            stages.add(new Stage(current));
+            return new ReplacementPlan(stages.toArray(new Stage[0]));
+        }
+
+        static boolean canJoin(List<String[]> stage, String[] replacement) {
+            String source = replacement[0];
+            for (String[] previous : stage) {
+                String previousSource = previous[0];
+                String previousTarget = previous[1];
+                if (previousSource.contains(source) || source.contains(previousSource)
+                        || overlaps(previousSource, source) || overlaps(source, previousSource)) {
+                    return false;
+                }
+                if (source.contains(previousTarget) || previousTarget.contains(source)
+                        || overlaps(previousTarget, source) || overlaps(source, previousTarget)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Tells whether a non-empty proper suffix of first is a proper prefix of second */
+        static boolean overlaps(String first, String second) {
+            int max = Math.min(first.length(), second.length()) - 1;
+            for (int length = 1; length <= max; length++) {
+                if (first.regionMatches(first.length() - length, second, 0, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An Aho-Corasick automaton over sources none of which contains or overlaps another, which makes every match
+     * final as soon as it is found.
+     */
+    static final class Stage {
+
+        private static final int ASCII = 128;
+
+        private final char[][] sources;
+        private final char[][] targets;
+        private final int maxSourceLength;
+
+        private final int[] rootAscii;
+        private final char[][] transitionChars;
+        private final int[][] transitionStates;
+        private final int[] failure;
+        private final int[] depth;
+        private final int[] pattern;
+        private final int[] match;
+
+        Stage(List<String[]> replacements) {
+            int count = replacements.size();
+            sources = new char[count][];
+            targets = new char[count][];
+            int maxLength = 0;
+            for (int i = 0; i < count; i++) {
+                sources[i] = replacements.get(i)[0].toCharArray();
+                targets[i] = replacements.get(i)[1].toCharArray();
+                maxLength = Math.max(maxLength, sources[i].length);
+            }
+            maxSourceLength = maxLength;
+
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<int[]> stateInfo = new ArrayList<>(); // {depth, pattern, match}
+            trie.add(new TreeMap<>());
+            stateInfo.add(new int[]{0, -1, -1});
+            for (int i = 0; i < count; i++) {
+                int state = 0;
+                for (char c : sources[i]) {
+                    Integer next = trie.get(state).get(c);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<>());
+                        stateInfo.add(new int[]{stateInfo.get(state)[0] + 1, i, -1});
+                        trie.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                stateInfo.get(state)[2] = i;
+            }
+
+            int stateCount = trie.size();
+            transitionChars = new char[stateCount][];
+            transitionStates = new int[stateCount][];
+            depth = new int[stateCount];
+            pattern = new int[stateCount];
+            match = new int[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                Map<Character, Integer> transitions = trie.get(state);
+                transitionChars[state] = new char[transitions.size()];
+                transitionStates[state] = new int[transitions.size()];
+                int idx = 0;
+                for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                    transitionChars[state][idx] = transition.getKey();
+                    transitionStates[state][idx] = transition.getValue();
+                    idx++;
+                }
+                depth[state] = stateInfo.get(state)[0];
+                pattern[state] = stateInfo.get(state)[1];
+                match[state] = stateInfo.get(state)[2];
+            }
+
+            rootAscii = new int[ASCII];
+            for (int i = 0; i < transitionChars[0].length; i++) {
+                if (transitionChars[0][i] < ASCII) {
+                    rootAscii[transitionChars[0][i]] = transitionStates[0][i];
+                }
+            }
+
+            failure = new int[stateCount];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int child : transitionStates[0]) {
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (int i = 0; i < transitionChars[state].length; i++) {
+                    int child = transitionStates[state][i];
+                    failure[child] = next(failure[state], transitionChars[state][i]);
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int transition(int state, char c) {
+            if (state == 0 && c < ASCII) {
+                return rootAscii[c];
+            }
+            int idx = Arrays.binarySearch(transitionChars[state], c);
+            return idx < 0 ? -1 : transitionStates[state][idx];
+        }
+
+        int next(int state, char c) {
+            while (true) {
+                int next = transition(state, c);
+                if (next > 0) {
+                    return next;
+                }
+                if (state == 0) {
+                    return 0;
+                }
+                state = failure[state];
+            }
+        }
+
+        int getMaxSourceLength() {
+            return maxSourceLength;
+        }
+
+        boolean matchesIn(CharSequence input) {
+            int state = 0;
+            for (int i = 0; i < input.length(); i++) {
+                state = next(state, input.charAt(i));
+                if (match[state] >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Streams characters through a {@link Stage}. The characters not yet written out are always exactly the
+     * characters spelled by the current automaton state, which is how they are recovered across chunks.
+     */
+    static final class StageWriter extends Writer {
+
+        private final Stage stage;
+        private final Writer out;
+
+        private int state = 0;
+
+        /* Number of trailing characters spelled by carriedState, left over from previous chunks, still pending */
+        private int carried = 0;
+        private int carriedState = 0;
+
+        private boolean closed = false;
+
+        StageWriter(Stage stage, Writer out) {
+            this.stage = stage;
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Writer is closed");
+            }
+            int written = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                int next = stage.next(state, buffer[i]);
+                int pendingInChunk = i + 1 - written;
+                int drop = carried + pendingInChunk - stage.depth[next];
+                if (drop > 0 && carried > 0) {
+                    int fromCarried = Math.min(drop, carried);
+                    writeCarried(fromCarried);
+                    drop -= fromCarried;
+                }
+                if (drop > 0) {
+                    out.write(buffer, written, drop);
+                    written += drop;
+                }
+                state = next;
+                int matched = stage.match[state];
+                if (matched >= 0) {
+                    // the pending characters are exactly the matched source
+                    carried = 0;
+                    written = i + 1;
+                    state = 0;
+                    char[] target = stage.targets[matched];
+                    if (target.length > 0) {
+                        out.write(target, 0, target.length);
+                    }
+                }
+            }
+            // whatever is not written yet is spelled by the current state
+            carriedState = state;
+            carried = stage.depth[state];
+        }
+
+        private void writeCarried(int count) throws IOException {
+            int spelled = stage.depth[carriedState];
+            char[] source = stage.sources[stage.pattern[carriedState]];
+            out.write(source, spelled - carried, count);
+            carried -= count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (carried > 0) {
+                    writeCarried(carried);
+                }
+                state = 0;
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.model.service.proxy.ReplacementContext;
+import ch.niceideas.bigdata.types.Service;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the replacement plans and URL rewritings of the services proxy compiled for the contexts they're
+ * requested with, so that placeholders aren't resolved again for every proxied response.
+ * <br>
+ * Plans embed the SSH tunnels replacements, the whole cache is thus cleared whenever a tunnel changes. The context
+ * being built from the request server name, the number of entries is bounded.
+ */
+@Component
+public class ReplacementPlanCache {
+
+    static final int MAX_ENTRIES = 1024;
+
+    private final Map<Key, ReplacementPlan> plans = new LruMap<>();
+    private final Map<Key, List<ResolvedUrlRewriting>> urlRewritings = new LruMap<>();
+
+    /* Incremented on clear, so that a value built concurrently from former tunnels isn't stored */
+    private long generation = 0;
+
+    /**
+     * @param applicable the proxy replacements and page scripters of the service that apply to the request URI,
+     *                   in the order they're defined
+     */
+    public ReplacementPlan getPlan(Service service, ReplacementContext context, BitSet applicable,
+                                   Supplier<ReplacementPlan> builder) {
+        return get(plans, new Key(service, context.getPrefixPath(), context.getFullServerRoot(), applicable), builder);
+    }
+
+    public List<ResolvedUrlRewriting> getUrlRewritings(ReplacementContext context,
+                                                       Supplier<List<ResolvedUrlRewriting>> builder) {
+        return get(urlRewritings, new Key(null, context.getPrefixPath(), context.getFullServerRoot(), null), builder);
+    }
+
+    private <V> V get(Map<Key, V> cache, Key key, Supplier<V> builder) {
+        long buildGeneration;
+        synchronized (this) {
+            V value = cache.get(key);
+            if (value != null) {
+                return value;
+            }
+            buildGeneration = generation;
+        }
+        // built outside of the lock, concurrent builds of a same value give the same result
+        V value = builder.get();
+        synchronized (this) {
+            if (buildGeneration == generation) {
+                cache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * To be called whenever a tunnel or a service definition changes.
+     */
+    public synchronized void clear() {
+        plans.clear();
+        urlRewritings.clear();
+        generation++;
+    }
+
+    synchronized int size() {
+        return plans.size();
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+        private final Service service;
+        private final String prefixPath;
+        private final String fullServerRoot;
+        private final BitSet applicable;
+    }
+
+    private static final class LruMap<V> extends LinkedHashMap<Key, V> {
+
+        private static final long serialVersionUID = 4245596598648786584L;
+
+        LruMap() {
+            super(64, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
+    /**
+     * A {@link ch.niceideas.bigdata.model.service.proxy.UrlRewriting} with its placeholders resolved.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static final class ResolvedUrlRewriting {
+
+        private final String startUrl;
+        private final String replacement;
+
+        public boolean matches(String theUrl) {
+            return theUrl.startsWith(startUrl);
+        }
+
+        public String rewrite(String theUrl) {
+            return replacement + theUrl.substring(startUrl.length());
+        }
+    }
+}
@@ -35,7 +35,6 @@
 package ch.niceideas.bigdata.proxy;
 
 import ch.niceideas.common.utils.FileUtils;
-import ch.niceideas.common.utils.StreamUtils;
 import ch.niceideas.common.utils.StringUtils;
 import ch.niceideas.bigdata.model.service.ServiceDefinition;
 import ch.niceideas.bigdata.model.service.proxy.PageScripter;
@@ -46,51 +45,89 @@ import ch.niceideas.bigdata.services.ServicesDefinition;
 import ch.niceideas.bigdata.types.Node;
 import ch.niceideas.bigdata.types.Service;
 import ch.niceideas.bigdata.types.ServiceWebId;
+import org.apache.hc.client5.http.HttpRoute;
 import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
 import org.apache.hc.core5.http.*;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.InputStreamEntity;
 import org.apache.hc.core5.http.message.BasicClassicHttpRequest;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
+import org.apache.hc.core5.pool.PoolStats;
 import org.apache.log4j.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.Writer;
 import java.net.SocketException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 public class ServicesProxyServlet extends ProxyServlet {
 
     private static final Logger logger = Logger.getLogger(ServicesProxyServlet.class);
     public static final String APPLICATION_X_WWW_FORM_URLENCODED = "application/x-www-form-urlencoded";
 
+    /* Rewritten bodies up to this size are sent with a content length, bigger ones are streamed chunked */
+    static final int MAX_BUFFERED_BODY_SIZE = 256 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    /* Rewritten bodies smaller than this aren't worth compressing */
+    static final int MIN_COMPRESSED_BODY_SIZE = 1024;
+
+    private static final String ATTR_CACHE_URL = ServicesProxyServlet.class.getSimpleName() + ".cacheUrl";
+    private static final String ATTR_CACHE_ENTRY = ServicesProxyServlet.class.getSimpleName() + ".cacheEntry";
+    private static final String ATTR_CACHE_CAPTURE = ServicesProxyServlet.class.getSimpleName() + ".cacheCapture";
+
     private final ProxyManagerService proxyManagerService;
 
     private final ServicesDefinition servicesDefinition;
 
+    private final ProxyResponseCache responseCache;
+
+    private final ReplacementPlanCache replacementPlanCache;
+
     private final String configuredContextPath;
 
     public ServicesProxyServlet(
             ProxyManagerService proxyManagerService,
             ServicesDefinition servicesDefinition,
+            ProxyResponseCache responseCache,
+            ReplacementPlanCache replacementPlanCache,
             String configuredContextPath,
             int maxConnections,
+            int maxConnectionsPerRoute,
+            int idleConnectionTimeout,
             int readTimeout,
             int connectTimeout,
-            int connectionRequestTimeout) {
+            int connectionRequestTimeout,
+            boolean asyncMode) {
         this.configuredContextPath = configuredContextPath;
         this.proxyManagerService = proxyManagerService;
         this.servicesDefinition = servicesDefinition;
+        this.responseCache = responseCache;
+        this.replacementPlanCache = replacementPlanCache;
         this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.idleConnectionTimeout = idleConnectionTimeout;
         this.readTimeout = readTimeout;
         this.connectTimeout = connectTimeout;
         this.connectionRequestTimeout = connectionRequestTimeout;
+        this.doAsync = asyncMode;
     }
 
     @Override
@@ -149,8 +186,7 @@ public class ServicesProxyServlet extends ProxyServlet {
         }
     }
 
-    @Override
-    protected HttpHost getTargetHost(HttpServletRequest servletRequest) {
+    private ServiceWebId getServiceWebId(HttpServletRequest servletRequest) {
         Service service = Service.from(getServiceName(servletRequest));
         ServiceDefinition serviceDef = Optional.ofNullable(servicesDefinition.getServiceDefinition(service))
                 .orElseThrow(() -> new IllegalStateException("Couldn't find service " + service + " in service definition."));
@@ -160,8 +196,12 @@ public class ServicesProxyServlet extends ProxyServlet {
             Node targetHost = proxyManagerService.extractHostFromPathInfo(servletRequest.getPathInfo());
             serviceId = serviceDef.getServiceId(targetHost);
         }
+        return serviceId;
+    }
 
-        return proxyManagerService.getServerHost(serviceId);
+    @Override
+    protected HttpHost getTargetHost(HttpServletRequest servletRequest) {
+        return proxyManagerService.getServerHost(getServiceWebId(servletRequest));
     }
 
     @Override
@@ -267,84 +307,233 @@ public class ServicesProxyServlet extends ProxyServlet {
                     ":" + servletRequest.getServerPort());
     }
 
-    /** Copy response body data (the entity) from the proxy to the servlet client. */
+    /**
+     * Copy response body data (the entity) from the proxy to the servlet client.
+     * <br>
+     * Bodies are relayed as sent by the service, compressed or not, unless something in them needs to be rewritten.
+     * Small bodies are checked for this before anything is sent, bigger ones are streamed through the replacements.
+     * Rewritten bodies are compressed for the clients accepting it.
+     */
     @Override
     protected void copyResponseEntity(HttpResponse proxyResponse, HttpServletResponse servletResponse,
                                       HttpRequest proxyRequest, HttpServletRequest servletRequest)
             throws IOException {
 
-        if (proxyResponse instanceof HttpEntityContainer) {
-            Service service = Service.from(getServiceName(servletRequest));
-            ServiceDefinition serviceDef = servicesDefinition.getServiceDefinition(service);
+        if (!(proxyResponse instanceof HttpEntityContainer)) {
+            return;
+        }
+        HttpEntity entity = ((HttpEntityContainer)proxyResponse).getEntity();
+        if (entity == null) {
+            return;
+        }
+
+        boolean isText = false;
+        if (entity.getContentType() != null) {
+            String contentType = entity.getContentType();
+            isText = contentType.contains("text") || contentType.contains("javascript") || contentType.contains("json");
+        }
 
-            HttpEntity entity = ((HttpEntityContainer)proxyResponse).getEntity();
+        String contentEncoding = entity.getContentEncoding();
+        if (!isText || !ContentCodings.isDecodable(contentEncoding)) {
+            copyUntouchedEntity(entity, servletResponse, servletRequest);
+            return;
+        }
 
-            Charset encoding;
-            try {
-                if (entity != null && entity.getContentEncoding() != null) {
-                    encoding = Charset.forName(entity.getContentEncoding());
+        Service service = Service.from(getServiceName(servletRequest));
+        ServiceDefinition serviceDef = servicesDefinition.getServiceDefinition(service);
+
+        String contextPathPrefix = getContextPath();
+        String prefixPath = getPrefixPath(servletRequest, contextPathPrefix);
+        ReplacementContext context = new ReplacementContext(contextPathPrefix, prefixPath,
+                getFullServerRoot(servletRequest),
+                getFullServerRootNoContext(servletRequest),
+                getAppRoot(servletRequest),
+                getAppRootNoContext(servletRequest));
+
+        ReplacementPlan plan = getReplacementPlan(serviceDef, servletRequest.getRequestURI(), context);
+        if (plan.isEmpty()) {
+            copyUntouchedEntity(entity, servletResponse, servletRequest);
+            return;
+        }
+
+        Charset encoding = getCharset(entity);
+        InputStream content = entity.getContent();
+
+        if (entity.getContentLength() <= MAX_BUFFERED_BODY_SIZE) {
+            byte[] rawBody = readUpTo(content, MAX_BUFFERED_BODY_SIZE + 1);
+            if (rawBody.length <= MAX_BUFFERED_BODY_SIZE) {
+                String body;
+                try (InputStream decoded = ContentCodings.decode(new ByteArrayInputStream(rawBody), contentEncoding)) {
+                    body = new String(decoded.readAllBytes(), encoding);
+                }
+                if (!plan.matchesIn(body)) {
+                    writeBody(rawBody, contentEncoding, proxyResponse, servletResponse, servletRequest);
                 } else {
-                    encoding = StandardCharsets.UTF_8;
+                    byte[] rewritten = plan.apply(body).getBytes(encoding);
+                    if (rewritten.length >= MIN_COMPRESSED_BODY_SIZE && ContentCodings.acceptsGzip(servletRequest)) {
+                        writeBody(gzip(rewritten), ContentCodings.GZIP, proxyResponse, servletResponse, servletRequest);
+                    } else {
+                        writeBody(rewritten, null, proxyResponse, servletResponse, servletRequest);
+                    }
                 }
-            } catch (UnsupportedCharsetException e) {
-                logger.warn(e.getMessage());
-                encoding = StandardCharsets.UTF_8;
+                return;
             }
+            // unknown length after all too big to be held, stream it, starting with what has been read already
+            content = new SequenceInputStream(new ByteArrayInputStream(rawBody), content);
+        }
+
+        boolean compress = ContentCodings.acceptsGzip(servletRequest);
+        setContentEncoding(compress ? ContentCodings.GZIP : null, proxyResponse, servletResponse);
 
-            String contextPathPrefix = getContextPath();
-            String prefixPath = getPrefixPath(servletRequest, contextPathPrefix);
-            ReplacementContext context = new ReplacementContext(contextPathPrefix, prefixPath,
-                    getFullServerRoot(servletRequest),
-                    getFullServerRootNoContext(servletRequest),
-                    getAppRoot(servletRequest),
-                    getAppRootNoContext(servletRequest));
-
-            boolean isText = false;
-            if (entity != null && entity.getContentType() != null) {
-                String contentType = entity.getContentType();
-                isText = contentType.contains("text") || contentType.contains("javascript") || contentType.contains("json");
+        // stream the body through the replacement plan, keeping only small results in memory so that their
+        // content length can still be set
+        OutputStream out = new RewrittenBodyOutputStream(servletResponse,
+                getResponseOutputStream(servletRequest, servletResponse),
+                MAX_BUFFERED_BODY_SIZE);
+        if (compress) {
+            out = new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        }
+        try (Reader reader = new InputStreamReader(ContentCodings.decode(content, contentEncoding), encoding);
+             Writer writer = plan.wrap(new OutputStreamWriter(out, encoding))) {
+            char[] buffer = new char[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
             }
+        }
+    }
 
-            if (!isText) {
-                if (entity != null) {
-                    OutputStream servletOutputStream = servletResponse.getOutputStream();
-                    entity.writeTo(servletOutputStream);
-                }
+    private void copyUntouchedEntity(HttpEntity entity, HttpServletResponse servletResponse,
+                                     HttpServletRequest servletRequest) throws IOException {
+        if (!ContentCodings.isIdentity(entity.getContentEncoding())) {
+            servletResponse.setHeader(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding());
+        }
+        if (entity.getContentLength() >= 0) {
+            servletResponse.setContentLengthLong(entity.getContentLength());
+        }
+        entity.writeTo(getResponseOutputStream(servletRequest, servletResponse));
+    }
 
+    private void writeBody(byte[] body, String contentEncoding, HttpResponse proxyResponse,
+                           HttpServletResponse servletResponse, HttpServletRequest servletRequest) throws IOException {
+        setContentEncoding(contentEncoding, proxyResponse, servletResponse);
+        servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, body.length);
+        getResponseOutputStream(servletRequest, servletResponse).write(body);
+    }
+
+    /*
+     * The proxied response is updated as well when the coding differs from the service one, since the response cache
+     * stores its headers along with the body as sent.
+     */
+    private void setContentEncoding(String contentEncoding, HttpResponse proxyResponse,
+                                    HttpServletResponse servletResponse) {
+        HttpEntity entity = ((HttpEntityContainer) proxyResponse).getEntity();
+        if (!ContentCodings.isIdentity(contentEncoding)) {
+            servletResponse.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        if (!ContentCodings.isSame(contentEncoding, entity.getContentEncoding())) {
+            if (Arrays.stream(proxyResponse.getHeaders(HttpHeaders.VARY))
+                    .noneMatch(vary -> vary.getValue().toLowerCase().contains("accept-encoding"))) {
+                servletResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            if (ContentCodings.isIdentity(contentEncoding)) {
+                proxyResponse.removeHeaders(HttpHeaders.CONTENT_ENCODING);
             } else {
+                proxyResponse.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            }
+        }
+    }
 
-                String inputString = StreamUtils.getAsString(entity.getContent(), encoding);
+    private static Charset getCharset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.parse(entity.getContentType());
+            if (contentType != null && contentType.getCharset() != null) {
+                return contentType.getCharset();
+            }
+        } catch (UnsupportedCharsetException e) {
+            logger.warn(e.getMessage());
+        }
+        return StandardCharsets.UTF_8;
+    }
 
-                String resultString = performReplacements(serviceDef, servletRequest.getRequestURI(), context, inputString);
+    private static byte[] readUpTo(InputStream content, int maxLength) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while (buffer.size() < maxLength
+                && (read = content.read(chunk, 0, Math.min(chunk.length, maxLength - buffer.size()))) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
 
-                byte[] result = resultString.getBytes(encoding);
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, STREAM_BUFFER_SIZE)) {
+            gzip.write(body);
+        }
+        return compressed.toByteArray();
+    }
 
-                // overwrite content length header
-                servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, result.length);
+    /* The body sent to the client is copied aside when the response is to be cached */
+    private OutputStream getResponseOutputStream(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+            throws IOException {
+        OutputStream capture = responseCache != null ? (OutputStream) servletRequest.getAttribute(ATTR_CACHE_CAPTURE) : null;
+        return capture != null ? capture : servletResponse.getOutputStream();
+    }
+
+    String performReplacements(ServiceDefinition serviceDef, String requestURI, ReplacementContext context, String input) {
+        return getReplacementPlan(serviceDef, requestURI, context).apply(input);
+    }
+
+    ReplacementPlan getReplacementPlan(ServiceDefinition serviceDef, String requestURI, ReplacementContext context) {
+        if (replacementPlanCache == null) {
+            return buildReplacementPlan(serviceDef, requestURI, context);
+        }
+        return replacementPlanCache.getPlan(serviceDef.toService(), context,
+                getApplicableReplacements(serviceDef, requestURI),
+                () -> buildReplacementPlan(serviceDef, requestURI, context));
+    }
 
-                OutputStream servletOutputStream = servletResponse.getOutputStream();
-                StreamUtils.copy(new ByteArrayInputStream(result), servletOutputStream);
+    /* The plan of a service only depends on the request URI through the replacements and scripters applying to it */
+    private static BitSet getApplicableReplacements(ServiceDefinition serviceDef, String requestURI) {
+        List<ProxyReplacement> replacements = serviceDef.getUiConfig().getProxyReplacements();
+        List<PageScripter> scripters = serviceDef.getUiConfig().getPageScripters();
+        BitSet applicable = new BitSet(replacements.size() + scripters.size());
+        for (int i = 0; i < replacements.size(); i++) {
+            if (replacements.get(i).appliesTo(requestURI)) {
+                applicable.set(i);
             }
         }
+        for (int i = 0; i < scripters.size(); i++) {
+            if (requestURI.endsWith(scripters.get(i).getResourceUrl())) {
+                applicable.set(replacements.size() + i);
+            }
+        }
+        return applicable;
     }
 
-    String performReplacements(ServiceDefinition serviceDef, String requestURI, ReplacementContext context, String input) {
+    ReplacementPlan buildReplacementPlan(ServiceDefinition serviceDef, String requestURI, ReplacementContext context) {
+        ReplacementPlan.Builder plan = ReplacementPlan.builder();
+
         if (serviceDef.getUiConfig().isApplyStandardProxyReplacements()) {
 
-            input = input.replace("src=\"/", "src=\"/" + context.getPrefixPath() + "/");
-            input = input.replace("action=\"/", "action=\"/" + context.getPrefixPath() + "/");
-            input = input.replace("href=\"/", "href=\"/" + context.getPrefixPath() + "/");
-            input = input.replace("href='/", "href='/" + context.getPrefixPath() + "/");
-            input = input.replace("url(\"/", "url(\"/" + context.getPrefixPath() + "/");
-            input = input.replace("url('/", "url('/" + context.getPrefixPath() + "/");
-            input = input.replace("url(/", "url(/" + context.getPrefixPath() + "/");
-            input = input.replace("/api/v1", "/" + context.getPrefixPath() + "/api/v1");
-            input = input.replace("\"/static/", "\"/" + context.getPrefixPath() + "/static/");
+            plan.add("src=\"/", "src=\"/" + context.getPrefixPath() + "/");
+            plan.add("action=\"/", "action=\"/" + context.getPrefixPath() + "/");
+            plan.add("href=\"/", "href=\"/" + context.getPrefixPath() + "/");
+            plan.add("href='/", "href='/" + context.getPrefixPath() + "/");
+            plan.add("url(\"/", "url(\"/" + context.getPrefixPath() + "/");
+            plan.add("url('/", "url('/" + context.getPrefixPath() + "/");
+            plan.add("url(/", "url(/" + context.getPrefixPath() + "/");
+            plan.add("/api/v1", "/" + context.getPrefixPath() + "/api/v1");
+            plan.add("\"/static/", "\"/" + context.getPrefixPath() + "/static/");
 
         }
 
         for (ProxyReplacement replacement : serviceDef.getUiConfig().getProxyReplacements()) {
-            input = replacement.performReplacement(input, requestURI, context);
+            if (replacement.appliesTo(requestURI)) {
+                plan.add(context.getResolved(replacement.getSource()), context.getResolved(replacement.getTarget()));
+            }
         }
 
         for (PageScripter scripter : serviceDef.getUiConfig().getPageScripters()) {
@@ -352,7 +541,7 @@ public class ServicesProxyServlet extends ProxyServlet {
                 logger.info ("Applying " + scripter.getResourceUrl());
                 String script = scripter.getScript();
                 script = context.getResolved(script);
-                input = input.replace("</body>", "<script>" + script + "</script></body>");
+                plan.add("</body>", "<script>" + script + "</script></body>");
             }
         }
 
@@ -360,17 +549,70 @@ public class ServicesProxyServlet extends ProxyServlet {
             ProxyTunnelConfig config = Optional.ofNullable(proxyManagerService.getTunnelConfig (key))
                     .orElseThrow(() -> new IllegalStateException("Asked for proxy for service " + key + " - but none has been configured !"));
 
-            input = input.replace(config.getNode()+":"+config.getLocalPort(), "/" + key);
+            plan.add(config.getNode()+":"+config.getLocalPort(), "/" + key);
         }
 
-        return input;
+        return plan.build();
+    }
+
+    private List<ReplacementPlanCache.ResolvedUrlRewriting> getUrlRewritings(ReplacementContext context) {
+        Supplier<List<ReplacementPlanCache.ResolvedUrlRewriting>> builder = () -> Arrays.stream(servicesDefinition.listUIServices())
+                .map (servicesDefinition::getServiceDefinition)
+                .map (service -> service.getUiConfig().getUrlRewritings())
+                .flatMap(List::stream)
+                .map(urlRewriting -> new ReplacementPlanCache.ResolvedUrlRewriting(
+                        context.getResolved(urlRewriting.getStartUrl()),
+                        context.getResolved(urlRewriting.getReplacement())))
+                .collect(Collectors.toList());
+        if (replacementPlanCache == null) {
+            return builder.get();
+        }
+        return replacementPlanCache.getUrlRewritings(context, builder);
+    }
+
+    @Override
+    protected ProxyConnectionPool createConnectionPool() {
+        ProxyConnectionPool pool = super.createConnectionPool();
+        // the pool only knows about tunnel ports, tell which service is behind each of them
+        pool.setStatsReporter(() -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Proxy connections per service - " + getServiceConnectionStats());
+            }
+        });
+        return pool;
+    }
+
+    /**
+     * Connection pool statistics of every service currently being proxied, the pool routes being the local ports of
+     * the services SSH tunnels.
+     */
+    public Map<ServiceWebId, PoolStats> getServiceConnectionStats() {
+        Map<HttpRoute, PoolStats> routeStats = getConnectionPool().getRouteStats();
+        Map<ServiceWebId, PoolStats> serviceStats = new HashMap<>();
+        for (ServiceWebId key : proxyManagerService.getAllTunnelConfigKeys()) {
+            ProxyTunnelConfig config = proxyManagerService.getTunnelConfig (key);
+            if (config != null) {
+                routeStats.entrySet().stream()
+                        .filter(entry -> entry.getKey().getTargetHost().getPort() == config.getLocalPort())
+                        .findFirst()
+                        .ifPresent(entry -> serviceStats.put(key, entry.getValue()));
+            }
+        }
+        return serviceStats;
     }
 
     /** Copy proxied response headers back to the servlet client. */
     @Override
     protected void copyResponseHeaders(HttpResponse proxyResponse, HttpServletRequest servletRequest,
                                        HttpServletResponse servletResponse) {
+        // the length and coding of bodies are set when copying them, since rewriting them changes these
+        boolean hasEntity = proxyResponse instanceof HttpEntityContainer
+                && ((HttpEntityContainer) proxyResponse).getEntity() != null;
         for (Header header : proxyResponse.getHeaders()) {
+            if (hasEntity && (header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)
+                    || header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_ENCODING))) {
+                continue;
+            }
             if (header.getName().equals("X-Frame-Options")) {
                 servletResponse.addHeader(header.getName(), "SAMEORIGIN");
             } else {
@@ -383,7 +625,9 @@ public class ServicesProxyServlet extends ProxyServlet {
     protected void service(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
             throws ServletException, IOException {
         try {
-            super.service(servletRequest, servletResponse);
+            if (!serveFromResponseCache(servletRequest, servletResponse)) {
+                super.service(servletRequest, servletResponse);
+            }
         } catch (IllegalStateException | SocketException | NoHttpResponseException e) {
             logger.error (servletRequest.getRequestURI() + " - got " + e.getClass() + ":" + e.getMessage());
             servletResponse.sendError(500);
@@ -391,6 +635,127 @@ public class ServicesProxyServlet extends ProxyServlet {
 
     }
 
+    /**
+     * Answers the request from the response cache when a fresh entry is available. A stale entry having validators
+     * is kept aside for the proxied request to revalidate it.
+     */
+    private boolean serveFromResponseCache(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+            throws IOException {
+        if (responseCache == null || !responseCache.isCacheableRequest(servletRequest)) {
+            return false;
+        }
+        String cacheUrl = getCacheUrl(servletRequest);
+        servletRequest.setAttribute(ATTR_CACHE_URL, cacheUrl);
+
+        ProxyResponseCache.Entry entry = responseCache.get(getServiceWebId(servletRequest), cacheUrl);
+        if (entry == null) {
+            return false;
+        }
+        if (!ContentCodings.accepts(servletRequest, entry.getContentEncoding())) {
+            // body was cached compressed for another client, the response needs to be fetched again
+            return false;
+        }
+        if (entry.isFresh() && !ProxyResponseCache.requiresRevalidation(servletRequest)) {
+            writeCachedResponse(entry, servletRequest, servletResponse);
+            return true;
+        }
+        if (entry.hasValidators()) {
+            servletRequest.setAttribute(ATTR_CACHE_ENTRY, entry);
+        }
+        return false;
+    }
+
+    /* Cached bodies depend on the URL eskimo is reached with since replacements use it */
+    private String getCacheUrl(HttpServletRequest servletRequest) {
+        return getFullServerRootNoContext(servletRequest)
+                + servletRequest.getRequestURI()
+                + (servletRequest.getQueryString() != null ? "?" + servletRequest.getQueryString() : "");
+    }
+
+    private void writeCachedResponse(ProxyResponseCache.Entry entry, HttpServletRequest servletRequest,
+                                     HttpServletResponse servletResponse) throws IOException {
+        if (entry.isNotModifiedFor(servletRequest)) {
+            servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            copyResponseHeaders(entry.toResponse(HttpServletResponse.SC_NOT_MODIFIED), servletRequest, servletResponse);
+            servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, 0);
+        } else {
+            servletResponse.setStatus(HttpServletResponse.SC_OK);
+            copyResponseHeaders(entry.toResponse(HttpServletResponse.SC_OK), servletRequest, servletResponse);
+            servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, entry.getBody().length);
+            servletResponse.getOutputStream().write(entry.getBody());
+        }
+    }
+
+    @Override
+    protected void copyRequestHeader(HttpServletRequest servletRequest, HttpRequest proxyRequest,
+                                     String headerName) {
+        if (headerName.equalsIgnoreCase(HttpHeaders.ACCEPT_ENCODING)) {
+            // services are only asked for codings the proxy can decode should the body need to be rewritten
+            Enumeration<String> headers = servletRequest.getHeaders(headerName);
+            while (headers.hasMoreElements()) {
+                String acceptEncoding = ContentCodings.filterAcceptEncoding(headers.nextElement());
+                if (acceptEncoding != null) {
+                    proxyRequest.addHeader(headerName, acceptEncoding);
+                }
+            }
+        } else {
+            super.copyRequestHeader(servletRequest, proxyRequest, headerName);
+        }
+    }
+
+    @Override
+    protected void copyRequestHeaders(HttpServletRequest servletRequest, HttpRequest proxyRequest) {
+        super.copyRequestHeaders(servletRequest, proxyRequest);
+
+        // revalidate the stale cache entry with its own validators, the client ones are checked against it
+        ProxyResponseCache.Entry entry = (ProxyResponseCache.Entry) servletRequest.getAttribute(ATTR_CACHE_ENTRY);
+        if (entry != null) {
+            proxyRequest.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+            proxyRequest.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+            if (entry.getETag() != null) {
+                proxyRequest.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getETag());
+            }
+            if (entry.getLastModified() != null) {
+                proxyRequest.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+            }
+        }
+    }
+
+    @Override
+    protected void handleProxyResponse(ClassicHttpResponse response, ClassicHttpRequest proxyRequest,
+                                       HttpServletRequest servletRequest, HttpServletResponse servletResponse)
+            throws IOException {
+
+        String cacheUrl = (String) servletRequest.getAttribute(ATTR_CACHE_URL);
+        if (cacheUrl == null) {
+            super.handleProxyResponse(response, proxyRequest, servletRequest, servletResponse);
+            return;
+        }
+
+        ServiceWebId serviceId = getServiceWebId(servletRequest);
+        ProxyResponseCache.Entry entry = (ProxyResponseCache.Entry) servletRequest.getAttribute(ATTR_CACHE_ENTRY);
+        if (entry != null && response.getCode() == HttpServletResponse.SC_NOT_MODIFIED) {
+            writeCachedResponse(responseCache.revalidated(serviceId, cacheUrl, entry, response),
+                    servletRequest, servletResponse);
+            EntityUtils.consumeQuietly(response.getEntity());
+            return;
+        }
+
+        if (!responseCache.isCacheableResponse(servletRequest, response)) {
+            super.handleProxyResponse(response, proxyRequest, servletRequest, servletResponse);
+            return;
+        }
+
+        ProxyResponseCache.CapturingOutputStream capture = responseCache.capture(servletResponse.getOutputStream());
+        servletRequest.setAttribute(ATTR_CACHE_CAPTURE, capture);
+        super.handleProxyResponse(response, proxyRequest, servletRequest, servletResponse);
+
+        byte[] body = capture.getCaptured();
+        if (body != null) {
+            responseCache.put(serviceId, cacheUrl, response, body);
+        }
+    }
+
     /**
      * Reads the request URI from {@code servletRequest} and rewrites it, considering targetUri.
      * It's used to make the new request.
@@ -413,21 +778,13 @@ public class ServicesProxyServlet extends ProxyServlet {
                 getAppRoot (servletRequest),
                 getAppRootNoContext (servletRequest));
 
-        String rewritten = Arrays.stream(servicesDefinition.listUIServices())
-                .map (servicesDefinition::getServiceDefinition)
-                .map (service -> service.getUiConfig().getUrlRewritings())
-                .flatMap(List::stream)
-                .map(urlRewriting -> {
-                    if (urlRewriting.matches (theUrl, context)) {
-                        return urlRewriting.rewrite (theUrl, context);
-                    }
-                    return null;
-                })
-                .filter(StringUtils::isNotBlank)
-                .findFirst().orElse(null);
-
-        if (StringUtils.isNotBlank(rewritten)) {
-            return rewritten;
+        for (ReplacementPlanCache.ResolvedUrlRewriting urlRewriting : getUrlRewritings(context)) {
+            if (urlRewriting.matches(theUrl)) {
+                String rewritten = urlRewriting.rewrite(theUrl);
+                if (StringUtils.isNotBlank(rewritten)) {
+                    return rewritten;
+                }
+            }
         }
 
         final String targetUri = getTargetUri(servletRequest);
@@ -470,4 +827,54 @@ public class ServicesProxyServlet extends ProxyServlet {
         return theUrl;
     }
 
+
+    /**
+     * Buffers the rewritten body as long as it fits in maxBufferedSize, in which case the content length is set
+     * on close. Beyond that, the upstream content length is discarded and the body is streamed out as it comes.
+     */
+    static final class RewrittenBodyOutputStream extends OutputStream {
+
+        private final HttpServletResponse servletResponse;
+        private final OutputStream target;
+        private final int maxBufferedSize;
+
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream out = null;
+
+        RewrittenBodyOutputStream(HttpServletResponse servletResponse, OutputStream target, int maxBufferedSize) {
+            this.servletResponse = servletResponse;
+            this.target = target;
+            this.maxBufferedSize = maxBufferedSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (out == null && buffer.size() + length > maxBufferedSize) {
+                servletResponse.setContentLengthLong(-1);
+                out = target;
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            if (out != null) {
+                out.write(bytes, offset, length);
+            } else {
+                buffer.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null && buffer != null) {
+                // overwrite content length header
+                servletResponse.setIntHeader(HttpHeaders.CONTENT_LENGTH, buffer.size());
+                buffer.writeTo(target);
+                buffer = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.types.ServiceWebId;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The websocket forwarders opened by the proxy, indexed both by websocket session and by service so that closing
+ * either one only ever touches its own forwarders.
+ */
+public class WebSocketForwarderRegistry {
+
+    private final Map<String, SessionForwarders> bySession = new ConcurrentHashMap<>();
+
+    /* Keyed by forwarder since a session being removed can still hold one with the same registration as a new one */
+    private final Map<ServiceWebId, Map<WebSocketProxyForwarder, Registration>> byService = new ConcurrentHashMap<>();
+
+    private final LongSupplier clock;
+
+    /* Traffic of the forwarders closed so far */
+    private long closedMessages = 0;
+    private long closedBytes = 0;
+    private long closedReconnects = 0;
+
+    /* Rates of callers not passing a previous sample are computed since then */
+    private final long creationTime;
+
+    public WebSocketForwarderRegistry() {
+        this(System::currentTimeMillis);
+    }
+
+    WebSocketForwarderRegistry(LongSupplier clock) {
+        this.clock = clock;
+        this.creationTime = clock.getAsLong();
+    }
+
+    public WebSocketProxyForwarder getOrCreate(
+            ServiceWebId serviceId, String sessionId, String targetPath, Supplier<WebSocketProxyForwarder> factory) {
+        Registration registration = new Registration(serviceId, sessionId, targetPath);
+        while (true) {
+            SessionForwarders forSession = bySession.computeIfAbsent(sessionId, k -> new SessionForwarders());
+            WebSocketProxyForwarder forwarder = forSession.forwarders.get(registration);
+            if (forwarder != null) {
+                return forwarder;
+            }
+            // creating a forwarder only ever holds back other handshakes of the same session
+            synchronized (forSession) {
+                if (forSession.removed) {
+                    // session removed meanwhile, a message arriving this late gets a new one
+                    continue;
+                }
+                forwarder = forSession.forwarders.get(registration);
+                if (forwarder == null) {
+                    WebSocketProxyForwarder created = factory.get();
+                    forSession.forwarders.put(registration, created);
+                    byService.compute(serviceId, (key, forService) -> {
+                        Map<WebSocketProxyForwarder, Registration> result = forService != null ? forService : new ConcurrentHashMap<>();
+                        result.put(created, registration);
+                        return result;
+                    });
+                    forwarder = created;
+                }
+                return forwarder;
+            }
+        }
+    }
+
+    /**
+     * Drops and closes the forwarders of the given websocket session.
+     * @return the number of forwarders closed
+     */
+    public int removeSession(String sessionId) {
+        SessionForwarders forSession = bySession.remove(sessionId);
+        if (forSession == null) {
+            return 0;
+        }
+        synchronized (forSession) {
+            forSession.removed = true;
+        }
+        forSession.forwarders.forEach((registration, forwarder) ->
+                byService.computeIfPresent(registration.serviceId, (key, forService) -> {
+                    forService.remove(forwarder);
+                    return forService.isEmpty() ? null : forService;
+                }));
+        close(forSession.forwarders.values());
+        return forSession.forwarders.size();
+    }
+
+    /**
+     * Drops and closes the forwarders to the given service. They are recreated on the next message of their session.
+     * @return the number of forwarders closed
+     */
+    public int removeService(ServiceWebId serviceId) {
+        Map<WebSocketProxyForwarder, Registration> forService = byService.remove(serviceId);
+        if (forService == null) {
+            return 0;
+        }
+        forService.forEach((forwarder, registration) -> {
+            SessionForwarders forSession = bySession.get(registration.sessionId);
+            if (forSession != null) {
+                forSession.forwarders.remove(registration, forwarder);
+            }
+        });
+        close(forService.keySet());
+        return forService.size();
+    }
+
+    /** Forgets all forwarders without closing them */
+    public void clear() {
+        bySession.clear();
+        byService.clear();
+    }
+
+    /**
+     * @return service ID -> session ID -> target path -> forwarder
+     */
+    public Map<ServiceWebId, Map<String, Map<String, WebSocketProxyForwarder>>> snapshot() {
+        Map<ServiceWebId, Map<String, Map<String, WebSocketProxyForwarder>>> snapshot = new HashMap<>();
+        byService.forEach((serviceId, forService) -> forService.forEach((forwarder, registration) ->
+                snapshot.computeIfAbsent(serviceId, k -> new HashMap<>())
+                        .computeIfAbsent(registration.sessionId, k -> new HashMap<>())
+                        .put(registration.targetPath, forwarder)));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Rates are averages since the registry was created.
+     */
+    public Metrics getMetrics() {
+        return getMetrics(null);
+    }
+
+    /**
+     * Rates are computed over the time elapsed since the given sample, previously returned to the caller, or since
+     * the registry was created if there is none.
+     */
+    public synchronized Metrics getMetrics(Metrics previous) {
+        long messages = closedMessages;
+        long bytes = closedBytes;
+        long reconnects = closedReconnects;
+        int openForwarders = 0;
+        for (Map<WebSocketProxyForwarder, Registration> forService : byService.values()) {
+            for (WebSocketProxyForwarder forwarder : forService.keySet()) {
+                openForwarders++;
+                messages += forwarder.getRelayedMessages();
+                bytes += forwarder.getRelayedBytes();
+                reconnects += forwarder.getReconnects();
+            }
+        }
+
+        long now = clock.getAsLong();
+        long sinceTime = previous != null ? previous.sampleTime : creationTime;
+        long sinceMessages = previous != null ? previous.relayedMessages : 0;
+        long sinceBytes = previous != null ? previous.relayedBytes : 0;
+        double elapsedSeconds = Math.max(1, now - sinceTime) / 1000.0;
+        return new Metrics(
+                now,
+                openForwarders,
+                bySession.size(),
+                Math.max(0, messages - sinceMessages) / elapsedSeconds,
+                Math.max(0, bytes - sinceBytes) / elapsedSeconds,
+                messages,
+                bytes,
+                reconnects);
+    }
+
+    private void close(Collection<WebSocketProxyForwarder> forwarders) {
+        for (WebSocketProxyForwarder forwarder : forwarders) {
+            forwarder.close();
+            synchronized (this) {
+                closedMessages += forwarder.getRelayedMessages();
+                closedBytes += forwarder.getRelayedBytes();
+                closedReconnects += forwarder.getReconnects();
+            }
+        }
+    }
+
+    private static final class SessionForwarders {
+        private final Map<Registration, WebSocketProxyForwarder> forwarders = new ConcurrentHashMap<>();
+        private boolean removed = false;
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Registration {
+        private final ServiceWebId serviceId;
+        private final String sessionId;
+        private final String targetPath;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Metrics {
+        private final long sampleTime;
+        private final int openForwarders;
+        private final int sessions;
+        private final double messagesPerSecond;
+        private final double bytesPerSecond;
+        private final long relayedMessages;
+        private final long relayedBytes;
+        private final long reconnects;
+
+        @Override
+        public String toString() {
+            return "open forwarders=" + openForwarders + ", sessions=" + sessions
+                    + ", messages/s=" + String.format("%.1f", messagesPerSecond)
+                    + ", bytes/s=" + String.format("%.0f", bytesPerSecond)
+                    + ", messages=" + relayedMessages + ", bytes=" + relayedBytes + ", reconnects=" + reconnects;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import lombok.AllArgsConstructor;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends messages to a websocket session in order, from whichever thread relays them, payloads untouched.
+ * <br>
+ * A thread finding another one busy sending queues its message and returns. When the queued payloads exceed the
+ * buffer size, it waits for room instead, which holds back reading from the session the messages come from and lets
+ * TCP flow control slow down the sending side. A target not draining the queue within the send time limit is deemed
+ * unreliable.
+ */
+class WebSocketMessageRelay {
+
+    private final WebSocketSession target;
+
+    private final long bufferSize;
+
+    private final long sendTimeLimit;
+
+    private final Deque<QueuedMessage> queue = new ArrayDeque<>();
+
+    private long queuedBytes = 0;
+
+    private boolean sending = false;
+
+    private final LongAdder sentMessages = new LongAdder();
+
+    private final LongAdder sentBytes = new LongAdder();
+
+    WebSocketMessageRelay(WebSocketSession target, long bufferSize, long sendTimeLimit) {
+        this.target = target;
+        this.bufferSize = bufferSize;
+        this.sendTimeLimit = sendTimeLimit;
+    }
+
+    WebSocketSession getTarget() {
+        return target;
+    }
+
+    long getSentMessages() {
+        return sentMessages.sum();
+    }
+
+    long getSentBytes() {
+        return sentBytes.sum();
+    }
+
+    synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    synchronized int getQueuedMessages() {
+        return queue.size();
+    }
+
+    void relay(WebSocketMessage<?> message) throws IOException {
+        // encoding a text payload to get its length has a cost, it is done once per message
+        long size = message.getPayloadLength();
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeLimit);
+            // a message always gets in an empty queue, whatever its size
+            while (sending && !queue.isEmpty() && queuedBytes + size > bufferSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SessionLimitExceededException(
+                            "Send time " + sendTimeLimit + " (ms) for session '" + target.getId() + "' exceeded",
+                            CloseStatus.SESSION_NOT_RELIABLE);
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProxyException(e);
+                }
+            }
+            queue.add(new QueuedMessage(message, size));
+            queuedBytes += size;
+            if (sending) {
+                return;
+            }
+            sending = true;
+        }
+        drain();
+    }
+
+    private void drain() throws IOException {
+        try {
+            while (true) {
+                QueuedMessage next;
+                synchronized (this) {
+                    next = queue.poll();
+                    if (next == null) {
+                        sending = false;
+                        return;
+                    }
+                    queuedBytes -= next.size;
+                    notifyAll();
+                }
+                target.sendMessage(next.message);
+                sentMessages.increment();
+                sentBytes.add(next.size);
+            }
+        } catch (IOException | RuntimeException e) {
+            // messages queued behind a failed one are lost along with the session
+            synchronized (this) {
+                queue.clear();
+                queuedBytes = 0;
+                sending = false;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class QueuedMessage {
+        private final WebSocketMessage<?> message;
+        private final long size;
+    }
+}
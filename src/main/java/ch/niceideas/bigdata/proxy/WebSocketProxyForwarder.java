@@ -51,6 +51,7 @@ import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WebSocketProxyForwarder {
 
@@ -58,6 +59,13 @@ public class WebSocketProxyForwarder {
 
     public static final int MESSAGE_SIZE_LIMIT = 10 * 1024 * 1024; // 10 Mb
 
+    /** Message used by the UI to force the creation of the connection to the target service */
+    public static final String HELLO_ESKIMO = "HELLO_ESKIMO";
+
+    public static final long DEFAULT_SEND_BUFFER_SIZE = 1024L * 1024L; // 1 Mb
+
+    public static final long DEFAULT_SEND_TIME_LIMIT = 30L * 1000L;
+
     private final Logger logger = Logger.getLogger(this.getClass());
 
     private final ServiceWebId serviceId;
@@ -66,21 +74,63 @@ public class WebSocketProxyForwarder {
 
     private final WebSocketSession webSocketServerSession;
 
-    private WebSocketSession webSocketClientSession;
-
     private final ProxyManagerService proxyManagerService;
 
+    private final long sendBufferSize;
+
+    private final long sendTimeLimit;
+
+    /* Messages from the service to the browser */
+    private final WebSocketMessageRelay serverRelay;
+
+    /* Messages from the browser to the service, recreated along with the client session */
+    private volatile WebSocketMessageRelay clientRelay;
+
+    /* Traffic of the client sessions replaced so far */
+    private final AtomicLong previousClientMessages = new AtomicLong();
+    private final AtomicLong previousClientBytes = new AtomicLong();
+
+    private final AtomicLong reconnects = new AtomicLong();
+
     public WebSocketProxyForwarder(
             ServiceWebId serviceId, String targetPath, ProxyManagerService proxyManagerService, WebSocketSession webSocketServerSession) {
+        this(serviceId, targetPath, proxyManagerService, webSocketServerSession, DEFAULT_SEND_BUFFER_SIZE, DEFAULT_SEND_TIME_LIMIT);
+    }
+
+    public WebSocketProxyForwarder(
+            ServiceWebId serviceId, String targetPath, ProxyManagerService proxyManagerService, WebSocketSession webSocketServerSession,
+            long sendBufferSize, long sendTimeLimit) {
         this.serviceId = serviceId;
         this.targetPath = targetPath;
         this.proxyManagerService = proxyManagerService;
         this.webSocketServerSession = webSocketServerSession;
-        webSocketClientSession = createWebSocketClientSession();
+        this.sendBufferSize = sendBufferSize;
+        this.sendTimeLimit = sendTimeLimit;
+        serverRelay = new WebSocketMessageRelay(webSocketServerSession, sendBufferSize, sendTimeLimit);
+        clientRelay = new WebSocketMessageRelay(createWebSocketClientSession(), sendBufferSize, sendTimeLimit);
     }
 
     public boolean isClosed() {
-        return !webSocketClientSession.isOpen();
+        return !clientRelay.getTarget().isOpen();
+    }
+
+    public ServiceWebId getServiceId() {
+        return serviceId;
+    }
+
+    /** Messages relayed in both directions so far */
+    public long getRelayedMessages() {
+        return serverRelay.getSentMessages() + clientRelay.getSentMessages() + previousClientMessages.get();
+    }
+
+    /** Payload bytes relayed in both directions so far */
+    public long getRelayedBytes() {
+        return serverRelay.getSentBytes() + clientRelay.getSentBytes() + previousClientBytes.get();
+    }
+
+    /** Times the connection to the service had to be opened again */
+    public long getReconnects() {
+        return reconnects.get();
     }
 
     private WebSocketHttpHeaders getWebSocketHttpHeaders(final WebSocketSession userAgentSession) {
@@ -119,7 +169,7 @@ public class WebSocketProxyForwarder {
             WebSocketHttpHeaders headers = getWebSocketHttpHeaders(webSocketServerSession);
 
             WebSocketSession clientSession = new StandardWebSocketClient()
-                    .doHandshake(new WebSocketServerHandshakeHandler(webSocketServerSession), headers, new URI(targetWsUri))
+                    .doHandshake(new WebSocketServerHandshakeHandler(serverRelay), headers, new URI(targetWsUri))
                     .get((long)30 * (long)1000, TimeUnit.MILLISECONDS);
 
             clientSession.setBinaryMessageSizeLimit(MESSAGE_SIZE_LIMIT); // 10Mb
@@ -140,24 +190,42 @@ public class WebSocketProxyForwarder {
     }
 
     public void forwardMessage(WebSocketMessage<?> webSocketMessage) throws IOException {
-        if (!webSocketClientSession.isOpen()) {
+        WebSocketMessageRelay relay = clientRelay;
+        if (!relay.getTarget().isOpen()) {
             // recreate it if it has been closed
-            webSocketClientSession = createWebSocketClientSession();
+            synchronized (this) {
+                relay = clientRelay;
+                if (!relay.getTarget().isOpen()) {
+                    previousClientMessages.addAndGet(relay.getSentMessages());
+                    previousClientBytes.addAndGet(relay.getSentBytes());
+                    relay = new WebSocketMessageRelay(createWebSocketClientSession(), sendBufferSize, sendTimeLimit);
+                    clientRelay = relay;
+                    reconnects.incrementAndGet();
+                }
+            }
         }
 
         // Hack : message HELLO_ESKIMO is used to force create the connection to target service
-        if (("" + webSocketMessage.getPayload()).equals("HELLO_ESKIMO")) {
+        if (isHelloMessage(webSocketMessage)) {
             logger.debug ("Got session opening message for " + serviceId);
 
         } else {
 
-            webSocketClientSession.sendMessage(webSocketMessage);
+            relay.relay(webSocketMessage);
         }
     }
 
+    /* Binary payloads and text ones of any other length are never looked into */
+    static boolean isHelloMessage(WebSocketMessage<?> webSocketMessage) {
+        Object payload = webSocketMessage.getPayload();
+        return payload instanceof String
+                && ((String) payload).length() == HELLO_ESKIMO.length()
+                && HELLO_ESKIMO.equals(payload);
+    }
+
     public void close() {
         try {
-            webSocketClientSession.close();
+            clientRelay.getTarget().close();
         } catch (IOException e) {
             logger.warn (e.getMessage());
             logger.debug (e, e);
@@ -167,15 +235,19 @@ public class WebSocketProxyForwarder {
 
     public static class WebSocketServerHandshakeHandler extends AbstractWebSocketHandler {
 
-        private final WebSocketSession webSocketServerSession;
+        private final WebSocketMessageRelay serverRelay;
 
         public WebSocketServerHandshakeHandler(WebSocketSession webSocketServerSession) {
-            this.webSocketServerSession = webSocketServerSession;
+            this(new WebSocketMessageRelay(webSocketServerSession, DEFAULT_SEND_BUFFER_SIZE, DEFAULT_SEND_TIME_LIMIT));
+        }
+
+        WebSocketServerHandshakeHandler(WebSocketMessageRelay serverRelay) {
+            this.serverRelay = serverRelay;
         }
 
         @Override
         public void handleMessage(WebSocketSession session, WebSocketMessage<?> webSocketMessage) throws Exception {
-            webSocketServerSession.sendMessage(webSocketMessage);
+            serverRelay.relay(webSocketMessage);
         }
     }
 }
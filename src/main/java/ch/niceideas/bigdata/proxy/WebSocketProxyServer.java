@@ -56,4 +56,10 @@ public interface WebSocketProxyServer extends WebSocketHandler {
     void removeForwardersForService(ServiceWebId serviceId);
 
     WebSocketProxyForwarder createForwarder(ServiceWebId serviceId, WebSocketSession webSocketServerSession, String targetPath);
+
+    /** Rates are averages since the server started */
+    WebSocketForwarderRegistry.Metrics getMetrics();
+
+    /** Rates are computed since the given sample, previously returned to the caller */
+    WebSocketForwarderRegistry.Metrics getMetrics(WebSocketForwarderRegistry.Metrics previous);
 }
\ No newline at end of file
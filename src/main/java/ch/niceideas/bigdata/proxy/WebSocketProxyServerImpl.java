@@ -42,6 +42,7 @@ import ch.niceideas.bigdata.types.Service;
 import ch.niceideas.bigdata.types.ServiceWebId;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.annotation.Scope;
@@ -52,8 +53,8 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
 import java.net.SocketException;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Handles establishment and tracking of next 'hop', and
@@ -72,11 +73,19 @@ public class WebSocketProxyServerImpl extends AbstractWebSocketHandler implement
     @Autowired
     private ServicesDefinition servicesDefinition;
 
-    protected final Map<ServiceWebId, Map<String, Map<String, WebSocketProxyForwarder>>> forwarders = new ConcurrentHashMap<>();
+    @Value ("${proxy.webSocket.sendBufferSize:1048576}")
+    private long sendBufferSize = WebSocketProxyForwarder.DEFAULT_SEND_BUFFER_SIZE;
+
+    @Value ("${proxy.webSocket.sendTimeLimit:30000}")
+    private long sendTimeLimit = WebSocketProxyForwarder.DEFAULT_SEND_TIME_LIMIT;
+
+    protected final WebSocketForwarderRegistry forwarders = new WebSocketForwarderRegistry();
+
+    private volatile WebSocketForwarderRegistry.Metrics lastLoggedMetrics;
 
     /* For tests */
     protected Map<ServiceWebId, Map<String, Map<String, WebSocketProxyForwarder>>> getForwarders() {
-        return Collections.unmodifiableMap(forwarders);
+        return forwarders.snapshot();
     }
 
     public WebSocketProxyServerImpl() {
@@ -117,12 +126,7 @@ public class WebSocketProxyServerImpl extends AbstractWebSocketHandler implement
     }
 
     protected WebSocketProxyForwarder getForwarder(ServiceWebId serviceId, WebSocketSession webSocketServerSession, String targetPath) {
-
-        Map<String, Map<String, WebSocketProxyForwarder>> forwardersForService = forwarders.computeIfAbsent(serviceId, k -> new HashMap<>());
-
-        Map<String, WebSocketProxyForwarder> forwardersForSession = forwardersForService.computeIfAbsent(webSocketServerSession.getId(), k -> new HashMap<>());
-
-        return forwardersForSession.computeIfAbsent(targetPath, k  -> {
+        return forwarders.getOrCreate(serviceId, webSocketServerSession.getId(), targetPath, () -> {
             logger.info ("Creating new forwarder for session : " + webSocketServerSession.getId() + " - service ID : " + serviceId + " - target path : " + targetPath);
             return createForwarder(serviceId, webSocketServerSession, targetPath);
         });
@@ -130,43 +134,36 @@ public class WebSocketProxyServerImpl extends AbstractWebSocketHandler implement
 
     @Override
     public WebSocketProxyForwarder createForwarder(ServiceWebId serviceId, WebSocketSession webSocketServerSession, String targetPath) {
-        return new WebSocketProxyForwarder(serviceId, targetPath, proxyManagerService, webSocketServerSession);
+        return new WebSocketProxyForwarder(serviceId, targetPath, proxyManagerService, webSocketServerSession,
+                sendBufferSize, sendTimeLimit);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
 
         logger.info ("Dropping all forwarders for session ID " + session.getId() + "");
-        forwarders.values()
-                .forEach(forwardersForService -> {
-                            new ArrayList<>(forwardersForService.keySet()).stream()
-                                    .filter(sessionId -> sessionId.equals(session.getId()))
-                                    .map(forwardersForService::get)
-                                    .forEach(forwardersForSession -> {
-                                        forwardersForSession.values()
-                                                .forEach(WebSocketProxyForwarder::close);
-                                        forwardersForSession.clear();
-                                    });
-                            forwardersForService.remove(session.getId());
-                        }
-                );
+        forwarders.removeSession(session.getId());
+        if (logger.isDebugEnabled()) {
+            // rates since the previous session closed
+            WebSocketForwarderRegistry.Metrics metrics = forwarders.getMetrics(lastLoggedMetrics);
+            lastLoggedMetrics = metrics;
+            logger.debug ("Websocket forwarders - " + metrics);
+        }
     }
 
     @Override
     public void removeForwardersForService(ServiceWebId serviceId) {
         logger.info ("Dropping all forwarders for service ID " + serviceId + " (will be recreated lazily)");
-        forwarders.keySet().stream()
-                .filter(service -> service.equals(serviceId))
-                .map(service -> forwarders.get(serviceId))
-                .forEach(forwardersForService -> {
-                    forwardersForService.values()
-                            .forEach(forwardersForSession ->
-                                forwardersForSession.values()
-                                        .forEach(WebSocketProxyForwarder::close)
-                            );
-                    forwardersForService.clear();
-                });
-
-        forwarders.remove(serviceId);
+        forwarders.removeService(serviceId);
+    }
+
+    @Override
+    public WebSocketForwarderRegistry.Metrics getMetrics() {
+        return forwarders.getMetrics();
+    }
+
+    @Override
+    public WebSocketForwarderRegistry.Metrics getMetrics(WebSocketForwarderRegistry.Metrics previous) {
+        return forwarders.getMetrics(previous);
     }
-}
\ No newline at end of file
+}
@@ -43,6 +43,7 @@ import lombok.EqualsAndHashCode;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.BindException;
 
 
@@ -50,6 +51,8 @@ public interface ConnectionManagerService {
 
     SSHConnection getPrivateConnection (Node node) throws ConnectionManagerException;
 
+    SSHConnection getPooledConnection (Node node) throws ConnectionManagerException;
+
     SSHConnection getSharedConnection (Node node) throws ConnectionManagerException;
 
     void recreateTunnels(Node host) throws ConnectionManagerException;
@@ -63,6 +66,9 @@ public interface ConnectionManagerService {
 
         private final LocalPortForwarder forwarder;
 
+        @EqualsAndHashCode.Exclude
+        private final Thread acceptThread;
+
         @EqualsAndHashCode.Exclude
         private final Service service;
 
@@ -80,6 +86,7 @@ public interface ConnectionManagerService {
             try {
                 logger.info("Creating tunnel for service " + service + " - from " + localPort + " to " + targetHost + ":" + targetPort);
                 this.forwarder = connection.createLocalPortForwarder(localPort, targetHost.getAddress(), targetPort);
+                this.acceptThread = getAcceptThread(forwarder);
             } catch (BindException e) {
                 logger.error (e, e);
                 throw new RemoveForwarderException (e);
@@ -106,6 +113,33 @@ public interface ConnectionManagerService {
             }
         }
 
+        /**
+         * Connecting to the local port would open a channel to the service for nothing, the thread accepting the
+         * connections of the tunnel is checked instead. It stops as soon as the local port stops accepting connections.
+         *
+         * @return true if the tunnel still accepts connections on its local port.
+         */
+        public boolean isAccepting() {
+            return acceptThread == null || acceptThread.isAlive();
+        }
+
+        /* The library doesn't expose the accept thread of a forwarder, its state is not checked if it can't be found */
+        private static Thread getAcceptThread(LocalPortForwarder forwarder) {
+            if (forwarder == null) {
+                return null;
+            }
+            try {
+                Field acceptThreadField = LocalPortForwarder.class.getDeclaredField("lat");
+                acceptThreadField.setAccessible(true);
+                Object acceptThread = acceptThreadField.get(forwarder);
+                return acceptThread instanceof Thread ? (Thread) acceptThread : null;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.warn ("Can't supervise the accept thread of tunnels - " + e.getMessage());
+                logger.debug (e, e);
+                return null;
+            }
+        }
+
         public boolean matches (Service service, int localPort, Node targetHost, int targetPort) {
             return service.equals(this.service)
                     && (localPort == this.localPort)
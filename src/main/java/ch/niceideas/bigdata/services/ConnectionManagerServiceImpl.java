@@ -40,6 +40,7 @@ import ch.niceideas.bigdata.model.SSHConnection;
 import ch.niceideas.bigdata.model.service.proxy.ProxyTunnelConfig;
 import ch.niceideas.bigdata.proxy.ProxyManagerService;
 import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.utils.OperationDeadlineTimer;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,13 +51,11 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 @Component
@@ -84,6 +83,12 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
     @Value("${connectionManager.maximumConnectionAge}")
     private int maximumConnectionAge = 600000;
 
+    @Value("${connectionManager.tunnelSupervisorPeriod}")
+    private int tunnelSupervisorPeriod = 30000;
+
+    @Value("${connectionManager.tunnelDrainTimeout}")
+    private int tunnelDrainTimeout = 120000;
+
     @Value("${connectionManager.sshOperationTimeout}")
     private int sshOperationTimeout = 120000;
 
@@ -93,32 +98,65 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
     @Value("${connectionManager.statusOperationTimeout}")
     private int statusOperationTimeout = 1800000;
 
-    private final ReentrantLock connectionMapLock = new ReentrantLock();
+    @Value("${connectionManager.poolConnectionsPerNode}")
+    private int poolConnectionsPerNode = 3;
+
+    @Value("${connectionManager.poolMaxChannelsPerConnection}")
+    private int poolMaxChannelsPerConnection = 8;
+
+    // No global lock here : a slow handshake with one node must not block threads needing other nodes
+    protected final Map<Node, SSHConnection> connectionMap = new ConcurrentHashMap<>();
+    protected final Map<SSHConnection, List<LocalPortForwarderWrapper>> portForwardersMap = new ConcurrentHashMap<>();
 
-    protected final Map<Node, SSHConnection> connectionMap = new HashMap<>();
-    protected final Map<SSHConnection, List<LocalPortForwarderWrapper>> portForwardersMap = new HashMap<>();
+    // time of last use, connections left unused for too long are recreated on next use
+    protected final Map<Node, Long> connectionAges = new ConcurrentHashMap<>();
 
-    protected final Map<Node, Long> connectionAges = new HashMap<>();
+    // connections in use are renewed by the tunnel supervisor before being too old
+    protected final Map<Node, Long> connectionCreationTimes = new ConcurrentHashMap<>();
 
-    protected String privateSShKeyContent = null;
+    // threads needing a connection to a node being connected to wait on the same connection attempt
+    private final Map<Node, CompletableFuture<SSHConnection>> pendingConnections = new ConcurrentHashMap<>();
 
-    protected final List<SSHConnection> connectionsToCloseLazily = new ArrayList<>();
+    protected volatile String privateSShKeyContent = null;
+
+    protected final Queue<SSHConnection> connectionsToCloseLazily = new ConcurrentLinkedQueue<>();
+
+    private SSHConnectionPool connectionPool = null;
 
     private final ScheduledExecutorService scheduler;
 
+    // a node slow to answer must not hold back the supervision of the others, nor the lazy closer on the scheduler
+    private final ExecutorService tunnelSupervisor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "tunnel-supervisor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<Node> supervisedNodes = ConcurrentHashMap.newKeySet();
+
     public ConnectionManagerServiceImpl() {
         scheduler = Executors.newSingleThreadScheduledExecutor();
 
         logger.info ("Initializing connection closer scheduler ...");
         scheduler.scheduleAtFixedRate(() -> {
-            for (SSHConnection connection : connectionsToCloseLazily) {
+            SSHConnection connection;
+            while ((connection = connectionsToCloseLazily.poll()) != null) {
                 logger.info ("Lazily closing connection to " + connection.getHostname());
                 closeConnection(connection);
             }
-            connectionsToCloseLazily.clear();
+            getConnectionPool().evictExpired();
+            if (logger.isDebugEnabled()) {
+                logger.debug ("SSH operation deadlines - " + OperationDeadlineTimer.shared().getMetrics());
+            }
         }, maximumConnectionAge, maximumConnectionAge, TimeUnit.MILLISECONDS);
     }
 
+    @PostConstruct
+    public void init() {
+        logger.info ("Initializing tunnel supervisor ...");
+        scheduler.scheduleWithFixedDelay(this::superviseTunnels, tunnelSupervisorPeriod, tunnelSupervisorPeriod, TimeUnit.MILLISECONDS);
+    }
+
     private void __dumpPortForwardersMap () {
         new HashSet<>(portForwardersMap.entrySet()).forEach(entry -> {
            logger.debug(" - " + entry.getKey().getHostname());
@@ -133,6 +171,8 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
         if (scheduler != null) {
             scheduler.shutdownNow();
         }
+        tunnelSupervisor.shutdownNow();
+        getConnectionPool().closeAll();
     }
 
     @Override
@@ -146,11 +186,27 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
         }
     }
 
+    @Override
+    public SSHConnection getPooledConnection (Node node) throws ConnectionManagerException {
+        return getConnectionPool().lease(node);
+    }
+
     @Override
     public SSHConnection getSharedConnection (Node node) throws ConnectionManagerException {
         return getConnectionInternal(node);
     }
 
+    // created lazily since configuration values are only injected after construction
+    protected synchronized SSHConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new SSHConnectionPool(
+                    this::getPrivateConnection,
+                    poolConnectionsPerNode, poolMaxChannelsPerConnection,
+                    maximumConnectionAge, scriptOperationTimeout);
+        }
+        return connectionPool;
+    }
+
     private void closeConnection (SSHConnection connection) {
         try {
             logger.info ("Closing connection to " + connection.getHostname());
@@ -167,8 +223,12 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
     }
 
     private void removeConnectionAndRegisterClose(Node node, SSHConnection connection) {
-        connectionMap.remove(node);
+        if (!connectionMap.remove(node, connection)) {
+            // already removed (and possibly replaced) by another thread
+            return;
+        }
         connectionAges.remove(node);
+        connectionCreationTimes.remove(node);
 
         // tunnels should be closed immediately !
         try {
@@ -194,61 +254,244 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
         Optional.ofNullable(connectionMap.get(host)).ifPresent(con -> dropTunnelsToBeClosed(con, host));
     }
 
-    private SSHConnection getConnectionInternal (Node node) throws ConnectionManagerException {
+    /**
+     * Renews the connections in use about to reach their maximum age or got into problems and recreates the tunnels
+     * that stopped accepting connections, so that proxied requests don't have to wait for tunnels to be recreated.
+     * <br>
+     * Nodes are supervised in parallel, a node still being supervised from the previous period is skipped.
+     *
+     * @return the supervision of each node, for tests to wait for them
+     */
+    List<Future<?>> superviseTunnels() {
+        List<Future<?>> supervisions = new ArrayList<>();
+        for (Map.Entry<Node, SSHConnection> entry : new HashMap<>(connectionMap).entrySet()) {
+            Node node = entry.getKey();
+            if (supervisedNodes.add(node)) {
+                try {
+                    supervisions.add(tunnelSupervisor.submit(() -> {
+                        try {
+                            superviseTunnels(node, entry.getValue());
+                        } finally {
+                            supervisedNodes.remove(node);
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    supervisedNodes.remove(node);
+                    logger.debug (e, e);
+                }
+            }
+        }
+        return supervisions;
+    }
 
-        connectionMapLock.lock();
+    private void superviseTunnels(Node node, SSHConnection connection) {
+        try {
+            long now = System.currentTimeMillis();
+            Long creationTime = connectionCreationTimes.get(node);
+            Long lastUse = connectionAges.get(node);
+            long renewalMargin = Math.min(2L * tunnelSupervisorPeriod, maximumConnectionAge / 2L);
+
+            // connections left unused are not renewed, they are recreated on next use
+            if (creationTime != null && creationTime + maximumConnectionAge - renewalMargin < now
+                    && lastUse != null && lastUse + maximumConnectionAge >= now) {
+                logger.info ("Connection to " + node + " is about to be too old. Renewing ...");
+                renewConnection(node, connection);
+
+            } else if (!isAlive(connection)) {
+                logger.warn ("Connection to " + node + " got into problems. Renewing ...");
+                renewConnection(node, connection);
+
+            } else {
+                recreateDeadTunnels(connection, node);
+            }
+        } catch (ConnectionManagerException | RuntimeException e) {
+            logger.warn ("Could not supervise tunnels to " + node + " - got " + e.getClass() + ":" + e.getMessage());
+            logger.debug (e, e);
+        }
+    }
 
+    private boolean isAlive(SSHConnection connection) {
+        ConnectionOperationWatchDog watchDog = new ConnectionOperationWatchDog(connection);
         try {
+            connection.sendIgnorePacket();
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            logger.debug (e, e);
+            return false;
+        } finally {
+            watchDog.close();
+        }
+    }
+
+    private void recreateDeadTunnels(SSHConnection connection, Node node) throws ConnectionManagerException {
+        final List<LocalPortForwarderWrapper> currentForwarders = getForwarders(connection);
+        boolean recreate;
+        synchronized (currentForwarders) {
+            recreate = proxyManagerService.getTunnelConfigForHost(node).stream()
+                    .anyMatch(config -> notIn(config, currentForwarders));
+
+            for (LocalPortForwarderWrapper forwarder : currentForwarders) {
+                if (!forwarder.isAccepting()) {
+                    logger.warn ("Tunnel " + forwarder + " doesn't accept connections anymore. Recreating ...");
+                    forwarder.close();
+                    currentForwarders.remove(forwarder);
+                    recreate = true;
+                }
+            }
+        }
+        if (recreate) {
+            recreateTunnels(connection, node);
+        }
+    }
 
-            SSHConnection connection = connectionMap.get(node);
+    /**
+     * Connects a new connection to the node before moving the tunnels to it. The previous connection is only closed
+     * after <code>tunnelDrainTimeout</code>, to let the requests in flight through its tunnels complete.
+     */
+    private void renewConnection(Node node, SSHConnection previous) throws ConnectionManagerException {
 
-            // if connection doesn't exist, create it
-            if (connection == null) {
-                connection = createConnectionInternal(node, statusOperationTimeout);
+        SSHConnection renewed;
+        try {
+            renewed = createConnectionInternal(node, statusOperationTimeout);
+        } catch (IOException | JSONException | FileException | SetupException e) {
+            throw new ConnectionManagerException(e);
+        }
 
-                recreateTunnels(connection, node);
+        final List<LocalPortForwarderWrapper> previousForwarders = getForwarders(previous);
+        final List<LocalPortForwarderWrapper> renewedForwarders = getForwarders(renewed);
 
-                connectionMap.put(node, connection);
-                connectionAges.put(node, System.currentTimeMillis());
+        synchronized (previousForwarders) {
+            synchronized (renewedForwarders) {
+
+                if (!connectionMap.replace(node, previous, renewed)) {
+                    // already removed (and possibly replaced) by another thread
+                    closeConnection(renewed);
+                    return;
+                }
+                connectionCreationTimes.put(node, System.currentTimeMillis());
+
+                // A local port can't be bound twice : each tunnel is moved to the new connection right after being
+                // closed on the previous one, where its already accepted connections keep being forwarded.
+                for (ProxyTunnelConfig config : proxyManagerService.getTunnelConfigForHost(node)) {
+                    previousForwarders.stream()
+                            .filter(forwarder -> forwarder.matches(config))
+                            .findFirst()
+                            .ifPresent(forwarder -> {
+                                forwarder.close();
+                                previousForwarders.remove(forwarder);
+                            });
+                    try {
+                        renewedForwarders.add(createPortForwarder(renewed, config));
+                    } catch (ConnectionManagerException e) {
+                        // recreated at next supervision unless removed
+                        logger.warn("Could not move tunnel for "
+                                + config.getService() + " - " + config.getNode() + " - " + config.getRemotePort());
+                    }
+                }
+
+                // tunnels not declared anymore
+                for (LocalPortForwarderWrapper forwarder : previousForwarders) {
+                    forwarder.close();
+                }
+                portForwardersMap.remove(previous);
             }
+        }
 
-            // otherwise test it and attempt to recreate it if it is down or too old
-            else {
+        scheduler.schedule(() -> closeConnection(previous), tunnelDrainTimeout, TimeUnit.MILLISECONDS);
+    }
 
-                try {
+    private SSHConnection getConnectionInternal (Node node) throws ConnectionManagerException {
 
-                    Long connectionAge = connectionAges.get(node);
+        SSHConnection connection = connectionMap.get(node);
 
-                    if (connectionAge + maximumConnectionAge < System.currentTimeMillis()) {
-                        logger.warn ("Previous connection to " + node + " is too old. Recreating ...");
-                        removeConnectionAndRegisterClose(node, connection);
-                        return getConnectionInternal(node);
-                    }
+        // if connection exists, test it and recreate it if it is down or too old
+        if (connection != null) {
 
-                    try (ConnectionOperationWatchDog ignored = new ConnectionOperationWatchDog(connection)) {
-                        //connection.ping(); // this is too buggy !!! Waits for the socket outputStream result like forever and seems impossible to kill
-                        connection.sendIgnorePacket();
-                    }
+            try {
 
-                    // update connection age
-                    connectionAges.put(node, System.currentTimeMillis());
+                Long connectionAge = connectionAges.get(node);
 
-                } catch (IOException | IllegalStateException e) {
-                    logger.warn ("Previous connection to " + node + " got into problems ("+e.getMessage()+"). Recreating ...");
+                if (connectionAge != null && connectionAge + maximumConnectionAge < System.currentTimeMillis()) {
+                    logger.warn ("Previous connection to " + node + " is too old. Recreating ...");
                     removeConnectionAndRegisterClose(node, connection);
                     return getConnectionInternal(node);
                 }
+
+                try (ConnectionOperationWatchDog ignored = new ConnectionOperationWatchDog(connection)) {
+                    //connection.ping(); // this is too buggy !!! Waits for the socket outputStream result like forever and seems impossible to kill
+                    connection.sendIgnorePacket();
+                }
+
+                // update connection age
+                connectionAges.put(node, System.currentTimeMillis());
+
+                return connection;
+
+            } catch (IOException | IllegalStateException e) {
+                logger.warn ("Previous connection to " + node + " got into problems ("+e.getMessage()+"). Recreating ...");
+                removeConnectionAndRegisterClose(node, connection);
+                return getConnectionInternal(node);
             }
+        }
 
+        // otherwise create it, or wait for the thread already creating it
+        CompletableFuture<SSHConnection> newConnection = new CompletableFuture<>();
+        CompletableFuture<SSHConnection> pendingConnection = pendingConnections.putIfAbsent(node, newConnection);
+        if (pendingConnection != null) {
+            return waitForPendingConnection(node, pendingConnection);
+        }
+
+        try {
+
+            // may have been created in between by a thread just done with it
+            connection = connectionMap.get(node);
+
+            if (connection == null) {
+                connection = createConnectionInternal(node, statusOperationTimeout);
+
+                recreateTunnels(connection, node);
+
+                connectionMap.put(node, connection);
+                connectionAges.put(node, System.currentTimeMillis());
+                connectionCreationTimes.put(node, System.currentTimeMillis());
+            }
+
+            newConnection.complete(connection);
             return connection;
 
         } catch (IOException | JSONException | FileException | SetupException e) {
             logger.error ("When recreating connection to " + node +" - got " + e.getClass() + ":" + e.getMessage());
             logger.debug (e, e);
+            newConnection.completeExceptionally(e);
             throw new ConnectionManagerException(e);
 
+        } catch (ConnectionManagerException | RuntimeException e) {
+            newConnection.completeExceptionally(e);
+            throw e;
+
         } finally  {
-            connectionMapLock.unlock();
+            pendingConnections.remove(node, newConnection);
+        }
+    }
+
+    private SSHConnection waitForPendingConnection(Node node, CompletableFuture<SSHConnection> pendingConnection)
+            throws ConnectionManagerException {
+        // the creating thread connects, authenticates and then sets up the tunnels of the node before completing
+        long tunnelsSetupTimeout = (long) sshOperationTimeout * proxyManagerService.getTunnelConfigForHost(node).size();
+        try {
+            return pendingConnection.get(
+                    tcpConnectionTimeout + sshKeyExchangeTimeout + (long) sshOperationTimeout + tunnelsSetupTimeout,
+                    TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConnectionManagerException) {
+                throw (ConnectionManagerException) e.getCause();
+            }
+            throw new ConnectionManagerException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new ConnectionManagerException(new IOException("Timeout waiting for connection to " + node));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionManagerException(e);
         }
     }
 
@@ -286,18 +529,20 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
 
         // close port forwarders that are not declared anymore
         final List<LocalPortForwarderWrapper> currentForwarders = getForwarders(connection);
-        List<LocalPortForwarderWrapper> toBeClosed = currentForwarders.stream()
-                .filter(forwarder -> notIn (forwarder, keptTunnelConfigs))
-                .collect(Collectors.toList());
+        synchronized (currentForwarders) {
+            List<LocalPortForwarderWrapper> toBeClosed = currentForwarders.stream()
+                    .filter(forwarder -> notIn(forwarder, keptTunnelConfigs))
+                    .collect(Collectors.toList());
 
-        for (LocalPortForwarderWrapper forwarder : toBeClosed) {
-            try {
-                forwarder.close();
-            } catch (Exception e) {
-                logger.warn(e.getMessage());
-                logger.debug(e, e);
+            for (LocalPortForwarderWrapper forwarder : toBeClosed) {
+                try {
+                    forwarder.close();
+                } catch (Exception e) {
+                    logger.warn(e.getMessage());
+                    logger.debug(e, e);
+                }
+                currentForwarders.remove(forwarder);
             }
-            currentForwarders.remove(forwarder);
         }
     }
 
@@ -310,22 +555,26 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
 
         final List<LocalPortForwarderWrapper> currentForwarders = getForwarders(connection);
 
-        dropTunnelsToBeClosed(connection, node);
+        // tunnels of a connection are changed by one thread at a time
+        synchronized (currentForwarders) {
 
-        // Find out about declared forwarders to be handled
-        List<ProxyTunnelConfig> tunnelConfigs = proxyManagerService.getTunnelConfigForHost(node);
+            dropTunnelsToBeClosed(connection, node);
 
-        // recreate those that need to be recreated
-        List<ProxyTunnelConfig> toBeCreated = tunnelConfigs.stream()
-                .filter(config -> notIn (config, currentForwarders))
-                .collect(Collectors.toList());
+            // Find out about declared forwarders to be handled
+            List<ProxyTunnelConfig> tunnelConfigs = proxyManagerService.getTunnelConfigForHost(node);
 
-        for (ProxyTunnelConfig config : toBeCreated) {
-            try {
-                currentForwarders.add(createPortForwarder(connection, config));
-            } catch (RemoveForwarderException e) {
-                logger.warn ("Not trying any further to recreate forwarder for "
-                        + config.getService() + " - " + config.getNode() + " - " + config.getRemotePort());
+            // recreate those that need to be recreated
+            List<ProxyTunnelConfig> toBeCreated = tunnelConfigs.stream()
+                    .filter(config -> notIn(config, currentForwarders))
+                    .collect(Collectors.toList());
+
+            for (ProxyTunnelConfig config : toBeCreated) {
+                try {
+                    currentForwarders.add(createPortForwarder(connection, config));
+                } catch (RemoveForwarderException e) {
+                    logger.warn("Not trying any further to recreate forwarder for "
+                            + config.getService() + " - " + config.getNode() + " - " + config.getRemotePort());
+                }
             }
         }
 
@@ -341,7 +590,7 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
     }
 
     private List<LocalPortForwarderWrapper> getForwarders(SSHConnection connection) {
-        return portForwardersMap.computeIfAbsent(connection, k -> new ArrayList<>());
+        return portForwardersMap.computeIfAbsent(connection, k -> new CopyOnWriteArrayList<>());
     }
 
     private boolean notIn(ProxyTunnelConfig config, List<LocalPortForwarderWrapper> previousForwarders) {
@@ -354,18 +603,15 @@ public class ConnectionManagerServiceImpl implements ConnectionManagerService{
 
     private class ConnectionOperationWatchDog implements AutoCloseable {
 
-        private final ScheduledExecutorService scheduler;
+        private final OperationDeadlineTimer.Deadline deadline;
 
         public ConnectionOperationWatchDog(SSHConnection connection) {
-            scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> closeConnection(connection), sshOperationTimeout, TimeUnit.MILLISECONDS);
+            deadline = OperationDeadlineTimer.shared().schedule(() -> closeConnection(connection), sshOperationTimeout);
         }
 
         @Override
         public void close() {
-            if (scheduler != null) {
-                scheduler.shutdownNow();
-            }
+            deadline.cancel();
         }
     }
 
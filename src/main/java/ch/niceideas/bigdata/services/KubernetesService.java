@@ -41,6 +41,7 @@ import ch.niceideas.bigdata.model.ServicesInstallStatusWrapper;
 import ch.niceideas.bigdata.model.service.ServiceDefinition;
 import ch.niceideas.bigdata.types.Node;
 import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.utils.KubeStatusParser;
 
 import java.util.Map;
 
@@ -61,6 +62,10 @@ public interface KubernetesService {
             (Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus)
             throws KubernetesException ;
 
+    void fetchKubernetesServicesStatus
+            (Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus, KubeStatusParser parser)
+            throws KubernetesException ;
+
     void applyServicesConfig(KubernetesOperationsCommand command) throws KubernetesException;
 
     boolean shouldInstall(KubernetesServicesConfigWrapper kubeServicesConfig, Service service);
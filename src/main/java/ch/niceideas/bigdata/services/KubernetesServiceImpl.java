@@ -249,7 +249,7 @@ public class KubernetesServiceImpl implements KubernetesService {
 
     private void proceedWithKubernetesServiceUninstallation(MessageLogger ml, Node kubeMasterNode, Service service)
             throws SSHCommandException {
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(kubeMasterNode)){
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(kubeMasterNode)){
             ml.addInfo(sshCommandService.runSSHCommand(connection, "eskimo-kubectl uninstall " + service + " " + kubeMasterNode));
         } catch (ConnectionManagerException e) {
             throw new SSHCommandException(e);
@@ -268,7 +268,21 @@ public class KubernetesServiceImpl implements KubernetesService {
     public void fetchKubernetesServicesStatus
             (Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus)
             throws KubernetesException {
-        
+
+        Node kubeMasterNode = servicesInstallationStatus.getFirstNode(servicesDefinition.getKubeMasterServiceDef());
+
+        // get kubectl status all at once and then below get it from Kubectl result
+        KubeStatusParser parser = KubeStatusParser.getKubeStatusParser(
+                kubeMasterNode, servicesDefinition, systemService, sshCommandService);
+
+        fetchKubernetesServicesStatus(statusMap, servicesInstallationStatus, parser);
+    }
+
+    @Override
+    public void fetchKubernetesServicesStatus
+            (Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus, KubeStatusParser parser)
+            throws KubernetesException {
+
         try {
 
             KubernetesServicesConfigWrapper kubeServicesConfig = configurationService.loadKubernetesServicesConfig();
@@ -280,10 +294,6 @@ public class KubernetesServiceImpl implements KubernetesService {
                 logger.debug("No Kubernetes services are installed");
             }
 
-            // get kubectl status all at once and then below get it from Kubectl result
-            KubeStatusParser parser = KubeStatusParser.getKubeStatusParser(
-                    kubeMasterNode, servicesDefinition, systemService, sshCommandService);
-
             for (Service service : servicesDefinition.listKubernetesServices()) {
 
                 // should service be installed on kubernetes ?
@@ -427,7 +437,7 @@ public class KubernetesServiceImpl implements KubernetesService {
             // Nodes re-setup (topology)
             systemOperationService.applySystemOperation(new KubernetesOperationsCommand.KubernetesOperationId(
                     KubernetesOperationsCommand.KuberneteOperation.INSTALLATION, Service.TOPOLOGY_ALL_NODES),
-                    ml -> systemService.performPooledOperation (new ArrayList<>(nodesStatus.getLiveNodes()), parallelismInstallThreadCount, baseInstallWaitTimout,
+                    ml -> systemService.performPooledOperation (SystemService.PooledOperationKind.KUBERNETES, new ArrayList<>(nodesStatus.getLiveNodes()), parallelismInstallThreadCount, baseInstallWaitTimout,
                             (operation, error) -> {
                                 // topology
                                 if (error.get() == null) {
@@ -446,7 +456,7 @@ public class KubernetesServiceImpl implements KubernetesService {
             // Installation in batches (groups following dependencies)
             for (List<KubernetesOperationsCommand.KubernetesOperationId> operationGroup : command.getOperationsGroupInOrder(servicesInstallationSorter, nodesConfig)) {
 
-                systemService.performPooledOperation(operationGroup, 1, kubernetesOperationWaitTimoutSeconds,
+                systemService.performPooledOperation(SystemService.PooledOperationKind.KUBERNETES, operationGroup, 1, kubernetesOperationWaitTimoutSeconds,
                         (operation, error) -> {
                             if (operation.getOperation().equals(KubernetesOperationsCommand.KuberneteOperation.INSTALLATION)) {
                                 installService(operation, kubeMasterNode);
@@ -477,7 +487,7 @@ public class KubernetesServiceImpl implements KubernetesService {
     private void proceedWithKubernetesServiceInstallation(MessageLogger ml, Node kubeMasterNode, Service service)
             throws IOException, SystemException, SSHCommandException {
 
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(kubeMasterNode)){
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(kubeMasterNode)){
 
             String imageName = servicesDefinition.getServiceDefinition(service).getImageName();
 
@@ -81,6 +81,9 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
     @Autowired
     private MemoryComputer memoryComputer;
 
+    @Autowired
+    private NodePackageCache nodePackageCache;
+
     @Autowired
     private ConfigurationService configurationService;
 
@@ -156,7 +159,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
             }
 
             // Nodes setup
-            systemService.performPooledOperation(command.getNodesCheckOperation(), parallelismInstallThreadCount, baseInstallWaitTimout,
+            systemService.performPooledOperation(SystemService.PooledOperationKind.INSTALLATION, command.getNodesCheckOperation(), parallelismInstallThreadCount, baseInstallWaitTimout,
                     (operation, error) -> {
                         Node node = operation.getNode();
                         if (nodesConfig.getAllNodes().contains(node) && nodesStatus.isNodeAlive(node)) {
@@ -183,7 +186,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
                                             && !operationsMonitoringService.isInterrupted() && (error.get() == null)) {
                                                 operationsMonitoringService.addInfo(operation, "Checking / Installing Kubernetes");
                                             if (isMissingOnNode("k8s", node)) {
-                                                uploadKubernetes(node);
+                                                uploadKubernetes(ml, node);
                                                 ml.addInfo(installK8s(node));
                                                 flagInstalledOnNode("k8s", node);
                                             }
@@ -216,7 +219,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
             // Installation in batches (groups following dependencies)
             for (List<NodeServiceOperationsCommand.ServiceOperationId> operationGroup : command.getOperationsGroupInOrder(servicesInstallationSorter, nodesConfig)) {
 
-                systemService.performPooledOperation(operationGroup, parallelismInstallThreadCount, operationWaitTimoutSeconds,
+                systemService.performPooledOperation(SystemService.PooledOperationKind.INSTALLATION, operationGroup, parallelismInstallThreadCount, operationWaitTimoutSeconds,
                         (operation, error) -> {
                             if (operation.getOperation().equals(NodeServiceOperationsCommand.ServiceOperation.INSTALLATION)) {
                                 if (nodesStatus.isNodeAlive(operation.getNode())) {
@@ -262,10 +265,10 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
     @Override
     public void installEskimoBaseSystem(MessageLogger ml, Node node) throws SSHCommandException {
 
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(node)) {
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(node)) {
 
             ml.addInfo(" - Calling install-eskimo-base-system.sh");
-            ml.addInfo(sshCommandService.runSSHScriptPath(connection, servicesSetupPath + "/base-eskimo/install-eskimo-base-system.sh"));
+            sshCommandService.runSSHScriptPath(connection, servicesSetupPath + "/base-eskimo/install-eskimo-base-system.sh", ml);
 
             ml.addInfo(" - Copying jq program");
             copyCommand("jq-1.6-linux64", "/usr/local/bin/jq", connection);
@@ -336,7 +339,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
             MemoryModel memoryModel, Node node)
             throws SystemException, SSHCommandException, IOException {
 
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(node)) {
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(node)) {
 
             ml.addInfo(" - (Re-)Creating topology File");
             File tempTopologyFile = systemService.createTempFile(Service.TOPOLOGY_FLAG, ".sh");
@@ -399,15 +402,16 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
         }
     }
 
-    private void uploadKubernetes(Node node) throws SSHCommandException, SystemException {
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(node)) {
+    private void uploadKubernetes(MessageLogger ml, Node node) throws SSHCommandException, SystemException {
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(node)) {
 
             File packageDistributionDir = new File (packageDistributionPath);
 
             String kubeFileName = setupService.findLastPackageFile("_", "kube");
             File kubeDistrib = new File (packageDistributionDir, kubeFileName);
 
-            sshCommandService.copySCPFile(connection, kubeDistrib.getAbsolutePath());
+            // install-kubernetes.sh picks the package up from the home folder
+            nodePackageCache.copyPackage(ml, connection, kubeDistrib, "eskimo_kube", kubeFileName);
 
         } catch (ConnectionManagerException e) {
             throw new SystemException(e);
@@ -467,7 +471,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
 
     private void proceedWithServiceUninstallation(MessageLogger ml, Node node, Service service)
             throws SSHCommandException, SystemException {
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(node)) {
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(node)) {
 
             // 1. Calling uninstall.sh script if it exists
             systemService.callUninstallScript(ml, connection, service);
@@ -510,7 +514,7 @@ public class NodesConfigurationServiceImpl implements NodesConfigurationService
 
         String imageName = servicesDefinition.getServiceDefinition(service).getImageName();
 
-        try (SSHConnection connection = connectionManagerService.getPrivateConnection(node)) {
+        try (SSHConnection connection = connectionManagerService.getPooledConnection(node)) {
 
             ml.addInfo(" - Creating archive and copying it over");
             File tmpArchiveFile = systemService.createRemotePackageFolder(ml, connection, service, imageName);
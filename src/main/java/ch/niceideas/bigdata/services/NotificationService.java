@@ -58,8 +58,8 @@ public class NotificationService extends AbstractInformationHolder<JSONObject, L
     private static final Logger logger = Logger.getLogger(NotificationService.class);
 
     @Override
-    protected List<JSONObject> buildFetchedData(int lastLine) {
-        return getSubList(lastLine);
+    protected List<JSONObject> buildFetchedData(List<JSONObject> newEvents) {
+        return newEvents;
     }
 
     public void addError (String message) {
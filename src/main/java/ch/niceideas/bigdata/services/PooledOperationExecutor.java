@@ -0,0 +1,224 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived execution engine behind {@link SystemService#performPooledOperation}.
+ * <p>
+ * There is one pool per kind of operation so that long running installations never starve status fetching. Pools
+ * grow up to the highest parallelism requested so far, their threads are reused across calls and die off when idle.
+ * Every call submits at most as many tasks at a time as its own parallelism, queues are bounded and a task
+ * rejected because of a full queue is run in the submitting thread, slowing submitters down.
+ */
+public class PooledOperationExecutor {
+
+    private static final Logger logger = Logger.getLogger(PooledOperationExecutor.class);
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static final ThreadLocal<SystemService.PooledOperationKind> currentKind = new ThreadLocal<>();
+
+    private final int queueCapacity;
+
+    private final Map<SystemService.PooledOperationKind, ThreadPoolExecutor> pools = new EnumMap<>(SystemService.PooledOperationKind.class);
+    private final Map<SystemService.PooledOperationKind, AtomicLong> rejections = new EnumMap<>(SystemService.PooledOperationKind.class);
+
+    public PooledOperationExecutor(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    private synchronized ThreadPoolExecutor getPool(SystemService.PooledOperationKind kind, int parallelism) {
+        ThreadPoolExecutor pool = pools.get(kind);
+        if (pool == null) {
+            AtomicLong kindRejections = rejections.computeIfAbsent(kind, k -> new AtomicLong());
+            pool = new ThreadPoolExecutor(
+                    parallelism, parallelism, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    new NamedThreadFactory("eskimo-" + kind.name().toLowerCase() + "-"),
+                    (task, executor) -> {
+                        kindRejections.incrementAndGet();
+                        if (!executor.isShutdown()) {
+                            task.run();
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(kind, pool);
+
+        } else if (pool.getMaximumPoolSize() < parallelism) {
+            // raise maximum first, core size can't exceed it
+            pool.setMaximumPoolSize(parallelism);
+            pool.setCorePoolSize(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Runs all the given tasks with at most <code>parallelism</code> of them running at the same time.
+     *
+     * @return false if the tasks could not all complete within the given timeout, in which case tasks not yet
+     * started are dropped
+     */
+    public boolean execute(SystemService.PooledOperationKind kind, List<Runnable> tasks, int parallelism, long timeoutMillis) {
+
+        if (tasks.isEmpty()) {
+            return true;
+        }
+
+        // A task calling back with the same kind of operation would wait for threads of its own pool, possibly all
+        // busy waiting as well. Run these nested operations in the calling thread instead.
+        if (currentKind.get() == kind) {
+            tasks.forEach(Runnable::run);
+            return true;
+        }
+
+        int effParallelism = Math.max(1, Math.min(parallelism, tasks.size()));
+        ThreadPoolExecutor pool = getPool(kind, effParallelism);
+        Semaphore slots = new Semaphore(effParallelism);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        try {
+            int submitted = 0;
+            for (Runnable task : tasks) {
+                if (!slots.tryAcquire(remaining(deadline), TimeUnit.MILLISECONDS)) {
+                    logger.warn ("Could not start " + (tasks.size() - submitted) + " " + kind + " operations within "
+                            + timeoutMillis + " ms");
+                    return false;
+                }
+                pool.execute(() -> {
+                    SystemService.PooledOperationKind previousKind = currentKind.get();
+                    currentKind.set(kind);
+                    try {
+                        task.run();
+                    } finally {
+                        currentKind.set(previousKind);
+                        slots.release();
+                    }
+                });
+                submitted++;
+            }
+
+            // all slots back means all tasks are done
+            if (!slots.tryAcquire(effParallelism, remaining(deadline), TimeUnit.MILLISECONDS)) {
+                logger.warn ("Could not complete " + kind + " operations within " + timeoutMillis + " ms");
+                return false;
+            }
+            return true;
+
+        } catch (InterruptedException e) {
+            logger.debug (e, e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs a single task in the pool of the given kind without waiting for it.
+     */
+    public Future<?> submit(SystemService.PooledOperationKind kind, int parallelism, Runnable task) {
+        return getPool(kind, parallelism).submit(() -> {
+            currentKind.set(kind);
+            try {
+                task.run();
+            } finally {
+                currentKind.remove();
+            }
+        });
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    public synchronized Metrics getMetrics(SystemService.PooledOperationKind kind) {
+        ThreadPoolExecutor pool = pools.get(kind);
+        if (pool == null) {
+            return new Metrics(0, 0, 0, 0, 0);
+        }
+        return new Metrics(
+                pool.getPoolSize(),
+                pool.getActiveCount(),
+                pool.getQueue().size(),
+                pool.getCompletedTaskCount(),
+                rejections.get(kind).get());
+    }
+
+    public synchronized void shutdown() {
+        pools.values().forEach(ThreadPoolExecutor::shutdownNow);
+        pools.clear();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Metrics {
+        private final int poolSize;
+        private final int activeTasks;
+        private final int queueDepth;
+        private final long completedTasks;
+        private final long rejectedTasks;
+
+        @Override
+        public String toString() {
+            return "pool size=" + poolSize + ", active=" + activeTasks + ", queued=" + queueDepth
+                    + ", completed=" + completedTasks + ", rejected=" + rejectedTasks;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicLong counter = new AtomicLong();
+
+        private NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -34,6 +34,7 @@
 
 package ch.niceideas.bigdata.services;
 
+import ch.niceideas.bigdata.model.MessageLogger;
 import ch.niceideas.bigdata.model.SSHConnection;
 import ch.niceideas.bigdata.types.Node;
 
@@ -57,6 +58,14 @@ public interface SSHCommandService {
 
     String runSSHCommand(SSHConnection connection, String command) throws SSHCommandException;
 
+    void runSSHScript(SSHConnection connection, String script, MessageLogger ml) throws SSHCommandException;
+
+    void runSSHScriptPath(SSHConnection connection, String scriptName, MessageLogger ml) throws SSHCommandException;
+
+    void runSSHCommand(SSHConnection connection, String[] command, MessageLogger ml) throws SSHCommandException;
+
+    void runSSHCommand(SSHConnection connection, String command, MessageLogger ml) throws SSHCommandException;
+
     void copySCPFile(Node node, String filePath) throws SSHCommandException;
 
     void copySCPFile(SSHConnection connection, String filePath) throws SSHCommandException;
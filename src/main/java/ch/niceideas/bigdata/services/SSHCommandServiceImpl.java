@@ -39,8 +39,11 @@ import ch.niceideas.common.utils.FileException;
 import ch.niceideas.common.utils.ResourceUtils;
 import ch.niceideas.common.utils.StreamUtils;
 import ch.niceideas.common.utils.StringUtils;
+import ch.niceideas.bigdata.model.MessageLogger;
 import ch.niceideas.bigdata.model.SSHConnection;
 import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.utils.MessageLoggerOutputStream;
+import ch.niceideas.bigdata.utils.OperationDeadlineTimer;
 import ch.niceideas.bigdata.utils.PumpThread;
 import com.trilead.ssh2.ChannelCondition;
 import com.trilead.ssh2.SCPClient;
@@ -48,6 +51,7 @@ import com.trilead.ssh2.Session;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
@@ -67,6 +71,12 @@ public class SSHCommandServiceImpl implements SSHCommandService {
     @Autowired
     private ConfigurationService configurationService;
 
+    @Value("${connectionManager.streamedOutputTailLines}")
+    private int streamedOutputTailLines = 20;
+
+    @Value("${connectionManager.scriptOperationTimeout}")
+    private int scriptOperationTimeout = 1800000;
+
     @Override
     public String runSSHScript(SSHConnection connection, String script) throws SSHCommandException {
         return runSSHScript(connection, script, true);
@@ -86,11 +96,21 @@ public class SSHCommandServiceImpl implements SSHCommandService {
         return runSSHCommand(connection, sb.toString());
     }
 
+    @Override
+    public void runSSHCommand(SSHConnection connection, String[] command, MessageLogger ml) throws SSHCommandException {
+        runSSHCommand(connection, String.join(" ", command), ml);
+    }
+
     @Override
     public String runSSHScriptPath(SSHConnection connection, String scriptName) throws SSHCommandException {
         return runSSHScript(connection, getScriptContent(scriptName));
     }
 
+    @Override
+    public void runSSHScriptPath(SSHConnection connection, String scriptName, MessageLogger ml) throws SSHCommandException {
+        runSSHScript(connection, getScriptContent(scriptName), ml);
+    }
+
     @Override
     public String runSSHScriptPath(Node node, String scriptName) throws SSHCommandException {
         return runSSHScript(node, getScriptContent(scriptName));
@@ -120,27 +140,10 @@ public class SSHCommandServiceImpl implements SSHCommandService {
     @Override
     public String runSSHScript(SSHConnection connection, String script, boolean throwsException) throws SSHCommandException {
 
-        Session session = null;
         try (ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
              ByteArrayOutputStream baosErr = new ByteArrayOutputStream()) {
 
-            session = connection.openSession();
-            session.execCommand("bash --login -s");
-
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(session.getStdin()));
-
-            out.write(script);
-            out.close();
-
-            try (PumpThread ignored1 = new PumpThread(session.getStdout(), baosOut);
-                 PumpThread ignored2 = new PumpThread(session.getStderr(), baosErr)) {
-                session.getStdin().close();
-            }
-
-            // wait for some time since the delivery of the exit status often gets delayed
-            session.waitForCondition(ChannelCondition.EXIT_STATUS, connection.getReadTimeout());
-            int retValue = Optional.ofNullable(session.getExitStatus())
-                    .orElseThrow(() -> new IOException("Could not get a return status within " + connection.getReadTimeout() + " milliseconds"));
+            int retValue = executeScript(connection, script, baosOut, baosErr);
 
             String outResult = baosOut.toString();
             String errResult = baosErr.toString();
@@ -163,8 +166,71 @@ public class SSHCommandServiceImpl implements SSHCommandService {
         } catch (IOException e) {
             logger.error(e, e);
             throw new SSHCommandException(e);
+        }
+    }
+
+    @Override
+    public void runSSHScript(SSHConnection connection, String script, MessageLogger ml) throws SSHCommandException {
+
+        // stdout and stderr lines are interleaved in the order they arrive
+        MessageLoggerOutputStream output = new MessageLoggerOutputStream(ml, streamedOutputTailLines);
+        MessageLoggerOutputStream errors = output.newSibling();
+        try {
+            int retValue = executeScript(connection, script, output, errors);
+            output.flush();
+            errors.flush();
+
+            if (retValue != 0) {
+                throw new SSHCommandException(output.getTail());
+            }
+
+        } catch (InterruptedException e) {
+            logger.error(e, e);
+            Thread.currentThread().interrupt();
+            throw new SSHCommandException(e);
+
+        } catch (IOException e) {
+            logger.error(e, e);
+            throw new SSHCommandException(e);
+        }
+    }
+
+    private int executeScript(SSHConnection connection, String script, OutputStream stdout, OutputStream stderr)
+            throws IOException, InterruptedException {
+
+        Session session = null;
+        OperationDeadlineTimer.Deadline deadline = null;
+        try {
+            session = connection.openSession();
+
+            // closing the session on timeout unblocks the pumps below
+            final Session scriptSession = session;
+            deadline = OperationDeadlineTimer.shared().schedule(scriptSession::close, scriptOperationTimeout);
+
+            session.execCommand("bash --login -s");
+
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(session.getStdin()));
+
+            out.write(script);
+            out.close();
+
+            try (PumpThread ignored1 = new PumpThread(session.getStdout(), stdout);
+                 PumpThread ignored2 = new PumpThread(session.getStderr(), stderr)) {
+                session.getStdin().close();
+            }
+
+            // wait for some time since the delivery of the exit status often gets delayed
+            session.waitForCondition(ChannelCondition.EXIT_STATUS, connection.getReadTimeout());
+            if (deadline.isExpired()) {
+                throw new IOException("Script didn't complete within " + scriptOperationTimeout + " milliseconds");
+            }
+            return Optional.ofNullable(session.getExitStatus())
+                    .orElseThrow(() -> new IOException("Could not get a return status within " + connection.getReadTimeout() + " milliseconds"));
 
         } finally {
+            if (deadline != null) {
+                deadline.cancel();
+            }
             if (session != null) {
                 session.close();
             }
@@ -201,6 +267,55 @@ public class SSHCommandServiceImpl implements SSHCommandService {
         }
     }
 
+    @Override
+    public void runSSHCommand(SSHConnection connection, String command, MessageLogger ml) throws SSHCommandException {
+        MessageLoggerOutputStream output = new MessageLoggerOutputStream(ml, streamedOutputTailLines);
+        MessageLoggerOutputStream errors = output.newSibling();
+        try {
+            int retValue = executeCommand(connection, command, output, errors);
+            output.flush();
+            errors.flush();
+
+            if (retValue != 0) {
+                throw new SSHCommandException("Command exited with return code " + retValue + "\n" + output.getTail());
+            }
+
+        } catch (InterruptedException | IOException e) {
+            logger.error (e, e);
+            Thread.currentThread().interrupt();
+            throw new SSHCommandException(e);
+        }
+    }
+
+    /**
+     * Same as {@link SSHConnection#exec(String, OutputStream)}, but with stdout and stderr kept apart.
+     */
+    private int executeCommand(SSHConnection connection, String command, OutputStream stdout, OutputStream stderr)
+            throws IOException, InterruptedException {
+
+        Session session = connection.openSession();
+        try {
+            session.execCommand(command);
+
+            PumpThread stdoutPump = new PumpThread(session.getStdout(), stdout);
+            PumpThread stderrPump = new PumpThread(session.getStderr(), stderr);
+            try {
+                session.getStdin().close();
+            } finally {
+                stdoutPump.close();
+                stderrPump.close();
+            }
+
+            // wait for some time since the delivery of the exit status often gets delayed
+            session.waitForCondition(ChannelCondition.EXIT_STATUS, connection.getReadTimeout());
+            return Optional.ofNullable(session.getExitStatus())
+                    .orElseThrow(() -> new IOException("Could not get a return status within " + connection.getReadTimeout() + " milliseconds"));
+
+        } finally {
+            session.close();
+        }
+    }
+
     @Override
     public void copySCPFile(Node node, String filePath) throws SSHCommandException {
         try {
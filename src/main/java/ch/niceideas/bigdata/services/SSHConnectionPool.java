@@ -0,0 +1,385 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services;
+
+import ch.niceideas.bigdata.model.SSHConnection;
+import ch.niceideas.bigdata.types.Node;
+import com.trilead.ssh2.*;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Pool of authenticated SSH connections, a few per node, each one multiplexing a bounded number of concurrent
+ * operations (one channel slot per lease).
+ * <p>
+ * A lease is served by the least loaded healthy connection of the node. A new connection is only opened when all
+ * existing ones are busy and the node has not reached its connection limit, otherwise the caller waits for a slot
+ * to be released. Closing a lease gives its slot back to the pool, the underlying connection is kept open until it
+ * fails its health check or gets older than the maximum connection age.
+ */
+public class SSHConnectionPool {
+
+    private static final Logger logger = Logger.getLogger(SSHConnectionPool.class);
+
+    public interface ConnectionFactory {
+        SSHConnection create(Node node) throws ConnectionManagerException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxConnectionsPerNode;
+    private final int maxChannelsPerConnection;
+    private final long maximumConnectionAge;
+    private final long leaseTimeout;
+    private final LongSupplier clock;
+
+    private final Map<Node, NodePool> nodePools = new ConcurrentHashMap<>();
+
+    public SSHConnectionPool(ConnectionFactory factory, int maxConnectionsPerNode, int maxChannelsPerConnection,
+                             long maximumConnectionAge, long leaseTimeout) {
+        this (factory, maxConnectionsPerNode, maxChannelsPerConnection, maximumConnectionAge, leaseTimeout, System::currentTimeMillis);
+    }
+
+    SSHConnectionPool(ConnectionFactory factory, int maxConnectionsPerNode, int maxChannelsPerConnection,
+                      long maximumConnectionAge, long leaseTimeout, LongSupplier clock) {
+        this.factory = factory;
+        this.maxConnectionsPerNode = Math.max(1, maxConnectionsPerNode);
+        this.maxChannelsPerConnection = Math.max(1, maxChannelsPerConnection);
+        this.maximumConnectionAge = maximumConnectionAge;
+        this.leaseTimeout = leaseTimeout;
+        this.clock = clock;
+    }
+
+    /**
+     * The returned connection needs to be closed by the caller, which releases it to the pool.
+     */
+    public SSHConnection lease(Node node) throws ConnectionManagerException {
+        return nodePools.computeIfAbsent(node, NodePool::new).lease();
+    }
+
+    /**
+     * Closes idle connections too old to be leased again.
+     */
+    public void evictExpired() {
+        nodePools.values().forEach(NodePool::evictExpired);
+    }
+
+    public void closeAll() {
+        nodePools.values().forEach(NodePool::closeAll);
+        nodePools.clear();
+    }
+
+    public int getConnectionCount(Node node) {
+        NodePool nodePool = nodePools.get(node);
+        return nodePool == null ? 0 : nodePool.getConnectionCount();
+    }
+
+    public int getActiveLeases(Node node) {
+        NodePool nodePool = nodePools.get(node);
+        return nodePool == null ? 0 : nodePool.getActiveLeases();
+    }
+
+    private static void closeQuietly(SSHConnection connection) {
+        try {
+            logger.info ("Closing pooled connection to " + connection.getHostname());
+            connection.close();
+        } catch (Exception e) {
+            logger.debug (e, e);
+        }
+    }
+
+    private static class PooledConnection {
+
+        private final SSHConnection connection;
+        private final long creationTime;
+        private int leases = 0;
+        private boolean retired = false;
+
+        PooledConnection(SSHConnection connection, long creationTime) {
+            this.connection = connection;
+            this.creationTime = creationTime;
+        }
+    }
+
+    private class NodePool {
+
+        private final Node node;
+        private final List<PooledConnection> connections = new ArrayList<>();
+        private int pendingCreations = 0;
+
+        NodePool(Node node) {
+            this.node = node;
+        }
+
+        SSHConnection lease() throws ConnectionManagerException {
+            long deadline = clock.getAsLong() + leaseTimeout;
+            while (true) {
+                PooledConnection candidate;
+                List<SSHConnection> toBeClosed = new ArrayList<>();
+                synchronized (this) {
+                    candidate = findLeastLoaded(toBeClosed);
+                    boolean mayCreate = connections.size() + pendingCreations < maxConnectionsPerNode;
+
+                    if (candidate != null && (candidate.leases == 0 || !mayCreate)) {
+                        candidate.leases++;
+                    } else if (mayCreate) {
+                        candidate = null;
+                        pendingCreations++;
+                    } else {
+                        waitForRelease(deadline);
+                        continue;
+                    }
+                }
+                toBeClosed.forEach(SSHConnectionPool::closeQuietly);
+
+                if (candidate == null) {
+                    return new Lease(this, createConnection());
+                }
+
+                if (isHealthy(candidate)) {
+                    return new Lease(this, candidate);
+                }
+                retire(candidate);
+            }
+        }
+
+        private PooledConnection findLeastLoaded(List<SSHConnection> toBeClosed) {
+            long now = clock.getAsLong();
+            PooledConnection leastLoaded = null;
+            for (PooledConnection pooled : new ArrayList<>(connections)) {
+                if (!pooled.retired && pooled.creationTime + maximumConnectionAge < now) {
+                    logger.info ("Pooled connection to " + node + " is too old. Retiring ...");
+                    pooled.retired = true;
+                }
+                if (pooled.retired) {
+                    if (pooled.leases == 0) {
+                        connections.remove(pooled);
+                        toBeClosed.add(pooled.connection);
+                    }
+                } else if (pooled.leases < maxChannelsPerConnection
+                        && (leastLoaded == null || pooled.leases < leastLoaded.leases)) {
+                    leastLoaded = pooled;
+                }
+            }
+            return leastLoaded;
+        }
+
+        private void waitForRelease(long deadline) throws ConnectionManagerException {
+            long remaining = deadline - clock.getAsLong();
+            if (remaining <= 0) {
+                throw new ConnectionManagerException(
+                        "Timeout waiting for an SSH channel to " + node + " - all pooled connections are busy");
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionManagerException(e);
+            }
+        }
+
+        private PooledConnection createConnection() throws ConnectionManagerException {
+            PooledConnection pooled = null;
+            try {
+                pooled = new PooledConnection(factory.create(node), clock.getAsLong());
+                pooled.leases = 1;
+                return pooled;
+            } finally {
+                synchronized (this) {
+                    pendingCreations--;
+                    if (pooled != null) {
+                        connections.add(pooled);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        private boolean isHealthy(PooledConnection pooled) {
+            try {
+                pooled.connection.sendIgnorePacket();
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                logger.warn ("Pooled connection to " + node + " got into problems ("+e.getMessage()+"). Discarding ...");
+                return false;
+            }
+        }
+
+        private void retire(PooledConnection pooled) {
+            synchronized (this) {
+                pooled.retired = true;
+            }
+            release(pooled);
+        }
+
+        void release(PooledConnection pooled) {
+            boolean close;
+            synchronized (this) {
+                pooled.leases--;
+                close = pooled.retired && pooled.leases == 0 && connections.remove(pooled);
+                notifyAll();
+            }
+            if (close) {
+                closeQuietly(pooled.connection);
+            }
+        }
+
+        void evictExpired() {
+            List<SSHConnection> toBeClosed = new ArrayList<>();
+            synchronized (this) {
+                findLeastLoaded(toBeClosed);
+            }
+            toBeClosed.forEach(SSHConnectionPool::closeQuietly);
+        }
+
+        void closeAll() {
+            List<SSHConnection> toBeClosed = new ArrayList<>();
+            synchronized (this) {
+                connections.forEach(pooled -> {
+                    pooled.retired = true;
+                    if (pooled.leases == 0) {
+                        toBeClosed.add(pooled.connection);
+                    }
+                });
+                connections.removeIf(pooled -> pooled.leases == 0);
+            }
+            toBeClosed.forEach(SSHConnectionPool::closeQuietly);
+        }
+
+        synchronized int getConnectionCount() {
+            return connections.size();
+        }
+
+        synchronized int getActiveLeases() {
+            return connections.stream().mapToInt(pooled -> pooled.leases).sum();
+        }
+    }
+
+    /**
+     * Connection handed out to callers, delegating to the pooled connection and releasing it when closed.
+     */
+    private static class Lease extends SSHConnection {
+
+        private final NodePool nodePool;
+        private final PooledConnection pooled;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        Lease(NodePool nodePool, PooledConnection pooled) {
+            super(pooled.connection);
+            this.nodePool = nodePool;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                nodePool.release(pooled);
+            }
+        }
+
+        @Override
+        public boolean authenticateWithPublicKey(String user, char[] pemPrivateKey, String password) throws IOException {
+            return pooled.connection.authenticateWithPublicKey(user, pemPrivateKey, password);
+        }
+
+        @Override
+        public boolean authenticateWithPublicKey(String user, File pemFile, String password) throws IOException {
+            return pooled.connection.authenticateWithPublicKey(user, pemFile, password);
+        }
+
+        @Override
+        public ConnectionInfo connect() throws IOException {
+            return pooled.connection.connect();
+        }
+
+        @Override
+        public ConnectionInfo connect(ServerHostKeyVerifier verifier, int connectTimeout, int kexTimeout) throws IOException {
+            return pooled.connection.connect(verifier, connectTimeout, kexTimeout);
+        }
+
+        @Override
+        public LocalPortForwarder createLocalPortForwarder(int localPort, String hostToConnect, int portToConnect) throws IOException {
+            return pooled.connection.createLocalPortForwarder(localPort, hostToConnect, portToConnect);
+        }
+
+        @Override
+        public SCPClient createSCPClient() throws IOException {
+            return pooled.connection.createSCPClient();
+        }
+
+        @Override
+        public String getHostname() {
+            return pooled.connection.getHostname();
+        }
+
+        @Override
+        public boolean isAuthenticationComplete() {
+            return pooled.connection.isAuthenticationComplete();
+        }
+
+        @Override
+        public Session openSession() throws IOException {
+            return pooled.connection.openSession();
+        }
+
+        @Override
+        public void sendIgnorePacket() throws IOException {
+            pooled.connection.sendIgnorePacket();
+        }
+
+        @Override
+        public void setTCPNoDelay(boolean enable) throws IOException {
+            pooled.connection.setTCPNoDelay(enable);
+        }
+
+        @Override
+        public int exec(String command, OutputStream output) throws IOException, InterruptedException {
+            return pooled.connection.exec(command, output);
+        }
+
+        @Override
+        public String toString() {
+            return pooled.connection.toString();
+        }
+    }
+}
@@ -144,7 +144,7 @@ public class ServicesSettingsServiceImpl implements ServicesSettingsService {
                     MemoryModel memoryModel = memoryComputer.buildMemoryModel(nodesConfig, kubeServicesConfig, nodesStatus.getDeadNodes());
 
                     // Nodes setup
-                    systemService.performPooledOperation (restartCommand.getNodesCheckOperation(nodesConfig), parallelismInstallThreadCount, baseInstallWaitTimout,
+                    systemService.performPooledOperation (SystemService.PooledOperationKind.INSTALLATION, restartCommand.getNodesCheckOperation(nodesConfig), parallelismInstallThreadCount, baseInstallWaitTimout,
                             (operation, error) -> {
                                 Node node = operation.getNode();
                                 if (nodesConfig.getAllNodes().contains(node) && nodesStatus.isNodeAlive(node)) {
@@ -164,7 +164,7 @@ public class ServicesSettingsServiceImpl implements ServicesSettingsService {
                     // restarts
                     for (List<NodeServiceOperationsCommand.ServiceOperationId> restarts :
                             restartCommand.getRestartsInOrder(servicesInstallationSorter, nodesConfig)) {
-                        systemService.performPooledOperation(restarts, parallelismInstallThreadCount, operationWaitTimoutSeconds,
+                        systemService.performPooledOperation(SystemService.PooledOperationKind.INSTALLATION, restarts, parallelismInstallThreadCount, operationWaitTimoutSeconds,
                                 (operation, error) -> {
                                     if (operation.getNode().equals(Node.KUBERNETES_FLAG) || nodesStatus.isNodeAlive(operation.getNode())) {
                                         nodesConfigurationService.restartServiceForSystem(operation);
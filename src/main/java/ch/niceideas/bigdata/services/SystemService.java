@@ -66,6 +66,8 @@ public interface SystemService {
 
     SystemStatusWrapper getStatus() throws StatusExceptionWrapperException;
 
+    SystemStatusDelta getStatusDelta(long sinceEpoch, long sinceVersion) throws StatusExceptionWrapperException;
+
     void updateStatus();
 
     void handleStatusChanges(
@@ -76,7 +78,7 @@ public interface SystemService {
     NodesStatus discoverAliveAndDeadNodes(Set<Node> allNodes, NodesConfigWrapper nodesConfig) throws SystemException;
 
     <T extends Serializable> void performPooledOperation(
-            List<T> operations, int parallelism, long operationWaitTimout, PooledOperation<T> operation)
+            PooledOperationKind kind, List<T> operations, int parallelism, long operationWaitTimout, PooledOperation<T> operation)
             throws SystemException;
 
     boolean isNodeUp(Node node);
@@ -105,6 +107,12 @@ public interface SystemService {
 
     void runPreUninstallHooks(MessageLogger ml, OperationId<?> operation) throws SystemException;
 
+    enum PooledOperationKind {
+        STATUS,
+        INSTALLATION,
+        KUBERNETES
+    }
+
     interface PooledOperation<T> {
         void call(T operation, AtomicReference<Exception> error)
                 throws SystemException;
@@ -37,15 +37,19 @@ package ch.niceideas.bigdata.services;
 import ch.niceideas.common.utils.FileException;
 import ch.niceideas.common.utils.FileUtils;
 import ch.niceideas.common.utils.Pair;
+import ch.niceideas.common.utils.SerializablePair;
 import ch.niceideas.common.utils.StringUtils;
 import ch.niceideas.bigdata.model.*;
 import ch.niceideas.bigdata.model.service.Dependency;
 import ch.niceideas.bigdata.model.service.ServiceDefinition;
 import ch.niceideas.bigdata.proxy.ProxyManagerService;
+import ch.niceideas.bigdata.services.satellite.NodePackageCache;
 import ch.niceideas.bigdata.services.satellite.NodeRangeResolver;
 import ch.niceideas.bigdata.services.satellite.NodesConfigurationException;
 import ch.niceideas.bigdata.types.Node;
 import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.utils.NodeStatusProbe;
+import ch.niceideas.bigdata.utils.NodeStatusScheduler;
 import ch.niceideas.bigdata.utils.SchedulerHelper;
 import ch.niceideas.bigdata.utils.SystemStatusParser;
 import org.apache.log4j.Logger;
@@ -95,6 +99,9 @@ public class SystemServiceImpl implements SystemService {
     @Autowired
     private NodeRangeResolver nodeRangeResolver;
 
+    @Autowired
+    private NodePackageCache nodePackageCache;
+
     @Autowired
     private ConfigurationService configurationService;
 
@@ -116,6 +123,9 @@ public class SystemServiceImpl implements SystemService {
     @Value("${system.statusFetchThreadCount}")
     private int parallelismStatusThreadCount = 10;
 
+    @Value("${system.pooledOperationQueueCapacity}")
+    private int pooledOperationQueueCapacity = 1000;
+
     @Value("${system.packageDistributionPath}")
     protected String packageDistributionPath = "./packages_distrib";
 
@@ -123,15 +133,36 @@ public class SystemServiceImpl implements SystemService {
     protected String servicesSetupPath = "./services_setup";
 
     @Value("${system.statusUpdatePeriodSeconds}")
-    private int statusUpdatePeriodSeconds = 5;
+    protected int statusUpdatePeriodSeconds = 5;
+
+    @Value("${system.batchedStatusProbe}")
+    protected boolean batchedStatusProbe = false;
+
+    @Value("${system.adaptiveStatusScheduler}")
+    protected boolean adaptiveStatusScheduler = false;
+
+    @Value("${system.statusHealthyPeriodSeconds}")
+    private int statusHealthyPeriodSeconds = 30;
+
+    @Value("${system.statusFlappingPeriodSeconds}")
+    private int statusFlappingPeriodSeconds = 5;
+
+    @Value("${system.statusMaxBackoffSeconds}")
+    private int statusMaxBackoffSeconds = 300;
 
     private final ReentrantLock statusUpdateLock = new ReentrantLock();
     private final ScheduledExecutorService statusRefreshScheduler;
     protected final AtomicReference<SystemStatusWrapper> lastStatus = new AtomicReference<>();
     protected final AtomicReference<Exception> lastStatusException = new AtomicReference<>();
+    protected final SystemStatusHistory statusHistory = new SystemStatusHistory();
 
     private final Map<String, Integer> serviceMissingCounter = new ConcurrentHashMap<>();
 
+    private PooledOperationExecutor pooledOperationExecutor = null;
+
+    private NodeStatusScheduler nodeStatusScheduler = null;
+    private String nodeStatusSchedulerInputs = null;
+
     // constructor for spring
     public SystemServiceImpl() {
         this (true);
@@ -140,12 +171,24 @@ public class SystemServiceImpl implements SystemService {
         statusRefreshScheduler = SchedulerHelper.scheduleRunnableOneShot(createUpdateScheduler, statusUpdatePeriodSeconds, this::updateStatus);
     }
 
+    protected synchronized PooledOperationExecutor getPooledOperationExecutor() {
+        if (pooledOperationExecutor == null) {
+            pooledOperationExecutor = new PooledOperationExecutor(pooledOperationQueueCapacity);
+        }
+        return pooledOperationExecutor;
+    }
+
     @PreDestroy
     public void destroy() {
         logger.info ("Cancelling status updater scheduler");
         if (statusRefreshScheduler != null) {
             statusRefreshScheduler.shutdownNow();
         }
+        synchronized (this) {
+            if (pooledOperationExecutor != null) {
+                pooledOperationExecutor.shutdown();
+            }
+        }
     }
 
     @Override
@@ -277,6 +320,21 @@ public class SystemServiceImpl implements SystemService {
         return lastStatus.get();
     }
 
+    @Override
+    public SystemStatusDelta getStatusDelta(long sinceEpoch, long sinceVersion) throws StatusExceptionWrapperException {
+
+        if (lastStatusException.get() != null) {
+            throw new StatusExceptionWrapperException (lastStatusException.get());
+        }
+
+        SystemStatusDelta delta = statusHistory.getDeltaSince(sinceEpoch, sinceVersion);
+        if (delta == null) {
+            // no status recorded yet
+            return SystemStatusDelta.full(statusHistory.getEpoch(), 0, getStatus());
+        }
+        return delta;
+    }
+
     @Override
     public void updateStatus() {
 
@@ -305,32 +363,40 @@ public class SystemServiceImpl implements SystemService {
                 // 2. Build merged status
                 final ConcurrentHashMap<String, String> statusMap = new ConcurrentHashMap<>();
 
-                performPooledOperation(
-                        nodesConfig.getNodes(), parallelismStatusThreadCount, statusOperationTimeout / 1000,
-                        (operation, error) -> {
-                            Node node = operation.getValue();
-
-                            statusMap.put(("node_nbr_" + node.getName()), "" + operation.getKey());
-                            statusMap.put(("node_address_" + node.getName()), node.getAddress());
-
-                            fetchNodeStatus(nodesConfig, statusMap, operation, servicesInstallationStatus);
-                        });
+                final Node kubeMasterNode = servicesInstallationStatus.getFirstNode(servicesDefinition.getKubeMasterServiceDef());
 
-                // fetch kubernetes services status
-                try {
-                    kubernetesService.fetchKubernetesServicesStatus(statusMap, servicesInstallationStatus);
-                } catch (KubernetesException e) {
-                    logger.debug(e, e);
-                    // workaround : flag all Kubernetes services as KO on kube node
-                    Node kubeNode = servicesInstallationStatus.getFirstNode(servicesDefinition.getKubeMasterServiceDef());
-                    if (kubeNode != null) {
-                        KubernetesServicesConfigWrapper kubeServicesConfig = configurationService.loadKubernetesServicesConfig();
-                        for (Service service : servicesDefinition.listKubernetesServices()) {
-                            if (kubernetesService.shouldInstall(kubeServicesConfig, service)) {
-                                statusMap.put(SystemStatusWrapper.SERVICE_PREFIX + service + "_" + kubeNode.getName(), "KO");
-                            }
-                        }
+                if (adaptiveStatusScheduler) {
+                    // kubernetes statuses are part of the kube master node status and are probed on its cadence
+                    fetchNodesStatusAdaptive(nodesConfig, statusMap, servicesInstallationStatus, kubeMasterNode);
+                    if (kubeMasterNode == null) {
+                        // doesn't reach any node, only flags the kubernetes services as not running
+                        fetchKubernetesServicesStatus(statusMap, servicesInstallationStatus, null);
                     }
+                } else {
+                    // in batched mode, kubernetes statuses are fetched along with the kube master node status
+                    final AtomicReference<NodeStatusProbe> kubeMasterProbe = new AtomicReference<>();
+
+                    performPooledOperation(PooledOperationKind.STATUS,
+                            nodesConfig.getNodes(), parallelismStatusThreadCount, statusOperationTimeout / 1000,
+                            (operation, error) -> {
+                                Node node = operation.getValue();
+
+                                statusMap.put(("node_nbr_" + node.getName()), "" + operation.getKey());
+                                statusMap.put(("node_address_" + node.getName()), node.getAddress());
+
+                                if (batchedStatusProbe) {
+                                    NodeStatusProbe probe = fetchNodeStatusBatched(
+                                            nodesConfig, statusMap, operation, servicesInstallationStatus, node.equals(kubeMasterNode));
+                                    if (node.equals(kubeMasterNode)) {
+                                        kubeMasterProbe.set(probe);
+                                    }
+                                } else {
+                                    fetchNodeStatus(nodesConfig, statusMap, operation, servicesInstallationStatus);
+                                }
+                            });
+
+                    // fetch kubernetes services status
+                    fetchKubernetesServicesStatus(statusMap, servicesInstallationStatus, kubeMasterProbe.get());
                 }
 
                 // fill in systemStatus
@@ -347,6 +413,8 @@ public class SystemServiceImpl implements SystemService {
             // 5. Handle status update if a service seem to have disappeared
 
             // 5.1 Test if any additional node should be check for being live
+            //     (nodes still pending their first status probe are status nodes, they are neither tested here nor
+            //     counted as vanished below)
             Set<Node> systemStatusNodes = systemStatus.getNodes();
             Set<Node> additionalIpToTests = servicesInstallationStatus.getNodes().stream()
                     .filter(ip -> !systemStatusNodes.contains(ip))
@@ -362,6 +430,7 @@ public class SystemServiceImpl implements SystemService {
 
             handleStatusChanges(servicesInstallationStatus, systemStatus, configuredNodesAndOtherLiveNodes);
 
+            statusHistory.update(systemStatus);
             lastStatus.set (systemStatus);
             lastStatusException.set (null);
 
@@ -393,16 +462,16 @@ public class SystemServiceImpl implements SystemService {
 
     @Override
     public <T extends Serializable> void performPooledOperation(
-            List<T> operations, int parallelism, long operationWaitTimoutSec, PooledOperation<T> operation)
+            PooledOperationKind kind, List<T> operations, int parallelism, long operationWaitTimoutSec, PooledOperation<T> operation)
             throws SystemException {
 
-        final ExecutorService threadPool = Executors.newFixedThreadPool(parallelism);
         final AtomicReference<Exception> error = new AtomicReference<>();
 
+        List<Runnable> tasks = new ArrayList<>();
         for (T opToPerform : operations) {
 
             if (!operationsMonitoringService.isInterrupted()) {
-                threadPool.execute(() -> {
+                tasks.add(() -> {
 
                     if (!operationsMonitoringService.isInterrupted() && (error.get() == null)) {
 
@@ -418,13 +487,12 @@ public class SystemServiceImpl implements SystemService {
             }
         }
 
-        threadPool.shutdown();
-        try {
-            if (!threadPool.awaitTermination(operationWaitTimoutSec, TimeUnit.SECONDS)) {
-                logger.warn ("Could not complete operation within " + operationWaitTimoutSec + " seconds");
-            }
-        } catch (InterruptedException e) {
-            logger.debug (e, e);
+        if (!getPooledOperationExecutor().execute(kind, tasks, parallelism, operationWaitTimoutSec * 1000)) {
+            logger.warn ("Could not complete operation within " + operationWaitTimoutSec + " seconds");
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug (kind + " operations pool - " + getPooledOperationExecutor().getMetrics(kind));
         }
 
         if (error.get() != null) {
@@ -433,45 +501,179 @@ public class SystemServiceImpl implements SystemService {
         }
     }
 
+    protected void fetchNodesStatusAdaptive
+            (NodesConfigWrapper nodesConfig, Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus,
+             Node kubeMasterNode) {
+
+        synchronized (this) {
+            if (nodeStatusScheduler == null) {
+                nodeStatusScheduler = new NodeStatusScheduler(
+                        statusUpdatePeriodSeconds * 1000L, statusHealthyPeriodSeconds * 1000L,
+                        statusFlappingPeriodSeconds * 1000L, statusMaxBackoffSeconds * 1000L);
+            }
+        }
+
+        // cached node statuses depend on the nodes config and installation status, they need to be refreshed on changes
+        String schedulerInputs = nodesConfig.getFormattedValue() + servicesInstallationStatus.getFormattedValue();
+        if (!schedulerInputs.equals(nodeStatusSchedulerInputs)) {
+            nodeStatusScheduler.reset();
+            nodeStatusSchedulerInputs = schedulerInputs;
+        }
+
+        List<SerializablePair<Integer, Node>> nodes = nodesConfig.getNodes();
+        Map<Node, Pair<Integer, Node>> nbrAndPairByNode = nodes.stream()
+                .collect(Collectors.toMap(Pair::getValue, nbrAndPair -> nbrAndPair));
+
+        List<Future<?>> probes = new ArrayList<>();
+        for (Node node : nodeStatusScheduler.nextDueNodes(nbrAndPairByNode.keySet())) {
+            Pair<Integer, Node> nbrAndPair = nbrAndPairByNode.get(node);
+            probes.add(getPooledOperationExecutor().submit(PooledOperationKind.STATUS, parallelismStatusThreadCount, () -> {
+                Map<String, String> nodeStatus = new ConcurrentHashMap<>();
+                try {
+                    boolean kubeMaster = node.equals(kubeMasterNode);
+                    NodeStatusProbe probe = null;
+                    if (batchedStatusProbe) {
+                        probe = fetchNodeStatusBatched(nodesConfig, nodeStatus, nbrAndPair, servicesInstallationStatus, kubeMaster);
+                    } else {
+                        fetchNodeStatus(nodesConfig, nodeStatus, nbrAndPair, servicesInstallationStatus);
+                    }
+                    if (kubeMaster) {
+                        fetchKubernetesServicesStatus(nodeStatus, servicesInstallationStatus, probe);
+                    }
+                    nodeStatusScheduler.probeCompleted(node, nodeStatus);
+                } catch (SystemException | RuntimeException e) {
+                    logger.warn ("Couldn't fetch status of " + node + " - " + e.getMessage());
+                    logger.debug (e, e);
+                    nodeStatusScheduler.probeFailed(node);
+                }
+            }));
+        }
+
+        // don't wait on slow nodes for longer than a status period, their status is merged in on a later update
+        long deadline = System.currentTimeMillis() + statusUpdatePeriodSeconds * 1000L;
+        for (Future<?> probe : probes) {
+            try {
+                probe.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.debug ("Status probe still running, not waiting for it anymore");
+            } catch (ExecutionException e) {
+                logger.debug (e, e);
+            } catch (InterruptedException e) {
+                logger.debug (e, e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (Pair<Integer, Node> nbrAndPair : nodes) {
+            Node node = nbrAndPair.getValue();
+            statusMap.put(("node_nbr_" + node.getName()), "" + nbrAndPair.getKey());
+            statusMap.put(("node_address_" + node.getName()), node.getAddress());
+
+            Map<String, String> nodeStatus = nodeStatusScheduler.getNodeStatus(node);
+            if (nodeStatus != null) {
+                statusMap.putAll(nodeStatus);
+            } else {
+                // nodes never probed successfully so far are neither alive nor dead until their first probe completes
+                statusMap.put(SystemStatusWrapper.NODE_ALIVE_FLAG + node.getName(), SystemStatusWrapper.NODE_PROBE_PENDING);
+            }
+        }
+    }
+
+    protected void fetchKubernetesServicesStatus
+            (Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus, NodeStatusProbe kubeMasterProbe)
+                throws SystemException {
+        try {
+            if (kubeMasterProbe != null) {
+                kubernetesService.fetchKubernetesServicesStatus(
+                        statusMap, servicesInstallationStatus, kubeMasterProbe.getKubeStatusParser());
+            } else {
+                kubernetesService.fetchKubernetesServicesStatus(statusMap, servicesInstallationStatus);
+            }
+        } catch (KubernetesException e) {
+            logger.debug(e, e);
+            // workaround : flag all Kubernetes services as KO on kube node
+            Node kubeNode = servicesInstallationStatus.getFirstNode(servicesDefinition.getKubeMasterServiceDef());
+            if (kubeNode != null) {
+                KubernetesServicesConfigWrapper kubeServicesConfig = configurationService.loadKubernetesServicesConfig();
+                for (Service service : servicesDefinition.listKubernetesServices()) {
+                    if (kubernetesService.shouldInstall(kubeServicesConfig, service)) {
+                        statusMap.put(SystemStatusWrapper.SERVICE_PREFIX + service + "_" + kubeNode.getName(), "KO");
+                    }
+                }
+            }
+        }
+    }
+
     protected void fetchNodeStatus
             (NodesConfigWrapper nodesConfig, Map<String, String> statusMap, Pair<Integer, Node> nbrAndPair,
              ServicesInstallStatusWrapper servicesInstallationStatus)
                 throws SystemException {
 
-        int nodeNbr = nbrAndPair.getKey();
         Node node = nbrAndPair.getValue();
 
         // 3.1 Node answers
         try {
             if (!isNodeUp(node)) {
+                feedInNodeStatus(nodesConfig, statusMap, nbrAndPair, servicesInstallationStatus, null);
+            } else {
+                feedInNodeStatus(nodesConfig, statusMap, nbrAndPair, servicesInstallationStatus,
+                        new SystemStatusParser(node, sshCommandService, servicesDefinition));
+            }
+        } catch (SSHCommandException | JSONException | ConnectionManagerException e) {
+            logger.error(e, e);
+            throw new SystemException(e.getMessage(), e);
+        }
+    }
 
-                statusMap.put(("node_alive_" + node.getName()), "KO");
+    protected NodeStatusProbe fetchNodeStatusBatched
+            (NodesConfigWrapper nodesConfig, Map<String, String> statusMap, Pair<Integer, Node> nbrAndPair,
+             ServicesInstallStatusWrapper servicesInstallationStatus, boolean kubeMaster)
+                throws SystemException {
 
-            } else {
+        // liveness, services statuses and kubernetes statuses all come from one single SSH round-trip
+        NodeStatusProbe probe = NodeStatusProbe.probe(nbrAndPair.getValue(), kubeMaster, servicesDefinition, sshCommandService);
+        try {
+            feedInNodeStatus(nodesConfig, statusMap, nbrAndPair, servicesInstallationStatus,
+                    probe.isAlive() ? probe.getSystemStatusParser() : null);
+        } catch (JSONException | ConnectionManagerException e) {
+            logger.error(e, e);
+            throw new SystemException(e.getMessage(), e);
+        }
+        return probe;
+    }
 
-                statusMap.put(("node_alive_" + node.getName()), "OK");
+    private void feedInNodeStatus
+            (NodesConfigWrapper nodesConfig, Map<String, String> statusMap, Pair<Integer, Node> nbrAndPair,
+             ServicesInstallStatusWrapper servicesInstallationStatus, SystemStatusParser parser)
+                throws ConnectionManagerException {
 
-                SystemStatusParser parser = new SystemStatusParser(node, sshCommandService, servicesDefinition);
+        int nodeNbr = nbrAndPair.getKey();
+        Node node = nbrAndPair.getValue();
 
-                for (Service service : servicesDefinition.listAllNodesServices()) {
+        if (parser == null) {
 
-                    // should service be installed on node ?
-                    boolean shall = nodesConfig.shouldInstall (service, nodeNbr);
+            statusMap.put(("node_alive_" + node.getName()), "KO");
 
-                    // check if service is installed ?
-                    // check if service installed using SSH
-                    String serviceStatus = parser.getServiceStatus(service);
-                    boolean installed = !serviceStatus.equals("NA");
-                    boolean running = serviceStatus.equalsIgnoreCase("running");
+        } else {
 
-                    feedInServiceStatus (
-                            statusMap, servicesInstallationStatus, node, node,
-                            service, shall, installed, running);
-                }
+            statusMap.put(("node_alive_" + node.getName()), "OK");
+
+            for (Service service : servicesDefinition.listAllNodesServices()) {
+
+                // should service be installed on node ?
+                boolean shall = nodesConfig.shouldInstall (service, nodeNbr);
+
+                // check if service is installed ?
+                // check if service installed using SSH
+                String serviceStatus = parser.getServiceStatus(service);
+                boolean installed = !serviceStatus.equals("NA");
+                boolean running = serviceStatus.equalsIgnoreCase("running");
+
+                feedInServiceStatus (
+                        statusMap, servicesInstallationStatus, node, node,
+                        service, shall, installed, running);
             }
-        } catch (SSHCommandException | JSONException | ConnectionManagerException e) {
-            logger.error(e, e);
-            throw new SystemException(e.getMessage(), e);
         }
     }
 
@@ -604,10 +806,7 @@ public class SystemServiceImpl implements SystemService {
 
                             // reset missing counter on kubernetes services when kube is down
                             configuredNodesAndOtherLiveNodes.forEach(
-                                    effNode -> new ArrayList<>(serviceMissingCounter.keySet()).stream()
-                                                .filter(flag -> flag.equals(savedService + "-" + effNode))
-                                                .forEach(serviceMissingCounter::remove)
-                            );
+                                    effNode -> serviceMissingCounter.remove(savedService + "-" + effNode));
                             continue;
                         }
 
@@ -730,7 +929,7 @@ public class SystemServiceImpl implements SystemService {
             File uninstallScriptFile = new File(containerFolder, "uninstall.sh");
             if (uninstallScriptFile.exists()) {
                 ml.addInfo(" - Calling uninstall script");
-                ml.addInfo(sshCommandService.runSSHScriptPath(connection, uninstallScriptFile.getAbsolutePath()));
+                sshCommandService.runSSHScriptPath(connection, uninstallScriptFile.getAbsolutePath(), ml);
             }
         } catch (SSHCommandException e) {
             logger.warn (e, e);
@@ -774,11 +973,11 @@ public class SystemServiceImpl implements SystemService {
     }
 
     void exec(SSHConnection connection, MessageLogger ml, String[] setupScript) throws SSHCommandException {
-        ml.addInfo(sshCommandService.runSSHCommand(connection, setupScript));
+        sshCommandService.runSSHCommand(connection, setupScript, ml);
     }
 
     void exec(SSHConnection connection, MessageLogger ml, String command) throws SSHCommandException {
-        ml.addInfo(sshCommandService.runSSHCommand(connection, command));
+        sshCommandService.runSSHCommand(connection, command, ml);
     }
 
     @Override
@@ -789,7 +988,7 @@ public class SystemServiceImpl implements SystemService {
         Set<Node> nodesToTest = new HashSet<>(allNodes);
         nodesToTest.addAll(nodesConfig.getAllNodes());
 
-        performPooledOperation(new ArrayList<>(nodesToTest), parallelismStatusThreadCount, statusOperationTimeout / 100,
+        performPooledOperation(PooledOperationKind.STATUS, new ArrayList<>(nodesToTest), parallelismStatusThreadCount, statusOperationTimeout / 100,
                 (node, error) -> {
                     // handle potential interruption request
                     if (!operationsMonitoringService.isInterrupted()) {
@@ -880,14 +1079,9 @@ public class SystemServiceImpl implements SystemService {
             File containerFile = new File(packageDistributionPath + "/" + imageFileName);
             if (containerFile.exists()) {
 
-                ml.addInfo(" - Copying over docker image " + imageFileName);
-                sshCommandService.copySCPFile(connection, packageDistributionPath + "/" + imageFileName);
-
-                exec(connection, ml, new String[]{"mv", imageFileName, SystemServiceImpl.TMP_PATH_PREFIX + service + "/"});
-
-                exec(connection, ml, new String[]{"mv",
-                        SystemServiceImpl.TMP_PATH_PREFIX + service + "/" + imageFileName,
-                        SystemServiceImpl.TMP_PATH_PREFIX + service + "/" + SetupService.DOCKER_TEMPLATE_PREFIX + imageName + ".tar.gz"});
+                nodePackageCache.copyPackage(ml, connection, containerFile,
+                        SetupService.DOCKER_TEMPLATE_PREFIX + imageName,
+                        SystemServiceImpl.TMP_PATH_PREFIX + service + "/" + SetupService.DOCKER_TEMPLATE_PREFIX + imageName + ".tar.gz");
 
             } else {
                 ml.addInfo(" - (no container found for " + service + "OperationsMonitoringServiceTest - will just invoke setup)");
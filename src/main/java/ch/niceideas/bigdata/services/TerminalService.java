@@ -35,8 +35,11 @@
 package ch.niceideas.bigdata.services;
 
 import ch.niceideas.bigdata.terminal.ScreenImage;
+import ch.niceideas.bigdata.terminal.ScrollbackImage;
+import ch.niceideas.bigdata.terminal.Session;
 
 import java.io.IOException;
+import java.util.List;
 
 
 public interface TerminalService {
@@ -45,6 +48,24 @@ public interface TerminalService {
 
     ScreenImage postUpdate(String terminalBody) throws IOException;
 
+    /**
+     * Returns the terminal session with the given ID, opening it on the given node if it doesn't exist yet.
+     * <code>width</code> and <code>height</code> fall back to the configured defaults when null.
+     */
+    Session openTerminal(String node, String sessionId, Integer width, Integer height) throws IOException;
+
+    /**
+     * Returns at most <code>count</code> lines scrolled off the screen of the given session, starting at
+     * <code>fromLine</code>, or the last <code>count</code> ones when <code>fromLine</code> is negative.
+     */
+    ScrollbackImage fetchScrollback(String sessionId, long fromLine, int count) throws IOException;
+
+    /**
+     * Returns the numbers of the lines scrolled off the screen of the given session matching <code>regex</code>,
+     * before <code>beforeLine</code> (everywhere when negative), most recent first.
+     */
+    List<Long> searchScrollback(String sessionId, String regex, long beforeLine, int maxResults) throws IOException;
+
     class TerminalException extends RuntimeException {
 
         static final long serialVersionUID = -331151672312431248L;
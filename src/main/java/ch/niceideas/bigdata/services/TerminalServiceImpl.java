@@ -37,6 +37,7 @@ package ch.niceideas.bigdata.services;
 import ch.niceideas.common.utils.StringUtils;
 import ch.niceideas.bigdata.model.SSHConnection;
 import ch.niceideas.bigdata.terminal.ScreenImage;
+import ch.niceideas.bigdata.terminal.ScrollbackImage;
 import ch.niceideas.bigdata.terminal.Session;
 import ch.niceideas.bigdata.terminal.SshProcess;
 import ch.niceideas.bigdata.types.Node;
@@ -56,11 +57,14 @@ import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 
 @Component
@@ -79,6 +83,9 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
     @Value("${terminal.idleTimeoutSeconds}")
     private long idleTimeoutSeconds = 1800;
 
+    @Value("${terminal.scrollbackLines}")
+    private int scrollbackLines = 5000;
+
     @Autowired
     private ConnectionManagerService connectionManagerService;
 
@@ -124,7 +131,7 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
     void removeExpiredTerminals(long effIdleTimeoutSecs) {
         for (String sessionId : new ArrayList<>(sessions.keySet())) {
             Session session = sessions.get (sessionId);
-            if (System.currentTimeMillis() - session.getLastAccess() > effIdleTimeoutSecs * 1000) {
+            if (!session.isStreaming() && System.currentTimeMillis() - session.getLastAccess() > effIdleTimeoutSecs * 1000) {
                 try {
                     logger.info("Closing session with ID " + sessionId + " (idle tineout)");
                     removeTerminal(sessionId);
@@ -179,7 +186,7 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
            String h = extractArgument (terminalBody, "h");
 
            Session session = getSession(
-                   terminalBody,
+                   extractArgument (terminalBody, "node"),
                    StringUtils.isBlank(w) ? defaultSessionWidth : Integer.parseInt(w),
                    StringUtils.isBlank(h) ? defaultSessionWHeight : Integer.parseInt(h),
                    sessionId);
@@ -205,6 +212,45 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
        }
     }
 
+    @Override
+    public Session openTerminal(String node, String sessionId, Integer width, Integer height) throws IOException {
+        logger.debug(sessionId);
+        try {
+            return getSession(
+                    node,
+                    width == null ? defaultSessionWidth : width,
+                    height == null ? defaultSessionWHeight : height,
+                    sessionId);
+        } catch (ConnectionManagerException e) {
+            logger.error (e, e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public ScrollbackImage fetchScrollback(String sessionId, long fromLine, int count) throws IOException {
+        return getExistingSession(sessionId).fetchScrollback(true, fromLine, count);
+    }
+
+    @Override
+    public List<Long> searchScrollback(String sessionId, String regex, long beforeLine, int maxResults) throws IOException {
+        Session session = getExistingSession(sessionId);
+        try {
+            return session.searchScrollback(Pattern.compile(regex), beforeLine, maxResults);
+        } catch (PatternSyntaxException e) {
+            logger.debug (e, e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private Session getExistingSession(String sessionId) throws IOException {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new IOException("Session not found : " + sessionId);
+        }
+        return session;
+    }
+
     String urlDecode(String terminalBody) {
         try {
             return URLDecoder.decode(extractArgument (terminalBody,  "k"), StandardCharsets.UTF_8.name());
@@ -214,13 +260,11 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
         }
     }
 
-    synchronized Session getSession(String terminalBody, int sessionWidth, int sessionHeight, String sessionId) throws ConnectionManagerException, IOException {
+    synchronized Session getSession(String node, int sessionWidth, int sessionHeight, String sessionId) throws ConnectionManagerException, IOException {
         Session session = sessions.get(sessionId);
 
         if (session == null) {
 
-            String node = extractArgument (terminalBody, "node");
-
             SSHConnection con = connectionManagerService.getPrivateConnection(Node.fromAddress(node));
 
             com.trilead.ssh2.Session innerSession = con.openSession();
@@ -228,7 +272,7 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
             innerSession.requestPTY(Session.AJAX_TERM_NAME, sessionWidth, sessionHeight, 0, 0, null);
             innerSession.startShell();
 
-            session = new Session(con, sessionWidth, sessionHeight, new SshProcess(innerSession));
+            session = new Session(con, sessionWidth, sessionHeight, scrollbackLines, new SshProcess(innerSession));
 
             sessions.put(sessionId, session);
 
@@ -247,7 +291,7 @@ public class TerminalServiceImpl implements TerminalService, Serializable {
                 } catch (IOException dumped) {
                     logger.debug (dumped);
                 }
-                return getSession(terminalBody, sessionWidth, sessionHeight, sessionId);
+                return getSession(node, sessionWidth, sessionHeight, sessionId);
             }
         }
         return session;
@@ -157,7 +157,7 @@ public class MemoryComputer {
         // concurrently build map of ipAddress -> full RAM in MB
         Map<Node, Long> memoryMap = new ConcurrentHashMap<>();
 
-        systemService.performPooledOperation(
+        systemService.performPooledOperation(SystemService.PooledOperationKind.INSTALLATION,
                 nodesConfig.getAllNodes(), parallelismInstallThreadCount, operationWaitTimout,
                 (node, error) -> {
                     if (!deadNodes.contains(node)) {
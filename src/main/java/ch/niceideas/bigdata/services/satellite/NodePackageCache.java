@@ -0,0 +1,176 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services.satellite;
+
+import ch.niceideas.bigdata.model.MessageLogger;
+import ch.niceideas.bigdata.model.SSHConnection;
+import ch.niceideas.bigdata.services.SSHCommandException;
+import ch.niceideas.bigdata.services.SSHCommandService;
+import lombok.AllArgsConstructor;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed cache of package archives (docker templates, kubernetes distribution) kept on every node.
+ * <p>
+ * A package is stored on the node under its SHA-256 digest. It is only transferred when the node holds no copy with
+ * the same digest, otherwise the cached copy is reused. Only the last version of every package is kept on nodes.
+ * Digests of local packages are computed once and reused as long as the file isn't changed.
+ */
+@Component
+@Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
+public class NodePackageCache {
+
+    private static final Logger logger = Logger.getLogger(NodePackageCache.class);
+
+    private static final String PACKAGE_EXTENSION = ".tar.gz";
+
+    @Autowired
+    private SSHCommandService sshCommandService;
+
+    @Value("${system.nodePackageCacheEnabled}")
+    private boolean nodePackageCacheEnabled = true;
+
+    @Value("${system.nodePackageCachePath}")
+    private String nodePackageCachePath = ".eskimo_packages_cache";
+
+    private final Map<String, LocalDigest> localDigests = new ConcurrentHashMap<>();
+
+    /* for tests */
+    void setNodePackageCacheEnabled (boolean nodePackageCacheEnabled) {
+        this.nodePackageCacheEnabled = nodePackageCacheEnabled;
+    }
+
+    /**
+     * Makes the given package available on the node behind the connection.
+     *
+     * @param packageName the name of the package regardless of its version, used to replace older versions on nodes
+     * @param targetPath where the package is expected on the node, relative to the home folder of the SSH user
+     *                   unless absolute
+     * @return true if the package had to be transferred
+     */
+    public boolean copyPackage(MessageLogger ml, SSHConnection connection, File packageFile, String packageName, String targetPath)
+            throws SSHCommandException {
+
+        if (!nodePackageCacheEnabled) {
+            ml.addInfo(" - Copying over " + packageFile.getName());
+            sshCommandService.copySCPFile(connection, packageFile.getAbsolutePath());
+            // the package is copied to the home folder, where some callers expect it already
+            if (!packageFile.getName().equals(targetPath)) {
+                sshCommandService.runSSHCommand(connection, new String[]{"mv", packageFile.getName(), targetPath});
+            }
+            return true;
+        }
+
+        String digest = getDigest(packageFile);
+        String cachedPackage = nodePackageCachePath + "/" + packageName + "_" + digest + PACKAGE_EXTENSION;
+
+        boolean transfer = !sshCommandService.runSSHScript(connection,
+                "if [[ -f " + cachedPackage + " ]]; then echo cached; fi").contains("cached");
+
+        if (transfer) {
+            ml.addInfo(" - Copying over " + packageFile.getName());
+            sshCommandService.copySCPFile(connection, packageFile.getAbsolutePath());
+
+            // the package only gets its content-addressed name once its digest is verified
+            sshCommandService.runSSHScript(connection, "set -e\n" +
+                    "mkdir -p " + nodePackageCachePath + "\n" +
+                    "echo \"" + digest + "  " + packageFile.getName() + "\" | sha256sum --check --quiet -\n" +
+                    "rm -f " + nodePackageCachePath + "/" + packageName + "_*" + PACKAGE_EXTENSION + "\n" +
+                    "mv " + packageFile.getName() + " " + cachedPackage + "\n");
+        } else {
+            ml.addInfo(" - Reusing " + packageFile.getName() + " already on node");
+        }
+
+        // packages are altered in place by setup scripts, hence a copy, not a link
+        sshCommandService.runSSHCommand(connection, new String[]{"cp", cachedPackage, targetPath});
+        return transfer;
+    }
+
+    String getDigest(File packageFile) throws SSHCommandException {
+        String key = packageFile.getAbsolutePath();
+        long length = packageFile.length();
+        long lastModified = packageFile.lastModified();
+
+        LocalDigest known = localDigests.get(key);
+        if (known != null && known.length == length && known.lastModified == lastModified) {
+            return known.digest;
+        }
+
+        logger.info ("Computing digest of " + packageFile.getName());
+        String digest = computeDigest(packageFile);
+        localDigests.put(key, new LocalDigest(length, lastModified, digest));
+        return digest;
+    }
+
+    private static String computeDigest(File packageFile) throws SSHCommandException {
+        try (InputStream in = Files.newInputStream(packageFile.toPath())) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                sha256.update(buffer, 0, read);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : sha256.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.error (e, e);
+            throw new SSHCommandException(e);
+        }
+    }
+
+    @AllArgsConstructor
+    private static class LocalDigest {
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+    }
+}
@@ -34,8 +34,12 @@
 
 package ch.niceideas.bigdata.terminal;
 
+import org.json.JSONObject;
+
 import javax.servlet.http.HttpServletResponse;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * State of the virtual screen held by the terminal.
@@ -46,6 +50,12 @@ public final class ScreenImage implements Serializable {
      * HTML dump of the screen image.
      */
     public final String screen;
+    /**
+     * HTML dump of the modified lines of the screen image, by line index, when rendered by
+     * {@link Terminal#dumpHtmlLines(boolean, int)}. The screen CSS classes then come in {@link #cssClass}.
+     */
+    public final Map<Integer, String> lines;
+    public final String cssClass;
     /**
      * Represents the timestamp of the screen image.
      *
@@ -61,8 +71,18 @@ public final class ScreenImage implements Serializable {
     public final int screenY;
 
     ScreenImage(int timestamp, String screen, Terminal t) {
+        this(timestamp, screen, null, null, t);
+    }
+
+    ScreenImage(int timestamp, Map<Integer, String> lines, String cssClass, Terminal t) {
+        this(timestamp, null, lines, cssClass, t);
+    }
+
+    private ScreenImage(int timestamp, String screen, Map<Integer, String> lines, String cssClass, Terminal t) {
         this.timestamp = timestamp;
         this.screen = screen;
+        this.lines = lines;
+        this.cssClass = cssClass;
         if (t.isCursorShown()) {
             this.cursorX = t.getCx();
             this.cursorY = t.getCy();
@@ -85,5 +105,33 @@ public final class ScreenImage implements Serializable {
         return screen;
     }
 
+    /**
+     * @return true when the screen didn't change since the timestamp passed by the client.
+     */
+    public boolean isUnchanged() {
+        return Terminal.NO_CHANGE.equals(screen);
+    }
+
+    /**
+     * Renders the screen image as the JSON frame pushed on the terminal web socket, carrying the same information
+     * as the headers set by {@link #renderResponse(HttpServletResponse)} along with either the whole screen or the
+     * modified lines.
+     */
+    public String toJSON() {
+        return new JSONObject(new HashMap<String, Object>() {{
+            if (lines != null) {
+                put("lines", new JSONObject(lines));
+                put("cssClass", cssClass == null ? "" : cssClass);
+            } else {
+                put("screen", screen);
+            }
+            put("timestamp", timestamp);
+            put("cursorX", cursorX);
+            put("cursorY", cursorY);
+            put("screenX", screenX);
+            put("screenY", screenY);
+        }}).toString();
+    }
+
     private static final long serialVersionUID = 1L;
 }
@@ -0,0 +1,199 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.terminal;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lines scrolled off the top of the terminal screen, kept in a ring of fixed width lines.
+ *
+ * <p>
+ * Lines are stored the way the screen stores them - one <code>char</code> per cell packing the character code and
+ * its colors - in a single primitive array, growing by doubling up to the capacity. Lines are identified by their
+ * absolute number since the terminal was created, which remains stable while older lines get evicted.
+ */
+public class ScrollbackBuffer {
+
+    private static final int INITIAL_LINES = 256;
+    private static final int SEARCH_CHUNK_LINES = 256;
+
+    private final int width;
+    private final int capacity;
+
+    private char[] ring;
+    private int ringLines;
+    /**
+     * Index in the ring of the oldest line.
+     */
+    private int head = 0;
+    private int size = 0;
+    /**
+     * Number of lines ever added.
+     */
+    private long totalLines = 0;
+
+    ScrollbackBuffer(int width, int capacity) {
+        this.width = width;
+        this.capacity = Math.max(0, capacity);
+        this.ringLines = Math.min(this.capacity, INITIAL_LINES);
+        this.ring = new char[ringLines * width];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of the oldest line still available.
+     */
+    public synchronized long getFirstLine() {
+        return totalLines - size;
+    }
+
+    /**
+     * @return the number of the line that will be added next.
+     */
+    public synchronized long getEndLine() {
+        return totalLines;
+    }
+
+    /**
+     * Adds the line of <code>width</code> cells starting at <code>offset</code> in the given screen.
+     */
+    synchronized void add(char[] screen, int offset) {
+        if (capacity == 0) {
+            return;
+        }
+        if (size == ringLines && ringLines < capacity) {
+            grow();
+        }
+        int index;
+        if (size < ringLines) {
+            index = (head + size) % ringLines;
+            size++;
+        } else {
+            // evicting the oldest line
+            index = head;
+            head = (head + 1) % ringLines;
+        }
+        System.arraycopy(screen, offset, ring, index * width, width);
+        totalLines++;
+    }
+
+    private void grow() {
+        int newLines = (int) Math.min(capacity, ringLines * 2L);
+        char[] newRing = new char[newLines * width];
+        // linearizing, oldest line first
+        int firstPart = ringLines - head;
+        System.arraycopy(ring, head * width, newRing, 0, firstPart * width);
+        System.arraycopy(ring, 0, newRing, firstPart * width, head * width);
+        ring = newRing;
+        ringLines = newLines;
+        head = 0;
+    }
+
+    /**
+     * Copies the cells of the given line to <code>dest</code> at <code>offset</code>.
+     *
+     * @return false if the line is not available (anymore).
+     */
+    public synchronized boolean copyLine(long line, char[] dest, int offset) {
+        int index = indexOf(line);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(ring, index * width, dest, offset, width);
+        return true;
+    }
+
+    private int indexOf(long line) {
+        long first = totalLines - size;
+        if (line < first || line >= totalLines) {
+            return -1;
+        }
+        return (int) ((head + (line - first)) % ringLines);
+    }
+
+    /**
+     * Searches the text of the lines for the given pattern, from the line before <code>beforeLine</code> back to the
+     * oldest one.
+     * <p>
+     * Lines are copied by chunks under the lock, the pattern - whatever its cost - is matched outside of it so that
+     * the terminal output never waits for a search.
+     *
+     * @return the numbers of the matching lines, most recent first.
+     */
+    public List<Long> search(Pattern pattern, long beforeLine, int maxResults) {
+        List<Long> matches = new ArrayList<>();
+        char[] chunk = new char[SEARCH_CHUNK_LINES * width];
+        char[] text = new char[width];
+        CharBuffer textBuffer = CharBuffer.wrap(text);
+        Matcher matcher = pattern.matcher("");
+        long end = beforeLine;
+        while (matches.size() < maxResults) {
+            long from;
+            int count;
+            synchronized (this) {
+                end = Math.min(end, totalLines);
+                from = Math.max(totalLines - size, end - SEARCH_CHUNK_LINES);
+                count = (int) Math.max(0, end - from);
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(ring, indexOf(from + i) * width, chunk, i * width, width);
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            for (int i = count - 1; i >= 0 && matches.size() < maxResults; i--) {
+                for (int j = 0; j < width; j++) {
+                    text[j] = Terminal.LATIN1_TABLE.charAt(chunk[i * width + j] & 0xFF);
+                }
+                if (matcher.reset(textBuffer).find()) {
+                    matches.add(from + i);
+                }
+            }
+            end = from;
+        }
+        return matches;
+    }
+}
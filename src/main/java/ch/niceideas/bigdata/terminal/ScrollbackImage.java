@@ -34,17 +34,50 @@
 
 package ch.niceideas.bigdata.terminal;
 
-import java.lang.annotation.Retention;
-import java.lang.annotation.Target;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
-import static java.lang.annotation.ElementType.METHOD;
-import static java.lang.annotation.RetentionPolicy.RUNTIME;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
 
 /**
- * Indicates an escape sequence handling method.
+ * Window of lines of the scrollback buffer of a terminal.
  */
-@Retention(RUNTIME)
-@Target(METHOD)
-@interface Esc {
-    String[] value();
+public final class ScrollbackImage implements Serializable {
+
+    /**
+     * Number of the first line in {@link #lines}.
+     */
+    public final long fromLine;
+    /**
+     * Number of the oldest line still available in the scrollback buffer.
+     */
+    public final long firstLine;
+    /**
+     * Number of the line following the most recent one of the scrollback buffer.
+     */
+    public final long endLine;
+    /**
+     * HTML dump of the lines.
+     */
+    public final List<String> lines;
+
+    ScrollbackImage(long fromLine, long firstLine, long endLine, List<String> lines) {
+        this.fromLine = fromLine;
+        this.firstLine = firstLine;
+        this.endLine = endLine;
+        this.lines = lines;
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject(new HashMap<String, Object>() {{
+            put("fromLine", fromLine);
+            put("firstLine", firstLine);
+            put("endLine", endLine);
+            put("lines", new JSONArray(lines));
+        }});
+    }
+
+    private static final long serialVersionUID = 1L;
 }
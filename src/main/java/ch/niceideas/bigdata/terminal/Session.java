@@ -35,21 +35,29 @@
 package ch.niceideas.bigdata.terminal;
 
 import ch.niceideas.bigdata.model.SSHConnection;
+import ch.niceideas.bigdata.utils.PumpScheduler;
 import lombok.Getter;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 /**
  * Represents a session.
  *
  * <p>
- * A {@link Thread} is used to shuttle data back and force between the HTTP client
- * and the process that was forked. You can check the liveness of this thread to see
+ * A pump running on the shared {@link PumpScheduler} is used to shuttle data back and force between the HTTP client
+ * and the process that was forked. You can check the liveness of this pump to see
  * if the child process is still alive or not.
  *
  */
-public final class Session extends Thread {
+public final class Session implements Runnable {
 
     private static final Logger logger = Logger.getLogger(Session.class);
 
@@ -74,6 +82,15 @@ public final class Session extends Thread {
     private final Reader in;
     private final Writer out;
 
+    /**
+     * Notified from the pump thread every time the child process produced output, as well as when it ends.
+     */
+    private final List<Runnable> outputListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean ended = false;
+
+    private final Future<?> pump;
+
     /**
      *
      * @param width
@@ -85,31 +102,39 @@ public final class Session extends Thread {
      *      Make sure to set the correct terminal name in its environment variable.
      */
     public Session(SSHConnection connection, int width, int height, ProcessWithPtyWrapper childProcessWithTty) throws IOException {
+        this(connection, width, height, Terminal.DEFAULT_SCROLLBACK_LINES, childProcessWithTty);
+    }
+
+    /**
+     * @param scrollbackLines
+     *      Maximum number of lines scrolled off the screen kept for {@link #fetchScrollback(boolean, long, int)}.
+     */
+    public Session(SSHConnection connection, int width, int height, int scrollbackLines, ProcessWithPtyWrapper childProcessWithTty) throws IOException {
         this.connection = connection;
-        this.terminal = new Terminal(width,height);
+        this.terminal = new Terminal(width, height, scrollbackLines);
         this.childProcess = childProcessWithTty;
         childProcess.setWindowSize(width,height);
 
         in = new InputStreamReader(childProcess.getInputStream());
         out = new OutputStreamWriter(childProcess.getOutputStream());
 
-        setName("Terminal pump thread for "+ childProcessWithTty);
-        start(); // start pumping
+        pump = PumpScheduler.shared().submit("terminal " + childProcessWithTty, this); // start pumping
     }
 
     @Override
     public void run() {
-        char[] buf = new char[128];
+        char[] buf = PumpScheduler.shared().charBuffer();
         int len;
 
         try {
             try {
                 while ((len = in.read(buf)) >= 0) {
-                    terminal.write(new String(buf,0,len));
+                    terminal.write(buf, 0, len);
                     String reply = terminal.read();
                     if (reply != null) {
                         out.write(reply);
                     }
+                    fireOutput();
                 }
             } catch (IOException e) {
                 // fd created by forkpty seems to cause I/O error when the other side is closed via kill -9
@@ -122,9 +147,70 @@ public final class Session extends Thread {
             }
         } catch (Exception e) {
             logger.warn ("Session pump thread is dead", e);
+        } finally {
+            ended = true;
+            fireOutput();
         }
     }
 
+    /**
+     * @return true as long as the pump runs.
+     */
+    public boolean isAlive() {
+        return !pump.isDone();
+    }
+
+    /**
+     * Waits at most <code>millis</code> milliseconds for the pump to stop.
+     */
+    public void join(long millis) throws InterruptedException {
+        try {
+            pump.get(millis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.debug (e, e);
+        }
+    }
+
+    /**
+     * @return true as soon as the pump stopped, even though the pump task may still be finishing.
+     */
+    public boolean hasEnded() {
+        return ended || !isAlive();
+    }
+
+    private void fireOutput() {
+        for (Runnable listener : outputListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                logger.warn ("Terminal output listener failed - " + e.getMessage());
+                logger.debug (e, e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener called as soon as the child process produced output. Listeners are called on the pump
+     * thread and should only schedule the rendering of the screen, not perform it.
+     */
+    public void addOutputListener(Runnable listener) {
+        lastAccess = System.currentTimeMillis();
+        outputListeners.add(listener);
+    }
+
+    public void removeOutputListener(Runnable listener) {
+        outputListeners.remove(listener);
+        // the idle timeout is counted from the moment the last client stopped streaming the screen
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true when a client is being pushed the screen updates, making the session not idle.
+     */
+    public boolean isStreaming() {
+        return !outputListeners.isEmpty();
+    }
+
     private boolean hasChildProcessFinished() {
         try {
             childProcess.exitValue();
@@ -155,10 +241,50 @@ public final class Session extends Thread {
         // unfortunately this sleep is required for much smoother interactions
         Thread.sleep(20);   // give a bit of time to let the app respond. poor version of Nagel's algorithm
 
-        terminal.setCssClass(isAlive() ? "":"dead");
+        return render(color, clientTimestamp);
+    }
+
+    /**
+     * Renders the current screen, unless it didn't change since <code>clientTimestamp</code>.
+     */
+    public ScreenImage render(boolean color, int clientTimestamp) {
+        terminal.setCssClass(hasEnded() ? "dead":"");
         return terminal.dumpHtml(color,clientTimestamp);
     }
 
+    /**
+     * Renders the lines of the screen modified since <code>clientTimestamp</code>.
+     */
+    public ScreenImage renderLines(boolean color, int clientTimestamp) {
+        terminal.setCssClass(hasEnded() ? "dead":"");
+        return terminal.dumpHtmlLines(color,clientTimestamp);
+    }
+
+    /**
+     * Renders at most <code>count</code> lines of the scrollback buffer starting at <code>fromLine</code>, or the
+     * last <code>count</code> ones when <code>fromLine</code> is negative.
+     */
+    public ScrollbackImage fetchScrollback(boolean color, long fromLine, int count) {
+        lastAccess = System.currentTimeMillis();
+        return terminal.dumpHtmlScrollback(color, fromLine, count);
+    }
+
+    /**
+     * Returns the numbers of the scrollback lines matching <code>pattern</code>, most recent first.
+     */
+    public List<Long> searchScrollback(Pattern pattern, long beforeLine, int maxResults) {
+        lastAccess = System.currentTimeMillis();
+        return terminal.searchScrollback(pattern, beforeLine, maxResults);
+    }
+
+    /**
+     * Receives keystrokes pushed by the client.
+     */
+    public void handleKeys(String keys) throws IOException {
+        lastAccess = System.currentTimeMillis();
+        write(keys);
+    }
+
     /**
      * Write to the child process.
      */
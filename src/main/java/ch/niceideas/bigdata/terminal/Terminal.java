@@ -36,13 +36,11 @@ package ch.niceideas.bigdata.terminal;
 
 import org.apache.log4j.Logger;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import static java.lang.Math.max;
@@ -50,97 +48,102 @@ import static java.lang.Math.min;
 
 /**
  * Screen buffer.
+ *
+ * <p>
+ * The output of the process is parsed by a DEC / ECMA-48 state machine (after the well known VT500 parser state
+ * diagram) dispatching controls, escape and CSI sequences directly through tables indexed by their final character.
+ * Parsing happens in place, without any allocation per character or sequence.
+ *
+ * <p>
+ * Writes and renders are mutually exclusive : a render never sees a half-applied write, whose lines would otherwise
+ * carry the timestamp of the render and never be sent again to a client diffing on it.
  */
 public class Terminal {
 
     private static final Logger logger = Logger.getLogger(Terminal.class);
 
-    private interface EscapeSequence {
-        void handle(Terminal t, String s, Matcher m);
+    private interface ControlFunction {
+        void handle(Terminal t);
     }
 
-    private static final EscapeSequence NONE = (t, s, m) -> {
-    };
+    private interface CsiFunction {
+        void handle(Terminal t, int[] args);
+    }
 
-    private static final Map<String, EscapeSequence> ESCAPE_SEQUENCES = new HashMap<>();
+    /* Parser states */
+    private static final int GROUND = 0;
+    private static final int ESCAPE = 1;
+    private static final int ESCAPE_INTERMEDIATE = 2;
+    private static final int CSI_ENTRY = 3;
+    private static final int CSI_PARAM = 4;
+    private static final int CSI_INTERMEDIATE = 5;
+    private static final int CSI_IGNORE = 6;
+    private static final int OSC_STRING = 7;
+    private static final int STRING_IGNORE = 8;
+    private static final int LINUX_PALETTE = 9;
 
-    private static final Map<Pattern, EscapeSequence> REGEXP_ESCAPE_SEQUENCES = new HashMap<>();
+    private static final int MAX_CSI_PARAMS = 16;
+    private static final int MAX_CSI_PARAM_VALUE = 65535;
 
-    private abstract static class CsiSequence {
-        final int arg2; // ?
+    /** C0 control characters, executed in any state but the string ones */
+    private static final ControlFunction[] CONTROL_FUNCTIONS = new ControlFunction[0x20];
 
-        protected CsiSequence(int arg2) {
-            this.arg2 = arg2;
-        }
+    /** ESC sequences without intermediate, by final character */
+    private static final ControlFunction[] ESCAPE_FUNCTIONS = new ControlFunction[0x80];
 
-        abstract void handle(Terminal t, int[] args);
-    }
+    /** CSI sequences, by final character */
+    private static final CsiFunction[] CSI_FUNCTIONS = new CsiFunction[0x80];
 
-    private static final Map<Character, CsiSequence> CSI_SEQUENCE = new HashMap<>();
+    public static final int DEFAULT_SCROLLBACK_LINES = 5000;
 
     private static final String HTML_TABLE;
-    private static final String LATIN1_TABLE;
-
-    public static final String CSI_PREFIX = "csiUpper";
-    public static final String CSI_LOWER_PREFIX = "csiLower";
+    static final String LATIN1_TABLE;
 
     static {
-        for (final Method m : Terminal.class.getDeclaredMethods()) {
-            Esc esc = m.getAnnotation(Esc.class);
-            if (esc != null) {
-                for (String s : esc.value()) {
-                    ESCAPE_SEQUENCES.put(s, (t, s1, matcher) -> {
-                        try {
-                            m.invoke(t);
-                        } catch (IllegalAccessException | InvocationTargetException e) {
-                            throw new TerminalException(e);
-                        }
-                    });
-                }
-            }
-
-            if (m.getName().startsWith(CSI_PREFIX) && m.getName().length() == CSI_PREFIX.length() + 1) {
-                CSI_SEQUENCE.put(m.getName().charAt(CSI_PREFIX.length()), buildCsiSequence(m));
+        CONTROL_FUNCTIONS[0x05] = Terminal::escDa;
+        CONTROL_FUNCTIONS[0x08] = Terminal::esc0x08;
+        CONTROL_FUNCTIONS[0x09] = Terminal::esc0x09;
+        CONTROL_FUNCTIONS['\n'] = Terminal::cursorDown;
+        CONTROL_FUNCTIONS[0x0B] = Terminal::cursorDown;
+        CONTROL_FUNCTIONS[0x0C] = Terminal::cursorDown;
+        CONTROL_FUNCTIONS['\r'] = Terminal::esc0x0d;
+
+        ESCAPE_FUNCTIONS['c'] = Terminal::reset;
+        ESCAPE_FUNCTIONS['7'] = Terminal::saveCursor;
+        ESCAPE_FUNCTIONS['8'] = Terminal::restoreCursor;
+        ESCAPE_FUNCTIONS['M'] = Terminal::escRi;
+        ESCAPE_FUNCTIONS['Z'] = Terminal::escDa;
+
+        CSI_FUNCTIONS['@'] = (t, args) -> {
+            for (int i = 0; i < t.defaultsTo(args, 1); i++) {
+                t.scrollRight(t.cy, t.cx);
             }
-            if (m.getName().startsWith(CSI_LOWER_PREFIX) && m.getName().length() == CSI_LOWER_PREFIX.length() + 1) {
-                CSI_SEQUENCE.put(m.getName().toLowerCase().charAt(CSI_LOWER_PREFIX.length()), buildCsiSequence(m));
-            }
-        }
-
-        REGEXP_ESCAPE_SEQUENCES.put(
-                Pattern.compile("\u001B\\[\\??([0-9;]*)([@ABCDEFGHJKLMPXacdefghlmnqrstu`])"),
-                new EscapeSequence() {
-                    public void handle(Terminal t, String ignored, Matcher m) {
-                        String s = m.group(1);
-                        CsiSequence seq = CSI_SEQUENCE.get(m.group(2).charAt(0));
-                        if (seq != null) {
-                            String[] tokens = s.split(";");
-                            if (s.length() == 0) {
-                                tokens = EMPTY_STRING_ARRAY;
-                            }
-                            int[] n = new int[tokens.length];
-                            for (int i = 0; i < n.length; i++)
-                                try {
-                                    n[i] = Integer.parseInt(tokens[i]);
-                                } catch (NumberFormatException e) {
-                                    n[i] = 0;
-                                }
-                            seq.handle(t, n);
-                        }
-                    }
-                });
-        REGEXP_ESCAPE_SEQUENCES.put(
-                Pattern.compile("\u001C([^\u0007]+)\u0007"),
-                NONE);
-
-        CSI_SEQUENCE.put('@', new CsiSequence(1) {
-            @Override
-            void handle(Terminal t, int[] args) {
-                for (int i = 0; i < args[0]; i++) {
-                    t.scrollRight(t.cy, t.cx);
-                }
-            }
-        });
+        };
+        CSI_FUNCTIONS['A'] = Terminal::csiUpperA;
+        CSI_FUNCTIONS['B'] = Terminal::csiUpperB;
+        CSI_FUNCTIONS['C'] = Terminal::csiUpperC;
+        CSI_FUNCTIONS['D'] = Terminal::csiUpperD;
+        CSI_FUNCTIONS['E'] = Terminal::csiUpperE;
+        CSI_FUNCTIONS['F'] = Terminal::csiUpperF;
+        CSI_FUNCTIONS['G'] = Terminal::csiUpperG;
+        CSI_FUNCTIONS['H'] = Terminal::csiUpperH;
+        CSI_FUNCTIONS['J'] = Terminal::csiUpperJ;
+        CSI_FUNCTIONS['K'] = Terminal::csiUpperK;
+        CSI_FUNCTIONS['L'] = Terminal::csiUpperL;
+        CSI_FUNCTIONS['M'] = Terminal::csiUpperM;
+        CSI_FUNCTIONS['P'] = Terminal::csiUpperP;
+        CSI_FUNCTIONS['X'] = Terminal::csiUpperX;
+        CSI_FUNCTIONS['a'] = Terminal::csiLowerA;
+        CSI_FUNCTIONS['c'] = Terminal::csiLowerC;
+        CSI_FUNCTIONS['d'] = Terminal::csiLowerD;
+        CSI_FUNCTIONS['e'] = Terminal::csiLowerE;
+        CSI_FUNCTIONS['f'] = Terminal::csiLowerF;
+        CSI_FUNCTIONS['h'] = Terminal::csiLowerH;
+        CSI_FUNCTIONS['l'] = Terminal::csiLowerL;
+        CSI_FUNCTIONS['m'] = Terminal::csiLowerM;
+        CSI_FUNCTIONS['r'] = Terminal::csiLowerR;
+        CSI_FUNCTIONS['s'] = Terminal::csiLowerS;
+        CSI_FUNCTIONS['u'] = Terminal::csiLowerU;
 
         StringBuilder html = new StringBuilder(256);
         StringBuilder lat1 = new StringBuilder(256);
@@ -164,23 +167,9 @@ public class Terminal {
         LATIN1_TABLE = lat1.toString();
     }
 
-    private static CsiSequence buildCsiSequence(Method m) {
-        return new CsiSequence(1) {
-            void handle(Terminal t, int[] args) {
-                try {
-                    //noinspection PrimitiveArrayArgumentToVarargsMethod
-                    m.invoke(t, args);
-                } catch (IllegalAccessException | InvocationTargetException e) {
-                    throw new TerminalException(e);
-                }
-            }
-        };
-    }
-
     private static final char EMPTY_CH = '\u0700'; // back=0,fore=7,char=0
 
-    private static final String NO_CHANGE = "<idem/>";
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
+    static final String NO_CHANGE = "<idem/>";
 
     /**
      * This is typed as 'char' but it's not character that's stored.
@@ -194,6 +183,14 @@ public class Terminal {
      * +--- foreground color code
      */
     private char[] scr;
+    /**
+     * Value of {@link #timestamp} when each line of the screen was last modified.
+     */
+    private int[] lineTimestamps;
+    /**
+     * Lines scrolled off the top of the screen.
+     */
+    private final ScrollbackBuffer scrollback;
     /**
      * Screen width and height.
      */
@@ -220,8 +217,23 @@ public class Terminal {
      * Set graphics rendition. This is the value that gets stored into the higher 8 bits of {@link #scr}
      */
     private int sgr;
-    private StringBuilder buffer = new StringBuilder();
     private StringBuilder outBuffer = new StringBuilder();
+    /**
+     * Parser state, see {@link #parse(char)}.
+     */
+    private int state = GROUND;
+    private final int[] csiParams = new int[MAX_CSI_PARAMS];
+    /**
+     * Argument arrays passed to the CSI functions, reused by number of arguments.
+     */
+    private final int[][] csiArgs = new int[MAX_CSI_PARAMS + 1][];
+    private int csiParamIndex;
+    /**
+     * Number of CSI parameters up to the last one holding digits, trailing empty parameters being ignored.
+     */
+    private int csiParamCount;
+    private char csiPrivateMarker;
+    private int stringLength;
     /**
      * The HTML that we returned from {@link #dumpHtml(boolean, int)} the last time.
      */
@@ -246,8 +258,16 @@ public class Terminal {
     private String cssClass;
 
     public Terminal(int width, int height) {
+        this(width, height, DEFAULT_SCROLLBACK_LINES);
+    }
+
+    public Terminal(int width, int height, int scrollbackLines) {
         this.width = width;
         this.height = height;
+        this.scrollback = new ScrollbackBuffer(width, scrollbackLines);
+        for (int i = 0; i < csiArgs.length; i++) {
+            csiArgs[i] = new int[i];
+        }
         reset();
     }
 
@@ -258,7 +278,7 @@ public class Terminal {
     /**
      * Sets additional CSS classes for the terminal element.
      */
-    public void setCssClass(String cssClass) {
+    public synchronized void setCssClass(String cssClass) {
         this.cssClass = cssClass;
     }
 
@@ -278,8 +298,7 @@ public class Terminal {
         return st;
     }
 
-    @Esc("\u001Bc")
-    public void reset() {
+    public synchronized void reset() {
         scr = new char[width * height];
         Arrays.fill(scr, EMPTY_CH);
         st = 0;
@@ -289,10 +308,12 @@ public class Terminal {
         cl = false;
         sgr = 0x700;
         showCursor = true;
-        buffer = new StringBuilder();
+        state = GROUND;
         outBuffer = new StringBuilder();
         lastHtml = "";
         timestamp += 1000;
+        lineTimestamps = new int[height];
+        Arrays.fill(lineTimestamps, timestamp);
     }
 
     int getSgr() {
@@ -303,6 +324,18 @@ public class Terminal {
         return y * width + x;
     }
 
+    /**
+     * Flags the lines holding the positions from <code>start</code> (inclusive) to <code>end</code> (exclusive)
+     * as modified.
+     */
+    private void markDirty(int start, int end) {
+        if (end > start) {
+            for (int y = max(0, start / width), last = min(height - 1, (end - 1) / width); y <= last; y++) {
+                lineTimestamps[y] = timestamp;
+            }
+        }
+    }
+
     String peek(int y1, int y2) {
         return peek(y1, 0, y2, width);
     }
@@ -316,7 +349,9 @@ public class Terminal {
         // TODO: i18n
         char[] chars = s.toCharArray();
         int destPos = getPosition(y, x);
-        System.arraycopy(chars, 0, scr, destPos, min(chars.length, scr.length - destPos));
+        int length = min(chars.length, scr.length - destPos);
+        System.arraycopy(chars, 0, scr, destPos, length);
+        markDirty(destPos, destPos + length);
     }
 
     void poke(int y, String s) {
@@ -324,10 +359,12 @@ public class Terminal {
     }
 
     void zero(int y1, int x1, int y2, int x2) {
+        int s = getPosition(y1, x1);
         int e = getPosition(y2, x2);
-        for (int i = getPosition(y1, x1); i < e; i++) {
+        for (int i = s; i < e; i++) {
             scr[i] = EMPTY_CH;
         }
+        markDirty(s, e);
     }
 
     void zero(int y1, int y2) {
@@ -338,21 +375,31 @@ public class Terminal {
      * Scroll the (y1+1,y2) region up one line to (y1,y2-1)
      */
     void scrollUp(int y1, int y2) {
-        poke(y1, peek(y1 + 1, y2));
+        if (y1 == 0) {
+            scrollback.add(scr, 0);
+        }
+        moveLines(y1 + 1, y1, y2 - y1);
         zero(y2, y2);
     }
 
     void scrollDown(int y1, int y2) {
-        poke(y1 + 1, peek(y1, y2 - 1));
+        moveLines(y1, y1 + 1, y2 - y1);
         zero(y1, y1);
     }
 
+    private void moveLines(int fromY, int toY, int count) {
+        if (count > 0) {
+            System.arraycopy(scr, getPosition(fromY, 0), scr, getPosition(toY, 0), count * width);
+            markDirty(getPosition(toY, 0), getPosition(toY + count, 0));
+        }
+    }
+
     void scrollRight(int y, int x) {
-        poke(y, x + 1, peek(y, x, y, width));
-        zero(y, x, y, x);
+        int position = getPosition(y, x);
+        System.arraycopy(scr, position, scr, position + 1, width - x - 1);
+        zero(y, x, y, x + 1);
     }
 
-    @Esc({"\n", "\u000B", "\u000C"})
     void cursorDown() {
         if (cy >= st && cy <= sb) {
             cl = false;
@@ -380,63 +427,196 @@ public class Terminal {
             cx = 0;
         }
         scr[getPosition(cy, cx)] = (char) (sgr | c);
+        lineTimestamps[cy] = timestamp;
         cursorRight();
     }
 
-    void escape() {
-        if (buffer.length() > 32) {
-            // error
-            if (logger.isDebugEnabled()) {
-                logger.debug("Unhandled escape sequence: " + buffer.toString().replace("\u001B", "<ESC>"));
-            }
-            buffer = new StringBuilder();
-            return;
-        }
-        EscapeSequence es = ESCAPE_SEQUENCES.get(buffer.toString());
-        if (es != null) {
-            es.handle(this, buffer.toString(), null);
-            buffer = new StringBuilder();
-            return;
+    /**
+     * Receives the output from the forked process into the terminal.
+     */
+    public synchronized void write(String s) {
+        timestamp++;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received: " + s);
         }
-
-        for (Entry<Pattern, EscapeSequence> ent : REGEXP_ESCAPE_SEQUENCES.entrySet()) {
-            Matcher m = ent.getKey().matcher(buffer.toString());
-            if (m.matches()) {
-                ent.getValue().handle(this, buffer.toString(), m);
-                buffer = new StringBuilder();
-                return;
-            }
+        for (int i = 0; i < s.length(); i++) {
+            parse(s.charAt(i));
         }
     }
 
     /**
      * Receives the output from the forked process into the terminal.
      */
-    public void write(String s) {
+    public synchronized void write(char[] buf, int offset, int length) {
         timestamp++;
         if (logger.isDebugEnabled()) {
-            logger.debug("Received: " + s);
+            logger.debug("Received: " + new String(buf, offset, length));
         }
-        for (int i = 0; i < s.length(); i++) {
-            char ch = s.charAt(i);
-            if (buffer.length() > 0 || ESCAPE_SEQUENCES.containsKey("" + ch)) {
-                buffer.append(ch);
-                escape();
-            } else if (ch == '\u001B') {
-                buffer.append(ch);
-            } else {
-                echo(ch);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            parse(buf[i]);
+        }
+    }
+
+    private void parse(char ch) {
+        // transitions from anywhere
+        if (ch == 0x18 || ch == 0x1A) { // CAN, SUB
+            state = GROUND;
+            return;
+        }
+        if (ch == 0x1B) {
+            state = ESCAPE;
+            return;
+        }
+        if (ch < 0x20 && state < OSC_STRING) {
+            ControlFunction function = CONTROL_FUNCTIONS[ch];
+            if (function != null) {
+                function.handle(this);
+            }
+            return;
+        }
+
+        switch (state) {
+            case GROUND:
+                if (ch != 0x7F) {
+                    echo(ch);
+                }
+                break;
+
+            case ESCAPE:
+                parseEscape(ch);
+                break;
+
+            case ESCAPE_INTERMEDIATE:
+                // character set designations, DEC screen alignment test, ... : all ignored
+                if (ch >= 0x30 && ch < 0x7F) {
+                    state = GROUND;
+                }
+                break;
+
+            case CSI_ENTRY:
+                if (ch >= 0x3C && ch <= 0x3F) {
+                    csiPrivateMarker = ch;
+                    state = CSI_PARAM;
+                } else {
+                    state = CSI_PARAM;
+                    parseCsiParam(ch);
+                }
+                break;
+
+            case CSI_PARAM:
+                parseCsiParam(ch);
+                break;
+
+            case CSI_INTERMEDIATE:
+                if (ch >= 0x40 && ch < 0x7F) {
+                    // no supported sequence has intermediates
+                    state = GROUND;
+                } else if (ch >= 0x30 && ch <= 0x3F) {
+                    state = CSI_IGNORE;
+                }
+                break;
+
+            case CSI_IGNORE:
+                if (ch >= 0x40 && ch < 0x7F) {
+                    state = GROUND;
+                }
+                break;
+
+            case OSC_STRING:
+                parseOscString(ch);
+                break;
+
+            case LINUX_PALETTE:
+                if (++stringLength == 7) {
+                    state = GROUND;
+                }
+                break;
+
+            default: // STRING_IGNORE
+                // terminated by ST, which is ESC + '\\' and handled as an ignored escape sequence
+                break;
+        }
+    }
+
+    private void parseEscape(char ch) {
+        if (ch >= 0x20 && ch <= 0x2F) {
+            state = ESCAPE_INTERMEDIATE;
+        } else if (ch == '[') {
+            Arrays.fill(csiParams, 0);
+            csiParamIndex = 0;
+            csiParamCount = 0;
+            csiPrivateMarker = 0;
+            state = CSI_ENTRY;
+        } else if (ch == ']') {
+            stringLength = 0;
+            state = OSC_STRING;
+        } else if (ch == 'P' || ch == 'X' || ch == '^' || ch == '_') {
+            state = STRING_IGNORE;
+        } else {
+            state = GROUND;
+            ControlFunction function = ch < ESCAPE_FUNCTIONS.length ? ESCAPE_FUNCTIONS[ch] : null;
+            if (function != null) {
+                function.handle(this);
             }
         }
     }
 
-    public String read() {
+    private void parseCsiParam(char ch) {
+        if (ch >= '0' && ch <= '9') {
+            if (csiParamIndex < MAX_CSI_PARAMS) {
+                csiParams[csiParamIndex] = min(MAX_CSI_PARAM_VALUE, csiParams[csiParamIndex] * 10 + (ch - '0'));
+                csiParamCount = csiParamIndex + 1;
+            }
+        } else if (ch == ';') {
+            csiParamIndex++;
+        } else if (ch >= 0x20 && ch <= 0x2F) {
+            state = CSI_INTERMEDIATE;
+        } else if (ch >= 0x40 && ch < 0x7F) {
+            state = GROUND;
+            dispatchCsi(ch);
+        } else {
+            // ':' sub-parameters or misplaced private markers
+            state = CSI_IGNORE;
+        }
+    }
+
+    private void dispatchCsi(char ch) {
+        // only DEC private sequences are supported, and handled as their standard counterpart
+        if (csiPrivateMarker != 0 && csiPrivateMarker != '?') {
+            return;
+        }
+        CsiFunction function = CSI_FUNCTIONS[ch];
+        if (function != null) {
+            int[] args = csiArgs[csiParamCount];
+            System.arraycopy(csiParams, 0, args, 0, csiParamCount);
+            function.handle(this, args);
+        }
+    }
+
+    private void parseOscString(char ch) {
+        if (stringLength++ == 0) {
+            // linux console palette sequences are not terminated
+            if (ch == 'R') {
+                state = GROUND;
+                return;
+            } else if (ch == 'P') {
+                stringLength = 0;
+                state = LINUX_PALETTE;
+                return;
+            }
+        }
+        if (ch == 0x07) { // BEL
+            state = GROUND;
+        }
+    }
+
+    public synchronized String read() {
         String b = outBuffer.toString();
         outBuffer = new StringBuilder();
         return b;
     }
 
-    public String dump() {
+    public synchronized String dump() {
         StringBuilder stringBuilder = new StringBuilder(scr.length);
         for (char ch : scr) {
             stringBuilder.append((char) (ch & 0xFF));
@@ -444,7 +624,7 @@ public class Terminal {
         return stringBuilder.toString();
     }
 
-    public String dumpLatin1() {
+    public synchronized String dumpLatin1() {
         StringBuilder stringBuilder = new StringBuilder(scr.length);
         int i = 0;
         for (char ch : scr) {
@@ -465,7 +645,7 @@ public class Terminal {
      * @param clientTimestamp The value of {@link ScreenImage#timestamp} that the client currently has.
      *                        This information is used to avoid unnecessary screen refresh.
      */
-    public ScreenImage dumpHtml(boolean color, int clientTimestamp) {
+    public synchronized ScreenImage dumpHtml(boolean color, int clientTimestamp) {
         if (timestamp == clientTimestamp) // our screen hasn't changed
             return new ScreenImage(clientTimestamp, NO_CHANGE, this);
 
@@ -501,18 +681,7 @@ public class Terminal {
                 r.append("'>");
             }
 
-            int c = scr[i] % 256;
-            switch (c) {
-                case '<':
-                    r.append("&lt;");
-                    break;
-                case '&':
-                    r.append("&amp;");
-                    break;
-                default:
-                    r.append(HTML_TABLE.charAt(c));
-                    break;
-            }
+            appendHtmlChar(r, scr[i] % 256);
             if ((i + 1) % width == 0) r.append('\n');
         }
 
@@ -528,8 +697,101 @@ public class Terminal {
         }
     }
 
-    @Esc({"\u0005", "\u001B[c", "\u001B[0c", "\u001BZ"})
-    @SuppressWarnings("unused") /* Actually used through reflection */
+    /**
+     * Renders only the lines modified since <code>clientTimestamp</code>, each line as a self-contained HTML
+     * fragment without the cursor, which the client positions from {@link ScreenImage#cursorX} and
+     * {@link ScreenImage#cursorY}.
+     *
+     * @param color           If we want the color coded output.
+     * @param clientTimestamp The value of {@link ScreenImage#timestamp} of the last image rendered by this method
+     *                        that the client applied, or 0 to get all the lines.
+     */
+    public synchronized ScreenImage dumpHtmlLines(boolean color, int clientTimestamp) {
+        if (timestamp == clientTimestamp) // our screen hasn't changed
+            return new ScreenImage(clientTimestamp, NO_CHANGE, this);
+
+        // a timestamp from the future can only come from another terminal, it's not a base for a diff
+        boolean full = clientTimestamp <= 0 || clientTimestamp > timestamp;
+
+        Map<Integer, String> lines = new TreeMap<>();
+        StringBuilder r = new StringBuilder(width * 2);
+        for (int y = 0; y < height; y++) {
+            if (full || lineTimestamps[y] > clientTimestamp) {
+                r.setLength(0);
+                appendLineHtml(r, scr, getPosition(y, 0), color);
+                lines.put(y, r.toString());
+            }
+        }
+        return new ScreenImage(timestamp, lines, cssClass, this);
+    }
+
+    public ScrollbackBuffer getScrollback() {
+        return scrollback;
+    }
+
+    /**
+     * Renders at most <code>count</code> lines of the scrollback buffer, as
+     * {@link #dumpHtmlLines(boolean, int)} renders the lines of the screen.
+     *
+     * @param fromLine number of the first line to render, or a negative value for the last <code>count</code> lines.
+     */
+    public ScrollbackImage dumpHtmlScrollback(boolean color, long fromLine, int count) {
+        long first = scrollback.getFirstLine();
+        long end = scrollback.getEndLine();
+        long from = fromLine < 0 ? end - count : fromLine;
+        from = min(max(first, from), end);
+
+        List<String> lines = new ArrayList<>();
+        char[] line = new char[width];
+        StringBuilder r = new StringBuilder(width * 2);
+        for (long l = from; l < end && lines.size() < count && scrollback.copyLine(l, line, 0); l++) {
+            r.setLength(0);
+            appendLineHtml(r, line, 0, color);
+            lines.add(r.toString());
+        }
+        return new ScrollbackImage(from, first, end, lines);
+    }
+
+    /**
+     * @return the numbers of the scrollback lines matching the pattern before <code>beforeLine</code> (all lines
+     * when negative), most recent first.
+     */
+    public List<Long> searchScrollback(Pattern pattern, long beforeLine, int maxResults) {
+        return scrollback.search(pattern, beforeLine < 0 ? Long.MAX_VALUE : beforeLine, maxResults);
+    }
+
+    private void appendLineHtml(StringBuilder r, char[] cells, int start, boolean color) {
+        int currentStatus = -1;
+        for (int i = start, e = start + width; i < e; i++) {
+            int q = cells[i] / 256;
+
+            int bg = color ? q / 16 : 1;
+            int fg = color ? q % 16 : 7;
+            int p = pack(fg, bg, false);
+            if (currentStatus != p) {// rendering status has changed
+                if (currentStatus != -1) r.append("</span>");
+                currentStatus = p;
+                r.append("<span class='f").append(fg).append(" b").append(bg).append("'>");
+            }
+            appendHtmlChar(r, cells[i] % 256);
+        }
+        r.append("</span>");
+    }
+
+    private static void appendHtmlChar(StringBuilder r, int c) {
+        switch (c) {
+            case '<':
+                r.append("&lt;");
+                break;
+            case '&':
+                r.append("&amp;");
+                break;
+            default:
+                r.append(HTML_TABLE.charAt(c));
+                break;
+        }
+    }
+
     void escDa() {
         outBuffer = new StringBuilder("\u001B[?6c");
     }
@@ -537,8 +799,6 @@ public class Terminal {
     /**
      * Backspace.
      */
-    @Esc("\u0008")
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void esc0x08() {
         cx = max(0, cx - 1);
     }
@@ -546,8 +806,6 @@ public class Terminal {
     /**
      * Tab.
      */
-    @Esc("\u0009")
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void esc0x09() {
         cx = (((cx / 8) + 1) * 8) % width;
     }
@@ -555,58 +813,40 @@ public class Terminal {
     /**
      * Carriage return
      */
-    @Esc("\r")
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void esc0x0d() {
         cl = false;
         cx = 0;
     }
 
-    @Esc({"\u0000", "\u0007", "\u000E", "\u000F", "\u001B#8",
-            "\u001B=", "\u001B>", "\u001B(0", "\u001B(A",
-            "\u001B(B", "\u001B]R", "\u001BD", "\u001BE", "\u001BH",
-            "\u001BN", "\u001BO", "\u001Ba", "\u001Bn", "\u001Bo"})
-    @SuppressWarnings("unused") /* Actually used through reflection */
-    void noOp() {
-    }
-
-    @Esc("\u001B7")
     void saveCursor() {
         cxBak = cx;
         cyBak = cy;
     }
 
-    @Esc("\u001B8")
     void restoreCursor() {
         cx = cxBak;
         cy = cyBak;
     }
 
-    @Esc("\u001BM")
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void escRi() {
         cy = max(st, cy - 1);
         if (cy == st)
             scrollDown(st, sb);
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperA(int[] i) {
         cy = max(st, cy - defaultsTo(i, 1));
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperB(int[] i) {
         cy = min(sb, cy + defaultsTo(i, 1));
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperC(int[] i) {
         cx = min(width - 1, cx + defaultsTo(i, 1));
         cl = false;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperD(int[] i) {
         cx = max(0, cx - defaultsTo(i, 1));
         cl = false;
@@ -619,34 +859,30 @@ public class Terminal {
         return (args.length == 0) ? defaultValue : args[0];
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperE(int[] i) {
         csiUpperB(i);
         cx = 0;
         cl = false;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperF(int[] i) {
         csiUpperA(i);
         cx = 0;
         cl = false;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperG(int[] i) {
-        cx = min(width, i[0]) - 1;
+        cx = min(width, max(1, defaultsTo(i, 1))) - 1;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperH(int[] i) {
-        if (i.length < 2) i = new int[]{1, 1};
-        cx = min(width, i[1]) - 1;
-        cy = min(height, i[0]) - 1;
+        if (i.length < 2) i = new int[]{defaultsTo(i, 1), 1};
+        // 0 stands for the default value, as an omitted parameter
+        cx = min(width, max(1, i[1])) - 1;
+        cy = min(height, max(1, i[0])) - 1;
         cl = false;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperJ(int[] i) {
         switch (defaultsTo(i, 0)) {
             default:
@@ -662,7 +898,6 @@ public class Terminal {
         }
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperK(int... i) {
         switch (defaultsTo(i, 0)) {
             default:
@@ -681,7 +916,6 @@ public class Terminal {
     /**
      * Insert lines.
      */
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperL(int[] args) {
         for (int i = 0; i < defaultsTo(args, 1); i++) {
             if (cy < sb) {
@@ -693,7 +927,6 @@ public class Terminal {
     /**
      * Delete lines.
      */
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperM(int[] args) {
         if (cy >= st && cy <= sb) {
             for (int i = 0; i < defaultsTo(args, 1); i++) {
@@ -705,7 +938,6 @@ public class Terminal {
     /**
      * Delete n chars
      */
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiUpperP(int[] args) {
         int _cy = cy;
         int _cx = cx;
@@ -714,47 +946,41 @@ public class Terminal {
         poke(_cy, _cx, end.substring(defaultsTo(args, 1)));
     }
 
-    @SuppressWarnings("unused")
     void csiUpperX(int[] args) {
-        zero(cy, cx, cy, cx + args[0]);
+        zero(cy, cx, cy, min(width, cx + defaultsTo(args, 1)));
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerA(int[] args) {
         csiUpperC(args);
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerC(int[] args) {
-        // noop
+        // primary device attributes request, secondary ones and the DEC private variants are ignored
+        if (csiPrivateMarker == 0 && defaultsTo(args, 0) == 0) {
+            escDa();
+        }
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerD(int[] args) {
-        cy = min(height, args[0]) - 1;
+        cy = min(height, max(1, defaultsTo(args, 1))) - 1;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerE(int[] args) {
         csiUpperB(args);
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerF(int[] args) {
         csiUpperH(args);
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerH(int[] args) {
         showCursor = true;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerL(int[] args) {
         showCursor = false;
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerM(int[] args) {
         if (args.length == 0) {
             sgr = 0x0700;
@@ -775,7 +1001,6 @@ public class Terminal {
         }
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerR(int[] args) {
         if (args.length < 2) args = new int[]{0, height};
         st = min(height, args[0]) - 1;
@@ -783,24 +1008,12 @@ public class Terminal {
         sb = max(sb, st);
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerS(int[] args) {
         sb = max(sb, st);
         saveCursor();
     }
 
-    @SuppressWarnings("unused") /* Actually used through reflection */
     void csiLowerU(int[] args) {
         restoreCursor();
     }
-
-
-    public static class TerminalException extends RuntimeException {
-
-        static final long serialVersionUID = -3311512123124229248L;
-
-        TerminalException(Throwable cause) {
-            super(cause);
-        }
-    }
 }
@@ -54,6 +54,10 @@ public class KubeStatusParser {
 
     static final Pattern POD_NAME_REXP = Pattern.compile("[a-zA-Z]+(-[a-zA-Z]+)?(\\-[a-zA-Z0-9]+){1,2}");
 
+    public static final String POD_STATUS_SCRIPT = "/usr/local/bin/kubectl get pod --all-namespaces -o wide 2>/dev/null ";
+    public static final String SERVICE_STATUS_SCRIPT = "/usr/local/bin/kubectl get service --all-namespaces -o wide 2>/dev/null ";
+    public static final String REGISTRY_SERVICES_SCRIPT = "/bin/ls -1 /var/lib/kubernetes/docker_registry/docker/registry/v2/repositories/";
+
     @RequiredArgsConstructor
     public enum KubernetesServiceStatus {
         RUNNING("Running"),
@@ -101,14 +105,11 @@ public class KubeStatusParser {
                 return null;
             }
 
-            String allPodStatus = sshCommandService.runSSHScript(kubeMasterNode,
-                    "/usr/local/bin/kubectl get pod --all-namespaces -o wide 2>/dev/null ", false);
+            String allPodStatus = sshCommandService.runSSHScript(kubeMasterNode, POD_STATUS_SCRIPT, false);
 
-            String allServicesStatus = sshCommandService.runSSHScript(kubeMasterNode,
-                    "/usr/local/bin/kubectl get service --all-namespaces -o wide 2>/dev/null ", false);
+            String allServicesStatus = sshCommandService.runSSHScript(kubeMasterNode, SERVICE_STATUS_SCRIPT, false);
 
-            String registryServices = sshCommandService.runSSHScript(kubeMasterNode,
-                    "/bin/ls -1 /var/lib/kubernetes/docker_registry/docker/registry/v2/repositories/", false);
+            String registryServices = sshCommandService.runSSHScript(kubeMasterNode, REGISTRY_SERVICES_SCRIPT, false);
 
             return new KubeStatusParser(allPodStatus, allServicesStatus, registryServices, servicesDefinition);
 
@@ -0,0 +1,150 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.bigdata.model.MessageLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Forwards command output to a {@link MessageLogger} line by line as it arrives instead of buffering it.
+ * <p>
+ * Only the current partial line and the last few lines (reported when the command fails) are kept in memory.
+ * Overly long lines (e.g. progress bars without line feeds) are forwarded in chunks. Each stream written
+ * concurrently (e.g. stdout and stderr of a command) needs its own line buffer, obtained with {@link #newSibling()},
+ * the siblings forwarding to the same logger and sharing the same tail.
+ */
+public class MessageLoggerOutputStream extends OutputStream {
+
+    static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    private final MessageLogger ml;
+    private final int tailLines;
+
+    private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+    private final Deque<String> tail;
+
+    public MessageLoggerOutputStream(MessageLogger ml, int tailLines) {
+        this(ml, tailLines, new ArrayDeque<>());
+    }
+
+    private MessageLoggerOutputStream(MessageLogger ml, int tailLines, Deque<String> tail) {
+        this.ml = ml;
+        this.tailLines = tailLines;
+        this.tail = tail;
+    }
+
+    /**
+     * @return a stream with its own line buffer, forwarding to the same logger and feeding the same tail.
+     */
+    public MessageLoggerOutputStream newSibling() {
+        return new MessageLoggerOutputStream(ml, tailLines, tail);
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length) {
+        List<String> lines = new ArrayList<>();
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] == '\n') {
+                lines.add(takeCurrentLine());
+            } else {
+                currentLine.write(buffer[i]);
+                if (currentLine.size() >= MAX_LINE_LENGTH) {
+                    lines.add(takeCurrentLine());
+                }
+            }
+        }
+        publish(lines);
+    }
+
+    /**
+     * Forwards the pending partial line, if any.
+     */
+    @Override
+    public synchronized void flush() {
+        if (currentLine.size() > 0) {
+            publish(List.of(takeCurrentLine()));
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * @return the last lines forwarded by this stream and its siblings, separated and terminated by line feeds.
+     */
+    public String getTail() {
+        synchronized (tail) {
+            StringBuilder sb = new StringBuilder();
+            tail.forEach(line -> sb.append(line).append("\n"));
+            return sb.toString();
+        }
+    }
+
+    private String takeCurrentLine() {
+        String line = currentLine.toString(StandardCharsets.UTF_8);
+        currentLine.reset();
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private void publish(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        // siblings publish one after the other, for their lines to reach the logger and the tail in the same order
+        synchronized (tail) {
+            ml.addInfo(lines.toArray(new String[0]));
+            for (String line : lines) {
+                tail.addLast(line);
+                if (tail.size() > tailLines) {
+                    tail.removeFirst();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.bigdata.services.SSHCommandException;
+import ch.niceideas.bigdata.services.SSHCommandService;
+import ch.niceideas.bigdata.services.ServicesDefinition;
+import ch.niceideas.bigdata.types.Node;
+import lombok.Getter;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fetches everything the status update needs to know about a node - liveness, systemd services statuses and, on the
+ * kubernetes master, the kubectl pods / services and registry listings - using one single composite script and thus
+ * one single SSH channel.
+ * <br>
+ * The outputs of the individual commands are separated in the response by section markers and parsed by the usual
+ * {@link SystemStatusParser} and {@link KubeStatusParser}.
+ */
+public class NodeStatusProbe {
+
+    private static final Logger logger = Logger.getLogger(NodeStatusProbe.class);
+
+    static final String SECTION_MARKER = "@@@ESKIMO_PROBE_SECTION@@@ ";
+
+    static final String SECTION_ALIVE = "alive";
+    static final String SECTION_SYSTEMD = "systemd";
+    static final String SECTION_KUBE_PODS = "kube_pods";
+    static final String SECTION_KUBE_SERVICES = "kube_services";
+    static final String SECTION_KUBE_REGISTRY = "kube_registry";
+
+    private final Map<String, String> sections = new HashMap<>();
+
+    @Getter
+    private final boolean alive;
+
+    private final ServicesDefinition servicesDefinition;
+
+    public static NodeStatusProbe probe(
+            Node node, boolean kubeMaster, ServicesDefinition servicesDefinition, SSHCommandService sshCommandService) {
+        try {
+            return new NodeStatusProbe(
+                    sshCommandService.runSSHScript(node, buildProbeScript(servicesDefinition, kubeMaster), false),
+                    servicesDefinition);
+        } catch (SSHCommandException e) {
+            logger.debug (e.getMessage());
+            return new NodeStatusProbe(null, servicesDefinition);
+        }
+    }
+
+    public static String buildProbeScript(ServicesDefinition servicesDefinition, boolean kubeMaster) {
+        StringBuilder sb = new StringBuilder();
+        appendSection(sb, SECTION_ALIVE, "echo OK");
+        appendSection(sb, SECTION_SYSTEMD, SystemStatusParser.getStatusScript(servicesDefinition));
+        if (kubeMaster) {
+            appendSection(sb, SECTION_KUBE_PODS, KubeStatusParser.POD_STATUS_SCRIPT);
+            appendSection(sb, SECTION_KUBE_SERVICES, KubeStatusParser.SERVICE_STATUS_SCRIPT);
+            appendSection(sb, SECTION_KUBE_REGISTRY, KubeStatusParser.REGISTRY_SERVICES_SCRIPT);
+        }
+        return sb.toString();
+    }
+
+    private static void appendSection(StringBuilder sb, String section, String command) {
+        sb.append("echo \"").append(SECTION_MARKER).append(section).append("\"\n");
+        sb.append(command).append("\n");
+    }
+
+    public NodeStatusProbe(String probeResult, ServicesDefinition servicesDefinition) {
+        this.servicesDefinition = servicesDefinition;
+        if (probeResult != null) {
+            parse(probeResult);
+        }
+        this.alive = getSection(SECTION_ALIVE).startsWith("OK");
+    }
+
+    private void parse(String probeResult) {
+        String currentSection = null;
+        StringBuilder content = new StringBuilder();
+        for (String line : probeResult.split("\n")) {
+            if (line.startsWith(SECTION_MARKER)) {
+                if (currentSection != null) {
+                    sections.put(currentSection, content.toString());
+                }
+                currentSection = line.substring(SECTION_MARKER.length()).trim();
+                content = new StringBuilder();
+            } else if (currentSection != null) {
+                content.append(line).append("\n");
+            }
+        }
+        if (currentSection != null) {
+            sections.put(currentSection, content.toString());
+        }
+    }
+
+    String getSection(String section) {
+        return sections.getOrDefault(section, "");
+    }
+
+    public SystemStatusParser getSystemStatusParser() {
+        return new SystemStatusParser(getSection(SECTION_SYSTEMD));
+    }
+
+    /**
+     * @return the parsed kubernetes status or null if the node is down or the kubernetes sections were not probed.
+     */
+    public KubeStatusParser getKubeStatusParser() {
+        if (!alive || !sections.containsKey(SECTION_KUBE_PODS)) {
+            return null;
+        }
+        return new KubeStatusParser(
+                getSection(SECTION_KUBE_PODS),
+                getSection(SECTION_KUBE_SERVICES),
+                getSection(SECTION_KUBE_REGISTRY),
+                servicesDefinition);
+    }
+}
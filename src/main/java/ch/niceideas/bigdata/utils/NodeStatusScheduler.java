@@ -0,0 +1,184 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.bigdata.types.Node;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps a separate status probe cadence for every node along with the last status fetched from it.
+ * <p>
+ * Healthy nodes are probed on a relaxed period, nodes whose status just changed (flapping) are probed faster until
+ * they settle down and dead nodes are probed with an exponential backoff. This way a slow or dead node never holds up
+ * the status of the others.
+ */
+public class NodeStatusScheduler {
+
+    private static final Logger logger = Logger.getLogger(NodeStatusScheduler.class);
+
+    public static final String NODE_ALIVE_FLAG = "node_alive_";
+
+    /** Number of successive unchanged probes after which a flapping node is considered settled */
+    static final int SETTLE_PROBE_COUNT = 3;
+
+    private final long basePeriodMs;
+    private final long healthyPeriodMs;
+    private final long flappingPeriodMs;
+    private final long maxBackoffMs;
+    private final LongSupplier clock;
+
+    private final Map<Node, NodeSchedule> schedules = new HashMap<>();
+
+    public NodeStatusScheduler(long basePeriodMs, long healthyPeriodMs, long flappingPeriodMs, long maxBackoffMs) {
+        this (basePeriodMs, healthyPeriodMs, flappingPeriodMs, maxBackoffMs, System::currentTimeMillis);
+    }
+
+    NodeStatusScheduler(long basePeriodMs, long healthyPeriodMs, long flappingPeriodMs, long maxBackoffMs, LongSupplier clock) {
+        this.basePeriodMs = basePeriodMs;
+        this.healthyPeriodMs = healthyPeriodMs;
+        this.flappingPeriodMs = flappingPeriodMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the nodes that should be probed now and flags them as being probed. Nodes not part of the given
+     * ones anymore are forgotten.
+     */
+    public synchronized List<Node> nextDueNodes(Collection<Node> nodes) {
+        schedules.keySet().retainAll(nodes);
+
+        long now = clock.getAsLong();
+        List<Node> dueNodes = new ArrayList<>();
+        for (Node node : nodes) {
+            NodeSchedule schedule = schedules.computeIfAbsent(node, n -> new NodeSchedule());
+            if (!schedule.inFlight && schedule.nextProbeTime <= now) {
+                schedule.inFlight = true;
+                dueNodes.add(node);
+            }
+        }
+        return dueNodes;
+    }
+
+    public synchronized void probeCompleted(Node node, Map<String, String> nodeStatus) {
+        NodeSchedule schedule = schedules.get(node);
+        if (schedule == null) {
+            // node removed in the meantime
+            return;
+        }
+        schedule.inFlight = false;
+
+        boolean alive = "OK".equals(nodeStatus.get(NODE_ALIVE_FLAG + node.getName()));
+        Map<String, String> previousStatus = schedule.nodeStatus;
+        schedule.nodeStatus = Collections.unmodifiableMap(new HashMap<>(nodeStatus));
+
+        long delay;
+        if (!alive) {
+            schedule.consecutiveFailures++;
+            schedule.unsettledProbes = 0;
+            delay = getBackoffDelay(schedule.consecutiveFailures);
+
+        } else {
+            schedule.consecutiveFailures = 0;
+            if (previousStatus != null && !previousStatus.equals(schedule.nodeStatus)) {
+                schedule.unsettledProbes = SETTLE_PROBE_COUNT;
+            } else if (schedule.unsettledProbes > 0) {
+                schedule.unsettledProbes--;
+            }
+            delay = schedule.unsettledProbes > 0 ? flappingPeriodMs : healthyPeriodMs;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug ("Next status probe of " + node + " in " + delay + " ms");
+        }
+        schedule.nextProbeTime = clock.getAsLong() + delay;
+    }
+
+    /**
+     * Called when the probe could not even determine whether the node is alive. The previous status is kept
+     * and the node is backed off just as a dead one.
+     */
+    public synchronized void probeFailed(Node node) {
+        NodeSchedule schedule = schedules.get(node);
+        if (schedule == null) {
+            return;
+        }
+        schedule.inFlight = false;
+        schedule.consecutiveFailures++;
+        schedule.nextProbeTime = clock.getAsLong() + getBackoffDelay(schedule.consecutiveFailures);
+    }
+
+    /**
+     * @return the last status fetched from the node or null if it hasn't been probed successfully yet
+     */
+    public synchronized Map<String, String> getNodeStatus(Node node) {
+        NodeSchedule schedule = schedules.get(node);
+        return schedule == null ? null : schedule.nodeStatus;
+    }
+
+    /**
+     * Makes all nodes due for a probe, keeping their last status until then.
+     */
+    public synchronized void reset() {
+        schedules.values().forEach(schedule -> {
+            schedule.nextProbeTime = 0;
+            schedule.unsettledProbes = 0;
+        });
+    }
+
+    synchronized long getNextProbeTime(Node node) {
+        NodeSchedule schedule = schedules.get(node);
+        return schedule == null ? 0 : schedule.nextProbeTime;
+    }
+
+    long getBackoffDelay(int consecutiveFailures) {
+        long delay = basePeriodMs;
+        for (int i = 1; i < consecutiveFailures && delay < maxBackoffMs; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, maxBackoffMs);
+    }
+
+    private static class NodeSchedule {
+        private long nextProbeTime = 0;
+        private boolean inFlight = false;
+        private int consecutiveFailures = 0;
+        private int unsettledProbes = 0;
+        private Map<String, String> nodeStatus = null;
+    }
+}
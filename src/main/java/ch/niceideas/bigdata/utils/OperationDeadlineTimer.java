@@ -0,0 +1,276 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed wheel timer enforcing deadlines of SSH operations (connection checks, scripts, tunnels) and of proxy
+ * connection requests from a single daemon thread.
+ * <p>
+ * Deadlines are expected to be cancelled far more often than they expire. Scheduling and cancelling only enqueue the
+ * change, the timer thread applies it on its next tick. Deadlines fire with a precision of one tick and never early.
+ * Expiry tasks - closing a connection or a session - may block, the shared timer runs them on a separate pool of
+ * daemon threads so that they never delay other deadlines.
+ */
+public class OperationDeadlineTimer {
+
+    private static final Logger logger = Logger.getLogger(OperationDeadlineTimer.class);
+
+    private static final long DEFAULT_TICK_MILLIS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int MAX_EXPIRY_THREADS = 16;
+
+    private static final OperationDeadlineTimer SHARED =
+            new OperationDeadlineTimer("eskimo-operation-deadlines", DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE,
+                    System::currentTimeMillis, createExpiryExecutor("eskimo-operation-deadline-expiry"));
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final String name;
+    private final long tickMillis;
+    private final LongSupplier clock;
+    private final Executor expiryExecutor;
+    private final long startTime;
+
+    private final List<Set<Deadline>> wheel;
+    private final int mask;
+    private long currentTick = 0;
+
+    private final Queue<Deadline> additions = new ConcurrentLinkedQueue<>();
+    private final Queue<Deadline> cancellations = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopped = false;
+
+    public static OperationDeadlineTimer shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates a timer running expiry tasks in its own thread, for tests.
+     */
+    OperationDeadlineTimer(String name, long tickMillis, int wheelSize, LongSupplier clock) {
+        this(name, tickMillis, wheelSize, clock, Runnable::run);
+    }
+
+    OperationDeadlineTimer(String name, long tickMillis, int wheelSize, LongSupplier clock, Executor expiryExecutor) {
+        this.name = name;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.expiryExecutor = expiryExecutor;
+        this.startTime = clock.getAsLong();
+
+        // power of two so that the bucket of a tick is a simple mask
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new HashSet<>());
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Runs the given task once the delay has elapsed, unless the returned deadline gets cancelled before.
+     */
+    public Deadline schedule(Runnable task, long delayMillis) {
+        Deadline deadline = new Deadline(task, clock.getAsLong() + Math.max(0, delayMillis));
+        scheduledCount.incrementAndGet();
+        pendingCount.incrementAndGet();
+        additions.add(deadline);
+        startIfNeeded();
+        return deadline;
+    }
+
+    private static Executor createExpiryExecutor(String threadName) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // expiring tasks beyond the pool size run in the timer thread rather than being dropped
+        return new ThreadPoolExecutor(0, MAX_EXPIRY_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(scheduledCount.get(), expiredCount.get(), cancelledCount.get(), pendingCount.get());
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void startIfNeeded() {
+        if (started.compareAndSet(false, true)) {
+            Thread worker = new Thread(this::run, name);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            expireDeadlines(clock.getAsLong());
+        }
+    }
+
+    /**
+     * Processes all ticks elapsed until the given time. Called by the timer thread, exposed for tests.
+     */
+    synchronized void expireDeadlines(long now) {
+        Deadline cancelled;
+        while ((cancelled = cancellations.poll()) != null) {
+            if (cancelled.bucket != null) {
+                cancelled.bucket.remove(cancelled);
+                cancelled.bucket = null;
+            }
+        }
+
+        Deadline added;
+        while ((added = additions.poll()) != null) {
+            if (added.state.get() == PENDING) {
+                long deadlineTick = Math.max((added.deadline - startTime) / tickMillis, currentTick);
+                added.remainingRounds = (deadlineTick - currentTick) / wheel.size();
+                added.bucket = wheel.get((int) (deadlineTick & mask));
+                added.bucket.add(added);
+            }
+        }
+
+        while (startTime + (currentTick + 1) * tickMillis <= now) {
+            Set<Deadline> bucket = wheel.get((int) (currentTick & mask));
+            for (Iterator<Deadline> it = bucket.iterator(); it.hasNext(); ) {
+                Deadline deadline = it.next();
+                if (deadline.remainingRounds <= 0) {
+                    it.remove();
+                    deadline.bucket = null;
+                    deadline.expire();
+                } else {
+                    deadline.remainingRounds--;
+                }
+            }
+            currentTick++;
+        }
+    }
+
+    public class Deadline {
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // only touched by the timer thread
+        private long remainingRounds;
+        private Set<Deadline> bucket;
+
+        private Deadline(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the deadline was still pending, in which case its task will never run.
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelledCount.incrementAndGet();
+                pendingCount.decrementAndGet();
+                cancellations.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(PENDING, EXPIRED)) {
+                expiredCount.incrementAndGet();
+                pendingCount.decrementAndGet();
+                expiryExecutor.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        logger.error (e, e);
+                    }
+                });
+            }
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Metrics {
+        private final long scheduled;
+        private final long expired;
+        private final long cancelled;
+        private final int pending;
+
+        @Override
+        public String toString() {
+            return "scheduled=" + scheduled + ", expired=" + expired + ", cancelled=" + cancelled + ", pending=" + pending;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared scheduler running the pumps copying the output of terminal sessions, SSH scripts and local processes.
+ * <p>
+ * The pumped streams are blocking ones - SSH channel streams can't be registered in a selector - so a running pump
+ * still occupies a thread. But these threads are pooled and reused from one pump to the next instead of being created
+ * for each stream, and each of them keeps its own copy buffers.
+ */
+public class PumpScheduler {
+
+    static final int BYTE_BUFFER_SIZE = 16 * 1024;
+    static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+
+    private static final PumpScheduler SHARED = new PumpScheduler("eskimo-pump", DEFAULT_KEEP_ALIVE_MILLIS);
+
+    private final ThreadPoolExecutor executor;
+
+    private final ThreadLocal<byte[]> byteBuffers = ThreadLocal.withInitial(() -> new byte[BYTE_BUFFER_SIZE]);
+    private final ThreadLocal<char[]> charBuffers = ThreadLocal.withInitial(() -> new char[CHAR_BUFFER_SIZE]);
+
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicInteger runningCount = new AtomicInteger();
+
+    public static PumpScheduler shared() {
+        return SHARED;
+    }
+
+    PumpScheduler(String name, long keepAliveMillis) {
+        AtomicInteger counter = new AtomicInteger();
+        // no queueing : a pump blocks its thread as long as its stream is open
+        executor = new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE, keepAliveMillis, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Runs the given pump on a pooled thread, renamed after the pump while it runs.
+     */
+    public Future<?> submit(String pumpName, Runnable pump) {
+        startedCount.incrementAndGet();
+        return executor.submit(() -> {
+            Thread current = Thread.currentThread();
+            String threadName = current.getName();
+            current.setName(threadName + " [" + pumpName + "]");
+            runningCount.incrementAndGet();
+            try {
+                pump.run();
+            } finally {
+                runningCount.decrementAndGet();
+                completedCount.incrementAndGet();
+                current.setName(threadName);
+            }
+        });
+    }
+
+    /**
+     * @return the byte buffer of the calling pump thread, only to be used until the pump returns.
+     */
+    public byte[] byteBuffer() {
+        return byteBuffers.get();
+    }
+
+    /**
+     * @return the char buffer of the calling pump thread, only to be used until the pump returns.
+     */
+    public char[] charBuffer() {
+        return charBuffers.get();
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(
+                startedCount.get(), completedCount.get(), runningCount.get(),
+                executor.getPoolSize(), executor.getLargestPoolSize());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Metrics {
+        private final long started;
+        private final long completed;
+        private final int running;
+        private final int threads;
+        private final int largestThreads;
+
+        @Override
+        public String toString() {
+            return "started=" + started + ", completed=" + completed + ", running=" + running
+                    + ", threads=" + threads + ", largestThreads=" + largestThreads;
+        }
+    }
+}
@@ -40,14 +40,20 @@ import org.apache.log4j.Logger;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+/**
+ * Copies an input stream to an output stream on the shared {@link PumpScheduler}, until the end of the input stream.
+ * Closing the pump waits for the copy to complete.
+ */
 public class PumpThread implements Runnable, AutoCloseable {
 
     private static final Logger logger = Logger.getLogger(PumpThread.class);
 
     private final InputStream in;
     private final OutputStream out;
-    private final Thread thread;
+    private final Future<?> pump;
 
     /**
      * Instantiates a new Pump thread.
@@ -56,15 +62,14 @@ public class PumpThread implements Runnable, AutoCloseable {
      * @param out the out
      */
     public  PumpThread(InputStream in, OutputStream out) {
-        thread = new Thread(this, "pump thread");
         this.in = in;
         this.out = out;
-        thread.start();
+        pump = PumpScheduler.shared().submit("pump", this);
     }
 
     @Override
     public void run() {
-        byte[] buf = new byte[1024];
+        byte[] buf = PumpScheduler.shared().byteBuffer();
         try {
             while(true) {
                 int len = in.read(buf);
@@ -82,8 +87,11 @@ public class PumpThread implements Runnable, AutoCloseable {
 
     @Override
     public void close() throws InterruptedException {
-        if (thread != null) {
-            thread.join();
+        try {
+            pump.get();
+        } catch (ExecutionException e) {
+            logger.warn(e.getCause().getMessage());
+            logger.debug(e.getCause(), e.getCause());
         }
     }
 }
@@ -67,13 +67,18 @@ public class SystemStatusParser {
 
     public SystemStatusParser (Node node, SSHCommandService sshCommandService, ServicesDefinition servicesDefinition)
             throws SSHCommandException {
-        parse(sshCommandService, node, servicesDefinition);
+        this (sshCommandService.runSSHScript(node, getStatusScript(servicesDefinition), false));
     }
 
-    void parse(SSHCommandService sshCommandService, Node node, ServicesDefinition servicesDefinition) throws SSHCommandException {
+    public SystemStatusParser (String allServicesStatus) {
+        parse(allServicesStatus);
+    }
+
+    public static String getStatusScript(ServicesDefinition servicesDefinition) {
+        return "sudo systemctl status --no-pager --no-block -al " + servicesDefinition.getAllServicesString() + " 2>/dev/null ";
+    }
 
-        String allServicesStatus = sshCommandService.runSSHScript(node,
-                "sudo systemctl status --no-pager --no-block -al " + servicesDefinition.getAllServicesString() + " 2>/dev/null ", false);
+    void parse(String allServicesStatus) {
 
         String[] contentLines = allServicesStatus.split("\n");
         for (int i = 0; i < contentLines.length; i++) {
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ring buffer keeping the last <code>capacity</code> elements added, each identified by a monotonic sequence number.
+ *
+ * <p>
+ * Writers are serialized (single writer at a time) and never copy the buffer : adding an element is O(1). Readers
+ * don't lock : they copy the elements of the requested range and then validate that the writer didn't wrap around
+ * over them in the meantime, dropping the ones overwritten, the same way {@link java.util.concurrent.locks.StampedLock}
+ * validates optimistic reads.
+ *
+ * <p>
+ * Sequence numbers restart from 0 after {@link #clear()}.
+ */
+public class SequencedRingBuffer<T> {
+
+    private final int capacity;
+
+    private volatile Ring ring;
+
+    public SequencedRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        this.capacity = capacity;
+        this.ring = new Ring(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the sequence number of the oldest element still available.
+     */
+    public long getFirstSequence() {
+        return Math.max(0, ring.end - capacity);
+    }
+
+    /**
+     * @return the sequence number the next element added will get, i.e. the number of elements added since creation
+     * or last {@link #clear()}.
+     */
+    public long getEndSequence() {
+        return ring.end;
+    }
+
+    public synchronized void add(T element) {
+        Ring current = ring;
+        long sequence = current.end;
+        current.claim(sequence + 1);
+        current.slots[index(sequence)] = element;
+        current.end = sequence + 1;
+    }
+
+    public synchronized void addAll(Collection<? extends T> elements) {
+        if (elements.isEmpty()) {
+            return;
+        }
+        Ring current = ring;
+        long sequence = current.end;
+        current.claim(sequence + elements.size());
+        for (T element : elements) {
+            current.slots[index(sequence++)] = element;
+        }
+        current.end = sequence;
+    }
+
+    public synchronized void clear() {
+        ring = new Ring(capacity);
+    }
+
+    /**
+     * @return the elements from <code>fromSequence</code> - or the oldest one still available if it's been evicted -
+     * to the most recent one.
+     */
+    @SuppressWarnings("unchecked")
+    public Slice<T> slice(long fromSequence) {
+        Ring current = ring;
+        long end = current.end;
+        long from = Math.max(Math.max(0, fromSequence), end - capacity);
+        if (from >= end) {
+            return new Slice<>(end, end, Collections.emptyList());
+        }
+
+        Object[] copy = new Object[(int) (end - from)];
+        for (long sequence = from; sequence < end; sequence++) {
+            copy[(int) (sequence - from)] = current.slots[index(sequence)];
+        }
+
+        // elements the writer may have overwritten while they were being copied are dropped
+        VarHandle.acquireFence();
+        long valid = Math.max(from, current.claimed - capacity);
+        if (valid >= end) {
+            return new Slice<>(end, end, Collections.emptyList());
+        }
+        List<T> elements = new ArrayList<>((int) (end - valid));
+        for (long sequence = valid; sequence < end; sequence++) {
+            elements.add((T) copy[(int) (sequence - from)]);
+        }
+        return new Slice<>(valid, end, Collections.unmodifiableList(elements));
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private static final class Ring {
+
+        private final Object[] slots;
+
+        /**
+         * Sequence number up to which slots are being written.
+         */
+        private volatile long claimed = 0;
+
+        /**
+         * Sequence number up to which slots are written.
+         */
+        private volatile long end = 0;
+
+        private Ring(int capacity) {
+            slots = new Object[capacity];
+        }
+
+        private void claim(long upTo) {
+            claimed = upTo;
+            // slots can only be overwritten once the claim is visible
+            VarHandle.storeStoreFence();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Slice<T> {
+        private final long fromSequence;
+        private final long endSequence;
+        private final List<T> elements;
+    }
+}
@@ -12,6 +12,9 @@ ajaxterm.Terminal = function(id,options) {
 	const height = options.height || 25;
     const endpoint = options.endpoint;  // URL of the server endpoint that delivers the request to Session.handleUpdate
     const additionalQueryString = options.query; // additional parameters sent to the server
+    const wsEndpoint = options.wsEndpoint; // URL of the web socket endpoint pushing the screen, AJAX polling is used without it
+    const scrollbackEndpoint = options.scrollbackEndpoint; // URL of the endpoint delivering the lines scrolled off the screen
+    const searchEndpoint = options.searchEndpoint; // URL of the endpoint searching the lines scrolled off the screen
 
 	let ie=0;
 	if(window.ActiveXObject)
@@ -28,6 +31,16 @@ ajaxterm.Terminal = function(id,options) {
 
 	let closed = false;
 
+	let socket = null;
+	let termPre = null;   // screen pushed line by line on the web socket
+	let termLines = [];
+
+	let historyFrom = null;  // first scrollback line shown, null when showing the live screen
+	let historyFirst = 0;
+	let historyEnd = 0;
+	let lastSearch = null;
+	let lastMatch = -1;
+
 	let systemPasteReady = false;
 	let systemPasteContent;
 	let cpTextArea;
@@ -43,6 +56,7 @@ ajaxterm.Terminal = function(id,options) {
 	let screen = document.createElement('div'); // holds dterm&cursor. origin of the cursor positioning
 	let dterm = document.createElement('div');    // area that shows the screen
 	let cursor = document.createElement('div');   // cursor
+	let history = document.createElement('div');  // shows the lines scrolled off the screen instead of screen
 	let showPrevTab = null;
 	let showNextTab = null;
 
@@ -54,6 +68,10 @@ ajaxterm.Terminal = function(id,options) {
 		if (timeout) {
             window.clearTimeout(timeout);
         }
+        if (socket) {
+            socket.close();
+            socket = null;
+        }
         $("#" + that.id).find("pre").each(function() {
             $(this).addClass('dead');
         });
@@ -103,6 +121,173 @@ ajaxterm.Terminal = function(id,options) {
 		debug('Color '+optColor.className);
 	}
 
+	function showScreen(screenHtml, cx, cy, sx, sy) {
+        if (screenHtml != null) {
+            dterm.innerHTML = screenHtml;
+        }
+        if (cx != null && cx !== -1) {
+            cursor.style.left=(dterm.offsetWidth*cx/sx)+"px";
+            cursor.style.top=(dterm.offsetHeight*cy/sy)+"px";
+            cursor.style.display="";
+        } else {
+            cursor.style.display="none";
+        }
+    }
+
+	function showLines(lines, cssClass, sy) {
+	    if (termPre == null || termLines.length !== sy || termPre.parentNode !== dterm) {
+	        termPre = document.createElement('pre');
+	        termLines = [];
+	        for (let i = 0; i < sy; i++) {
+	            let line = document.createElement('div');
+	            termPre.appendChild(line);
+	            termLines.push(line);
+            }
+	        dterm.innerHTML = "";
+	        dterm.appendChild(termPre);
+        }
+	    termPre.className = "term " + cssClass;
+	    for (let index in lines) {
+	        termLines[Number(index)].innerHTML = lines[index];
+        }
+    }
+
+	function getJSON(url, callback) {
+	    const r = new XMLHttpRequest();
+	    r.open("GET", url + (additionalQueryString ? '&' + additionalQueryString : ''), true);
+	    r.onreadystatechange = function () {
+	        if (r.readyState === 4) {
+	            if (r.status === 200) {
+	                const data = JSON.parse(r.responseText);
+	                if (data.status === "OK") {
+	                    callback(data);
+                    } else {
+	                    console.error("Scrollback error : " + data.error);
+                    }
+                } else {
+	                console.log("Connection error status:" + r.status);
+                }
+            }
+        };
+	    r.send(null);
+    }
+
+	function showHistory(from, matchLine) {
+	    getJSON(scrollbackEndpoint + (scrollbackEndpoint.indexOf("?") === -1 ? "?" : "&")
+	            + "session=" + sid + "&from=" + from + "&count=" + height,
+	        function (data) {
+	            const scrollback = data.scrollback;
+	            if (scrollback.lines.length === 0) {
+	                return;
+                }
+	            historyFrom = scrollback.fromLine;
+	            historyFirst = scrollback.firstLine;
+	            historyEnd = scrollback.endLine;
+
+	            const pre = document.createElement('pre');
+	            pre.className = "term";
+	            for (let i = 0; i < scrollback.lines.length; i++) {
+	                const line = document.createElement('div');
+	                if (historyFrom + i === matchLine) {
+	                    line.className = "match";
+                    }
+	                line.innerHTML = scrollback.lines[i];
+	                pre.appendChild(line);
+                }
+	            history.innerHTML = "";
+	            history.appendChild(pre);
+	            history.style.display = "";
+	            screen.style.display = "none";
+            });
+    }
+
+	function pageHistory(direction) {
+	    if (historyFrom == null) {
+	        if (direction < 0) {
+	            showHistory(-1);
+            }
+        } else if (direction < 0) {
+	        if (historyFrom > historyFirst) {
+	            showHistory(Math.max(historyFirst, historyFrom - height));
+            }
+        } else if (historyFrom + height >= historyEnd) {
+	        leaveHistory();
+        } else {
+	        showHistory(historyFrom + height);
+        }
+    }
+
+	function leaveHistory() {
+	    historyFrom = null;
+	    lastMatch = -1;
+	    history.style.display = "none";
+	    history.innerHTML = "";
+	    screen.style.display = "";
+    }
+
+	function searchHistory() {
+	    const pattern = window.prompt("Search the terminal history (regular expression)", lastSearch || "");
+	    div.focus();
+	    if (!pattern) {
+	        return;
+        }
+	    if (pattern !== lastSearch) {
+	        lastSearch = pattern;
+	        lastMatch = -1;
+        }
+	    getJSON(searchEndpoint + (searchEndpoint.indexOf("?") === -1 ? "?" : "&")
+	            + "session=" + sid + "&pattern=" + encodeURIComponent(pattern) + "&before=" + lastMatch + "&max=1",
+	        function (data) {
+	            if (data.lines.length === 0) {
+	                window.alert("No " + (lastMatch === -1 ? "" : "further ") + "match for " + pattern);
+	                return;
+                }
+	            lastMatch = data.lines[0];
+	            showHistory(Math.max(0, lastMatch - Math.floor(height / 2)), lastMatch);
+            });
+    }
+
+	function toWebSocketUrl(url) {
+	    const wsUrl = new URL(url, window.location.href);
+	    wsUrl.protocol = (wsUrl.protocol === "https:" ? "wss:" : "ws:");
+	    return wsUrl.toString();
+    }
+
+	function connect() {
+	    let opened = false;
+	    let url = toWebSocketUrl(wsEndpoint);
+	    url += (url.indexOf("?") === -1 ? "?" : "&") + query0 + (optColor.className == 'on' ? "&c=1" : "");
+        if (additionalQueryString) url += '&' + additionalQueryString;
+
+        socket = new WebSocket(url);
+        socket.onopen = function() {
+            opened = true;
+            sled.className='on';
+            while (keybuf.length > 0) {
+                socket.send(keybuf.pop());
+            }
+        };
+        socket.onmessage = function(event) {
+            const image = JSON.parse(event.data);
+            if (image.lines) {
+                showLines(image.lines, image.cssClass, image.screenY);
+                showScreen(null, image.cursorX, image.cursorY, image.screenX, image.screenY);
+            } else {
+                showScreen(image.screen, image.cursorX, image.cursorY, image.screenX, image.screenY);
+            }
+            screenTimestamp = image.timestamp;
+        };
+        socket.onclose = function() {
+            socket = null;
+            sled.className='off';
+            if (!closed) {
+                // web sockets unavailable or connection lost : falling back to polling the same server session
+                console.log("Terminal web socket " + (opened ? "closed" : "unavailable") + ", polling instead");
+                timeout=window.setTimeout(update, opened ? 1 : 100);
+            }
+        };
+    }
+
 	function update() {
 	    if (closed) {
 	        return;
@@ -116,7 +301,7 @@ ajaxterm.Terminal = function(id,options) {
 			var r = new XMLHttpRequest();
 			var send="";
 			while(keybuf.length>0) {
-				send+=keybuf.pop();
+				send+=encodeURIComponent(keybuf.pop());
 			}
 			var query=query1+send+"&t="+screenTimestamp;
             if (additionalQueryString)  query+='&'+additionalQueryString;
@@ -136,8 +321,9 @@ ajaxterm.Terminal = function(id,options) {
 				if (r.readyState === 4) {
 					if(r.status === 200) {
 						window.clearTimeout(error_timeout);
+						var screenHtml = null;
 						if(r.responseText.trim() != "<idem/>") {
-                            dterm.innerHTML = r.responseText;
+                            screenHtml = r.responseText;
 							rmax=100;
 						} else {
 							rmax *= 2;
@@ -148,18 +334,11 @@ ajaxterm.Terminal = function(id,options) {
 
                         // update cursor position
                         var cxs = r.getResponseHeader("Cursor-X");
-                        if (cxs != null) {
-                            var cx = Number(cxs);
-                            var cy = Number(r.getResponseHeader("Cursor-Y"));
-                            var sx = Number(r.getResponseHeader("Screen-X"));
-                            var sy = Number(r.getResponseHeader("Screen-Y"));
-
-                            cursor.style.left=(dterm.offsetWidth*cx/sx)+"px";
-                            cursor.style.top=(dterm.offsetHeight*cy/sy)+"px";
-                            cursor.style.display="";
-                        } else {
-                            cursor.style.display="none";
-                        }
+                        showScreen(screenHtml,
+                            cxs != null ? Number(cxs) : null,
+                            Number(r.getResponseHeader("Cursor-Y")),
+                            Number(r.getResponseHeader("Screen-X")),
+                            Number(r.getResponseHeader("Screen-Y")));
 
 						sending=0;
 						sled.className='off';
@@ -186,8 +365,16 @@ ajaxterm.Terminal = function(id,options) {
 	function queue(s) {
         if (closed) {
             return;
+        }
+        if (socket && socket.readyState === WebSocket.OPEN) {
+            socket.send(s);
+            return;
         }
 		keybuf.unshift(s);
+		if (socket) {
+		    // sent as soon as the web socket is open
+		    return;
+        }
 		if (sending === 0) {
 			window.clearTimeout(timeout);
 			timeout=window.setTimeout(update,1);
@@ -279,7 +466,11 @@ ajaxterm.Terminal = function(id,options) {
 			*/
 
 			if (ev.shiftKey) {
-				if (kc == 37) { // Ctrl+Shift+Left
+				if (kc == 70 && searchEndpoint) { // Ctrl+Shift+F
+					k = "";
+					searchHistory();
+				}
+				else if (kc == 37) { // Ctrl+Shift+Left
 					k = "";
 					if (showPrevTab) {
 						showPrevTab();
@@ -311,6 +502,9 @@ ajaxterm.Terminal = function(id,options) {
 			if (kc==9) k=String.fromCharCode(9);  // Tab
 			else if (kc==8) k=String.fromCharCode(127);  // Backspace
 			else if (kc==27) k=String.fromCharCode(27); // Escape
+			else if ((kc==33 || kc==34) && ev.shiftKey && scrollbackEndpoint) {
+				pageHistory(kc==33 ? -1 : 1); // Shift+PgUp / Shift+PgDn
+			}
 			else {
 				if (kc==33) k="[5~";        // PgUp
 				else if (kc==34) k="[6~";   // PgDn
@@ -346,13 +540,10 @@ ajaxterm.Terminal = function(id,options) {
             }
 		}
 		if(k.length) {
-//			queue(encodeURIComponent(k));
-			if(k=="+") {
-				queue("%2B");
-			} else {
-
-				queue(escape(k));
+			if (historyFrom != null) {
+				leaveHistory();
 			}
+			queue(k);
 		}
 		ev.cancelBubble=true;
 		if (ev.stopPropagation) ev.stopPropagation();
@@ -404,7 +595,7 @@ ajaxterm.Terminal = function(id,options) {
 
         if (window.clipboardData) {
             //target.innerText = window.clipboardData.getData('Text');
-            queue(encodeURIComponent(window.clipboardData.getData('Text')));
+            queue(window.clipboardData.getData('Text'));
             return;
         }
         function waitForPaste() {
@@ -420,7 +611,7 @@ ajaxterm.Terminal = function(id,options) {
                 setTimeout(waitForPaste, 20);
                 return;
             }
-            queue(encodeURIComponent(systemPasteContent));
+            queue(systemPasteContent);
             systemPasteReady = false;
             cpTextArea.value = "";
             div.focus();
@@ -457,6 +648,9 @@ ajaxterm.Terminal = function(id,options) {
         spacer.appendChild(screen);
         screen.className='screen';
         screen.appendChild(dterm);
+        spacer.appendChild(history);
+        history.className='screen history';
+        history.style.display="none";
 		if(optColor.addEventListener) {
 			optGet.addEventListener('click',do_get,true);
 			optColor.addEventListener('click',do_color,true);
@@ -466,7 +660,11 @@ ajaxterm.Terminal = function(id,options) {
 		}
         div.onkeypress=keypress;
         div.onkeydown=keydown;
-		timeout=window.setTimeout(update,100);
+		if (wsEndpoint && window.WebSocket) {
+		    connect();
+        } else {
+            timeout=window.setTimeout(update,100);
+        }
 
         window.addEventListener('paste',systemPasteListener);
 
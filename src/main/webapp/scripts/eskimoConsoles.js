@@ -346,7 +346,10 @@ eskimo.Consoles = function() {
             const t = new ajaxterm.Terminal("term_"+nodeName, {
                 width: getTerminalWidth(),
                 height: getTerminalHeight(),
-                endpoint: "./terminal?node="+node
+                endpoint: "./terminal?node="+node,
+                wsEndpoint: "./terminal-ws?node="+node,
+                scrollbackEndpoint: "./terminal-scrollback",
+                searchEndpoint: "./terminal-search"
             });
             t.setShowNextTab(showNextTab);
             t.setShowPrevTab(showPrevTab);
@@ -67,6 +67,12 @@ eskimo.SystemStatus = function() {
 
     let prevHidingMessageTimeout = null;
 
+    // last node services status received from backend and its version, used to apply deltas
+    // versions restart with the backend, they are only meaningful along with the epoch of the backend instance
+    let statusEpoch = 0;
+    let statusVersion = 0;
+    let lastNodeServicesStatus = null;
+
     this.scheduleInitializeStatusTableMenus = function() {
 
         if (initialized) {
@@ -612,7 +618,8 @@ eskimo.SystemStatus = function() {
                 if (key.indexOf("node_alive_") > -1) {
                     let nodeName = key.substring("node_alive_".length);
                     let nodeAlive = nodeServicesStatus[key];
-                    if (nodeAlive != "OK") {
+                    // nodes pending their first status probe aren't reporting anything yet
+                    if (nodeAlive != "OK" && nodeAlive != "PENDING") {
                         nodesWithproblem.push(nodeName.replace(/-/g, "."));
                     }
                 }
@@ -929,6 +936,8 @@ eskimo.SystemStatus = function() {
 
             if (nodeAlive == 'OK') {
                 arrayRow += '        <img alt="node icon" src="images/node-icon.png" class="status-node-image">\n';
+            } else if (nodeAlive == 'PENDING') {
+                arrayRow += '        <img alt="node icon white" src="images/node-icon-white.png" class="status-node-image blinking-status">\n';
             } else {
                 arrayRow += '        <img alt="node icon red" src="images/node-icon-red.png" class="status-node-image">\n';
                 nodeHasIssues = true;
@@ -1055,6 +1064,31 @@ eskimo.SystemStatus = function() {
         });
     };
 
+    function applyNodeServicesStatusDelta(data) {
+        if (data.nodeServicesStatusDelta) {
+            let nodeServicesStatus = $.extend({}, lastNodeServicesStatus);
+            let delta = data.nodeServicesStatusDelta;
+            for (let key in delta.changed) {
+                nodeServicesStatus[key] = delta.changed[key];
+            }
+            for (let i = 0; i < delta.removed.length; i++) {
+                delete nodeServicesStatus[delta.removed[i]];
+            }
+            data.nodeServicesStatus = nodeServicesStatus;
+        }
+
+        if (data.statusVersion && data.nodeServicesStatus && !data.clear) {
+            statusEpoch = data.statusEpoch;
+            statusVersion = data.statusVersion;
+            lastNodeServicesStatus = data.nodeServicesStatus;
+        } else {
+            statusEpoch = 0;
+            statusVersion = 0;
+            lastNodeServicesStatus = null;
+        }
+    }
+    this.applyNodeServicesStatusDelta = applyNodeServicesStatusDelta;
+
     let inUpdateStatus = false;
     function updateStatus(blocking) {
 
@@ -1074,11 +1108,14 @@ eskimo.SystemStatus = function() {
 
         $.ajaxGet({
             url: "get-status",
+            data: {sinceEpoch: statusEpoch, sinceVersion: statusVersion},
             timeout: 1000 * 35, // 35 secs
             success: (data, status, jqXHR) => {
 
                 disconnectedFlag = false;
 
+                applyNodeServicesStatusDelta(data);
+
                 that.eskimoMenu.serviceMenuClear(data.nodeServicesStatus);
 
                 //console.log (data);
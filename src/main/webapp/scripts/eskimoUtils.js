@@ -191,6 +191,7 @@ $.ajaxGet = function(reqObject) {
         contentType: (typeof reqObject.contentType === 'undefined' ? "application/json; charset=utf-8" : reqObject.contentType),
         timeout: (typeof reqObject.timeout === 'undefined' ? 1000 * 10 : reqObject.timeout),
         url: reqObject.url,
+        data: reqObject.data,
         context: (typeof reqObject.context === 'undefined' ? this : reqObject.context),
         success: success,
         error: error
@@ -36,6 +36,7 @@
 package ch.niceideas.bigdata.controlers;
 
 import ch.niceideas.bigdata.BigDataApplication;
+import ch.niceideas.bigdata.model.SystemStatusDelta;
 import ch.niceideas.bigdata.test.infrastructure.SecurityContextHelper;
 import ch.niceideas.bigdata.test.services.OperationsMonitoringServiceTestImpl;
 import ch.niceideas.bigdata.test.services.SetupServiceTestImpl;
@@ -48,6 +49,9 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -111,7 +115,7 @@ public class SystemStatusControllerTest {
                 "  \"processingPending\": false,\n" +
                 "  \"systemStatus\": {\"status\": \"OK\"},\n" +
                 "  \"status\": \"OK\"\n" +
-                "}", systemStatusController.getStatus());
+                "}", systemStatusController.getStatus(null, null));
 
         systemServiceTest.setReturnEmptySystemStatus();
 
@@ -120,7 +124,7 @@ public class SystemStatusControllerTest {
                 "  \"processingPending\": false,\n" +
                 "  \"systemStatus\": {\"status\": \"OK\"},\n" +
                 "  \"status\": \"OK\"\n" +
-                "}", systemStatusController.getStatus());
+                "}", systemStatusController.getStatus(null, null));
 
         setupServiceTest.setSetupError();
 
@@ -128,7 +132,7 @@ public class SystemStatusControllerTest {
                 "  \"clear\": \"setup\",\n" +
                 "  \"processingPending\": false,\n" +
                 "  \"status\": \"OK\"\n" +
-                "}", systemStatusController.getStatus());
+                "}", systemStatusController.getStatus(null, null));
 
         setupServiceTest.setSetupCompleted();;
 
@@ -139,6 +143,40 @@ public class SystemStatusControllerTest {
                 "  \"processingPending\": false,\n" +
                 "  \"systemStatus\": {\"status\": \"OK\"},\n" +
                 "  \"status\": \"OK\"\n" +
-                "}", systemStatusController.getStatus());
+                "}", systemStatusController.getStatus(null, null));
+    }
+
+    @Test
+    public void testGetStatusSinceVersion() {
+
+        systemServiceTest.reset();
+        systemServiceTest.setReturnOKSystemStatus();
+
+        assertEquals ("{\n" +
+                "  \"statusVersion\": 1,\n" +
+                "  \"nodeServicesStatus\": {\"status\": \"OK\"},\n" +
+                "  \"statusEpoch\": 1000,\n" +
+                "  \"processingPending\": false,\n" +
+                "  \"systemStatus\": {\"status\": \"OK\"},\n" +
+                "  \"status\": \"OK\"\n" +
+                "}", systemStatusController.getStatus(null, 0L));
+
+        systemServiceTest.setStatusDelta(SystemStatusDelta.delta(1000, 4,
+                Map.of("service_kibana_192-168-10-11", "KO"),
+                Set.of("service_cerebro_192-168-10-11")));
+
+        assertEquals ("{\n" +
+                "  \"nodeServicesStatusDelta\": {\n" +
+                "    \"removed\": [\"service_cerebro_192-168-10-11\"],\n" +
+                "    \"changed\": {\"service_kibana_192-168-10-11\": \"KO\"}\n" +
+                "  },\n" +
+                "  \"statusVersion\": 4,\n" +
+                "  \"statusEpoch\": 1000,\n" +
+                "  \"processingPending\": false,\n" +
+                "  \"systemStatus\": {\"status\": \"OK\"},\n" +
+                "  \"status\": \"OK\"\n" +
+                "}", systemStatusController.getStatus(1000L, 1L));
+
+        systemServiceTest.reset();
     }
 }
@@ -39,6 +39,7 @@ import ch.niceideas.bigdata.BigDataApplication;
 import ch.niceideas.bigdata.test.infrastructure.HttpObjectsHelper;
 import ch.niceideas.bigdata.test.infrastructure.SecurityContextHelper;
 import ch.niceideas.bigdata.test.services.TerminalServiceTestImpl;
+import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -119,4 +120,24 @@ public class TerminalControllerTest {
 
     }
 
+    @Test
+    public void testFetchScrollback() {
+
+        JSONObject result = new JSONObject(tc.fetchScrollback("ABC", -1, 10));
+        assertEquals("OK", result.getString("status"));
+
+        JSONObject scrollback = result.getJSONObject("scrollback");
+        assertEquals(0, scrollback.getLong("fromLine"));
+        assertEquals(0, scrollback.getLong("endLine"));
+        assertEquals(0, scrollback.getJSONArray("lines").length());
+    }
+
+    @Test
+    public void testSearchScrollback() {
+
+        assertEquals ("{\n" +
+                "  \"lines\": [],\n" +
+                "  \"status\": \"OK\"\n" +
+                "}", tc.searchScrollback("ABC", "error", -1, 10));
+    }
 }
@@ -0,0 +1,287 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.controlers;
+
+import ch.niceideas.bigdata.services.TerminalService;
+import ch.niceideas.bigdata.terminal.ProcessWithPtyWrapper;
+import ch.niceideas.bigdata.terminal.ScreenImage;
+import ch.niceideas.bigdata.terminal.ScrollbackImage;
+import ch.niceideas.bigdata.terminal.Session;
+import ch.niceideas.bigdata.test.infrastructure.SecurityContextHelper;
+import ch.niceideas.bigdata.utils.ActiveWaiter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TerminalWebSocketHandlerTest {
+
+    private final List<String> pushed = new CopyOnWriteArrayList<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final AtomicReference<CloseStatus> closeStatus = new AtomicReference<>();
+    private final AtomicReference<HttpStatus> responseStatus = new AtomicReference<>();
+
+    private final ByteArrayOutputStream keys = new ByteArrayOutputStream();
+    private PipedOutputStream processOutput;
+
+    private Session session;
+    private TerminalWebSocketHandler handler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        processOutput = new PipedOutputStream();
+        session = new Session(null, 80, 25, createProcess(new PipedInputStream(processOutput)));
+        handler = new TerminalWebSocketHandler(createTerminalService(session));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        SecurityContextHolder.clearContext();
+        processOutput.close();
+        handler.destroy();
+    }
+
+    @Test
+    public void testScreenIsPushedOnOutput() throws Exception {
+        attributes.put(TerminalWebSocketHandler.SESSION_ATTRIBUTE, session);
+        WebSocketSession webSocketSession = createWebSocketSession();
+
+        handler.afterConnectionEstablished(webSocketSession);
+        assertTrue(session.isStreaming());
+
+        // initial screen
+        ActiveWaiter.wait(() -> pushed.size() == 1);
+        assertEquals(1, pushed.size());
+        assertEquals(80, new JSONObject(pushed.get(0)).getInt("screenX"));
+        assertEquals(25, new JSONObject(pushed.get(0)).getJSONObject("lines").length());
+
+        processOutput.write("hello".getBytes(StandardCharsets.UTF_8));
+        processOutput.flush();
+
+        ActiveWaiter.wait(() -> pushed.stream().anyMatch(frame -> frame.contains("hello")));
+        JSONObject frame = new JSONObject(pushed.get(pushed.size() - 1));
+        assertEquals(1, frame.getJSONObject("lines").length());
+        assertTrue(frame.getJSONObject("lines").getString("0").contains("hello"), frame.toString());
+
+        handler.handleTextMessage(webSocketSession, new TextMessage("ls\r"));
+        assertEquals("ls\r", keys.toString(StandardCharsets.UTF_8));
+
+        handler.afterConnectionClosed(webSocketSession, CloseStatus.NORMAL);
+        assertFalse(session.isStreaming());
+        assertNull(closeStatus.get());
+    }
+
+    @Test
+    public void testClosedWhenProcessEnds() throws Exception {
+        attributes.put(TerminalWebSocketHandler.SESSION_ATTRIBUTE, session);
+        handler.afterConnectionEstablished(createWebSocketSession());
+
+        processOutput.close();
+
+        ActiveWaiter.wait(() -> closeStatus.get() != null);
+        assertEquals(CloseStatus.NORMAL, closeStatus.get());
+        JSONObject frame = new JSONObject(pushed.get(pushed.size() - 1));
+        assertEquals("dead", frame.getString("cssClass"));
+        assertEquals(25, frame.getJSONObject("lines").length());
+    }
+
+    @Test
+    public void testHandshake() {
+        ServerHttpRequest request = createRequest("ws://localhost/terminal-ws?node=192.168.10.11&s=12345&w=80&h=25&c=1");
+
+        assertFalse(handler.beforeHandshake(request, createResponse(), handler, attributes));
+        assertEquals(HttpStatus.UNAUTHORIZED, responseStatus.get());
+
+        SecurityContextHelper.loginAdmin();
+
+        assertFalse(handler.beforeHandshake(createRequest("ws://localhost/terminal-ws?s=12345"), createResponse(), handler, attributes));
+        assertEquals(HttpStatus.BAD_REQUEST, responseStatus.get());
+
+        responseStatus.set(null);
+        assertTrue(handler.beforeHandshake(request, createResponse(), handler, attributes));
+        assertNull(responseStatus.get());
+        assertSame(session, attributes.get(TerminalWebSocketHandler.SESSION_ATTRIBUTE));
+        assertEquals(Boolean.TRUE, attributes.get(TerminalWebSocketHandler.COLOR_ATTRIBUTE));
+    }
+
+    private TerminalService createTerminalService(Session session) {
+        return new TerminalService() {
+            @Override
+            public void removeTerminal(String sessionId) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ScreenImage postUpdate(String terminalBody) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Session openTerminal(String node, String sessionId, Integer width, Integer height) {
+                assertEquals("192.168.10.11", node);
+                assertEquals("12345", sessionId);
+                assertEquals(80, width);
+                assertEquals(25, height);
+                return session;
+            }
+
+            @Override
+            public ScrollbackImage fetchScrollback(String sessionId, long fromLine, int count) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public List<Long> searchScrollback(String sessionId, String regex, long beforeLine, int maxResults) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private ServerHttpRequest createRequest(String uri) {
+        return (ServerHttpRequest) Proxy.newProxyInstance(
+                TerminalWebSocketHandlerTest.class.getClassLoader(),
+                new Class[]{ServerHttpRequest.class},
+                (proxy, method, methodArgs) -> {
+                    if ("getURI".equals(method.getName())) {
+                        return URI.create(uri);
+                    }
+                    throw new UnsupportedOperationException("Unsupported method: " + method.getName());
+                });
+    }
+
+    private ServerHttpResponse createResponse() {
+        return (ServerHttpResponse) Proxy.newProxyInstance(
+                TerminalWebSocketHandlerTest.class.getClassLoader(),
+                new Class[]{ServerHttpResponse.class},
+                (proxy, method, methodArgs) -> {
+                    if ("setStatusCode".equals(method.getName())) {
+                        responseStatus.set((HttpStatus) methodArgs[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException("Unsupported method: " + method.getName());
+                });
+    }
+
+    private WebSocketSession createWebSocketSession() {
+        return (WebSocketSession) Proxy.newProxyInstance(
+                TerminalWebSocketHandlerTest.class.getClassLoader(),
+                new Class[]{WebSocketSession.class},
+                (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "sendMessage":
+                            return pushed.add(((TextMessage) methodArgs[0]).getPayload());
+                        case "getAttributes":
+                            return attributes;
+                        case "getId":
+                            return "test";
+                        case "isOpen":
+                            return closeStatus.get() == null;
+                        case "close":
+                            closeStatus.set((CloseStatus) methodArgs[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException("Unsupported method: " + method.getName());
+                    }
+                });
+    }
+
+    private ProcessWithPtyWrapper createProcess(InputStream processInput) {
+        return new ProcessWithPtyWrapper() {
+            @Override
+            public void setWindowSize(int width, int height) {
+                // No-Op
+            }
+
+            @Override
+            public void kill(int signal) {
+                // No-Op
+            }
+
+            @Override
+            public void destroy() {
+                // No-Op
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return keys;
+            }
+
+            @Override
+            public InputStream getErrorStream() {
+                return InputStream.nullInputStream();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return processInput;
+            }
+
+            @Override
+            public int exitValue() {
+                return 0;
+            }
+
+            @Override
+            public boolean isAlive() {
+                return true;
+            }
+
+            @Override
+            public int waitFor() {
+                return 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.model;
+
+import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.types.Service;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceNodeTableTest {
+
+    @Test
+    public void testSystemStatusFlags() {
+
+        SystemStatusWrapper status = new SystemStatusWrapper("{" +
+                "\"node_alive_192-168-10-11\": \"OK\", " +
+                "\"node_alive_192-168-10-13\": \"OK\", " +
+                "\"node_nbr_192-168-10-11\": \"1\", " +
+                "\"service_cerebro_192-168-10-11\": \"OK\", " +
+                "\"service_kafka_192-168-10-11\": \"OK\", " +
+                "\"service_kafka_192-168-10-13\": \"KO\"}");
+
+        ServiceNodeTable table = status.getFlagsTable();
+
+        assertEquals (6, table.getSourceKeyCount());
+        assertEquals (Node.fromName("192-168-10-11"), table.getFirstNode(Service.from("kafka")));
+        assertNull (table.getFirstNode(Service.from("zeppelin")));
+        assertEquals (List.of(Node.fromName("192-168-10-11"), Node.fromName("192-168-10-13")), table.getNodes(Service.from("kafka")));
+        assertEquals (new HashSet<>(Arrays.asList(Service.NODE_ALIVE, Service.from("kafka"))), table.getServices(Node.fromName("192-168-10-13")));
+        assertEquals ("service_kafka_192-168-10-13", table.getFlag(Service.from("kafka"), Node.fromName("192-168-10-13")));
+
+        assertEquals (new HashSet<>(Arrays.asList(Node.fromName("192-168-10-11"), Node.fromName("192-168-10-13"))), status.getNodes());
+    }
+
+    @Test
+    public void testInvalidatedOnChanges() {
+
+        ServicesInstallStatusWrapper installStatus = new ServicesInstallStatusWrapper("{" +
+                "\"cerebro_installed_on_IP_KUBERNETES_NODE\": \"OK\", " +
+                "\"kafka_installed_on_IP_192-168-10-11\": \"OK\", " +
+                "\"node_check_IP_192-168-10-11\": \"OK\"}");
+
+        assertEquals (new HashSet<>(List.of(Node.fromName("192-168-10-11"))), installStatus.getNodes());
+        assertEquals (Node.KUBERNETES_NODE, installStatus.getFirstNode(Service.from("cerebro")));
+
+        installStatus.setInstallationFlagOK(Service.from("kafka"), Node.fromName("192-168-10-12"));
+        installStatus.removeInstallationFlag(Service.from("kafka"), Node.fromName("192-168-10-11"));
+
+        assertEquals (Node.fromName("192-168-10-12"), installStatus.getFirstNode(Service.from("kafka")));
+        assertTrue (installStatus.isServiceInstalledAnywhere(Service.from("kafka")));
+        assertFalse (installStatus.isServiceInstalledAnywhere(Service.from("zeppelin")));
+
+        // changes made directly on the underlying JSON object are caught as well
+        installStatus.getJSONObject().put("zeppelin_installed_on_IP_192-168-10-13", "OK");
+        assertTrue (installStatus.isServiceInstalledAnywhere(Service.from("zeppelin")));
+    }
+}
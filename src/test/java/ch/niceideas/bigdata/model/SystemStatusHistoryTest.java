@@ -0,0 +1,128 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SystemStatusHistoryTest {
+
+    private SystemStatusHistory history = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        history = new SystemStatusHistory(3);
+    }
+
+    @Test
+    public void testNoStatus() {
+        assertNull (history.getDeltaSince(history.getEpoch(), 0));
+        assertEquals (0, history.getVersion());
+    }
+
+    @Test
+    public void testVersionOnlyIncreasedOnChanges() {
+
+        assertEquals (1, history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"OK\"}")));
+        assertEquals (1, history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"OK\"}")));
+        assertEquals (2, history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"KO\"}")));
+    }
+
+    @Test
+    public void testDelta() {
+
+        history.update(new SystemStatusWrapper("{" +
+                "\"node_alive_192-168-10-11\": \"OK\", " +
+                "\"service_kibana_192-168-10-11\": \"OK\", " +
+                "\"service_cerebro_192-168-10-11\": \"OK\"}"));
+        history.update(new SystemStatusWrapper("{" +
+                "\"node_alive_192-168-10-11\": \"OK\", " +
+                "\"service_kibana_192-168-10-11\": \"KO\", " +
+                "\"service_cerebro_192-168-10-11\": \"OK\"}"));
+        history.update(new SystemStatusWrapper("{" +
+                "\"node_alive_192-168-10-11\": \"OK\", " +
+                "\"service_kibana_192-168-10-11\": \"KO\"}"));
+
+        SystemStatusDelta delta = history.getDeltaSince(history.getEpoch(), 1);
+        assertFalse (delta.isFull());
+        assertEquals (3, delta.getVersion());
+        assertEquals ("{\"removed\":[\"service_cerebro_192-168-10-11\"],\"changed\":{\"service_kibana_192-168-10-11\":\"KO\"}}",
+                delta.toJSONObject().toString());
+
+        SystemStatusDelta upToDate = history.getDeltaSince(history.getEpoch(), 3);
+        assertTrue (upToDate.isEmpty());
+        assertEquals (3, upToDate.getVersion());
+    }
+
+    @Test
+    public void testFullStatusWhenVersionUnknown() {
+
+        history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"OK\"}"));
+        for (int i = 0; i < 5; i++) {
+            history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"" + i + "\"}"));
+        }
+
+        assertEquals (6, history.getVersion());
+
+        // initial call, version from the future and version gone from history all get the full status
+        assertTrue (history.getDeltaSince(history.getEpoch(), 0).isFull());
+        assertTrue (history.getDeltaSince(history.getEpoch(), 7).isFull());
+        assertTrue (history.getDeltaSince(history.getEpoch(), 2).isFull());
+
+        SystemStatusDelta full = history.getDeltaSince(history.getEpoch(), 0);
+        assertEquals (6, full.getVersion());
+        assertEquals ("4", full.getFullStatus().getValueForPathAsString("node_alive_192-168-10-11"));
+
+        assertFalse (history.getDeltaSince(history.getEpoch(), 3).isFull());
+    }
+
+    @Test
+    public void testFullStatusWhenEpochDiffers() {
+
+        history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"OK\"}"));
+        history.update(new SystemStatusWrapper("{\"node_alive_192-168-10-11\": \"KO\"}"));
+
+        // a version issued by a previous instance of the backend, whatever its value
+        SystemStatusDelta delta = history.getDeltaSince(history.getEpoch() - 1, 1);
+        assertTrue (delta.isFull());
+        assertEquals (history.getEpoch(), delta.getEpoch());
+        assertEquals (2, delta.getVersion());
+
+        assertTrue (history.getDeltaSince(0, 1).isFull());
+        assertFalse (history.getDeltaSince(history.getEpoch(), 1).isFull());
+    }
+}
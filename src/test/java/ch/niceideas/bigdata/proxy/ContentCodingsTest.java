@@ -0,0 +1,116 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCodingsTest {
+
+    @Test
+    public void testDecodeGzipContent() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("TEST ABC STRING".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (InputStream decoded = ContentCodings.decode(new ByteArrayInputStream(compressed.toByteArray()), "GZIP")) {
+            assertEquals("TEST ABC STRING", new String(decoded.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testIdentityContentUntouched() throws Exception {
+        InputStream content = new ByteArrayInputStream("TEST ABC STRING".getBytes(StandardCharsets.UTF_8));
+        assertSame(content, ContentCodings.decode(content, null));
+        assertSame(content, ContentCodings.decode(content, "identity"));
+    }
+
+    @Test
+    public void testDecodable() {
+        assertTrue(ContentCodings.isDecodable(null));
+        assertTrue(ContentCodings.isDecodable("gzip"));
+        assertTrue(ContentCodings.isDecodable(" x-gzip"));
+        assertTrue(ContentCodings.isDecodable("deflate"));
+        assertFalse(ContentCodings.isDecodable("br"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ContentCodings.decode(new ByteArrayInputStream(new byte[0]), "br"));
+    }
+
+    @Test
+    public void testFilterAcceptEncoding() {
+        assertEquals("gzip, deflate", ContentCodings.filterAcceptEncoding("gzip, deflate, br"));
+        assertEquals("gzip;q=0.8", ContentCodings.filterAcceptEncoding("br;q=1.0, gzip;q=0.8, *;q=0.1"));
+        assertNull(ContentCodings.filterAcceptEncoding("br"));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(ContentCodings.acceptsGzip(requestAccepting("gzip, deflate, br")));
+        assertTrue(ContentCodings.acceptsGzip(requestAccepting("*")));
+        assertFalse(ContentCodings.acceptsGzip(requestAccepting("gzip;q=0, deflate")));
+        assertFalse(ContentCodings.acceptsGzip(requestAccepting("br")));
+        assertFalse(ContentCodings.acceptsGzip(requestAccepting(null)));
+
+        assertTrue(ContentCodings.accepts(requestAccepting("x-gzip"), "gzip"));
+        assertTrue(ContentCodings.accepts(requestAccepting("gzip, deflate"), "deflate"));
+        assertTrue(ContentCodings.accepts(requestAccepting(null), "identity"));
+        assertFalse(ContentCodings.accepts(requestAccepting("gzip"), "deflate"));
+    }
+
+    private static HttpServletRequest requestAccepting(String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                ContentCodingsTest.class.getClassLoader(),
+                new Class[]{HttpServletRequest.class},
+                (proxy, method, methodArgs) -> {
+                    if (method.getName().equals("getHeader") && "Accept-Encoding".equals(methodArgs[0])) {
+                        return acceptEncoding;
+                    }
+                    throw new UnsupportedOperationException("Unsupported method: " + method.getName());
+                });
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+package ch.niceideas.bigdata.proxy;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http.nio.support.BasicResponseConsumer;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProxyConnectionPoolTest {
+
+    private ServerSocket silentServer;
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    private ProxyConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // accepts connections and never answers
+        silentServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (!silentServer.isClosed()) {
+                    accepted.add(silentServer.accept());
+                }
+            } catch (Exception e) {
+                // server closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        pool = new ProxyConnectionPool(1, 1, 0,
+                ConnectionConfig.custom().setConnectTimeout(Timeout.ofMilliseconds(100)).build(),
+                SocketConfig.custom().setSoTimeout(Timeout.ofSeconds(30)).build(),
+                RequestConfig.custom().setConnectionRequestTimeout(Timeout.ofMilliseconds(200)).build(),
+                false);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        pool.close();
+        silentServer.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testConnectLimit() {
+        assertEquals(300, pool.getConnectLimit());
+
+        ProxyConnectionPool unlimited = new ProxyConnectionPool(1, 1, 0,
+                ConnectionConfig.custom().setConnectTimeout(Timeout.ofMilliseconds(100)).build(),
+                null, RequestConfig.custom().setConnectionRequestTimeout(Timeout.DISABLED).build(), false);
+        try {
+            assertEquals(-1, unlimited.getConnectLimit());
+        } finally {
+            unlimited.close();
+        }
+    }
+
+    @Test
+    public void testWaitForPooledConnectionBounded() throws Exception {
+        HttpHost target = new HttpHost("http", "localhost", silentServer.getLocalPort());
+
+        // holds the only connection, the server never answers and the read timeout is far
+        CompletableFuture<Exception> first = new CompletableFuture<>();
+        Future<?> firstFuture = execute(target, first);
+
+        CompletableFuture<Exception> second = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        execute(target, second);
+
+        Exception error = second.get(10, TimeUnit.SECONDS);
+        assertTrue(error instanceof ConnectionRequestTimeoutException, String.valueOf(error));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        assertFalse(first.isDone());
+        assertFalse(firstFuture.isDone());
+
+        // cancelling the one holding the connection fails nothing else
+        assertTrue(firstFuture.cancel(true));
+        assertTrue(firstFuture.isCancelled());
+        assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+    }
+
+    private Future<?> execute(HttpHost target, CompletableFuture<Exception> result) {
+        return pool.executeAsync(target,
+                new BasicRequestProducer(Method.GET, target, "/"),
+                new BasicResponseConsumer<>(new StringAsyncEntityConsumer()),
+                new FutureCallback<Message<HttpResponse, String>>() {
+                    @Override
+                    public void completed(Message<HttpResponse, String> response) {
+                        result.complete(null);
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        result.complete(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.completeExceptionally(new IllegalStateException("cancelled"));
+                    }
+                });
+    }
+}
@@ -44,6 +44,7 @@ import com.meterware.httpunit.WebRequest;
 import com.meterware.httpunit.WebResponse;
 import com.meterware.servletunit.ServletRunner;
 import com.meterware.servletunit.ServletUnitClient;
+import org.apache.hc.client5.http.HttpRoute;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.core5.http.*;
 import org.apache.hc.core5.http.config.Http1Config;
@@ -56,6 +57,7 @@ import org.apache.hc.core5.http.io.HttpServerConnection;
 import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.protocol.*;
+import org.apache.hc.core5.pool.PoolStats;
 import org.apache.hc.core5.util.Asserts;
 import org.apache.hc.core5.util.Timeout;
 import org.apache.log4j.Logger;
@@ -155,17 +157,23 @@ public class ProxyServletTest {
     }
 
     @Test
-    public void testInvalidateSession() throws Exception {
-        testRedirectWithBody();
+    public void testHttpClientSharedAcrossSessions() throws Exception {
+        execAssert(makeGetMethodRequest(sourceBaseUri));
 
-        assertNotNull (sc.getSession(false));
-        HttpClient proxyClient = (HttpClient) sc.getSession(false).getAttribute(ProxyServlet.SESSION_HTTP_CLIENT);
+        ProxyServlet servlet = (ProxyServlet) sc.newInvocation(makeGetMethodRequest(sourceBaseUri)).getServlet();
+        HttpClient proxyClient = servlet.getHttpClient();
         assertNotNull(proxyClient);
 
         sc.getSession(true).invalidate();
+        execAssert(makeGetMethodRequest(sourceBaseUri));
 
-        proxyClient = (HttpClient) sc.getSession(true).getAttribute(ProxyServlet.SESSION_HTTP_CLIENT);
-        assertNull(proxyClient);
+        assertSame(proxyClient, servlet.getHttpClient());
+
+        // the connection has been returned to the pool for reuse by the next request whatever the session
+        Map<HttpRoute, PoolStats> routeStats = servlet.getConnectionPool().getRouteStats();
+        assertEquals(1, routeStats.size());
+        assertEquals(1, routeStats.values().iterator().next().getAvailable());
+        assertEquals(0, routeStats.values().iterator().next().getLeased());
     }
 
     @Test
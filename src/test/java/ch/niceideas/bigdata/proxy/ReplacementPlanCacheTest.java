@@ -0,0 +1,111 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.model.service.proxy.ReplacementContext;
+import ch.niceideas.bigdata.types.Service;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplacementPlanCacheTest {
+
+    private static final Service SERVICE = Service.from("cerebro");
+
+    private static ReplacementContext context(String fullServerRoot) {
+        return new ReplacementContext("", "cerebro", fullServerRoot, fullServerRoot, "", "");
+    }
+
+    private static ReplacementPlan plan(AtomicInteger builds) {
+        builds.incrementAndGet();
+        return ReplacementPlan.builder().add("a", "b").build();
+    }
+
+    @Test
+    public void testPlansAreBuiltOncePerContext() {
+        ReplacementPlanCache cache = new ReplacementPlanCache();
+        AtomicInteger builds = new AtomicInteger();
+
+        ReplacementPlan first = cache.getPlan(SERVICE, context("http://host1"), new BitSet(), () -> plan(builds));
+        assertSame(first, cache.getPlan(SERVICE, context("http://host1"), new BitSet(), () -> plan(builds)));
+        assertEquals(1, builds.get());
+
+        cache.getPlan(SERVICE, context("http://host2"), new BitSet(), () -> plan(builds));
+        BitSet applicable = new BitSet();
+        applicable.set(2);
+        cache.getPlan(SERVICE, context("http://host1"), applicable, () -> plan(builds));
+        cache.getPlan(Service.from("kibana"), context("http://host1"), new BitSet(), () -> plan(builds));
+        assertEquals(4, builds.get());
+
+        cache.clear();
+        assertNotSame(first, cache.getPlan(SERVICE, context("http://host1"), new BitSet(), () -> plan(builds)));
+        assertEquals(5, builds.get());
+    }
+
+    @Test
+    public void testValueBuiltDuringClearIsNotKept() {
+        ReplacementPlanCache cache = new ReplacementPlanCache();
+        AtomicInteger builds = new AtomicInteger();
+
+        cache.getPlan(SERVICE, context("http://host1"), new BitSet(), () -> {
+            cache.clear();
+            return plan(builds);
+        });
+        assertEquals(0, cache.size());
+
+        List<ReplacementPlanCache.ResolvedUrlRewriting> rewritings = Collections.singletonList(
+                new ReplacementPlanCache.ResolvedUrlRewriting("http://host1/history/", "http://host1/cerebro/history/"));
+        assertSame(rewritings, cache.getUrlRewritings(context("http://host1"), () -> rewritings));
+        assertSame(rewritings, cache.getUrlRewritings(context("http://host1"), Collections::emptyList));
+        assertEquals("http://host1/cerebro/history/1", rewritings.get(0).rewrite("http://host1/history/1"));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        ReplacementPlanCache cache = new ReplacementPlanCache();
+        AtomicInteger builds = new AtomicInteger();
+        for (int i = 0; i < ReplacementPlanCache.MAX_ENTRIES + 10; i++) {
+            cache.getPlan(SERVICE, context("http://host" + i), new BitSet(), () -> plan(builds));
+        }
+        assertEquals(ReplacementPlanCache.MAX_ENTRIES, cache.size());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplacementPlanTest {
+
+    private static String replaceSequentially(List<String[]> replacements, String input) {
+        for (String[] replacement : replacements) {
+            input = input.replace(replacement[0], replacement[1]);
+        }
+        return input;
+    }
+
+    private static ReplacementPlan build(List<String[]> replacements) {
+        ReplacementPlan.Builder builder = ReplacementPlan.builder();
+        replacements.forEach(replacement -> builder.add(replacement[0], replacement[1]));
+        return builder.build();
+    }
+
+    private static String applyInChunks(ReplacementPlan plan, String input, int chunkSize) throws Exception {
+        StringWriter result = new StringWriter();
+        try (Writer writer = plan.wrap(result)) {
+            for (int i = 0; i < input.length(); i += chunkSize) {
+                writer.write(input, i, Math.min(chunkSize, input.length() - i));
+            }
+        }
+        return result.toString();
+    }
+
+    private static List<String[]> standardReplacements(String prefix) {
+        List<String[]> replacements = new ArrayList<>();
+        replacements.add(new String[]{"src=\"/", "src=\"/" + prefix + "/"});
+        replacements.add(new String[]{"action=\"/", "action=\"/" + prefix + "/"});
+        replacements.add(new String[]{"href=\"/", "href=\"/" + prefix + "/"});
+        replacements.add(new String[]{"href='/", "href='/" + prefix + "/"});
+        replacements.add(new String[]{"url(\"/", "url(\"/" + prefix + "/"});
+        replacements.add(new String[]{"url('/", "url('/" + prefix + "/"});
+        replacements.add(new String[]{"url(/", "url(/" + prefix + "/"});
+        replacements.add(new String[]{"/api/v1", "/" + prefix + "/api/v1"});
+        replacements.add(new String[]{"\"/static/", "\"/" + prefix + "/static/"});
+        replacements.add(new String[]{prefix + "/" + prefix, prefix});
+        replacements.add(new String[]{"</body>", "<script>alert('/api/v1');</script></body>"});
+        replacements.add(new String[]{"node1:31000", "/grafana"});
+        return replacements;
+    }
+
+    @Test
+    public void testEmptyPlan() throws Exception {
+        ReplacementPlan plan = ReplacementPlan.builder().add("", "abc").add(null, "def").build();
+        assertTrue(plan.isEmpty());
+        assertEquals("unchanged", plan.apply("unchanged"));
+        assertEquals("unchanged", applyInChunks(plan, "unchanged", 3));
+    }
+
+    @Test
+    public void testMatchesIn() {
+        ReplacementPlan plan = ReplacementPlan.builder()
+                .add("/api/v1", "/grafana/api/v1")
+                .add("grafana/grafana", "grafana")
+                .build();
+        assertTrue(plan.matchesIn("fetch('/api/v1/query')"));
+        assertTrue(plan.matchesIn("grafana/grafana"));
+        assertFalse(plan.matchesIn("/api/v2 grafana"));
+        assertFalse(ReplacementPlan.builder().build().matchesIn("anything"));
+    }
+
+    @Test
+    public void testIndependentReplacementsShareStage() {
+        ReplacementPlan plan = ReplacementPlan.builder()
+                .add("red", "RED")
+                .add("blue", "BLUE")
+                .add("pink", "")
+                .build();
+        assertEquals(1, plan.getStageCount());
+        assertEquals("RED - BLUE -  - blu", plan.apply("red - blue - pink - blu"));
+    }
+
+    @Test
+    public void testDependentReplacementsGetOwnStage() {
+        // second replacement needs to see the output of the first one
+        ReplacementPlan plan = ReplacementPlan.builder()
+                .add("/api/v1", "/grafana/api/v1")
+                .add("grafana/grafana", "grafana")
+                .build();
+        assertEquals(2, plan.getStageCount());
+        assertEquals("/grafana/api/v1", plan.apply("/grafana/api/v1"));
+
+        // an empty target may join surrounding text
+        plan = ReplacementPlan.builder()
+                .add("XX", "")
+                .add("ab", "c")
+                .build();
+        assertEquals(2, plan.getStageCount());
+        assertEquals("c", plan.apply("aXXb"));
+
+        // overlapping sources
+        plan = ReplacementPlan.builder()
+                .add("abc", "1")
+                .add("cde", "2")
+                .build();
+        assertEquals(2, plan.getStageCount());
+        assertEquals("1de", plan.apply("abcde"));
+    }
+
+    @Test
+    public void testOverlaps() {
+        assertTrue(ReplacementPlan.Builder.overlaps("src=\"/", "\"/static/"));
+        assertFalse(ReplacementPlan.Builder.overlaps("\"/static/", "src=\"/"));
+        assertFalse(ReplacementPlan.Builder.overlaps("abc", "abc"));
+        assertTrue(ReplacementPlan.Builder.overlaps("aba", "aba"));
+    }
+
+    @Test
+    public void testStandardReplacements() throws Exception {
+        List<String[]> replacements = standardReplacements("grafana");
+        ReplacementPlan plan = build(replacements);
+        assertTrue(plan.getStageCount() < replacements.size());
+
+        String input = "<html><head><script src=\"/static/app.js\"></script>" +
+                "<link href=\"/grafana/style.css\"/><style>a { background: url(/api/v1/img) }</style></head>" +
+                "<body><form action=\"/login\"><a href='/home'>node1:31000</a></form></body></html>";
+
+        String expected = replaceSequentially(replacements, input);
+        assertEquals(expected, plan.apply(input));
+        for (int chunkSize = 1; chunkSize <= 20; chunkSize++) {
+            assertEquals(expected, applyInChunks(plan, input, chunkSize), "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    public void testRandomInputsMatchSequentialReplace() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 2000; round++) {
+            // small alphabets yield many dependent replacements, bigger ones many merged stages
+            String alphabet = round % 2 == 0 ? "ab/\"<" : "abcdefghijkl";
+            List<String[]> replacements = new ArrayList<>();
+            int count = 1 + random.nextInt(6);
+            for (int i = 0; i < count; i++) {
+                replacements.add(new String[]{
+                        randomString(random, alphabet, 1 + random.nextInt(4)),
+                        randomString(random, alphabet, random.nextInt(5))});
+            }
+            ReplacementPlan plan = build(replacements);
+            String input = randomString(random, alphabet, random.nextInt(200));
+            String expected = replaceSequentially(replacements, input);
+            assertEquals(expected, plan.apply(input));
+            assertEquals(expected, applyInChunks(plan, input, 1 + random.nextInt(10)));
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
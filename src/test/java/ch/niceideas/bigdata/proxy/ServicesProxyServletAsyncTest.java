@@ -0,0 +1,254 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.model.service.proxy.ProxyTunnelConfig;
+import ch.niceideas.bigdata.test.services.ServicesDefinitionTestImpl;
+import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.types.ServiceWebId;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.pool.PoolStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Goes through the async proxy mode, the default one, with a servlet container supporting it.
+ */
+public class ServicesProxyServletAsyncTest {
+
+    private ProxyServletTest.LocalTestServer localTestServer;
+
+    private Tomcat tomcat;
+
+    private ServicesProxyServlet servlet;
+
+    private CloseableHttpClient client;
+
+    private final AtomicInteger asyncRequests = new AtomicInteger();
+
+    private byte[] compressed;
+
+    private String textBody;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+
+        ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressedStream)) {
+            gzip.write("TEST ABC STRING".getBytes(StandardCharsets.UTF_8));
+        }
+        compressed = compressedStream.toByteArray();
+
+        StringBuilder testBuilder = new StringBuilder();
+        while (testBuilder.length() <= ServicesProxyServlet.MIN_COMPRESSED_BODY_SIZE) {
+            testBuilder.append("<img src=\"/TEST ABC STRING\"/>\n");
+        }
+        textBody = testBuilder.toString();
+
+        localTestServer = new ProxyServletTest.LocalTestServer(null, null);
+        localTestServer.register("/compressed", (request, response, context) -> {
+            response.setCode(200);
+            response.setEntity(new ByteArrayEntity(compressed, ContentType.TEXT_HTML, "gzip"));
+        });
+        localTestServer.register("/text", (request, response, context) -> {
+            response.setCode(200);
+            response.setEntity(new ByteArrayEntity(textBody.getBytes(StandardCharsets.UTF_8), ContentType.TEXT_HTML));
+        });
+        localTestServer.start();
+
+        ServicesDefinitionTestImpl sd = new ServicesDefinitionTestImpl();
+        sd.afterPropertiesSet();
+
+        HttpHost target = new HttpHost("http", "127.0.0.1", localTestServer.getServiceAddress().getPort());
+        ServiceWebId serviceId = ServiceWebId.fromService(Service.from("database-manager"));
+        ProxyTunnelConfig tunnelConfig = new ProxyTunnelConfig(
+                serviceId.getService(), target.getPort(), Node.fromName("dummy"), -1);
+        ProxyManagerServiceImpl pms = new ProxyManagerServiceImpl() {
+
+            @Override
+            public Collection<ServiceWebId> getAllTunnelConfigKeys() {
+                return Collections.singletonList(serviceId);
+            }
+
+            @Override
+            public ProxyTunnelConfig getTunnelConfig(ServiceWebId id) {
+                return serviceId.equals(id) ? tunnelConfig : null;
+            }
+        };
+
+        servlet = new ServicesProxyServlet(
+                pms, sd, null, null, null, 5, 2, 60000, 10000, 10000, 10000, true) {
+
+            @Override
+            protected HttpHost getTargetHost(HttpServletRequest servletRequest) {
+                return target;
+            }
+
+            @Override
+            protected String getTargetUri(HttpServletRequest servletRequest) {
+                return target.toURI() + "/";
+            }
+
+            @Override
+            protected void serviceAsync(HttpServletRequest servletRequest, HttpServletResponse servletResponse,
+                                        ClassicHttpRequest proxyRequest) throws IOException {
+                asyncRequests.incrementAndGet();
+                super.serviceAsync(servletRequest, servletResponse, proxyRequest);
+            }
+        };
+
+        File baseDir = Files.createTempDirectory("tomcat.").toFile();
+        baseDir.deleteOnExit();
+
+        tomcat = new Tomcat();
+        tomcat.setPort(0);
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setSilent(true);
+        Context webContext = tomcat.addContext("", baseDir.getAbsolutePath());
+        Tomcat.addServlet(webContext, "eskimo-proxy", servlet).setAsyncSupported(true);
+        webContext.addServletMappingDecoded("/database-manager/*", "eskimo-proxy");
+        tomcat.start();
+
+        // bodies are checked as received
+        client = HttpClients.custom().disableContentCompression().build();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        client.close();
+        tomcat.stop();
+        tomcat.destroy();
+        localTestServer.stop();
+    }
+
+    @Test
+    public void testCompressedBodyRelayedUntouched() throws Exception {
+
+        HttpGet get = new HttpGet(getProxyUrl("/compressed"));
+        get.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        client.execute(get, response -> {
+            assertEquals(200, response.getCode());
+            assertEquals("gzip", getHeaderValue(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING)));
+            assertArrayEquals(compressed, EntityUtils.toByteArray(response.getEntity()));
+            return null;
+        });
+
+        assertEquals(1, asyncRequests.get());
+    }
+
+    @Test
+    public void testTextBodyRewritten() throws Exception {
+
+        client.execute(new HttpGet(getProxyUrl("/text")), response -> {
+            assertEquals(200, response.getCode());
+            assertNull(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(textBody.replace("src=\"/", "src=\"/database-manager/"),
+                    EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+            return null;
+        });
+
+        HttpGet get = new HttpGet(getProxyUrl("/text"));
+        get.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        client.execute(get, response -> {
+            assertEquals(200, response.getCode());
+            assertEquals("gzip", getHeaderValue(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING)));
+            try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(EntityUtils.toByteArray(response.getEntity())))) {
+                assertEquals(textBody.replace("src=\"/", "src=\"/database-manager/"),
+                        new String(gunzip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        assertEquals(2, asyncRequests.get());
+    }
+
+    @Test
+    public void testServiceConnectionStats() throws Exception {
+
+        client.execute(new HttpGet(getProxyUrl("/text")), response -> {
+            assertEquals(200, response.getCode());
+            EntityUtils.consume(response.getEntity());
+            return null;
+        });
+
+        Map<ServiceWebId, PoolStats> stats = servlet.getServiceConnectionStats();
+        assertEquals(1, stats.size());
+        PoolStats serviceStats = stats.get(ServiceWebId.fromService(Service.from("database-manager")));
+        assertNotNull(serviceStats);
+        assertEquals(2, serviceStats.getMax());
+        assertEquals(0, serviceStats.getPending());
+    }
+
+    private String getProxyUrl(String path) {
+        return "http://localhost:" + tomcat.getConnector().getLocalPort() + "/database-manager" + path;
+    }
+
+    private static String getHeaderValue(Header header) {
+        return header != null ? header.getValue() : null;
+    }
+}
@@ -36,6 +36,7 @@ package ch.niceideas.bigdata.proxy;
 
 import ch.niceideas.bigdata.BigDataApplication;
 import ch.niceideas.bigdata.model.service.ServiceDefinition;
+import ch.niceideas.bigdata.model.service.proxy.ProxyTunnelConfig;
 import ch.niceideas.bigdata.model.service.proxy.ReplacementContext;
 import ch.niceideas.bigdata.services.ServicesDefinition;
 import ch.niceideas.bigdata.test.infrastructure.HttpObjectsHelper;
@@ -48,6 +49,7 @@ import ch.niceideas.bigdata.types.ServiceWebId;
 import org.apache.catalina.ssi.ByteArrayServletOutputStream;
 import org.apache.hc.core5.http.*;
 import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,8 +60,14 @@ import org.springframework.test.context.TestPropertySource;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -75,6 +83,9 @@ public class ServicesProxyServletTest {
     @Autowired
     private ServicesDefinition servicesDefinition;
 
+    @Autowired
+    private ReplacementPlanCache replacementPlanCache;
+
     @Autowired
     private ConfigurationServiceTestImpl configurationServiceTest;
 
@@ -109,7 +120,7 @@ public class ServicesProxyServletTest {
         connectionManagerServiceTest.dontConnect();
         webSocketProxyServerTest.reset();
 
-        servlet = new ServicesProxyServlet(pms, servicesDefinition, null, 5, 10000, 10000, 10000);
+        servlet = new ServicesProxyServlet(pms, servicesDefinition, null, replacementPlanCache, null, 5, 2, 60000, 10000, 10000, 10000, false);
     }
 
     @Test
@@ -203,6 +214,36 @@ public class ServicesProxyServletTest {
                 servlet.rewriteUrlFromResponse(request, "http://localhost:9191/history/spark-application-1652639268719/jobs/"));
     }
 
+    @Test
+    public void testReplacementPlanCachedUntilTunnelsChange() throws Exception {
+
+        ServiceDefinition dfsService = servicesDefinition.getServiceDefinition(Service.from("distributed-filesystem"));
+        ReplacementContext ctx = new ReplacementContext("", "distributed-filesystem/192-168-10-11", "http://localhost:9191",
+                "http://localhost:9191", "//localhost:9191", "//localhost:9191");
+
+        pms.updateServerForService(Service.from("distributed-filesystem"), Node.fromAddress("192.168.10.11"));
+
+        ReplacementPlan plan = servlet.getReplacementPlan(dfsService, "/egmi/app.html", ctx);
+        assertSame(plan, servlet.getReplacementPlan(dfsService, "/egmi/app.html", ctx));
+
+        // a new tunnel gives new plans
+        pms.updateServerForService(Service.from("distributed-filesystem"), Node.fromAddress("192.168.10.13"));
+
+        ReplacementPlan newPlan = servlet.getReplacementPlan(dfsService, "/egmi/app.html", ctx);
+        assertNotSame(plan, newPlan);
+
+        ProxyTunnelConfig config = pms.getTunnelConfig(
+                ServiceWebId.fromServiceAndNode(Service.from("distributed-filesystem"), Node.fromAddress("192.168.10.13")));
+        assertEquals("/distributed-filesystem/192-168-10-13",
+                newPlan.apply(config.getNode() + ":" + config.getLocalPort()));
+
+        // the page scripters and replacements applying to the URL are part of the plan
+        ServiceDefinition dashboardService = servicesDefinition.getServiceDefinition(Service.from("cluster-dashboard"));
+        assertNotSame(
+                servlet.getReplacementPlan(dashboardService, "index.html", ctx),
+                servlet.getReplacementPlan(dashboardService, "api/v1/namespaces/cluster-dashboard/services/https:cluster-dashboard:/proxy/", ctx));
+    }
+
     @Test
     public void testNominalReplacements() {
 
@@ -360,6 +401,115 @@ public class ServicesProxyServletTest {
         assertEquals(38, headers.get(HttpHeaders.CONTENT_LENGTH));
     }
 
+    @Test
+    public void testCopyResponseEntityLargeTextIsStreamed() throws Exception {
+
+        StringBuilder testBuilder = new StringBuilder();
+        while (testBuilder.length() <= ServicesProxyServlet.MAX_BUFFERED_BODY_SIZE) {
+            testBuilder.append("<img src=\"/TEST ABC STRING\"/>\n");
+        }
+        String testString = testBuilder.toString();
+
+        ByteArrayEntity proxyServedEntity = new ByteArrayEntity(testString.getBytes(), ContentType.create("plain/text"));
+
+        ByteArrayServletOutputStream responseOutputStream = new ByteArrayServletOutputStream();
+
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HttpHeaders.CONTENT_LENGTH, testString.length());
+
+        HttpRequest proxyRequest = HttpObjectsHelper.createHttpRequest();
+
+        HttpResponse proxyResponse = HttpObjectsHelper.createHttpResponse(proxyServedEntity);
+
+        HttpServletRequest servletRequest = HttpObjectsHelper.createHttpServletRequest("database-manager");
+
+        HttpServletResponse servletResponse = HttpObjectsHelper.createHttpServletResponse(headers, responseOutputStream);
+
+        servlet.copyResponseEntity(proxyResponse, servletResponse, proxyRequest, servletRequest);
+
+        assertEquals (testString.replace("src=\"/", "src=\"/database-manager/"), new String (responseOutputStream.toByteArray()));
+
+        // upstream content length is dropped, body is sent chunked
+        assertNull(headers.get(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testCopyResponseEntityCompressedUntouched() throws Exception {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write("TEST ABC STRING".getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteArrayEntity proxyServedEntity = new ByteArrayEntity(compressed.toByteArray(), ContentType.TEXT_HTML, "gzip");
+
+        ByteArrayServletOutputStream responseOutputStream = new ByteArrayServletOutputStream();
+
+        Map<String, Object> headers = new HashMap<>();
+
+        HttpRequest proxyRequest = HttpObjectsHelper.createHttpRequest();
+
+        HttpResponse proxyResponse = HttpObjectsHelper.createHttpResponse(proxyServedEntity);
+
+        HttpServletRequest servletRequest = HttpObjectsHelper.createHttpServletRequest("database-manager");
+
+        HttpServletResponse servletResponse = HttpObjectsHelper.createHttpServletResponse(headers, responseOutputStream);
+
+        servlet.copyResponseEntity(proxyResponse, servletResponse, proxyRequest, servletRequest);
+
+        // nothing to rewrite, body is relayed as sent
+        assertArrayEquals(compressed.toByteArray(), responseOutputStream.toByteArray());
+        assertEquals("gzip", headers.get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(compressed.size(), headers.get(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testCopyResponseEntityRewrittenIsCompressed() throws Exception {
+
+        StringBuilder testBuilder = new StringBuilder();
+        while (testBuilder.length() <= ServicesProxyServlet.MIN_COMPRESSED_BODY_SIZE) {
+            testBuilder.append("<img src=\"/TEST ABC STRING\"/>\n");
+        }
+        String testString = testBuilder.toString();
+
+        ByteArrayServletOutputStream responseOutputStream = new ByteArrayServletOutputStream();
+
+        Map<String, Object> headers = new HashMap<>();
+
+        HttpRequest proxyRequest = HttpObjectsHelper.createHttpRequest();
+
+        ClassicHttpResponse proxyResponse = new BasicClassicHttpResponse(200);
+        proxyResponse.setEntity(new ByteArrayEntity(testString.getBytes(), ContentType.TEXT_HTML));
+
+        HttpServletRequest delegate = HttpObjectsHelper.createHttpServletRequest("database-manager");
+        HttpServletRequest servletRequest = (HttpServletRequest) Proxy.newProxyInstance(
+                ServicesProxyServletTest.class.getClassLoader(),
+                new Class[] { HttpServletRequest.class },
+                (proxy, method, methodArgs) -> {
+                    if (method.getName().equals("getHeader") && "Accept-Encoding".equals(methodArgs[0])) {
+                        return "gzip, deflate, br";
+                    }
+                    return method.invoke(delegate, methodArgs);
+                });
+
+        HttpServletResponse servletResponse = HttpObjectsHelper.createHttpServletResponse(headers, responseOutputStream);
+
+        servlet.copyResponseEntity(proxyResponse, servletResponse, proxyRequest, servletRequest);
+
+        String result;
+        try (GZIPInputStream gunzip = new GZIPInputStream(new ByteArrayInputStream(responseOutputStream.toByteArray()))) {
+            result = new String(gunzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals (testString.replace("src=\"/", "src=\"/database-manager/"), result);
+
+        assertEquals("gzip", headers.get(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(responseOutputStream.toByteArray().length, headers.get(HttpHeaders.CONTENT_LENGTH));
+        assertEquals(HttpHeaders.ACCEPT_ENCODING, headers.get(HttpHeaders.VARY));
+
+        // the response cache needs to know about the coding actually sent
+        assertEquals("gzip", proxyResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue());
+    }
+
     @Test
     public void testNewProxyRequestWithEntity() throws Exception {
 
@@ -76,6 +76,9 @@ public class ServicesProxyServletWithContextTest {
     @Autowired
     private ServicesDefinition servicesDefinition;
 
+    @Autowired
+    private ReplacementPlanCache replacementPlanCache;
+
     @Autowired
     private ConfigurationServiceTestImpl configurationServiceTest;
 
@@ -110,7 +113,7 @@ public class ServicesProxyServletWithContextTest {
         connectionManagerServiceTest.dontConnect();
         webSocketProxyServerTest.reset();
 
-        servlet = new ServicesProxyServlet(pms, servicesDefinition, "/test-context", 5, 10000, 10000, 10000);
+        servlet = new ServicesProxyServlet(pms, servicesDefinition, null, replacementPlanCache, "/test-context", 5, 2, 60000, 10000, 10000, 10000, false);
     }
 
     @Test
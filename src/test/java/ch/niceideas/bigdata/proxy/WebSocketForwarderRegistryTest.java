@@ -0,0 +1,184 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import ch.niceideas.bigdata.test.infrastructure.HttpObjectsHelper;
+import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.types.ServiceWebId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketForwarderRegistryTest {
+
+    private static final ServiceWebId CEREBRO = ServiceWebId.fromService(Service.from("cerebro"));
+    private static final ServiceWebId ZEPPELIN = ServiceWebId.fromService(Service.from("zeppelin"));
+
+    private final AtomicLong time = new AtomicLong(1000);
+
+    private final AtomicInteger closedCount = new AtomicInteger();
+
+    private final List<Object> sentMessages = new ArrayList<>();
+
+    private WebSocketForwarderRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new WebSocketForwarderRegistry(time::get);
+    }
+
+    @Test
+    public void testGetOrCreateReusesForwarder() {
+        WebSocketProxyForwarder first = registry.getOrCreate(CEREBRO, "session1", "/test", () -> createForwarder(CEREBRO));
+        WebSocketProxyForwarder second = registry.getOrCreate(CEREBRO, "session1", "/test", () -> fail("not expected"));
+        assertSame(first, second);
+
+        assertNotSame(first, registry.getOrCreate(CEREBRO, "session1", "/other", () -> createForwarder(CEREBRO)));
+        assertNotSame(first, registry.getOrCreate(CEREBRO, "session2", "/test", () -> createForwarder(CEREBRO)));
+
+        Map<ServiceWebId, Map<String, Map<String, WebSocketProxyForwarder>>> snapshot = registry.snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(2, snapshot.get(CEREBRO).get("session1").size());
+        assertEquals(1, snapshot.get(CEREBRO).get("session2").size());
+    }
+
+    @Test
+    public void testRemoveSessionAndService() {
+        registry.getOrCreate(CEREBRO, "session1", "/test", () -> createForwarder(CEREBRO));
+        registry.getOrCreate(ZEPPELIN, "session1", "/ws", () -> createForwarder(ZEPPELIN));
+        registry.getOrCreate(CEREBRO, "session2", "/test", () -> createForwarder(CEREBRO));
+
+        assertEquals(2, registry.removeSession("session1"));
+        assertEquals(2, closedCount.get());
+        assertEquals(1, registry.snapshot().size());
+        assertNull(registry.snapshot().get(ZEPPELIN));
+        assertEquals(0, registry.removeSession("session1"));
+
+        assertEquals(1, registry.removeService(CEREBRO));
+        assertEquals(3, closedCount.get());
+        assertTrue(registry.snapshot().isEmpty());
+
+        // a session having lost its forwarders to a service removal gets new ones
+        WebSocketProxyForwarder recreated = registry.getOrCreate(CEREBRO, "session2", "/test", () -> createForwarder(CEREBRO));
+        assertSame(recreated, registry.snapshot().get(CEREBRO).get("session2").get("/test"));
+        assertEquals(1, registry.removeSession("session2"));
+    }
+
+    @Test
+    public void testConcurrentHandshakesAndCloses() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                String sessionId = "session" + (i % 50);
+                executor.execute(() -> registry.getOrCreate(CEREBRO, sessionId, "/test", () -> createForwarder(CEREBRO)));
+                if (i % 7 == 0) {
+                    executor.execute(() -> registry.removeSession(sessionId));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        // both indexes agree
+        int remaining = registry.getMetrics().getOpenForwarders();
+        for (int i = 0; i < 50; i++) {
+            remaining -= registry.removeSession("session" + i);
+        }
+        assertEquals(0, remaining);
+        assertEquals(0, registry.removeService(CEREBRO));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        WebSocketProxyForwarder forwarder = registry.getOrCreate(CEREBRO, "session1", "/test", () -> createForwarder(CEREBRO));
+        forwarder.forwardMessage(new TextMessage("12345"));
+        forwarder.forwardMessage(new TextMessage("67890"));
+
+        time.addAndGet(2000);
+        WebSocketForwarderRegistry.Metrics metrics = registry.getMetrics();
+        assertEquals(1, metrics.getOpenForwarders());
+        assertEquals(1, metrics.getSessions());
+        assertEquals(2, metrics.getRelayedMessages());
+        assertEquals(10, metrics.getRelayedBytes());
+        assertEquals(1.0, metrics.getMessagesPerSecond(), 0.001);
+        assertEquals(5.0, metrics.getBytesPerSecond(), 0.001);
+
+        // taking metrics doesn't change the rates seen by others
+        assertEquals(1.0, registry.getMetrics().getMessagesPerSecond(), 0.001);
+
+        // traffic of closed forwarders is kept in totals
+        registry.removeSession("session1");
+        time.addAndGet(1000);
+        WebSocketForwarderRegistry.Metrics next = registry.getMetrics(metrics);
+        assertEquals(0, next.getOpenForwarders());
+        assertEquals(2, next.getRelayedMessages());
+        assertEquals(0.0, next.getMessagesPerSecond(), 0.001);
+        assertEquals(0.0, next.getBytesPerSecond(), 0.001);
+        assertEquals(2, sentMessages.size());
+
+        // without a previous sample, rates are averages since the registry was created
+        metrics = registry.getMetrics();
+        assertEquals(2.0 / 3, metrics.getMessagesPerSecond(), 0.001);
+    }
+
+    private WebSocketProxyForwarder createForwarder(ServiceWebId serviceId) {
+        WebSocketSession session = HttpObjectsHelper.createWebSocketSession(sentMessages);
+        return new WebSocketProxyForwarder(serviceId, "/test", null, session) {
+            @Override
+            protected WebSocketSession createWebSocketClientSession() {
+                return session;
+            }
+            @Override
+            public void close() {
+                closedCount.incrementAndGet();
+            }
+        };
+    }
+}
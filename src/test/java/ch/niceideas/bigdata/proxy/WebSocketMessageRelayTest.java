@@ -0,0 +1,193 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+
+
+package ch.niceideas.bigdata.proxy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketMessageRelayTest {
+
+    private final List<WebSocketMessage<?>> sent = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch sendStarted = new CountDownLatch(1);
+
+    private final CountDownLatch sendReleased = new CountDownLatch(1);
+
+    @Test
+    public void testSendsInOrderWithoutQueueing() throws Exception {
+        sendReleased.countDown();
+        WebSocketMessageRelay relay = new WebSocketMessageRelay(createSlowSession(), 10, 1000);
+
+        relay.relay(new TextMessage("A"));
+        relay.relay(new TextMessage("B"));
+
+        assertEquals("A,B", sentPayloads());
+        assertEquals(0, relay.getQueuedMessages());
+    }
+
+    @Test
+    public void testConcurrentSenderQueuesThenWaitsForRoom() throws Exception {
+        WebSocketMessageRelay relay = new WebSocketMessageRelay(createSlowSession(), 10, 10000);
+
+        Thread first = new Thread(() -> relayQuietly(relay, "first"));
+        first.start();
+        assertTrue(sendStarted.await(10, TimeUnit.SECONDS));
+
+        // fits in the buffer, queued while the first one is being sent
+        relay.relay(new TextMessage("12345678"));
+        assertEquals(1, relay.getQueuedMessages());
+        assertEquals(8, relay.getQueuedBytes());
+
+        // doesn't fit, waits until the first sender drains the queue
+        Thread third = new Thread(() -> relayQuietly(relay, "overflow"));
+        third.start();
+        third.join(200);
+        assertTrue(third.isAlive());
+        assertEquals(1, relay.getQueuedMessages());
+
+        sendReleased.countDown();
+        first.join(10000);
+        third.join(10000);
+
+        assertEquals("first,12345678,overflow", sentPayloads());
+        assertEquals(0, relay.getQueuedBytes());
+    }
+
+    @Test
+    public void testSendTimeLimitExceeded() throws Exception {
+        WebSocketMessageRelay relay = new WebSocketMessageRelay(createSlowSession(), 10, 100);
+
+        Thread first = new Thread(() -> relayQuietly(relay, "first"));
+        first.start();
+        assertTrue(sendStarted.await(10, TimeUnit.SECONDS));
+
+        relay.relay(new TextMessage("12345678"));
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread third = new Thread(() -> {
+            try {
+                relay.relay(new TextMessage("overflow"));
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        third.start();
+        third.join(10000);
+
+        assertTrue(error.get() instanceof SessionLimitExceededException);
+
+        sendReleased.countDown();
+        first.join(10000);
+        assertEquals("first,12345678", sentPayloads());
+    }
+
+    @Test
+    public void testPayloadLengthComputedOnce() throws Exception {
+        sendReleased.countDown();
+        WebSocketMessageRelay relay = new WebSocketMessageRelay(createSlowSession(), 10, 1000);
+
+        AtomicInteger lengthComputations = new AtomicInteger();
+        relay.relay(new WebSocketMessage<String>() {
+            @Override
+            public String getPayload() {
+                return "payload";
+            }
+
+            @Override
+            public int getPayloadLength() {
+                lengthComputations.incrementAndGet();
+                return 5;
+            }
+
+            @Override
+            public boolean isLast() {
+                return true;
+            }
+        });
+
+        assertEquals(1, lengthComputations.get());
+        assertEquals(1, relay.getSentMessages());
+        assertEquals(5, relay.getSentBytes());
+    }
+
+    private void relayQuietly(WebSocketMessageRelay relay, String payload) {
+        try {
+            relay.relay(new TextMessage(payload));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String sentPayloads() {
+        return sent.stream().map(message -> (String) message.getPayload()).collect(Collectors.joining(","));
+    }
+
+    /* Blocks the sending of the first message until released */
+    private WebSocketSession createSlowSession() {
+        return (WebSocketSession) Proxy.newProxyInstance(
+                WebSocketMessageRelayTest.class.getClassLoader(),
+                new Class[]{WebSocketSession.class},
+                (proxy, method, methodArgs) -> {
+                    switch (method.getName()) {
+                        case "sendMessage":
+                            sendStarted.countDown();
+                            assertTrue(sendReleased.await(10, TimeUnit.SECONDS));
+                            return sent.add((WebSocketMessage<?>) methodArgs[0]);
+                        case "getId":
+                            return "test";
+                        case "isOpen":
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException("Unsupported method: " + method.getName());
+                    }
+                });
+    }
+}
@@ -40,9 +40,13 @@ import ch.niceideas.bigdata.types.Service;
 import ch.niceideas.bigdata.types.ServiceWebId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -101,4 +105,26 @@ public class WebSocketProxyForwarderTest {
 
         assertEquals("ABC", ((WebSocketMessage<?>)clientMessages.get(0)).getPayload());
     }
+
+    @Test
+    public void testForwardBinaryMessageUntouched() throws Exception {
+
+        BinaryMessage message = new BinaryMessage(ByteBuffer.wrap("HELLO_ESKIMO".getBytes(StandardCharsets.UTF_8)));
+        forwarder.forwardMessage(message);
+
+        assertEquals(1, clientMessages.size());
+        assertSame(message, clientMessages.get(0));
+        assertEquals(0, message.getPayload().position());
+    }
+
+    @Test
+    public void testHelloMessageNotForwarded() throws Exception {
+
+        forwarder.forwardMessage(new TextMessage(WebSocketProxyForwarder.HELLO_ESKIMO));
+        assertTrue (clientMessages.isEmpty());
+
+        assertFalse(WebSocketProxyForwarder.isHelloMessage(new TextMessage("HELLO_ESKIMX")));
+        assertFalse(WebSocketProxyForwarder.isHelloMessage(new TextMessage("HELLO_ESKIMO ")));
+        assertFalse(WebSocketProxyForwarder.isHelloMessage(new BinaryMessage(WebSocketProxyForwarder.HELLO_ESKIMO.getBytes(StandardCharsets.UTF_8))));
+    }
 }
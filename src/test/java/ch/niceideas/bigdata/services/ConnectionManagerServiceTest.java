@@ -62,6 +62,10 @@ import org.springframework.test.context.TestPropertySource;
 
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 
 import static org.apache.logging.log4j.core.config.Configurator.setLevel;
 import static org.junit.jupiter.api.Assertions.*;
@@ -118,6 +122,39 @@ public class ConnectionManagerServiceTest extends AbstractBaseSSHTest {
         assertNotSame (newOne, second);
     }
 
+    @Test
+    public void testConcurrentConnectionsShareOneConnect() throws Exception {
+
+        int threadCount = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<SSHConnection> connections = new CopyOnWriteArrayList<>();
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    connections.add(connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost")));
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+
+        assertTrue (errors.isEmpty(), errors.toString());
+        assertEquals (threadCount, connections.size());
+        assertEquals (1, connections.stream().distinct().count());
+        assertEquals (1, connectionManagerServiceTest.getCreatedConnections());
+    }
+
     @Test
     public void testDumpPortForwardersMap() throws Exception {
 
@@ -215,4 +252,82 @@ public class ConnectionManagerServiceTest extends AbstractBaseSSHTest {
         assertEquals(3, connectionManagerServiceTest.getCreateCallFor().size());
         assertEquals(1, connectionManagerServiceTest.getDropCallFor().size());
     }
+
+    @Test
+    public void testSuperviseTunnelsRenewsOldConnection() throws Exception {
+
+        proxyManagerServiceTest.setForwarderConfigForHosts(Node.fromName("localhost"), new ArrayList<>(){{
+            add (new ProxyTunnelConfig(Service.from("dummyService"), 6123, Node.fromName("localhost"), 123));
+            add (new ProxyTunnelConfig(Service.from("dummyService"),6124, Node.fromName("localhost"), 124));
+        }});
+
+        SSHConnection connection = connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost"));
+
+        // nothing to do on a fresh connection with all its tunnels
+        connectionManagerServiceTest.resetCountersOnly();
+        superviseTunnels();
+
+        assertEquals(0, connectionManagerServiceTest.getCreatedConnections());
+        assertEquals(0, connectionManagerServiceTest.getCreateCallFor().size());
+        assertSame(connection, connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost")));
+
+        // renewed before being too old
+        connectionManagerServiceTest.connectionCreationTimes.put(Node.fromName("localhost"), 0L);
+        connectionManagerServiceTest.resetCountersOnly();
+        superviseTunnels();
+
+        assertEquals(1, connectionManagerServiceTest.getCreatedConnections());
+        assertEquals("6123/localhost/123,6124/localhost/124", String.join(",", connectionManagerServiceTest.getClosedForwarders()));
+        assertEquals("123,124", String.join(",", connectionManagerServiceTest.getCreateCallFor()));
+
+        SSHConnection renewed = connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost"));
+        assertNotSame(connection, renewed);
+
+        // previous connection is kept open for the requests in flight
+        connection.sendIgnorePacket();
+    }
+
+    @Test
+    public void testSuperviseTunnelsDoesntRenewUnusedConnection() throws Exception {
+
+        proxyManagerServiceTest.setForwarderConfigForHosts(Node.fromName("localhost"), new ArrayList<>(){{
+            add (new ProxyTunnelConfig(Service.from("dummyService"), 6123, Node.fromName("localhost"), 123));
+        }});
+
+        SSHConnection connection = connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost"));
+
+        // old and not used for longer than the maximum age : left to be recreated on next use
+        connectionManagerServiceTest.connectionCreationTimes.put(Node.fromName("localhost"), 0L);
+        connectionManagerServiceTest.connectionAges.put(Node.fromName("localhost"), 0L);
+        connectionManagerServiceTest.resetCountersOnly();
+        superviseTunnels();
+
+        assertEquals(0, connectionManagerServiceTest.getCreatedConnections());
+        assertSame(connection, connectionManagerServiceTest.connectionMap.get(Node.fromName("localhost")));
+    }
+
+    @Test
+    public void testSuperviseTunnelsRecreatesDeadTunnels() throws Exception {
+
+        proxyManagerServiceTest.setForwarderConfigForHosts(Node.fromName("localhost"), new ArrayList<>(){{
+            add (new ProxyTunnelConfig(Service.from("dummyService"), 6123, Node.fromName("localhost"), 123));
+        }});
+
+        SSHConnection connection = connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost"));
+
+        connectionManagerServiceTest.setForwardersAccepting(false);
+        connectionManagerServiceTest.resetCountersOnly();
+        superviseTunnels();
+
+        assertEquals(0, connectionManagerServiceTest.getCreatedConnections());
+        assertEquals("6123/localhost/123", String.join(",", connectionManagerServiceTest.getClosedForwarders()));
+        assertEquals("123", String.join(",", connectionManagerServiceTest.getCreateCallFor()));
+        assertSame(connection, connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost")));
+    }
+
+    private void superviseTunnels() throws Exception {
+        for (Future<?> supervision : connectionManagerServiceTest.superviseTunnels()) {
+            supervision.get();
+        }
+    }
 }
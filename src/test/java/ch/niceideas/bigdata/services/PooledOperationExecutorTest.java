@@ -0,0 +1,177 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledOperationExecutorTest {
+
+    private PooledOperationExecutor executor = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        executor = new PooledOperationExecutor(100);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testParallelismAndThreadReuse() {
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+            });
+        }
+
+        assertTrue (executor.execute(SystemService.PooledOperationKind.STATUS, tasks, 3, 10000));
+        assertEquals (3, maxRunning.get());
+        assertEquals (0, running.get());
+
+        assertTrue (executor.execute(SystemService.PooledOperationKind.STATUS, tasks, 2, 10000));
+
+        PooledOperationExecutor.Metrics metrics = executor.getMetrics(SystemService.PooledOperationKind.STATUS);
+        assertEquals (3, metrics.getPoolSize());
+        assertEquals (0, metrics.getRejectedTasks());
+
+        // other kinds have their own pool
+        assertEquals (0, executor.getMetrics(SystemService.PooledOperationKind.INSTALLATION).getPoolSize());
+    }
+
+    @Test
+    public void testNestedOperationsRunInline() {
+
+        AtomicInteger nestedDone = new AtomicInteger();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(() -> {
+                List<Runnable> nested = new ArrayList<>();
+                for (int j = 0; j < 3; j++) {
+                    nested.add(nestedDone::incrementAndGet);
+                }
+                assertTrue (executor.execute(SystemService.PooledOperationKind.KUBERNETES, nested, 2, 10000));
+            });
+        }
+
+        assertTrue (executor.execute(SystemService.PooledOperationKind.KUBERNETES, tasks, 2, 10000));
+        assertEquals (6, nestedDone.get());
+    }
+
+    @Test
+    public void testTimeout() {
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(() -> {
+                started.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertFalse (executor.execute(SystemService.PooledOperationKind.INSTALLATION, tasks, 1, 200));
+        release.countDown();
+
+        // only the first one got a chance to start
+        assertEquals (1, started.get());
+    }
+
+    @Test
+    public void testRejectedTasksRunInCaller() throws Exception {
+
+        executor.shutdown();
+        executor = new PooledOperationExecutor(1);
+
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        executor.submit(SystemService.PooledOperationKind.STATUS, 1, blocking);
+        sleep(100);
+        executor.submit(SystemService.PooledOperationKind.STATUS, 1, blocking); // queued
+
+        AtomicReference<Thread> rejectedRunner = new AtomicReference<>();
+        executor.submit(SystemService.PooledOperationKind.STATUS, 1, () -> rejectedRunner.set(Thread.currentThread()));
+
+        assertSame (Thread.currentThread(), rejectedRunner.get());
+
+        PooledOperationExecutor.Metrics metrics = executor.getMetrics(SystemService.PooledOperationKind.STATUS);
+        assertEquals (1, metrics.getRejectedTasks());
+        assertEquals (1, metrics.getQueueDepth());
+        assertEquals (1, metrics.getActiveTasks());
+
+        release.countDown();
+    }
+}
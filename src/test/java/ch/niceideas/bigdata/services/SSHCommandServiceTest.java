@@ -40,6 +40,7 @@ import ch.niceideas.common.utils.StringUtils;
 import ch.niceideas.bigdata.AbstractBaseSSHTest;
 import ch.niceideas.bigdata.BigDataApplication;
 import ch.niceideas.bigdata.test.services.ConfigurationServiceTestImpl;
+import ch.niceideas.bigdata.test.infrastructure.TestMessageLogger;
 import ch.niceideas.bigdata.test.services.ConnectionManagerServiceTestImpl;
 import ch.niceideas.bigdata.test.testwrappers.SetupServiceUnderTest;
 import ch.niceideas.bigdata.types.Node;
@@ -167,6 +168,30 @@ public class SSHCommandServiceTest extends AbstractBaseSSHTest {
         assertEquals ("bash: line 1: /bin/tada: No such file or directory\n", exp.getMessage());
     }
 
+    @Test
+    public void testRunSSHScriptStreamed() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sshCommandService.runSSHScript(
+                connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost")),
+                "echo 1; echo 2 && echo 3;",
+                new TestMessageLogger(sb));
+        assertEquals ("1\n" +
+                "2\n" +
+                "3\n", sb.toString());
+    }
+
+    @Test
+    public void testRunSSHCommandStreamedErr() {
+        StringBuilder sb = new StringBuilder();
+        SSHCommandException exp = assertThrows(SSHCommandException.class,
+                () -> sshCommandService.runSSHCommand(
+                        connectionManagerServiceTest.getSharedConnection(Node.fromName("localhost")),
+                        "/bin/bash -c /bin/tada",
+                        new TestMessageLogger(sb)));
+        assertTrue (exp.getMessage().startsWith("Command exited with return code 127\n"));
+        assertTrue (sb.toString().contains("/bin/tada: No such file or directory"));
+    }
+
     @Test
     public void testRunSSHScriptPath() throws Exception {
         File script = File.createTempFile("test_ssh", ".txt");
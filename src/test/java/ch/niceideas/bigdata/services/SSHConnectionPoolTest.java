@@ -0,0 +1,246 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services;
+
+import ch.niceideas.bigdata.model.SSHConnection;
+import ch.niceideas.bigdata.types.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SSHConnectionPoolTest {
+
+    private static final Node NODE1 = Node.fromAddress("192.168.10.11");
+    private static final Node NODE2 = Node.fromAddress("192.168.10.13");
+
+    private final AtomicLong time = new AtomicLong(1000);
+
+    private final List<TestConnection> created = new CopyOnWriteArrayList<>();
+
+    private SSHConnectionPool pool = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        created.clear();
+        pool = createPool(2, 2, 100);
+    }
+
+    private SSHConnectionPool createPool(int maxConnections, int maxChannels, long leaseTimeout) {
+        return new SSHConnectionPool(this::createConnection, maxConnections, maxChannels, 60000, leaseTimeout, time::get);
+    }
+
+    private SSHConnection createConnection(Node node) {
+        TestConnection connection = new TestConnection(node);
+        created.add(connection);
+        return connection;
+    }
+
+    @Test
+    public void testConnectionIsReusedAfterRelease() throws Exception {
+
+        SSHConnection first = pool.lease(NODE1);
+        first.close();
+
+        // closing twice doesn't release twice
+        first.close();
+        assertEquals (0, pool.getActiveLeases(NODE1));
+
+        try (SSHConnection second = pool.lease(NODE1)) {
+            assertSame (created.get(0).getUnder(), second.getUnder());
+        }
+
+        assertEquals (1, created.size());
+        assertFalse (created.get(0).closed);
+        assertEquals (1, pool.getConnectionCount(NODE1));
+    }
+
+    @Test
+    public void testLeastLoadedSelection() throws Exception {
+
+        SSHConnection lease1 = pool.lease(NODE1);
+
+        // busy connection leads to a second one being opened
+        SSHConnection lease2 = pool.lease(NODE1);
+        assertEquals (2, created.size());
+        assertNotSame (lease1.getUnder(), lease2.getUnder());
+
+        // node limit reached, channels are multiplexed over existing connections
+        SSHConnection lease3 = pool.lease(NODE1);
+        assertEquals (2, created.size());
+        assertEquals (3, pool.getActiveLeases(NODE1));
+
+        lease1.close();
+        lease3.close();
+
+        // the least loaded connection is picked
+        try (SSHConnection lease4 = pool.lease(NODE1)) {
+            assertSame (created.get(0).getUnder(), lease4.getUnder());
+        }
+
+        lease2.close();
+
+        // nodes have their own connections
+        try (SSHConnection other = pool.lease(NODE2)) {
+            assertEquals ("192.168.10.13", other.getHostname());
+        }
+        assertEquals (3, created.size());
+    }
+
+    @Test
+    public void testChannelLimitTimeout() throws Exception {
+        // waiting for a channel relies on the actual time
+        pool = new SSHConnectionPool(this::createConnection, 1, 2, 60000, 50);
+
+        SSHConnection lease1 = pool.lease(NODE1);
+        SSHConnection lease2 = pool.lease(NODE1);
+
+        ConnectionManagerException exception = assertThrows(ConnectionManagerException.class, () -> pool.lease(NODE1));
+        assertTrue (exception.getMessage().startsWith("Timeout waiting for an SSH channel to 192.168.10.11"));
+
+        lease1.close();
+        lease2.close();
+        assertEquals (1, created.size());
+    }
+
+    @Test
+    public void testWaitForReleasedChannel() throws Exception {
+        pool = new SSHConnectionPool(this::createConnection, 1, 1, 60000, 10000);
+
+        SSHConnection lease1 = pool.lease(NODE1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<SSHConnection> waited = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            started.countDown();
+            try {
+                waited.set(pool.lease(NODE1));
+            } catch (ConnectionManagerException e) {
+                fail(e);
+            }
+        });
+        waiter.start();
+
+        assertTrue (started.await(10, TimeUnit.SECONDS));
+        lease1.close();
+
+        waiter.join(10000);
+        assertNotNull (waited.get());
+        assertSame (lease1.getUnder(), waited.get().getUnder());
+        assertEquals (1, created.size());
+        waited.get().close();
+    }
+
+    @Test
+    public void testUnhealthyConnectionIsDiscarded() throws Exception {
+
+        try (SSHConnection ignored = pool.lease(NODE1)) {
+            created.get(0).broken = true;
+        }
+
+        try (SSHConnection lease = pool.lease(NODE1)) {
+            assertSame (created.get(1).getUnder(), lease.getUnder());
+        }
+
+        assertTrue (created.get(0).closed);
+        assertEquals (1, pool.getConnectionCount(NODE1));
+    }
+
+    @Test
+    public void testExpiredConnectionsAreEvicted() throws Exception {
+
+        SSHConnection busy = pool.lease(NODE1);
+        pool.lease(NODE1).close();
+        assertEquals (2, created.size());
+
+        time.addAndGet(60001);
+        pool.evictExpired();
+
+        // connection in use is kept until released
+        assertFalse (created.get(0).closed);
+        assertTrue (created.get(1).closed);
+        assertEquals (1, pool.getConnectionCount(NODE1));
+
+        busy.close();
+        assertTrue (created.get(0).closed);
+        assertEquals (0, pool.getConnectionCount(NODE1));
+    }
+
+    @Test
+    public void testCloseAll() throws Exception {
+
+        SSHConnection busy = pool.lease(NODE1);
+        pool.lease(NODE2).close();
+
+        pool.closeAll();
+
+        assertTrue (created.get(1).closed);
+        assertFalse (created.get(0).closed);
+
+        busy.close();
+        assertTrue (created.get(0).closed);
+    }
+
+    private static class TestConnection extends SSHConnection {
+
+        private volatile boolean closed = false;
+        private volatile boolean broken = false;
+
+        TestConnection(Node node) {
+            super(node, 22, 1000);
+        }
+
+        @Override
+        public void sendIgnorePacket() throws IOException {
+            if (closed || broken) {
+                throw new IOException("channel is closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -51,6 +51,7 @@ import ch.niceideas.bigdata.test.services.SSHCommandServiceTestImpl;
 import ch.niceideas.bigdata.test.testwrappers.SystemServiceUnderTest;
 import ch.niceideas.bigdata.types.Node;
 import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.utils.KubeStatusParser;
 import ch.niceideas.bigdata.utils.OSDetector;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
@@ -68,7 +69,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -279,7 +284,7 @@ public class SystemServiceTest {
     public void testPerformPooledOperation() throws Exception {
 
         Set<String> result = new ConcurrentSkipListSet<>();
-        systemService.performPooledOperation(
+        systemService.performPooledOperation(SystemService.PooledOperationKind.STATUS,
                 new ArrayList<>(){{
                         add("test1");
                         add("test2");
@@ -428,6 +433,193 @@ public class SystemServiceTest {
         assertTrue(new JSONObject(expectedFullStatus).similar(actual), actual.toString(2));
     }
 
+    @Test
+    public void testUpdateStatus_BatchedProbe() throws Exception {
+
+        Assumptions.assumeTrue(OSDetector.isPosix());
+
+        NodesConfigWrapper nodesConfig = StandardSetupHelpers.getStandard2NodesSetup();
+        configurationServiceTest.saveNodesConfig(nodesConfig);
+
+        ServicesInstallStatusWrapper servicesInstallStatus = StandardSetupHelpers.getStandard2NodesInstallStatus();
+        configurationServiceTest.saveServicesInstallationStatus(servicesInstallStatus);
+
+        KubernetesServicesConfigWrapper kubeServicesConfig = StandardSetupHelpers.getStandardKubernetesConfig();
+        configurationServiceTest.saveKubernetesServicesConfig(kubeServicesConfig);
+
+        String kubeCtlPods = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/kubeCtlPods.txt"), StandardCharsets.UTF_8);
+        String kubeCtlServices = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/kubeCtlServices.txt"), StandardCharsets.UTF_8);
+        String lsl = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/lsl.txt"), StandardCharsets.UTF_8);
+
+        AtomicInteger separateScripts = new AtomicInteger();
+        sshCommandServiceTest.setNodeResultBuilder((node, script) -> {
+            if (script.startsWith("echo \"@@@ESKIMO_PROBE_SECTION@@@ alive\"")) {
+                String result = "@@@ESKIMO_PROBE_SECTION@@@ alive\nOK\n"
+                        + "@@@ESKIMO_PROBE_SECTION@@@ systemd\n" + systemStatusTest + "\n";
+                if (script.contains(KubeStatusParser.POD_STATUS_SCRIPT)) {
+                    result += "@@@ESKIMO_PROBE_SECTION@@@ kube_pods\n" + kubeCtlPods + "\n"
+                            + "@@@ESKIMO_PROBE_SECTION@@@ kube_services\n" + kubeCtlServices + "\n"
+                            + "@@@ESKIMO_PROBE_SECTION@@@ kube_registry\n" + lsl + "\n";
+                }
+                return result;
+            }
+            separateScripts.incrementAndGet();
+            if (script.equals("echo OK")) {
+                return "OK";
+            }
+            return "";
+        });
+
+        sshCommandServiceTest.setConnectionResultBuilder((connection, script) -> script);
+
+        systemService.setBatchedStatusProbe(true);
+        try {
+            systemService.updateStatus();
+        } finally {
+            systemService.setBatchedStatusProbe(false);
+        }
+
+        // no separate liveness check or systemctl call, kubectl queried once as part of the kube master probe
+        assertEquals (0, separateScripts.get());
+        assertEquals (1, sshCommandServiceTest.getExecutedCommands().split(Pattern.quote(KubeStatusParser.POD_STATUS_SCRIPT), -1).length - 1);
+
+        SystemStatusWrapper systemStatus = systemService.getStatus();
+
+        JSONObject actual = systemStatus.getJSONObject();
+
+        assertTrue(new JSONObject(expectedFullStatus).similar(actual), actual.toString(2));
+    }
+
+    @Test
+    public void testUpdateStatus_AdaptiveScheduler() throws Exception {
+
+        Assumptions.assumeTrue(OSDetector.isPosix());
+
+        NodesConfigWrapper nodesConfig = StandardSetupHelpers.getStandard2NodesSetup();
+        configurationServiceTest.saveNodesConfig(nodesConfig);
+
+        ServicesInstallStatusWrapper servicesInstallStatus = StandardSetupHelpers.getStandard2NodesInstallStatus();
+        configurationServiceTest.saveServicesInstallationStatus(servicesInstallStatus);
+
+        KubernetesServicesConfigWrapper kubeServicesConfig = StandardSetupHelpers.getStandardKubernetesConfig();
+        configurationServiceTest.saveKubernetesServicesConfig(kubeServicesConfig);
+
+        String kubeCtlPods = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/kubeCtlPods.txt"), StandardCharsets.UTF_8);
+        String kubeCtlServices = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/kubeCtlServices.txt"), StandardCharsets.UTF_8);
+        String lsl = StreamUtils.getAsString(ResourceUtils.getResourceAsStream("SystemServiceTest/lsl.txt"), StandardCharsets.UTF_8);
+
+        AtomicInteger livenessChecks = new AtomicInteger();
+        AtomicInteger kubeChecks = new AtomicInteger();
+        sshCommandServiceTest.setNodeResultBuilder((node, script) -> {
+            if (script.equals("echo OK")) {
+                livenessChecks.incrementAndGet();
+                return "OK";
+            }
+            if (script.startsWith("sudo systemctl status --no-pager")) {
+                return systemStatusTest;
+            }
+            if (script.startsWith("/usr/local/bin/kubectl get pod")) {
+                kubeChecks.incrementAndGet();
+                return kubeCtlPods;
+            } else if (script.startsWith("/usr/local/bin/kubectl get service")) {
+                return kubeCtlServices;
+            } else if (script.startsWith("/bin/ls -1")) {
+                return lsl;
+            }
+            return "";
+        });
+
+        sshCommandServiceTest.setConnectionResultBuilder((connection, script) -> script);
+
+        systemService.setAdaptiveStatusScheduler(true);
+        try {
+            systemService.updateStatus();
+
+            assertEquals (2, livenessChecks.get());
+            assertEquals (1, kubeChecks.get());
+            JSONObject actual = systemService.getStatus().getJSONObject();
+            assertTrue(new JSONObject(expectedFullStatus).similar(actual), actual.toString(2));
+
+            // healthy nodes are not due for another probe yet, their last status is published again
+            // (kubernetes statuses included, they come along with the kube master node status)
+            systemService.updateStatus();
+
+            assertEquals (2, livenessChecks.get());
+            assertEquals (1, kubeChecks.get());
+            actual = systemService.getStatus().getJSONObject();
+            assertTrue(new JSONObject(expectedFullStatus).similar(actual), actual.toString(2));
+
+        } finally {
+            systemService.setAdaptiveStatusScheduler(false);
+        }
+    }
+
+    @Test
+    public void testUpdateStatus_AdaptiveSchedulerPendingNode() throws Exception {
+
+        Assumptions.assumeTrue(OSDetector.isPosix());
+
+        NodesConfigWrapper nodesConfig = StandardSetupHelpers.getStandard2NodesSetup();
+        nodesConfig.setValueForPath("node_id3", "192.168.10.15");
+        nodesConfig.setValueForPath("distributed-time3", "on");
+        configurationServiceTest.saveNodesConfig(nodesConfig);
+
+        ServicesInstallStatusWrapper servicesInstallStatus = StandardSetupHelpers.getStandard2NodesInstallStatus();
+        servicesInstallStatus.setValueForPath("distributed-time_installed_on_IP_192-168-10-15", "OK");
+        configurationServiceTest.saveServicesInstallationStatus(servicesInstallStatus);
+
+        KubernetesServicesConfigWrapper kubeServicesConfig = StandardSetupHelpers.getStandardKubernetesConfig();
+        configurationServiceTest.saveKubernetesServicesConfig(kubeServicesConfig);
+
+        Node slowNode = Node.fromAddress("192.168.10.15");
+        CountDownLatch slowNodeLatch = new CountDownLatch(1);
+        AtomicInteger slowNodeLivenessChecks = new AtomicInteger();
+        sshCommandServiceTest.setNodeResultBuilder((node, script) -> {
+            if (script.equals("echo OK")) {
+                if (node.equals(slowNode)) {
+                    slowNodeLivenessChecks.incrementAndGet();
+                    try {
+                        assertTrue (slowNodeLatch.await(30, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return "OK";
+            }
+            if (script.startsWith("sudo systemctl status --no-pager")) {
+                return systemStatusTest;
+            }
+            return "";
+        });
+
+        sshCommandServiceTest.setConnectionResultBuilder((connection, script) -> script);
+
+        systemService.setAdaptiveStatusScheduler(true);
+        systemService.setStatusUpdatePeriodSeconds(1);
+        try {
+            for (int i = 0; i < 10; i++) {
+                systemService.updateStatus();
+            }
+
+            // the slow node is published as pending instead of being tested again synchronously
+            assertEquals (1, slowNodeLivenessChecks.get());
+            SystemStatusWrapper systemStatus = systemService.getStatus();
+            assertEquals (SystemStatusWrapper.NODE_PROBE_PENDING, systemStatus.getValueForPathAsString("node_alive_192-168-10-15"));
+            assertEquals ("3", systemStatus.getValueForPathAsString("node_nbr_192-168-10-15"));
+            assertNull (systemStatus.isNodeAlive(slowNode));
+            assertTrue (systemStatus.isNodeAlive(Node.fromAddress("192.168.10.11")));
+
+            // and it doesn't lose its installed services
+            assertEquals ("OK", configurationServiceTest.loadServicesInstallationStatus()
+                    .getValueForPathAsString("distributed-time_installed_on_IP_192-168-10-15"));
+
+        } finally {
+            slowNodeLatch.countDown();
+            systemService.setStatusUpdatePeriodSeconds(10);
+            systemService.setAdaptiveStatusScheduler(false);
+        }
+    }
+
     @Test
     public void testUpdateStatus_NoKubernetes() throws Exception {
 
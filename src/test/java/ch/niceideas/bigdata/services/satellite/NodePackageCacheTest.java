@@ -0,0 +1,172 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.services.satellite;
+
+import ch.niceideas.common.utils.FileUtils;
+import ch.niceideas.bigdata.BigDataApplication;
+import ch.niceideas.bigdata.test.infrastructure.TestMessageLogger;
+import ch.niceideas.bigdata.test.services.SSHCommandServiceTestImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ContextConfiguration(classes = BigDataApplication.class)
+@SpringBootTest(classes = BigDataApplication.class)
+@TestPropertySource("classpath:application-test.properties")
+@ActiveProfiles({"no-web-stack", "test-ssh", "test-services"})
+public class NodePackageCacheTest {
+
+    // sha256sum of "DUMMY"
+    private static final String DUMMY_DIGEST = "ceec12762e66397b56dad64fd270bb3d694c78fb9cd665354383c0626dbab013";
+
+    @Autowired
+    private NodePackageCache nodePackageCache;
+
+    @Autowired
+    private SSHCommandServiceTestImpl sshCommandServiceTest;
+
+    private final Set<String> cachedOnNode = new HashSet<>();
+
+    private File packageFile = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        cachedOnNode.clear();
+        resetSSHCommandService();
+
+        packageFile = File.createTempFile("docker_template_kafka_2.8.2_1", ".tar.gz");
+        FileUtils.writeFile(packageFile, "DUMMY");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        nodePackageCache.setNodePackageCacheEnabled(true);
+        FileUtils.delete(packageFile);
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        assertEquals (DUMMY_DIGEST, nodePackageCache.getDigest(packageFile));
+
+        FileUtils.writeFile(packageFile, "OTHER");
+        assertTrue (packageFile.setLastModified(packageFile.lastModified() + 2000));
+        assertNotEquals (DUMMY_DIGEST, nodePackageCache.getDigest(packageFile));
+    }
+
+    @Test
+    public void testPackageTransferredOnlyOnce() throws Exception {
+
+        StringBuilder log = new StringBuilder();
+
+        assertTrue (nodePackageCache.copyPackage(new TestMessageLogger(log), null, packageFile,
+                "docker_template_kafka", "/tmp/kafka/docker_template_kafka.tar.gz"));
+
+        assertEquals ("null:" + packageFile.getAbsolutePath() + "\n", sshCommandServiceTest.getExecutedScpCommands());
+        String cachedPackage = ".eskimo_packages_cache/docker_template_kafka_" + DUMMY_DIGEST + ".tar.gz";
+        assertTrue (sshCommandServiceTest.getExecutedCommands().contains(
+                "echo \"" + DUMMY_DIGEST + "  " + packageFile.getName() + "\" | sha256sum --check --quiet -\n" +
+                "rm -f .eskimo_packages_cache/docker_template_kafka_*.tar.gz\n" +
+                "mv " + packageFile.getName() + " " + cachedPackage + "\n"));
+        assertTrue (sshCommandServiceTest.getExecutedCommands().endsWith(
+                "cp " + cachedPackage + " /tmp/kafka/docker_template_kafka.tar.gz\n"));
+
+        resetSSHCommandService();
+
+        assertFalse (nodePackageCache.copyPackage(new TestMessageLogger(log), null, packageFile,
+                "docker_template_kafka", "/tmp/kafka/docker_template_kafka.tar.gz"));
+
+        assertEquals ("", sshCommandServiceTest.getExecutedScpCommands());
+        assertEquals ("if [[ -f " + cachedPackage + " ]]; then echo cached; fi\n" +
+                "cp " + cachedPackage + " /tmp/kafka/docker_template_kafka.tar.gz\n",
+                sshCommandServiceTest.getExecutedCommands());
+
+        assertEquals (" - Copying over " + packageFile.getName() + "\n" +
+                " - Reusing " + packageFile.getName() + " already on node\n", log.toString());
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+
+        nodePackageCache.setNodePackageCacheEnabled(false);
+
+        StringBuilder log = new StringBuilder();
+
+        assertTrue (nodePackageCache.copyPackage(new TestMessageLogger(log), null, packageFile,
+                "docker_template_kafka", "/tmp/kafka/docker_template_kafka.tar.gz"));
+
+        assertEquals ("null:" + packageFile.getAbsolutePath() + "\n", sshCommandServiceTest.getExecutedScpCommands());
+        assertEquals ("mv " + packageFile.getName() + " /tmp/kafka/docker_template_kafka.tar.gz\n",
+                sshCommandServiceTest.getExecutedCommands());
+
+        resetSSHCommandService();
+
+        // already where it is expected, no move
+        assertTrue (nodePackageCache.copyPackage(new TestMessageLogger(log), null, packageFile,
+                "eskimo_kube", packageFile.getName()));
+
+        assertEquals ("null:" + packageFile.getAbsolutePath() + "\n", sshCommandServiceTest.getExecutedScpCommands());
+        assertEquals ("", sshCommandServiceTest.getExecutedCommands());
+
+        assertEquals (" - Copying over " + packageFile.getName() + "\n" +
+                " - Copying over " + packageFile.getName() + "\n", log.toString());
+    }
+
+    private void resetSSHCommandService() {
+        sshCommandServiceTest.reset();
+
+        // simulates the cache on the node
+        sshCommandServiceTest.setConnectionResultBuilder((connection, script) -> {
+            if (script.startsWith("if [[ -f ")) {
+                String cachedPackage = script.substring("if [[ -f ".length(), script.indexOf(" ]]"));
+                return cachedOnNode.contains(cachedPackage) ? "cached\n" : "";
+            }
+            if (script.startsWith("set -e")) {
+                cachedOnNode.add(script.substring(script.lastIndexOf(' ') + 1).trim());
+            }
+            return "";
+        });
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.terminal;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScrollbackBufferTest {
+
+    private static char[] line(int width, String text) {
+        char[] cells = new char[width];
+        Arrays.fill(cells, (char) 0x0720);
+        for (int i = 0; i < text.length(); i++) {
+            cells[i] = (char) (0x0700 | text.charAt(i));
+        }
+        return cells;
+    }
+
+    private static String text(ScrollbackBuffer buffer, long line, int width) {
+        char[] cells = new char[width];
+        if (!buffer.copyLine(line, cells, 0)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (char cell : cells) {
+            sb.append((char) (cell & 0xFF));
+        }
+        return sb.toString().trim();
+    }
+
+    @Test
+    public void testGrowAndEvict() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(10, 1000);
+        for (int i = 0; i < 1500; i++) {
+            buffer.add(line(10, "line " + i), 0);
+        }
+
+        assertEquals(1000, buffer.size());
+        assertEquals(500, buffer.getFirstLine());
+        assertEquals(1500, buffer.getEndLine());
+
+        assertNull(text(buffer, 499, 10));
+        assertEquals("line 500", text(buffer, 500, 10));
+        assertEquals("line 1234", text(buffer, 1234, 10));
+        assertEquals("line 1499", text(buffer, 1499, 10));
+        assertNull(text(buffer, 1500, 10));
+    }
+
+    @Test
+    public void testCopyLineKeepsAttributes() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(4, 10);
+        char[] screen = {0x0141, 0x1242, 0x0720, 0x0720, 0x0143, 0x0720, 0x0720, 0x0720};
+        buffer.add(screen, 4);
+
+        char[] dest = new char[6];
+        assertTrue(buffer.copyLine(0, dest, 2));
+        assertEquals(new String(new char[] {0, 0, 0x0143, 0x0720, 0x0720, 0x0720}), new String(dest));
+    }
+
+    @Test
+    public void testSearch() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(20, 5);
+        for (int i = 0; i < 8; i++) {
+            buffer.add(line(20, (i % 2 == 0 ? "ok " : "ERROR ") + i), 0);
+        }
+
+        assertEquals(Arrays.asList(7L, 5L, 3L), buffer.search(Pattern.compile("ERROR \\d"), Long.MAX_VALUE, 10));
+        assertEquals(Arrays.asList(5L), buffer.search(Pattern.compile("ERROR"), 7, 1));
+        assertEquals(Arrays.asList(6L), buffer.search(Pattern.compile("^ok 6 *$"), Long.MAX_VALUE, 10));
+        assertEquals(Collections.emptyList(), buffer.search(Pattern.compile("ERROR 1"), Long.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void testSearchAcrossChunks() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(12, 2000);
+        for (int i = 0; i < 2500; i++) {
+            buffer.add(line(12, (i % 100 == 0 ? "MARK " : "line ") + i), 0);
+        }
+
+        assertEquals(Arrays.asList(2400L, 2300L, 2200L), buffer.search(Pattern.compile("MARK"), Long.MAX_VALUE, 3));
+        assertEquals(Arrays.asList(600L, 500L), buffer.search(Pattern.compile("MARK"), 700, 10));
+        assertEquals(20, buffer.search(Pattern.compile("MARK"), Long.MAX_VALUE, 100).size());
+    }
+
+    @Test
+    public void testAddNotBlockedBySearch() throws Exception {
+        // catastrophic backtracking, each line takes a while to be searched
+        ScrollbackBuffer buffer = new ScrollbackBuffer(26, 100);
+        for (int i = 0; i < 3; i++) {
+            buffer.add(line(26, "a".repeat(26)), 0);
+        }
+
+        Thread searcher = new Thread(() -> buffer.search(Pattern.compile("(.*a){10}b"), Long.MAX_VALUE, 10));
+        searcher.start();
+        Thread.sleep(100);
+
+        for (int i = 0; i < 50; i++) {
+            buffer.add(line(26, "line " + i), 0);
+        }
+        assertTrue(searcher.isAlive());
+        assertEquals(53, buffer.getEndLine());
+
+        searcher.join();
+    }
+
+    @Test
+    public void testNoScrollback() {
+        ScrollbackBuffer buffer = new ScrollbackBuffer(10, 0);
+        buffer.add(line(10, "lost"), 0);
+
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getEndLine());
+        assertNull(text(buffer, 0, 10));
+    }
+}
@@ -40,7 +40,11 @@ import ch.niceideas.common.utils.StreamUtils;
 import org.junit.jupiter.api.Test;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -102,6 +106,175 @@ public class TerminalTest {
         assertTrue(si.screen.contains ("<span class='f7 b1'>A</span><span class='f7 b1 cur'>"));
     }
 
+    @Test
+    public void testDumpHtmlLines() {
+        Terminal term = new Terminal(80, 24);
+
+        ScreenImage si = term.dumpHtmlLines(false, 0);
+        assertEquals(24, si.lines.size());
+        assertNull(si.screen);
+        assertEquals("<span class='f7 b1'>" + "\u00A0".repeat(80) + "</span>", si.lines.get(0));
+
+        term.write("\r\nA");
+        si = term.dumpHtmlLines(false, si.timestamp);
+        assertEquals(1, si.lines.size());
+        assertEquals("<span class='f7 b1'>A" + "\u00A0".repeat(79) + "</span>", si.lines.get(1));
+        assertEquals(1, si.cursorX);
+        assertEquals(1, si.cursorY);
+
+        // cursor moves only
+        term.write("\u001B[H");
+        si = term.dumpHtmlLines(false, si.timestamp);
+        assertEquals(0, si.lines.size());
+        assertEquals(0, si.cursorY);
+
+        assertTrue(term.dumpHtmlLines(false, si.timestamp).isUnchanged());
+
+        // scrolling modifies every line of the scroll region
+        term.write("\u001B[24;1H\n");
+        si = term.dumpHtmlLines(false, si.timestamp);
+        assertEquals(24, si.lines.size());
+        assertEquals("<span class='f7 b1'>A" + "\u00A0".repeat(79) + "</span>", si.lines.get(0));
+    }
+
+    @Test
+    public void testConcurrentWriteAndRenderLines() throws Exception {
+        Terminal term = new Terminal(40, 10);
+        String[] client = new String[10];
+        int clientTimestamp = 0;
+
+        for (int i = 0; i < 200; i++) {
+            // a single write changing every line of the screen several times
+            StringBuilder output = new StringBuilder();
+            for (int j = 0; j < 20; j++) {
+                output.append("\u001B[H").append(("write " + i + " pass " + j + "\r\n").repeat(9)).append("last ").append(j);
+            }
+            AtomicBoolean done = new AtomicBoolean(false);
+            Thread writer = new Thread(() -> {
+                term.write(output.toString());
+                done.set(true);
+            });
+            writer.start();
+
+            while (!done.get()) {
+                clientTimestamp = applyLines(term, client, clientTimestamp);
+            }
+            writer.join();
+            clientTimestamp = applyLines(term, client, clientTimestamp);
+
+            // the client applying the diffs has the same screen as the terminal
+            Map<Integer, String> expected = term.dumpHtmlLines(false, 0).lines;
+            for (int y = 0; y < 10; y++) {
+                assertEquals(expected.get(y), client[y], "line " + y + " after write " + i);
+            }
+        }
+    }
+
+    private static int applyLines(Terminal term, String[] client, int clientTimestamp) {
+        ScreenImage image = term.dumpHtmlLines(false, clientTimestamp);
+        if (image.lines != null) {
+            for (Map.Entry<Integer, String> line : image.lines.entrySet()) {
+                client[line.getKey()] = line.getValue();
+            }
+        }
+        return image.timestamp;
+    }
+
+    @Test
+    public void testScrollback() {
+        Terminal term = new Terminal(20, 5, 100);
+
+        for (int i = 0; i < 10; i++) {
+            term.write("line " + i + "\r\n");
+        }
+
+        // 5 lines on screen, the last one being empty
+        ScrollbackBuffer scrollback = term.getScrollback();
+        assertEquals(0, scrollback.getFirstLine());
+        assertEquals(6, scrollback.getEndLine());
+        assertTrue(term.dumpLatin1().startsWith("line 6"));
+
+        ScrollbackImage image = term.dumpHtmlScrollback(false, -1, 2);
+        assertEquals(4, image.fromLine);
+        assertEquals(0, image.firstLine);
+        assertEquals(6, image.endLine);
+        assertEquals(2, image.lines.size());
+        assertEquals("<span class='f7 b1'>line 4</span>", image.lines.get(0).replace("\u00a0", ""));
+        assertEquals("<span class='f7 b1'>line 5</span>", image.lines.get(1).replace("\u00a0", ""));
+
+        image = term.dumpHtmlScrollback(true, 5, 10);
+        assertEquals(5, image.fromLine);
+        assertEquals(1, image.lines.size());
+        assertEquals("<span class='f7 b0'>line 5</span>", image.lines.get(0).replace("\u00a0", ""));
+
+        assertEquals(Arrays.asList(3L, 1L), term.searchScrollback(Pattern.compile("line [13]"), -1, 10));
+        assertEquals(Collections.singletonList(1L), term.searchScrollback(Pattern.compile("line [13]"), 3, 10));
+
+        // lines scrolled within a scrolling region are not part of the history
+        term.write("\u001B[2;4r\u001B[4;1H\r\nX");
+        assertEquals(6, scrollback.getEndLine());
+    }
+
+    @Test
+    public void testInsertCharacters() {
+        Terminal term = new Terminal(5, 2);
+        term.write("abcde\u001B[1;2H\u001B[@");
+
+        assertEquals("a bcd\n     \n", term.dumpLatin1());
+    }
+
+    @Test
+    public void testParserStringsAndIgnoredSequences() {
+        Terminal term = new Terminal(80, 24);
+
+        // window title (OSC) terminated by BEL and by ST, then linux palette sequences
+        term.write("\u001B]0;user@host: ~\u0007A\u001B]2;title\u001B\\B\u001B]RC\u001B]P0000000D");
+
+        // unsupported private sequences, sub-parameters and intermediates are skipped altogether
+        term.write("\u001B[>4;1mE\u001B[38:5:1mF\u001B[2 qG\u001B(0H");
+        assertEquals(0x0700, term.getSgr());
+
+        // CAN aborts a sequence
+        term.write("\u001B[3\u0018I");
+
+        assertTrue(term.dumpLatin1().startsWith("ABCDEFGHI "), term.dumpLatin1().substring(0, 20));
+        assertEquals(9, term.getCx());
+    }
+
+    @Test
+    public void testParserSplitSequences() {
+        Terminal term = new Terminal(80, 24);
+
+        char[] chunk = "xx\u001B[1;3".toCharArray();
+        term.write(chunk, 2, chunk.length - 2);
+        term.write("2;4");
+        term.write("4mA\u001B[");
+        term.write(";5H");
+
+        assertEquals((0x0800 | 0x0200) | 0x4000, term.getSgr());
+        assertEquals(0, term.getCy());
+        assertEquals(4, term.getCx());
+        assertEquals('A', term.dump().charAt(0));
+
+        // C0 controls are executed in the middle of a sequence
+        term.write("\u001B[2\rC");
+        assertEquals(2, term.getCx());
+    }
+
+    @Test
+    public void testDeviceAttributes() {
+        Terminal term = new Terminal(80, 24);
+
+        term.write("\u001B[c");
+        assertEquals("\u001B[?6c", term.read());
+
+        term.write("\u001B[>c\u001B[?c\u001B[1c");
+        assertEquals("", term.read());
+
+        term.write("\u001BZ");
+        assertEquals("\u001B[?6c", term.read());
+    }
+
     @Test
     public void testCsiA() {
         Terminal term = new Terminal(80, 24);
@@ -124,6 +124,8 @@ public class HttpObjectsHelper {
                         case "getHeader":
                             if (methodArgs[0] != null && methodArgs[0].equals("Content-Length")) {
                                 return "" + (long) (Math.random() * 100000L);
+                            } else if (methodArgs[0] != null && methodArgs[0].equals("Accept-Encoding")) {
+                                return null;
                             } else {
                                 throw new UnsupportedOperationException("Unsupported method: " + method.getName());
                             }
@@ -244,6 +246,11 @@ public class HttpObjectsHelper {
                             return headers.put((String) methodArgs[0], methodArgs[1]);
                         case "setHeader":
                             return headers.put((String) methodArgs[0], methodArgs[1]);
+                        case "setContentLengthLong":
+                            if ((Long) methodArgs[0] < 0) {
+                                return headers.remove("Content-Length");
+                            }
+                            return headers.put("Content-Length", methodArgs[0]);
                         case "flushBuffer" :
                             return null;
                         default:
@@ -55,7 +55,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON, proxyMode = ScopedProxyMode.TARGET_CLASS)
@@ -70,10 +72,14 @@ public class ConnectionManagerServiceTestImpl extends ConnectionManagerServiceIm
     final List<String> createCalledFor = new ArrayList<>();
     final List<Node> dropCalledFor = new ArrayList<>();
 
-    final List<Node> sharedConnectionCalledFor = new ArrayList<>();
+    final List<Node> sharedConnectionCalledFor = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger createdConnections = new AtomicInteger();
 
     private boolean doConnect = true;
 
+    private volatile boolean forwardersAccepting = true;
+
     public List<String> getCreateCallFor() {
         return Collections.unmodifiableList(createCalledFor);
     }
@@ -91,9 +97,12 @@ public class ConnectionManagerServiceTestImpl extends ConnectionManagerServiceIm
         connectionMap.clear();
         portForwardersMap.clear();
         connectionAges.clear();
+        connectionCreationTimes.clear();
         connectionsToCloseLazily.clear();
+        getConnectionPool().closeAll();
         resetCountersOnly();
         doConnect = true;
+        forwardersAccepting = true;
     }
 
     public void resetCountersOnly() {
@@ -102,12 +111,17 @@ public class ConnectionManagerServiceTestImpl extends ConnectionManagerServiceIm
         openedForwarders.clear();
         closedForwarders.clear();
         sharedConnectionCalledFor.clear();
+        createdConnections.set(0);
     }
 
     public void dontConnect() {
         doConnect = false;
     }
 
+    public void setForwardersAccepting(boolean forwardersAccepting) {
+        this.forwardersAccepting = forwardersAccepting;
+    }
+
     public void setPrivateSShKeyContent(String privateSShKeyContent) {
         this.privateSShKeyContent = privateSShKeyContent;
     }
@@ -124,6 +138,10 @@ public class ConnectionManagerServiceTestImpl extends ConnectionManagerServiceIm
         return Collections.unmodifiableList(closedForwarders);
     }
 
+    public int getCreatedConnections() {
+        return createdConnections.get();
+    }
+
     public List<Node> getSharedConnectionCalledFor() {
         return Collections.unmodifiableList(sharedConnectionCalledFor);
     }
@@ -155,11 +173,16 @@ public class ConnectionManagerServiceTestImpl extends ConnectionManagerServiceIm
                 closedForwarders.add (config.getLocalPort() + "/" + config.getNode() + "/" + config.getRemotePort());
                 super.close();
             }
+            @Override
+            public boolean isAccepting() {
+                return forwardersAccepting;
+            }
         };
     }
 
     @Override
     protected SSHConnection createConnectionInternal(Node node, int operationTimeout) throws IOException, SetupException, FileException {
+        createdConnections.incrementAndGet();
         SSHConnection connection = new SSHConnection(node, sshPort, operationTimeout) {
             private boolean isClosed = false;
             @Override
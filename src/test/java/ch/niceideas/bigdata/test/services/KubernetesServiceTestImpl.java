@@ -43,6 +43,7 @@ import ch.niceideas.bigdata.services.KubernetesService;
 import ch.niceideas.bigdata.services.SystemException;
 import ch.niceideas.bigdata.types.Node;
 import ch.niceideas.bigdata.types.Service;
+import ch.niceideas.bigdata.utils.KubeStatusParser;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.annotation.Scope;
@@ -86,6 +87,11 @@ public class KubernetesServiceTestImpl implements KubernetesService {
         System.err.println ("No Op");
     }
 
+    @Override
+    public void fetchKubernetesServicesStatus(Map<String, String> statusMap, ServicesInstallStatusWrapper servicesInstallationStatus, KubeStatusParser parser) {
+        System.err.println ("No Op");
+    }
+
     @Override
     public void applyServicesConfig(KubernetesOperationsCommand command) {
 
@@ -35,6 +35,7 @@
 
 package ch.niceideas.bigdata.test.services;
 
+import ch.niceideas.bigdata.model.MessageLogger;
 import ch.niceideas.bigdata.model.SSHConnection;
 import ch.niceideas.bigdata.services.SSHCommandException;
 import ch.niceideas.bigdata.services.SSHCommandService;
@@ -215,6 +216,26 @@ public class SSHCommandServiceTestImpl implements SSHCommandService {
         return returnResult;
     }
 
+    @Override
+    public void runSSHScript(SSHConnection connection, String script, MessageLogger ml) throws SSHCommandException {
+        ml.addInfo(runSSHScript(connection, script));
+    }
+
+    @Override
+    public void runSSHScriptPath(SSHConnection connection, String scriptName, MessageLogger ml) throws SSHCommandException {
+        ml.addInfo(runSSHScriptPath(connection, scriptName));
+    }
+
+    @Override
+    public void runSSHCommand(SSHConnection connection, String[] command, MessageLogger ml) throws SSHCommandException {
+        ml.addInfo(runSSHCommand(connection, command));
+    }
+
+    @Override
+    public void runSSHCommand(SSHConnection connection, String command, MessageLogger ml) throws SSHCommandException {
+        ml.addInfo(runSSHCommand(connection, command));
+    }
+
     @Override
     public void copySCPFile(Node node, String filePath) {
         synchronized (executedScpCommandsMonitor) {
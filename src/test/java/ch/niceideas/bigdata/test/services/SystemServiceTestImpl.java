@@ -73,6 +73,8 @@ public class SystemServiceTestImpl implements SystemService {
 
     private SystemStatusWrapper systemStatus = null;
 
+    private SystemStatusDelta statusDelta = null;
+
     private boolean pingError = false;
 
     private boolean mockCalls = false;
@@ -94,6 +96,7 @@ public class SystemServiceTestImpl implements SystemService {
         this.startServiceError = false;
         this.standard2NodesStatus = false;
         this.systemStatus = null;
+        this.statusDelta = null;
         this.pingError = false;
         this.executedActions.clear();
         this.appliedOperations.clear();
@@ -181,6 +184,18 @@ public class SystemServiceTestImpl implements SystemService {
         return null;
     }
 
+    @Override
+    public SystemStatusDelta getStatusDelta(long sinceEpoch, long sinceVersion) throws StatusExceptionWrapperException {
+        if (statusDelta != null) {
+            return statusDelta;
+        }
+        return SystemStatusDelta.full(1000, 1, getStatus());
+    }
+
+    public void setStatusDelta(SystemStatusDelta statusDelta) {
+        this.statusDelta = statusDelta;
+    }
+
     public void setSystemStatus(SystemStatusWrapper systemStatus) {
         this.systemStatus = systemStatus;
     }
@@ -208,7 +223,7 @@ public class SystemServiceTestImpl implements SystemService {
     }
 
     @Override
-    public <T extends Serializable> void performPooledOperation(List<T> operations, int parallelism, long operationWaitTimout, PooledOperation<T> operation) {
+    public <T extends Serializable> void performPooledOperation(PooledOperationKind kind, List<T> operations, int parallelism, long operationWaitTimout, PooledOperation<T> operation) {
         operations.forEach(op ->  {
             appliedOperations.add(new Pair<>(op, operation));
             if (!this.mockCalls) {
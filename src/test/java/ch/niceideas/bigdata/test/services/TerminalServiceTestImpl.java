@@ -38,6 +38,8 @@ package ch.niceideas.bigdata.test.services;
 
 import ch.niceideas.bigdata.services.TerminalService;
 import ch.niceideas.bigdata.terminal.ScreenImage;
+import ch.niceideas.bigdata.terminal.ScrollbackImage;
+import ch.niceideas.bigdata.terminal.Session;
 import ch.niceideas.bigdata.terminal.Terminal;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Profile;
@@ -46,6 +48,8 @@ import org.springframework.context.annotation.ScopedProxyMode;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 @Component
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON, proxyMode = ScopedProxyMode.TARGET_CLASS)
@@ -74,4 +78,20 @@ public class TerminalServiceTestImpl implements TerminalService {
         Terminal t = new Terminal(60, 24);
         return t.dumpHtml(true, 30);
     }
+
+    @Override
+    public Session openTerminal(String node, String sessionId, Integer width, Integer height) {
+        return null;
+    }
+
+    @Override
+    public ScrollbackImage fetchScrollback(String sessionId, long fromLine, int count) {
+        Terminal t = new Terminal(60, 24);
+        return t.dumpHtmlScrollback(true, fromLine, count);
+    }
+
+    @Override
+    public List<Long> searchScrollback(String sessionId, String regex, long beforeLine, int maxResults) {
+        return Collections.emptyList();
+    }
 }
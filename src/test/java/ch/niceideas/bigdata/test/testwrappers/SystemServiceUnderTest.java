@@ -68,6 +68,18 @@ public class SystemServiceUnderTest extends SystemServiceImpl implements SystemS
         this.packageDistributionPath = path;
     }
 
+    public void setBatchedStatusProbe (boolean batchedStatusProbe) {
+        this.batchedStatusProbe = batchedStatusProbe;
+    }
+
+    public void setAdaptiveStatusScheduler (boolean adaptiveStatusScheduler) {
+        this.adaptiveStatusScheduler = adaptiveStatusScheduler;
+    }
+
+    public void setStatusUpdatePeriodSeconds (int statusUpdatePeriodSeconds) {
+        this.statusUpdatePeriodSeconds = statusUpdatePeriodSeconds;
+    }
+
     public void setLastStatusForTest(SystemStatusWrapper lastStatusForTest) {
         this.lastStatus.set (lastStatusForTest);
     }
@@ -0,0 +1,160 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.bigdata.model.MessageLogger;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageLoggerOutputStreamTest {
+
+    private final List<List<String>> published = new ArrayList<>();
+
+    private final MessageLogger ml = new MessageLogger() {
+        @Override
+        public void addInfo(String message) {
+            published.add(List.of(message));
+        }
+
+        @Override
+        public void addInfo(String[] messages) {
+            published.add(Arrays.asList(messages));
+        }
+    };
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLinesAreForwardedAsTheyArrive() throws Exception {
+        try (MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 10)) {
+
+            out.write(bytes("line 1\nline"));
+            assertEquals (List.of(List.of("line 1")), published);
+
+            out.write(bytes(" 2\r\nline 3\nline 4\n"));
+            assertEquals (List.of(List.of("line 1"), List.of("line 2", "line 3", "line 4")), published);
+
+            // partial line is only published on flush
+            out.write(bytes("last"));
+            assertEquals (2, published.size());
+        }
+
+        assertEquals (List.of("last"), published.get(2));
+    }
+
+    @Test
+    public void testMultiByteCharacterSplitAcrossWrites() throws Exception {
+        byte[] content = bytes("caf\u00e9\n");
+        try (MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 10)) {
+            out.write(content, 0, 4);
+            out.write(content, 4, content.length - 4);
+        }
+        assertEquals (List.of(List.of("caf\u00e9")), published);
+    }
+
+    @Test
+    public void testTailIsBounded() throws Exception {
+        MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 2);
+        out.write(bytes("a\nb\nc\n"));
+        out.write(bytes("d"));
+        out.flush();
+
+        assertEquals ("c\nd\n", out.getTail());
+    }
+
+    @Test
+    public void testSiblingsKeepTheirOwnPartialLines() throws Exception {
+        MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 10);
+        MessageLoggerOutputStream err = out.newSibling();
+
+        out.write(bytes("out "));
+        err.write(bytes("err "));
+        out.write(bytes("line\n"));
+        err.write(bytes("line\n"));
+
+        assertEquals (List.of(List.of("out line"), List.of("err line")), published);
+        assertEquals ("out line\nerr line\n", out.getTail());
+        assertEquals (out.getTail(), err.getTail());
+    }
+
+    @Test
+    public void testConcurrentSiblingsDoNotSpliceLines() throws Exception {
+        MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 10);
+        MessageLoggerOutputStream err = out.newSibling();
+
+        Thread outWriter = new Thread(() -> writeCharByChar(out, "stdout"));
+        Thread errWriter = new Thread(() -> writeCharByChar(err, "stderr"));
+        outWriter.start();
+        errWriter.start();
+        outWriter.join();
+        errWriter.join();
+
+        List<String> lines = new ArrayList<>();
+        published.forEach(lines::addAll);
+        assertEquals (400, lines.size());
+        for (String line : lines) {
+            assertTrue (line.equals("stdout line") || line.equals("stderr line"), line);
+        }
+    }
+
+    private static void writeCharByChar(MessageLoggerOutputStream stream, String name) {
+        for (byte b : bytes((name + " line\n").repeat(200))) {
+            stream.write(b);
+        }
+    }
+
+    @Test
+    public void testLongLinesAreSplit() throws Exception {
+        MessageLoggerOutputStream out = new MessageLoggerOutputStream(ml, 2);
+
+        byte[] progress = new byte[MessageLoggerOutputStream.MAX_LINE_LENGTH + 10];
+        Arrays.fill(progress, (byte) '#');
+        out.write(progress);
+
+        assertEquals (1, published.size());
+        assertEquals (MessageLoggerOutputStream.MAX_LINE_LENGTH, published.get(0).get(0).length());
+
+        out.close();
+        assertEquals (10, published.get(1).get(0).length());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.common.utils.ResourceUtils;
+import ch.niceideas.common.utils.StreamUtils;
+import ch.niceideas.bigdata.services.SSHCommandException;
+import ch.niceideas.bigdata.services.ServicesDefinitionImpl;
+import ch.niceideas.bigdata.test.services.SSHCommandServiceTestImpl;
+import ch.niceideas.bigdata.types.Node;
+import ch.niceideas.bigdata.types.Service;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NodeStatusProbeTest {
+
+    private static ServicesDefinitionImpl sd;
+
+    @BeforeAll
+    public static void setUpClass() throws Exception {
+        sd = new ServicesDefinitionImpl();
+        sd.afterPropertiesSet();
+    }
+
+    private String systemctlOutput() throws Exception {
+        return StreamUtils.getAsString(
+                ResourceUtils.getResourceAsStream("SystemStatusParserTest/systemctl-out-debnode1.log"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testBuildProbeScript() {
+
+        String script = NodeStatusProbe.buildProbeScript(sd, false);
+        assertTrue (script.startsWith("echo \"" + NodeStatusProbe.SECTION_MARKER + "alive\"\necho OK\n"));
+        assertTrue (script.contains(SystemStatusParser.getStatusScript(sd)));
+        assertFalse (script.contains(KubeStatusParser.POD_STATUS_SCRIPT));
+
+        String kubeScript = NodeStatusProbe.buildProbeScript(sd, true);
+        assertTrue (kubeScript.contains(KubeStatusParser.POD_STATUS_SCRIPT));
+        assertTrue (kubeScript.contains(KubeStatusParser.SERVICE_STATUS_SCRIPT));
+        assertTrue (kubeScript.contains(KubeStatusParser.REGISTRY_SERVICES_SCRIPT));
+    }
+
+    @Test
+    public void testParseNodeProbe() throws Exception {
+
+        NodeStatusProbe probe = new NodeStatusProbe(
+                NodeStatusProbe.SECTION_MARKER + "alive\n" +
+                "OK\n" +
+                NodeStatusProbe.SECTION_MARKER + "systemd\n" +
+                systemctlOutput(), sd);
+
+        assertTrue (probe.isAlive());
+        assertNull (probe.getKubeStatusParser());
+
+        SystemStatusParser parser = probe.getSystemStatusParser();
+        assertEquals ("NA", parser.getServiceStatus(Service.from("tada")));
+        assertEquals ("running", parser.getServiceStatus(Service.from("elasticsearch")));
+        assertEquals ("dead", parser.getServiceStatus(Service.from("emergency")));
+    }
+
+    @Test
+    public void testParseKubeMasterProbe() {
+
+        NodeStatusProbe probe = new NodeStatusProbe(
+                NodeStatusProbe.SECTION_MARKER + "alive\n" +
+                "OK\n" +
+                NodeStatusProbe.SECTION_MARKER + "systemd\n" +
+                NodeStatusProbe.SECTION_MARKER + "kube_pods\n" +
+                "NAMESPACE   NAME                        READY   STATUS    RESTARTS   AGE   IP              NODE            NOMINATED NODE   READINESS GATES\n" +
+                "eskimo      cerebro-65d5556459-fjwh9    1/1     Running   0          54m   192.168.56.23   192.168.56.23   <none>           <none>\n" +
+                NodeStatusProbe.SECTION_MARKER + "kube_services\n" +
+                "NAMESPACE   NAME      TYPE        CLUSTER-IP     EXTERNAL-IP   PORT(S)     AGE   SELECTOR\n" +
+                "eskimo      cerebro   ClusterIP   10.254.38.33   <none>        31900/TCP   13h   k8s-app=cerebro\n" +
+                NodeStatusProbe.SECTION_MARKER + "kube_registry\n" +
+                "cerebro\n", sd);
+
+        assertTrue (probe.isAlive());
+
+        KubeStatusParser kubeParser = probe.getKubeStatusParser();
+        assertNotNull (kubeParser);
+        assertEquals ("POD STATUSES\n" +
+                "cerebro-65d5556459-fjwh9 : NAMESPACE=eskimo, READY=1/1, STATUS=Running, READINESS GATES=<none>, NOMINATED NODE=<none>, NODE=192.168.56.23, IP=192.168.56.23, RESTARTS=0, NAME=cerebro-65d5556459-fjwh9, AGE=54m, \n" +
+                "SERVICE STATUSES\n" +
+                "cerebro : NAMESPACE=eskimo, EXTERNAL-IP=<none>, SELECTOR=k8s-app=cerebro, CLUSTER-IP=10.254.38.33, PORT(S)=31900/TCP, TYPE=ClusterIP, NAME=cerebro, AGE=13h, \n" +
+                "REGISTRY SERVICES\n" +
+                "cerebro\n", kubeParser.toString());
+    }
+
+    @Test
+    public void testProbe() throws Exception {
+
+        String systemctlOutput = systemctlOutput();
+
+        SSHCommandServiceTestImpl sshCommandServiceTest = new SSHCommandServiceTestImpl();
+        sshCommandServiceTest.setNodeResultBuilder((node, script) -> {
+            if (node.equals(Node.fromAddress("192.168.10.12"))) {
+                throw new SSHCommandException("test");
+            }
+            return NodeStatusProbe.SECTION_MARKER + "alive\n" +
+                    "OK\n" +
+                    NodeStatusProbe.SECTION_MARKER + "systemd\n" +
+                    systemctlOutput;
+        });
+
+        NodeStatusProbe probe = NodeStatusProbe.probe(Node.fromAddress("192.168.10.11"), false, sd, sshCommandServiceTest);
+        assertTrue (probe.isAlive());
+        assertEquals ("running", probe.getSystemStatusParser().getServiceStatus(Service.from("elasticsearch")));
+
+        // only one single script run for the whole node status
+        assertEquals (NodeStatusProbe.buildProbeScript(sd, false) + "\n", sshCommandServiceTest.getExecutedCommands());
+
+        NodeStatusProbe deadProbe = NodeStatusProbe.probe(Node.fromAddress("192.168.10.12"), true, sd, sshCommandServiceTest);
+        assertFalse (deadProbe.isAlive());
+        assertNull (deadProbe.getKubeStatusParser());
+    }
+}
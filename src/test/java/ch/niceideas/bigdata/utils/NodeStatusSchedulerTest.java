@@ -0,0 +1,164 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import ch.niceideas.bigdata.types.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NodeStatusSchedulerTest {
+
+    private static final Node NODE1 = Node.fromName("192-168-10-11");
+    private static final Node NODE2 = Node.fromName("192-168-10-13");
+
+    private final AtomicLong time = new AtomicLong(1000);
+
+    private NodeStatusScheduler scheduler = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        scheduler = new NodeStatusScheduler(5000, 30000, 2000, 60000, time::get);
+    }
+
+    private static Map<String, String> nodeStatus(Node node, String alive, String serviceStatus) {
+        Map<String, String> nodeStatus = new HashMap<>();
+        nodeStatus.put("node_alive_" + node.getName(), alive);
+        if (serviceStatus != null) {
+            nodeStatus.put("service_kafka_" + node.getName(), serviceStatus);
+        }
+        return nodeStatus;
+    }
+
+    @Test
+    public void testHealthyNode() {
+
+        assertEquals (List.of(NODE1, NODE2), scheduler.nextDueNodes(List.of(NODE1, NODE2)));
+
+        // in flight nodes are not returned again
+        assertEquals (Collections.emptyList(), scheduler.nextDueNodes(List.of(NODE1, NODE2)));
+
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "OK"));
+        assertEquals (31000, scheduler.getNextProbeTime(NODE1));
+        assertEquals ("OK", scheduler.getNodeStatus(NODE1).get("service_kafka_192-168-10-11"));
+        assertNull (scheduler.getNodeStatus(NODE2));
+
+        time.set(30999);
+        assertEquals (Collections.emptyList(), scheduler.nextDueNodes(List.of(NODE1)));
+
+        time.set(31000);
+        assertEquals (List.of(NODE1), scheduler.nextDueNodes(List.of(NODE1)));
+    }
+
+    @Test
+    public void testFlappingNode() {
+
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "OK"));
+
+        time.set(31000);
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "KO"));
+        assertEquals (33000, scheduler.getNextProbeTime(NODE1));
+
+        // settles down after a few unchanged probes
+        for (int i = 1; i < NodeStatusScheduler.SETTLE_PROBE_COUNT; i++) {
+            time.set(scheduler.getNextProbeTime(NODE1));
+            assertEquals (List.of(NODE1), scheduler.nextDueNodes(List.of(NODE1)));
+            scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "KO"));
+            assertEquals (time.get() + 2000, scheduler.getNextProbeTime(NODE1));
+        }
+
+        time.set(scheduler.getNextProbeTime(NODE1));
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "KO"));
+        assertEquals (time.get() + 30000, scheduler.getNextProbeTime(NODE1));
+    }
+
+    @Test
+    public void testDeadNodeBackoff() {
+
+        long[] expectedDelays = new long[] {5000, 10000, 20000, 40000, 60000, 60000};
+        for (long expectedDelay : expectedDelays) {
+            time.set(scheduler.getNextProbeTime(NODE1));
+            assertEquals (List.of(NODE1), scheduler.nextDueNodes(List.of(NODE1)));
+            scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "KO", null));
+            assertEquals (time.get() + expectedDelay, scheduler.getNextProbeTime(NODE1));
+        }
+
+        // node coming back is flagged as changed and probed faster
+        time.set(scheduler.getNextProbeTime(NODE1));
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "OK"));
+        assertEquals (time.get() + 2000, scheduler.getNextProbeTime(NODE1));
+    }
+
+    @Test
+    public void testProbeFailedKeepsLastStatus() {
+
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "OK"));
+
+        time.set(31000);
+        scheduler.nextDueNodes(List.of(NODE1));
+        scheduler.probeFailed(NODE1);
+
+        assertEquals (36000, scheduler.getNextProbeTime(NODE1));
+        assertEquals ("OK", scheduler.getNodeStatus(NODE1).get("node_alive_192-168-10-11"));
+    }
+
+    @Test
+    public void testResetAndRemovedNodes() {
+
+        scheduler.nextDueNodes(List.of(NODE1, NODE2));
+        scheduler.probeCompleted(NODE1, nodeStatus(NODE1, "OK", "OK"));
+        scheduler.probeCompleted(NODE2, nodeStatus(NODE2, "OK", "OK"));
+
+        scheduler.reset();
+        assertEquals (List.of(NODE1), scheduler.nextDueNodes(List.of(NODE1)));
+
+        // NODE2 is forgotten
+        assertNull (scheduler.getNodeStatus(NODE2));
+        scheduler.probeCompleted(NODE2, nodeStatus(NODE2, "OK", "OK"));
+        assertNull (scheduler.getNodeStatus(NODE2));
+    }
+}
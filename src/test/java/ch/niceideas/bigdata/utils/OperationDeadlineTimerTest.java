@@ -0,0 +1,180 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationDeadlineTimerTest {
+
+    private final AtomicLong time = new AtomicLong(1000);
+
+    private final List<String> fired = new CopyOnWriteArrayList<>();
+
+    private OperationDeadlineTimer timer = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        timer = new OperationDeadlineTimer("test-deadlines", 100, 8, time::get);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        timer.stop();
+    }
+
+    @Test
+    public void testDeadlinesExpireInOrderAndNeverEarly() {
+
+        OperationDeadlineTimer.Deadline late = timer.schedule(() -> fired.add("late"), 450);
+        OperationDeadlineTimer.Deadline early = timer.schedule(() -> fired.add("early"), 150);
+
+        time.set(1149);
+        timer.expireDeadlines(time.get());
+        assertTrue (fired.isEmpty());
+
+        time.set(1200);
+        timer.expireDeadlines(time.get());
+        assertEquals (List.of("early"), fired);
+        assertTrue (early.isExpired());
+        assertFalse (late.isExpired());
+
+        time.set(1500);
+        timer.expireDeadlines(time.get());
+        assertEquals (List.of("early", "late"), fired);
+
+        assertEquals ("scheduled=2, expired=2, cancelled=0, pending=0", timer.getMetrics().toString());
+    }
+
+    @Test
+    public void testDeadlinesBeyondOneWheelRound() {
+
+        // the wheel covers 8 * 100 ms, this one needs several rounds
+        timer.schedule(() -> fired.add("far"), 2500);
+
+        time.set(2000);
+        timer.expireDeadlines(time.get());
+        assertTrue (fired.isEmpty());
+
+        time.set(3499);
+        timer.expireDeadlines(time.get());
+        assertTrue (fired.isEmpty());
+
+        time.set(3600);
+        timer.expireDeadlines(time.get());
+        assertEquals (List.of("far"), fired);
+    }
+
+    @Test
+    public void testCancel() {
+
+        OperationDeadlineTimer.Deadline cancelledBeforeTick = timer.schedule(() -> fired.add("first"), 100);
+        assertTrue (cancelledBeforeTick.cancel());
+
+        OperationDeadlineTimer.Deadline cancelledAfterTick = timer.schedule(() -> fired.add("second"), 300);
+        timer.expireDeadlines(time.get());
+        assertTrue (cancelledAfterTick.cancel());
+        assertFalse (cancelledAfterTick.cancel());
+
+        time.set(2000);
+        timer.expireDeadlines(time.get());
+        assertTrue (fired.isEmpty());
+        assertFalse (cancelledAfterTick.isExpired());
+
+        OperationDeadlineTimer.Metrics metrics = timer.getMetrics();
+        assertEquals (2, metrics.getScheduled());
+        assertEquals (0, metrics.getExpired());
+        assertEquals (2, metrics.getCancelled());
+        assertEquals (0, metrics.getPending());
+    }
+
+    @Test
+    public void testFailingTaskDoesntStopTimer() {
+
+        timer.schedule(() -> { throw new IllegalStateException("test"); }, 100);
+        timer.schedule(() -> fired.add("after"), 100);
+
+        time.set(1200);
+        timer.expireDeadlines(time.get());
+        assertEquals (List.of("after"), fired);
+        assertEquals (2, timer.getMetrics().getExpired());
+    }
+
+    @Test
+    public void testSharedTimerThread() throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(1);
+        OperationDeadlineTimer.shared().schedule(latch::countDown, 50);
+
+        assertTrue (latch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSharedTimerRunsExpiryOffTimerThread() throws Exception {
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        // a blocking expiry task doesn't delay the others
+        OperationDeadlineTimer.shared().schedule(() -> {
+            try {
+                blocked.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 10);
+        OperationDeadlineTimer.shared().schedule(() -> {
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        }, 200);
+
+        try {
+            assertTrue (latch.await(5, TimeUnit.SECONDS));
+            assertTrue (threads.get(0).startsWith("eskimo-operation-deadline-expiry-"), threads.get(0));
+        } finally {
+            blocked.countDown();
+        }
+    }
+}
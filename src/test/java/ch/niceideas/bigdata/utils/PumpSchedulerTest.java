@@ -0,0 +1,122 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.bigdata.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PumpSchedulerTest {
+
+    private PumpScheduler scheduler = null;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        scheduler = new PumpScheduler("test-pump", 60000);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testThreadsAndBuffersAreReused() throws Exception {
+
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Set<byte[]> buffers = ConcurrentHashMap.newKeySet();
+
+        for (int i = 0; i < 20; i++) {
+            scheduler.submit("pump-" + i, () -> {
+                threads.add(Thread.currentThread());
+                buffers.add(scheduler.byteBuffer());
+                assertTrue(Thread.currentThread().getName().startsWith("test-pump-"));
+                assertTrue(Thread.currentThread().getName().endsWith("]"));
+            }).get(10, TimeUnit.SECONDS);
+
+            // leave time to the thread to get back to the pool
+            Thread.sleep(20);
+        }
+
+        assertTrue(threads.size() < 5, "threads : " + threads.size());
+        assertEquals(threads.size(), buffers.size());
+        assertEquals(PumpScheduler.BYTE_BUFFER_SIZE, buffers.iterator().next().length);
+        assertFalse(threads.iterator().next().getName().endsWith("]"));
+
+        PumpScheduler.Metrics metrics = scheduler.getMetrics();
+        assertEquals(20, metrics.getStarted());
+        assertEquals(20, metrics.getCompleted());
+        assertEquals(0, metrics.getRunning());
+        assertEquals(threads.size(), metrics.getLargestThreads());
+    }
+
+    @Test
+    public void testBlockingPumpsRunConcurrently() throws Exception {
+
+        CountDownLatch allRunning = new CountDownLatch(5);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?>[] pumps = new Future[5];
+        for (int i = 0; i < pumps.length; i++) {
+            pumps[i] = scheduler.submit("pump-" + i, () -> {
+                allRunning.countDown();
+                try {
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        // pumps are never queued behind blocked ones
+        assertTrue(allRunning.await(10, TimeUnit.SECONDS));
+        assertEquals(5, scheduler.getMetrics().getRunning());
+
+        release.countDown();
+        for (Future<?> pump : pumps) {
+            pump.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, scheduler.getMetrics().getRunning());
+        assertEquals(5, scheduler.getMetrics().getThreads());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of the eskimo project referenced at www.eskimo.sh. The licensing information below apply just as
+ * well to this individual file than to the Eskimo Project as a whole.
+ *
+ * Copyright 2019 - 2023 eskimo.sh / https://www.eskimo.sh - All rights reserved.
+ * Author : eskimo.sh / https://www.eskimo.sh
+ *
+ * Eskimo is available under a dual licensing model : commercial and GNU AGPL.
+ * If you did not acquire a commercial licence for Eskimo, you can still use it and consider it free software under the
+ * terms of the GNU Affero Public License. You can redistribute it and/or modify it under the terms of the GNU Affero
+ * Public License  as published by the Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * Compliance to each and every aspect of the GNU Affero Public License is mandatory for users who did no acquire a
+ * commercial license.
+ *
+ * Eskimo is distributed as a free software under GNU AGPL in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Affero Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero Public License along with Eskimo. If not,
+ * see <https://www.gnu.org/licenses/> or write to the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA, 02110-1301 USA.
+ *
+ * You can be released from the requirements of the license by purchasing a commercial license. Buying such a
+ * commercial license is mandatory as soon as :
+ * - you develop activities involving Eskimo without disclosing the source code of your own product, software,
+ *   platform, use cases or scripts.
+ * - you deploy eskimo as part of a commercial product, platform or software.
+ * For more information, please contact eskimo.sh at https://www.eskimo.sh
+ *
+ * The above copyright notice and this licensing notice shall be included in all copies or substantial portions of the
+ * Software.
+ */
+
+package ch.niceideas.common.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequencedRingBufferTest {
+
+    @Test
+    public void testNominal() {
+        SequencedRingBuffer<String> buffer = new SequencedRingBuffer<>(10);
+        buffer.add("0");
+        buffer.addAll(Arrays.asList("1", "2", "3"));
+
+        assertEquals(0, buffer.getFirstSequence());
+        assertEquals(4, buffer.getEndSequence());
+
+        SequencedRingBuffer.Slice<String> slice = buffer.slice(0);
+        assertEquals(0, slice.getFromSequence());
+        assertEquals(4, slice.getEndSequence());
+        assertEquals(Arrays.asList("0", "1", "2", "3"), slice.getElements());
+
+        assertEquals(Arrays.asList("2", "3"), buffer.slice(2).getElements());
+        assertEquals(0, buffer.slice(4).getElements().size());
+        assertEquals(0, buffer.slice(20).getElements().size());
+    }
+
+    @Test
+    public void testWrapAround() {
+        SequencedRingBuffer<String> buffer = new SequencedRingBuffer<>(10);
+        for (int i = 0; i < 25; i++) {
+            buffer.add("" + i);
+        }
+
+        assertEquals(15, buffer.getFirstSequence());
+        assertEquals(25, buffer.getEndSequence());
+
+        // evicted elements are skipped
+        SequencedRingBuffer.Slice<String> slice = buffer.slice(3);
+        assertEquals(15, slice.getFromSequence());
+        assertEquals(Arrays.asList("15", "16", "17", "18", "19", "20", "21", "22", "23", "24"), slice.getElements());
+
+        assertEquals(Arrays.asList("23", "24"), buffer.slice(23).getElements());
+
+        // more elements at once than the capacity
+        List<String> batch = new ArrayList<>();
+        for (int i = 25; i < 40; i++) {
+            batch.add("" + i);
+        }
+        buffer.addAll(batch);
+
+        slice = buffer.slice(0);
+        assertEquals(30, slice.getFromSequence());
+        assertEquals(40, slice.getEndSequence());
+        assertEquals("30", slice.getElements().get(0));
+        assertEquals("39", slice.getElements().get(9));
+    }
+
+    @Test
+    public void testClear() {
+        SequencedRingBuffer<String> buffer = new SequencedRingBuffer<>(10);
+        buffer.addAll(Arrays.asList("1", "2", "3"));
+
+        SequencedRingBuffer.Slice<String> before = buffer.slice(0);
+        buffer.clear();
+
+        assertEquals(0, buffer.getEndSequence());
+        assertEquals(0, buffer.slice(0).getElements().size());
+
+        // slices taken before are not affected
+        assertEquals(Arrays.asList("1", "2", "3"), before.getElements());
+
+        buffer.add("A");
+        assertEquals(Arrays.asList("A"), buffer.slice(0).getElements());
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        SequencedRingBuffer<Long> buffer = new SequencedRingBuffer<>(100);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<String> error = new AtomicReference<>();
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                long last = 0;
+                while (!stop.get()) {
+                    SequencedRingBuffer.Slice<Long> slice = buffer.slice(last);
+                    long sequence = slice.getFromSequence();
+                    for (Long element : slice.getElements()) {
+                        if (element != sequence++) {
+                            error.set("Got " + element + " for sequence " + (sequence - 1));
+                        }
+                    }
+                    if (sequence != slice.getEndSequence()) {
+                        error.set("Slice ends at " + sequence + " instead of " + slice.getEndSequence());
+                    }
+                    last = slice.getEndSequence();
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (long i = 0; i < 200000; i++) {
+            buffer.add(i);
+        }
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join(10000);
+        }
+
+        assertNull(error.get());
+        assertEquals(200000, buffer.getEndSequence());
+    }
+}
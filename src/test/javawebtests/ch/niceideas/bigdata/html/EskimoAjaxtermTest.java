@@ -87,6 +87,7 @@ public class EskimoAjaxtermTest extends AbstractWebTest {
         // need to restore this for further code which require it
         // it's impossible for me to figure, but without this the github build completes in ... multiple jours.
         js("window.XMLHttpRequest = window.XMLHttpRequestBAK;");
+        js("if (window.WebSocketBAK) { window.WebSocket = window.WebSocketBAK; }");
     }
 
     @Test
@@ -123,6 +124,55 @@ public class EskimoAjaxtermTest extends AbstractWebTest {
         assertJavascriptEquals("a", "$('.screen div:first-child').html()");
     }
 
+    @Test
+    public void testWebSocket() throws Exception {
+
+        js("window.WebSocketBAK = window.WebSocket;");
+        js("window.WebSocket = function(url) {" +
+                "    window.wsOpenedOn = url;" +
+                "    window.wsSent = [];" +
+                "    window.testSocket = this;" +
+                "    let that = this;" +
+                "    this.readyState = 1;" +
+                "    this.send = function (data) { window.wsSent.push(data); };" +
+                "    this.close = function () { };" +
+                "    setTimeout (function() { that.onopen(); }, 1);" +
+                "};" +
+                "window.WebSocket.OPEN = 1;");
+
+        js("$('#main-content').append('<div id=\"test-ws-term\" contenteditable=\"true\">&nbsp;</div>')");
+
+        js("" +
+                "var wst = new ajaxterm.Terminal(\"test-ws-term\", {\n" +
+                "                width: 80,\n" +
+                "                height: 40,\n" +
+                "                endpoint: \"./terminal?node=test\",\n" +
+                "                wsEndpoint: \"./terminal-ws?node=test\"\n" +
+                "            });");
+
+        ActiveWaiter.wait(() -> js("return window.wsOpenedOn") != null);
+        assertTrue(js("return window.wsOpenedOn").toString().contains("/terminal-ws?node=test&s="));
+        assertTrue(js("return window.wsOpenedOn").toString().startsWith("ws"));
+
+        js("window.testSocket.onmessage({data: JSON.stringify({lines: {'0': 'b', '1': 'c'}, cssClass: '', timestamp: 1001, cursorX: -1, cursorY: -1, screenX: 80, screenY: 40})});");
+        assertJavascriptEquals("40", "$('#test-ws-term pre.term div').length");
+        assertJavascriptEquals("b", "$('#test-ws-term pre.term div:nth-child(1)').html()");
+        assertJavascriptEquals("c", "$('#test-ws-term pre.term div:nth-child(2)').html()");
+
+        // only modified lines are pushed
+        js("window.testSocket.onmessage({data: JSON.stringify({lines: {'1': 'd'}, cssClass: 'dead', timestamp: 1002, cursorX: 1, cursorY: 1, screenX: 80, screenY: 40})});");
+        assertJavascriptEquals("b", "$('#test-ws-term pre.term div:nth-child(1)').html()");
+        assertJavascriptEquals("d", "$('#test-ws-term pre.term div:nth-child(2)').html()");
+        assertJavascriptEquals("term dead", "$('#test-ws-term pre').attr('class')");
+
+        js("var e = jQuery.Event(\"keypress\"); e.which = 65; $('#test-ws-term').trigger(e);");
+
+        ActiveWaiter.wait(() -> js("return window.wsSent.join(',')").equals("A"));
+        assertJavascriptEquals("A", "window.wsSent.join(',')");
+
+        js("wst.close();");
+    }
+
     @Test
     public void testOnKeyDown_a() throws Exception {
         js("var e = jQuery.Event(\"keypress\"); e.which = 65; $('#test-term').trigger(e);");
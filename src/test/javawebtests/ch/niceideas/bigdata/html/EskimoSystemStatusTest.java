@@ -157,6 +157,24 @@ public class EskimoSystemStatusTest extends AbstractWebTest {
         assertJavascriptEquals("restart OK", "$('#service-status-warning-message').html()");
     }
 
+    @Test
+    public void testApplyNodeServicesStatusDelta() {
+
+        js("window.firstStatus = {'status': 'OK', 'statusEpoch': 1000, 'statusVersion': 3, 'nodeServicesStatus': " +
+                "{'node_alive_192-168-10-11': 'OK', 'service_kibana_192-168-10-11': 'OK', 'service_cerebro_192-168-10-11': 'OK'}}");
+        js("eskimoSystemStatus.applyNodeServicesStatusDelta(window.firstStatus)");
+
+        js("window.deltaStatus = {'status': 'OK', 'statusEpoch': 1000, 'statusVersion': 4, 'nodeServicesStatusDelta': " +
+                "{'changed': {'service_kibana_192-168-10-11': 'KO'}, 'removed': ['service_cerebro_192-168-10-11']}}");
+        js("eskimoSystemStatus.applyNodeServicesStatusDelta(window.deltaStatus)");
+
+        assertJavascriptEquals("{\"node_alive_192-168-10-11\":\"OK\",\"service_kibana_192-168-10-11\":\"KO\"}",
+                "JSON.stringify(window.deltaStatus.nodeServicesStatus)");
+
+        // previous status is left untouched
+        assertJavascriptEquals("OK", "window.firstStatus.nodeServicesStatus['service_kibana_192-168-10-11']");
+    }
+
     @Test
     public void testFetchOperationResult() {
         js("$.ajaxGet = function(callback) { " +